@@ -0,0 +1,199 @@
+package mb.ctrnn.core;
+
+import mb.util.MathUtils;
+
+/**
+ * Activation functions mapping a neuron's state to its output. Each exact
+ * function has fast approximations that trade a small, bounded error for
+ * throughput during evolution; getMaxError() gives the bound on the absolute
+ * error of each.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public enum ActivationFunction {
+	
+	/**
+	 * Hyperbolic tangent, computed with Math.tanh. The default.
+	 */
+	TANH(0f) {
+		@Override
+		public float apply( float x ) {
+			return (float) Math.tanh( x );
+		}
+	},
+	
+	/**
+	 * Hyperbolic tangent, linearly interpolated from a table over [-8, 8] with
+	 * 128 entries per unit, and saturated to +-1 outside. Absolute error is
+	 * below 1e-5 (interpolation error is at most h^2 / 8 * max|tanh''|, about
+	 * 5.9e-6).
+	 */
+	TANH_LUT(1e-5f) {
+		@Override
+		public float apply( float x ) {
+			return lookupTanh( x );
+		}
+	},
+	
+	/**
+	 * Hyperbolic tangent, from a 13/6 order minimax rational function on
+	 * [-7.905, 7.905] and saturated to +-1 outside. Absolute error is below
+	 * 5e-7.
+	 */
+	TANH_RATIONAL(5e-7f) {
+		@Override
+		public float apply( float x ) {
+			return rationalTanh( x );
+		}
+	},
+	
+	/**
+	 * Standard sigmoid function, 1 / (1 + e^-x), as MathUtils.sigmoid().
+	 */
+	SIGMOID(0f) {
+		@Override
+		public float apply( float x ) {
+			return MathUtils.sigmoid( x );
+		}
+	},
+	
+	/**
+	 * Sigmoid from TANH_LUT, as 0.5 + 0.5 tanh(x / 2). Absolute error is below
+	 * 5e-6.
+	 */
+	SIGMOID_LUT(5e-6f) {
+		@Override
+		public float apply( float x ) {
+			return 0.5f + 0.5f * lookupTanh( 0.5f * x );
+		}
+	},
+	
+	/**
+	 * Sigmoid from TANH_RATIONAL, as 0.5 + 0.5 tanh(x / 2). Absolute error is
+	 * below 3e-7.
+	 */
+	SIGMOID_RATIONAL(3e-7f) {
+		@Override
+		public float apply( float x ) {
+			return 0.5f + 0.5f * rationalTanh( 0.5f * x );
+		}
+	};
+	
+	/**
+	 * How an exact activation function may be approximated.
+	 */
+	public static enum Approximation {
+		/**
+		 * Use the exact function.
+		 */
+		EXACT,
+		/**
+		 * Use an interpolated lookup table.
+		 */
+		LUT,
+		/**
+		 * Use a rational function.
+		 */
+		RATIONAL
+	}
+	
+	private final float	maxError;
+	
+	private ActivationFunction ( float maxError ) {
+		this.maxError = maxError;
+	}
+	
+	/**
+	 * @param x
+	 *            Input, e.g. gain * (state + bias).
+	 * @return the activation of x.
+	 */
+	public abstract float apply( float x );
+	
+	/**
+	 * @return the upper bound on the absolute difference between this
+	 *         function and its exact form. Zero for exact functions.
+	 */
+	public float getMaxError() {
+		return maxError;
+	}
+	
+	/**
+	 * @return the exact function this approximates, or itself if exact.
+	 */
+	public ActivationFunction getExact() {
+		switch ( this ) {
+			case TANH_LUT:
+			case TANH_RATIONAL:
+				return TANH;
+			case SIGMOID_LUT:
+			case SIGMOID_RATIONAL:
+				return SIGMOID;
+			default:
+				return this;
+		}
+	}
+	
+	/**
+	 * @param approximation
+	 *            Kind of approximation to use.
+	 * @return the given approximation of this function's exact form.
+	 */
+	public ActivationFunction approximate( Approximation approximation ) {
+		boolean tanh = getExact() == TANH;
+		switch ( approximation ) {
+			case LUT:
+				return tanh ? TANH_LUT : SIGMOID_LUT;
+			case RATIONAL:
+				return tanh ? TANH_RATIONAL : SIGMOID_RATIONAL;
+			default:
+				return getExact();
+		}
+	}
+	
+	private static final float		LUT_RANGE		= 8f, LUT_SCALE = 128f;
+	private static final float[]	TANH_TABLE		= createTanhTable();
+	
+	private static float[] createTanhTable() {
+		int size = (int) (2 * LUT_RANGE * LUT_SCALE) + 2; // extra entry so i + 1
+															// is always valid
+		float[] table = new float[size];
+		for ( int i = 0; i < size; i++ ) {
+			table[i] = (float) Math.tanh( i / LUT_SCALE - LUT_RANGE );
+		}
+		return table;
+	}
+	
+	private static float lookupTanh( float x ) {
+		if ( x >= LUT_RANGE )
+			return 1f;
+		if ( x <= -LUT_RANGE )
+			return -1f;
+		if ( x != x ) // NaN
+			return x;
+		
+		float position = (x + LUT_RANGE) * LUT_SCALE;
+		int i = (int) position;
+		float fraction = position - i;
+		return TANH_TABLE[i] + fraction * (TANH_TABLE[i + 1] - TANH_TABLE[i]);
+	}
+	
+	// coefficients of the minimax rational approximation
+	private static final float	RATIONAL_CLAMP	= 7.90531110763549805f,
+			A1 = 4.89352455891786e-03f, A3 = 6.37261928875436e-04f, A5 = 1.48572235717979e-05f, A7 = 5.12229709037114e-08f,
+			A9 = -8.60467152213735e-11f, A11 = 2.00018790482477e-13f, A13 = -2.76076847742355e-16f,
+			B0 = 4.89352518554385e-03f, B2 = 2.26843463243900e-03f, B4 = 1.18534705686654e-04f, B6 = 1.19825839466702e-06f;
+	
+	private static float rationalTanh( float x ) {
+		if ( x >= RATIONAL_CLAMP )
+			return 1f;
+		if ( x <= -RATIONAL_CLAMP )
+			return -1f;
+		
+		float x2 = x * x;
+		float p = ((((((A13 * x2 + A11) * x2 + A9) * x2 + A7) * x2 + A5) * x2 + A3) * x2 + A1) * x;
+		float q = ((B6 * x2 + B4) * x2 + B2) * x2 + B0;
+		return p / q;
+	}
+}
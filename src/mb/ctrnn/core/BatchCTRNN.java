@@ -0,0 +1,369 @@
+package mb.ctrnn.core;
+
+import java.util.Arrays;
+
+/**
+ * Simulates a batch of CTRNNs that share the same number of neurons but may
+ * have different parameters, e.g. every candidate model in a population.
+ * 
+ * Parameters and state are stored as structure of arrays, indexed by
+ * [parameter][network] and [neuron][network], so each step runs long loops
+ * over the batch with unit stride instead of a small loop per network. The
+ * weight from neuron j to neuron i is stored in row i * n + j, so the weights
+ * into each neuron are adjacent.
+ * 
+ * Each network in the batch is updated in exactly the same order and with the
+ * same arithmetic as CTRNN.step() in the same UpdateMode, so gives identical
+ * outputs.
+ * 
+ * Storage is allocated once for a maximum number of networks; setBatchSize()
+ * chooses how many of them are simulated, so one BatchCTRNN can be reused for
+ * batches of different sizes without allocating.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public class BatchCTRNN implements BatchStepper {
+	
+	protected final int			n, capacity;			// number of neurons,
+														// maximum number of
+														// networks
+	protected int				batch;					// number of networks
+														// simulated
+	protected final float[][]	invTaus, biases, gains;	// [neuron][network]
+	protected final float[][]	weights;				// [to * n + from][network]
+	private final float[][]		states, outputs;		// [neuron][network]
+	private final float[]		input;					// summed input for one
+														// neuron in each network
+	private float[]				stateChanges;			// null unless tracked
+	private float[][]			summed;					// [neuron][network],
+														// null unless
+														// synchronous
+	private float[][]			stageOutputs;			// null until
+														// derivatives() is
+														// used
+	private ActivationFunction	activation	= ActivationFunction.TANH;
+	
+	/**
+	 * Creates a new batch of networks. All parameters are zero until set with
+	 * setNetwork().
+	 * 
+	 * @param n
+	 *            Number of neurons in each network.
+	 * @param batch
+	 *            Number of networks, which is also the maximum batch size.
+	 */
+	public BatchCTRNN ( int n, int batch ) {
+		this.n = n;
+		this.capacity = batch;
+		this.batch = batch;
+		
+		invTaus = new float[n][batch];
+		biases = new float[n][batch];
+		gains = new float[n][batch];
+		weights = new float[n * n][batch];
+		
+		states = new float[n][batch];
+		outputs = new float[n][batch];
+		input = new float[batch];
+		
+		reset();
+	}
+	
+	/**
+	 * Copies the parameters of a network into the batch.
+	 * 
+	 * @param b
+	 *            Index of the network in the batch.
+	 * @param ctrnn
+	 *            Network to copy parameters from. Must have the same number of
+	 *            neurons as this batch.
+	 */
+	public void setNetwork( int b, CTRNN ctrnn ) {
+		if ( ctrnn.n != n )
+			throw new IllegalArgumentException( String.format( "Network should have %d neurons; got %d", n, ctrnn.n ) );
+		
+		for ( int i = 0; i < n; i++ ) {
+			invTaus[i][b] = ctrnn.invTaus[i];
+			biases[i][b] = ctrnn.biases[i];
+			gains[i][b] = ctrnn.gains[i];
+		}
+		for ( int c = 0; c < n * n; c++ ) {
+			weights[c][b] = ctrnn.weightsIn[c];
+		}
+	}
+	
+	/**
+	 * Sets the number of networks simulated by each step, without changing the
+	 * parameters of any network.
+	 * 
+	 * @param batch
+	 *            Number of networks, from 0 to the batch size this was created
+	 *            with.
+	 */
+	@Override
+	public void setBatchSize( int batch ) {
+		if ( batch < 0 || batch > capacity )
+			throw new IllegalArgumentException( String.format( "Batch size should be from 0 to %d; got %d", capacity, batch ) );
+		this.batch = batch;
+	}
+	
+	/**
+	 * @return the maximum number of networks in the batch.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * Sets all states to 0.5 and outputs to 0, as for a new CTRNN.
+	 */
+	@Override
+	public void reset() {
+		for ( int i = 0; i < n; i++ ) {
+			for ( int b = 0; b < capacity; b++ ) {
+				states[i][b] = 0.5f;
+				outputs[i][b] = 0f;
+			}
+		}
+	}
+	
+	/**
+	 * Integrates one step for every network using Euler's method, updating
+	 * neural outputs.
+	 * 
+	 * @param stepSize
+	 *            Timestep value for integration.
+	 * @param inputs
+	 *            Values to input to each neuron of each network, indexed by
+	 *            [neuron][network]. A null row is treated as zero input to that
+	 *            neuron in every network.
+	 */
+	@Override
+	public void step( float stepSize, float[][] inputs ) {
+		if ( summed != null ) {
+			stepSynchronous( stepSize, inputs );
+			return;
+		}
+		
+		for ( int i = 0; i < n; i++ ) {
+			copyInput( inputs[i], input );
+			
+			for ( int j = 0; j < n; j++ ) {
+				float[] w = weights[i * n + j], out = outputs[j];
+				for ( int b = 0; b < batch; b++ ) {
+					input[b] += w[b] * out[b];
+				}
+			}
+			
+			update( i, stepSize, input );
+		}
+	}
+	
+	/**
+	 * Steps as UpdateMode.SYNCHRONOUS: every neuron's input is summed from the
+	 * previous outputs before any neuron is updated. Each network has its own
+	 * weights, so unlike MultiStateCTRNN nothing is saved by summing several
+	 * neurons at once.
+	 */
+	private void stepSynchronous( float stepSize, float[][] inputs ) {
+		for ( int i = 0; i < n; i++ ) {
+			float[] in = summed[i];
+			copyInput( inputs[i], in );
+			for ( int j = 0; j < n; j++ ) {
+				float[] w = weights[i * n + j], out = outputs[j];
+				for ( int b = 0; b < batch; b++ ) {
+					in[b] += w[b] * out[b];
+				}
+			}
+		}
+		
+		for ( int i = 0; i < n; i++ ) {
+			update( i, stepSize, summed[i] );
+		}
+	}
+	
+	/**
+	 * Copies one neuron's external input for every network, or zeros if there
+	 * is none.
+	 */
+	private void copyInput( float[] in, float[] to ) {
+		if ( in == null ) {
+			for ( int b = 0; b < batch; b++ ) {
+				to[b] = 0f;
+			}
+		} else {
+			System.arraycopy( in, 0, to, 0, batch );
+		}
+	}
+	
+	/**
+	 * Integrates one neuron's state in every network from its summed input,
+	 * and updates its outputs.
+	 */
+	private void update( int i, float stepSize, float[] in ) {
+		float[] state = states[i], out = outputs[i], invTau = invTaus[i], bias = biases[i], gain = gains[i];
+		if ( stateChanges == null ) {
+			for ( int b = 0; b < batch; b++ ) {
+				state[b] += stepSize * invTau[b] * (in[b] - state[b]);
+				out[b] = activation.apply( gain[b] * (state[b] + bias[b]) );
+			}
+		} else {
+			for ( int b = 0; b < batch; b++ ) {
+				float change = stepSize * invTau[b] * (in[b] - state[b]);
+				state[b] += change;
+				out[b] = activation.apply( gain[b] * (state[b] + bias[b]) );
+				// the first neuron starts each step's maximum
+				stateChanges[b] = i == 0 ? Math.abs( change ) : Math.max( stateChanges[b], Math.abs( change ) );
+			}
+		}
+	}
+	
+	@Override
+	public void setTrackStateChange( boolean track ) {
+		stateChanges = track ? (stateChanges == null ? new float[capacity] : stateChanges) : null;
+	}
+	
+	@Override
+	public float getStateChange( int b ) {
+		return stateChanges[b];
+	}
+	
+	/**
+	 * Swaps the parameters, states and outputs of two networks.
+	 */
+	@Override
+	public void swapMembers( int a, int b ) {
+		for ( int i = 0; i < n; i++ ) {
+			swap( invTaus[i], a, b );
+			swap( biases[i], a, b );
+			swap( gains[i], a, b );
+			swap( states[i], a, b );
+			swap( outputs[i], a, b );
+		}
+		for ( int c = 0; c < n * n; c++ ) {
+			swap( weights[c], a, b );
+		}
+		if ( stateChanges != null ) {
+			swap( stateChanges, a, b );
+		}
+	}
+	
+	@Override
+	public float[][] getStates() {
+		return states;
+	}
+	
+	@Override
+	public void updateOutputs() {
+		for ( int i = 0; i < n; i++ ) {
+			float[] state = states[i], out = outputs[i], bias = biases[i], gain = gains[i];
+			for ( int b = 0; b < batch; b++ ) {
+				out[b] = activation.apply( gain[b] * (state[b] + bias[b]) );
+			}
+		}
+	}
+	
+	@Override
+	public void derivatives( float[][] at, float[][] inputs, float[][] derivs ) {
+		if ( stageOutputs == null ) {
+			stageOutputs = new float[n][capacity];
+		}
+		for ( int i = 0; i < n; i++ ) {
+			float[] state = at[i], out = stageOutputs[i], bias = biases[i], gain = gains[i];
+			for ( int b = 0; b < batch; b++ ) {
+				out[b] = activation.apply( gain[b] * (state[b] + bias[b]) );
+			}
+		}
+		
+		for ( int i = 0; i < n; i++ ) {
+			float[] deriv = derivs[i], state = at[i], invTau = invTaus[i];
+			copyInput( inputs[i], deriv );
+			for ( int j = 0; j < n; j++ ) {
+				float[] w = weights[i * n + j], out = stageOutputs[j];
+				for ( int b = 0; b < batch; b++ ) {
+					deriv[b] += w[b] * out[b];
+				}
+			}
+			for ( int b = 0; b < batch; b++ ) {
+				deriv[b] = invTau[b] * (deriv[b] - state[b]);
+			}
+		}
+	}
+	
+	@Override
+	public float getInverseTimeConstant( int neuron, int b ) {
+		return invTaus[neuron][b];
+	}
+	
+	@Override
+	public float getOutputForState( int neuron, int b, float state ) {
+		return activation.apply( gains[neuron][b] * (state + biases[neuron][b]) );
+	}
+	
+	private static void swap( float[] values, int a, int b ) {
+		float swap = values[a];
+		values[a] = values[b];
+		values[b] = swap;
+	}
+	
+	/**
+	 * @param updateMode
+	 *            Order in which neurons are updated within a step, the same
+	 *            for every network in the batch.
+	 */
+	public void setUpdateMode( UpdateMode updateMode ) {
+		summed = updateMode == UpdateMode.SYNCHRONOUS ? new float[n][capacity] : null;
+	}
+	
+	/**
+	 * @param activation
+	 *            Activation function to apply to each neuron's state, the same
+	 *            for every network in the batch.
+	 */
+	public void setActivation( ActivationFunction activation ) {
+		this.activation = activation;
+	}
+	
+	/**
+	 * @param neuron
+	 *            Index of the neuron.
+	 * @param b
+	 *            Index of the network in the batch.
+	 * @return the output of a neuron in one network.
+	 */
+	@Override
+	public float getOutput( int neuron, int b ) {
+		return outputs[neuron][b];
+	}
+	
+	/**
+	 * @param neuron
+	 *            Index of the neuron.
+	 * @return an array of the outputs of a neuron in every network.
+	 */
+	public float[] getOutputs( int neuron ) {
+		return Arrays.copyOf( outputs[neuron], batch );
+	}
+	
+	/**
+	 * @return the number of neurons in each network.
+	 */
+	@Override
+	public int getNumberOfNeurons() {
+		return n;
+	}
+	
+	/**
+	 * @return the number of networks in the batch.
+	 */
+	@Override
+	public int getBatchSize() {
+		return batch;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format( "[BatchCTRNN n=%d batch=%d]", n, batch );
+	}
+}
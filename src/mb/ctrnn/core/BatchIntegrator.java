@@ -0,0 +1,412 @@
+package mb.ctrnn.core;
+
+/**
+ * Runs a batch of CTRNNs with an Integrator, on internal steps that can be
+ * longer than the timestep the output is wanted at, and records each
+ * member's output on the original time grid.
+ * 
+ * Time is counted in timesteps of the grid. The input waveform gives the input
+ * at each whole timestep, and is interpolated linearly for derivatives taken
+ * in between. The output recorded for timestep t is the output at the end of
+ * it, time t + 1, as when stepping with step(). Every output is taken from
+ * the states, so the outputs a batch is reset to are never used, where
+ * step() sums them in its first step.
+ * 
+ * Grid points that fall inside an internal step are filled by cubic Hermite
+ * interpolation of the output neuron's state from the states and derivatives
+ * at either end of the step, which is accurate to fourth order. The
+ * derivative at the end of a step is the first derivative of the next, so
+ * interpolating costs nothing extra.
+ * 
+ * Each integrator holds its own working arrays, growing them to fit the
+ * largest batch so far, so once warm a run allocates nothing. An integrator
+ * must only be used by one thread at a time.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public class BatchIntegrator {
+	
+	/**
+	 * Creates a new integrator.
+	 * 
+	 * @param integrator
+	 *            Method to advance the batch with.
+	 * @param stepMultiplier
+	 *            Number of grid timesteps per internal step. For RK45 this is
+	 *            the first step tried, and the step then adapts.
+	 * @param tolerance
+	 *            Largest error in any state that RK45 accepts in one step.
+	 *            Unused by the other methods.
+	 */
+	public BatchIntegrator ( Integrator integrator, int stepMultiplier, float tolerance ) {
+		if ( stepMultiplier < 1 )
+			throw new IllegalArgumentException( "Step multiplier should be at least 1; got " + stepMultiplier );
+		if ( integrator == Integrator.RK45 && !(tolerance > 0f) )
+			throw new IllegalArgumentException( "RK45 tolerance should be positive; got " + tolerance );
+		this.integrator = integrator;
+		this.stepMultiplier = stepMultiplier;
+		this.tolerance = tolerance;
+	}
+	
+	private final Integrator	integrator;
+	private final int			stepMultiplier;
+	private final float			tolerance;
+	
+	/**
+	 * Shortest step in grid timesteps that RK45 will shrink to. A step this
+	 * short is accepted whatever its error, even NaN, so a run always
+	 * finishes and any NaN is left for the caller to find.
+	 */
+	static final double			MIN_STEP	= 1e-3;
+	
+	// Dormand-Prince 5(4) tableau
+	private static final float	A21			= 1f / 5f;
+	private static final float	A31			= 3f / 40f, A32 = 9f / 40f;
+	private static final float	A41			= 44f / 45f, A42 = -56f / 15f, A43 = 32f / 9f;
+	private static final float	A51			= 19372f / 6561f, A52 = -25360f / 2187f, A53 = 64448f / 6561f, A54 = -212f / 729f;
+	private static final float	A61			= 9017f / 3168f, A62 = -355f / 33f, A63 = 46732f / 5247f, A64 = 49f / 176f,
+			A65 = -5103f / 18656f;
+	private static final float	B1			= 35f / 384f, B3 = 500f / 1113f, B4 = 125f / 192f, B5 = -2187f / 6784f, B6 = 11f / 84f;
+	private static final float	E1			= 71f / 57600f, E3 = -71f / 16695f, E4 = 71f / 1920f, E5 = -17253f / 339200f,
+			E6 = 22f / 525f, E7 = -1f / 40f;
+	
+	private int					n			= 0, capacity = 0;	// size of
+																// working
+																// arrays
+	private float[][]			k1, k2, k3, k4, k5, k6, k7, stage, factors, inputs;
+	private float[]				inputRow, steps, factorSteps, errors;
+	private double[]			times, stepLengths, ends;
+	private int[]				nextGrid;
+	private int					k;								// batch size
+																// of the
+																// current run
+	private long				batchSteps	= 0, rejectedSteps = 0;
+	
+	/**
+	 * Runs a batch from its current state for runLength grid timesteps,
+	 * recording the output of one neuron of each member at every timestep.
+	 * 
+	 * Each member keeps its own time and step length, so with RK45 a member
+	 * that needs short steps doesn't hold back the rest, and every member's
+	 * output is the same whatever batch it is run in. A member whose run has
+	 * ended stays where it is while the others finish.
+	 * 
+	 * @param net
+	 *            Batch to run, usually reset to its initial state.
+	 * @param waveforms
+	 *            Input at each grid timestep, one waveform of at least
+	 *            runLength for each member of the batch.
+	 * @param inputIndex
+	 *            Index of the neuron to give input to.
+	 * @param outputIndex
+	 *            Index of the neuron to record output from.
+	 * @param timeStep
+	 *            Length of a grid timestep.
+	 * @param runLength
+	 *            Number of grid timesteps to run for.
+	 * @param outputs
+	 *            Array of at least [batch][runLength] to store the output of
+	 *            each member in.
+	 */
+	public void run( BatchStepper net, float[][] waveforms, int inputIndex, int outputIndex, float timeStep, int runLength, float[][] outputs ) {
+		k = net.getBatchSize();
+		ensureCapacity( net.getNumberOfNeurons(), k );
+		for ( int i = 0; i < inputs.length; i++ ) {
+			inputs[i] = null;
+		}
+		inputs[inputIndex] = inputRow;
+		for ( int s = 0; s < k; s++ ) {
+			times[s] = 0;
+			stepLengths[s] = stepMultiplier;
+			nextGrid[s] = 1;
+			factorSteps[s] = Float.NaN;
+		}
+		
+		// the states at the start of each step; new states go in stage
+		float[][] y = net.getStates();
+		int running = k;
+		boolean haveStartDerivs = false; // k1 holds the derivatives at times
+		
+		while ( running > 0 ) {
+			boolean interior = false;
+			for ( int s = 0; s < k; s++ ) {
+				// ends exactly at the end of the run, so the last output is
+				// set, and members that have finished don't move
+				double x = times[s];
+				ends[s] = Math.min( x + stepLengths[s], runLength );
+				steps[s] = (float) ((ends[s] - x) * timeStep);
+				interior |= nextGrid[s] < ends[s];
+			}
+			if ( !haveStartDerivs ) {
+				derivatives( net, y, waveforms, runLength, 0.0, k1 );
+			}
+			
+			boolean haveEndDerivs = false;
+			switch ( integrator ) {
+				case EULER:
+					combine( stage, y, 1f, k1 );
+					break;
+				case EXPONENTIAL_EULER:
+					decayFactors( net );
+					for ( int i = 0; i < n; i++ ) {
+						float[] out = stage[i], y0 = y[i], d = k1[i], f = factors[i];
+						for ( int s = 0; s < k; s++ ) {
+							out[s] = y0[s] + f[s] * d[s];
+						}
+					}
+					break;
+				case MIDPOINT:
+					combine( stage, y, 0.5f, k1 );
+					derivatives( net, stage, waveforms, runLength, 0.5, k2 );
+					combine( stage, y, 1f, k2 );
+					break;
+				case RK4:
+					combine( stage, y, 0.5f, k1 );
+					derivatives( net, stage, waveforms, runLength, 0.5, k2 );
+					combine( stage, y, 0.5f, k2 );
+					derivatives( net, stage, waveforms, runLength, 0.5, k3 );
+					combine( stage, y, 1f, k3 );
+					derivatives( net, stage, waveforms, runLength, 1.0, k4 );
+					combine( stage, y, 1f / 6f, 1f, k1, 2f, k2, 2f, k3, 1f, k4, 0f, k4 );
+					break;
+				case RK45:
+					combine( stage, y, A21, k1 );
+					derivatives( net, stage, waveforms, runLength, 1.0 / 5.0, k2 );
+					combine( stage, y, 1f, A31, k1, A32, k2, 0f, k2, 0f, k2, 0f, k2 );
+					derivatives( net, stage, waveforms, runLength, 3.0 / 10.0, k3 );
+					combine( stage, y, 1f, A41, k1, A42, k2, A43, k3, 0f, k3, 0f, k3 );
+					derivatives( net, stage, waveforms, runLength, 4.0 / 5.0, k4 );
+					combine( stage, y, 1f, A51, k1, A52, k2, A53, k3, A54, k4, 0f, k4 );
+					derivatives( net, stage, waveforms, runLength, 8.0 / 9.0, k5 );
+					combine( stage, y, 1f, A61, k1, A62, k2, A63, k3, A64, k4, A65, k5 );
+					derivatives( net, stage, waveforms, runLength, 1.0, k6 );
+					combine( stage, y, 1f, B1, k1, B3, k3, B4, k4, B5, k5, B6, k6 );
+					derivatives( net, stage, waveforms, runLength, 1.0, k7 );
+					haveEndDerivs = true;
+					errors();
+					break;
+			}
+			if ( interior && !haveEndDerivs ) {
+				// grid points inside the step are interpolated between its
+				// ends
+				derivatives( net, stage, waveforms, runLength, 1.0, k7 );
+				haveEndDerivs = true;
+			}
+			batchSteps++;
+			
+			for ( int s = 0; s < k; s++ ) {
+				double x = times[s], end = ends[s], hGrid = end - x;
+				if ( x >= runLength ) {
+					continue;
+				}
+				
+				if ( integrator == Integrator.RK45 ) {
+					float error = errors[s];
+					double scale;
+					if ( error == 0f ) {
+						scale = 5.0;
+					} else if ( Float.isNaN( error ) || Float.isInfinite( error ) ) {
+						// shrink as fast as allowed, as the step may have
+						// overflowed
+						scale = 0.2;
+					} else {
+						scale = Math.max( 0.2, Math.min( 5.0, 0.9 * Math.pow( tolerance / error, 0.2 ) ) );
+					}
+					if ( !(error <= tolerance) && hGrid > MIN_STEP && isFinite( y, s ) ) {
+						// try again from the same start, whose derivatives
+						// are still in k1
+						stepLengths[s] = Math.max( MIN_STEP, hGrid * scale );
+						rejectedSteps++;
+						continue;
+					}
+					if ( end < runLength && isFinite( y, s ) ) {
+						// a step cut short by the end of the run says nothing
+						// about the next one. A member that has already gone
+						// NaN can't be helped by shorter steps, so keeps its
+						// step length to finish the run.
+						stepLengths[s] = Math.max( MIN_STEP, hGrid * scale );
+					}
+				}
+				
+				for ( ; nextGrid[s] < end; nextGrid[s]++ ) {
+					interpolate( net, y, outputIndex, outputs, s, (float) ((nextGrid[s] - x) / hGrid) );
+				}
+				for ( int i = 0; i < n; i++ ) {
+					y[i][s] = stage[i][s];
+					if ( haveEndDerivs ) {
+						k1[i][s] = k7[i][s];
+					}
+				}
+				if ( nextGrid[s] == end ) {
+					outputs[s][nextGrid[s] - 1] = net.getOutputForState( outputIndex, s, y[outputIndex][s] );
+					nextGrid[s]++;
+				}
+				
+				times[s] = end;
+				if ( end >= runLength ) {
+					running--;
+				}
+			}
+			haveStartDerivs = haveEndDerivs;
+		}
+		net.updateOutputs();
+	}
+	
+	/**
+	 * Calculates the derivatives of a batch at a fraction c through each
+	 * member's step, with the input interpolated between the grid timesteps
+	 * either side.
+	 */
+	private void derivatives( BatchStepper net, float[][] at, float[][] waveforms, int runLength, double c, float[][] derivs ) {
+		for ( int s = 0; s < k; s++ ) {
+			double x = times[s] + c * (ends[s] - times[s]);
+			int t = (int) x;
+			float frac = (float) (x - t);
+			float[] waveform = waveforms[s];
+			if ( t >= runLength - 1 ) {
+				inputRow[s] = waveform[runLength - 1];
+			} else if ( frac == 0f ) {
+				inputRow[s] = waveform[t];
+			} else {
+				inputRow[s] = waveform[t] + frac * (waveform[t + 1] - waveform[t]);
+			}
+		}
+		net.derivatives( at, inputs, derivs );
+	}
+	
+	/**
+	 * Updates the factor each member's derivative is multiplied by in an
+	 * exponential Euler step, tau * (1 - e^(-dt / tau)), for members whose
+	 * step length has changed.
+	 */
+	private void decayFactors( BatchStepper net ) {
+		for ( int s = 0; s < k; s++ ) {
+			float dt = steps[s];
+			if ( Float.floatToIntBits( dt ) == Float.floatToIntBits( factorSteps[s] ) ) {
+				continue;
+			}
+			factorSteps[s] = dt;
+			for ( int i = 0; i < n; i++ ) {
+				double invTau = net.getInverseTimeConstant( i, s );
+				factors[i][s] = (float) (-Math.expm1( -dt * invTau ) / invTau);
+			}
+		}
+	}
+	
+	/**
+	 * Sets out = y0 + c * dt * d for every member, where dt is the member's
+	 * step.
+	 */
+	private void combine( float[][] out, float[][] y0, float c, float[][] d ) {
+		for ( int i = 0; i < n; i++ ) {
+			float[] o = out[i], y = y0[i], e = d[i];
+			for ( int s = 0; s < k; s++ ) {
+				o[s] = y[s] + c * steps[s] * e[s];
+			}
+		}
+	}
+	
+	/**
+	 * Sets out = y0 + c * dt * (c1 * d1 + ... + c5 * d5) for every member,
+	 * where dt is the member's step.
+	 */
+	private void combine( float[][] out, float[][] y0, float c, float c1, float[][] d1, float c2, float[][] d2, float c3, float[][] d3, float c4,
+			float[][] d4, float c5, float[][] d5 ) {
+		for ( int i = 0; i < n; i++ ) {
+			float[] o = out[i], y = y0[i], e1 = d1[i], e2 = d2[i], e3 = d3[i], e4 = d4[i], e5 = d5[i];
+			for ( int s = 0; s < k; s++ ) {
+				o[s] = y[s] + c * steps[s] * (c1 * e1[s] + c2 * e2[s] + c3 * e3[s] + c4 * e4[s] + c5 * e5[s]);
+			}
+		}
+	}
+	
+	/**
+	 * Sets each member's error to the largest difference between the fifth
+	 * and fourth order solutions of its RK45 step, over every state.
+	 */
+	private void errors() {
+		for ( int s = 0; s < k; s++ ) {
+			errors[s] = 0f;
+		}
+		for ( int i = 0; i < n; i++ ) {
+			float[] e1 = k1[i], e3 = k3[i], e4 = k4[i], e5 = k5[i], e6 = k6[i], e7 = k7[i];
+			for ( int s = 0; s < k; s++ ) {
+				float e = Math.abs( steps[s] * (E1 * e1[s] + E3 * e3[s] + E4 * e4[s] + E5 * e5[s] + E6 * e6[s] + E7 * e7[s]) );
+				if ( !(e <= errors[s]) ) {
+					errors[s] = e; // NaN is never accepted
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return whether every state of a member is finite.
+	 */
+	private boolean isFinite( float[][] y, int s ) {
+		for ( int i = 0; i < n; i++ ) {
+			if ( !(Math.abs( y[i][s] ) <= Float.MAX_VALUE) )
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Records one member's output at a fraction theta through its step from
+	 * y (derivatives k1) to stage (derivatives k7).
+	 */
+	private void interpolate( BatchStepper net, float[][] y, int outputIndex, float[][] outputs, int s, float theta ) {
+		float theta2 = theta * theta, theta3 = theta2 * theta, dt = steps[s];
+		float h00 = 2f * theta3 - 3f * theta2 + 1f, h10 = theta3 - 2f * theta2 + theta;
+		float h01 = -2f * theta3 + 3f * theta2, h11 = theta3 - theta2;
+		float state = h00 * y[outputIndex][s] + h10 * dt * k1[outputIndex][s] + h01 * stage[outputIndex][s] + h11 * dt * k7[outputIndex][s];
+		outputs[s][nextGrid[s] - 1] = net.getOutputForState( outputIndex, s, state );
+	}
+	
+	private void ensureCapacity( int neurons, int size ) {
+		n = neurons;
+		if ( inputs != null && neurons <= inputs.length && size <= capacity )
+			return;
+		int rows = Math.max( neurons, inputs == null ? 0 : inputs.length );
+		capacity = Math.max( size, capacity );
+		k1 = new float[rows][capacity];
+		k2 = new float[rows][capacity];
+		k3 = new float[rows][capacity];
+		k4 = new float[rows][capacity];
+		k5 = new float[rows][capacity];
+		k6 = new float[rows][capacity];
+		k7 = new float[rows][capacity];
+		stage = new float[rows][capacity];
+		factors = new float[rows][capacity];
+		inputs = new float[rows][];
+		inputRow = new float[capacity];
+		steps = new float[capacity];
+		factorSteps = new float[capacity];
+		errors = new float[capacity];
+		times = new double[capacity];
+		stepLengths = new double[capacity];
+		ends = new double[capacity];
+		nextGrid = new int[capacity];
+	}
+	
+	/**
+	 * @return the number of internal steps taken by every run so far. Each
+	 *         step advances every member still running.
+	 */
+	public long getSteps() {
+		return batchSteps;
+	}
+	
+	/**
+	 * @return the number of times a member's RK45 step has been rejected and
+	 *         retried with a shorter step.
+	 */
+	public long getRejectedSteps() {
+		return rejectedSteps;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format( "[BatchIntegrator %s stepMultiplier=%d tolerance=%s]", integrator, stepMultiplier, tolerance );
+	}
+}
@@ -0,0 +1,142 @@
+package mb.ctrnn.core;
+
+/**
+ * A batch of network states that are advanced together, either one state for
+ * each of several networks (BatchCTRNN) or several states of the same network
+ * (MultiStateCTRNN).
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public interface BatchStepper {
+	
+	/**
+	 * Integrates one step for every member of the batch using Euler's method,
+	 * updating neural outputs.
+	 * 
+	 * @param stepSize
+	 *            Timestep value for integration.
+	 * @param inputs
+	 *            Values to input to each neuron of each member, indexed by
+	 *            [neuron][member]. A null row is treated as zero input to that
+	 *            neuron for every member.
+	 */
+	public void step( float stepSize, float[][] inputs );
+	
+	/**
+	 * @param neuron
+	 *            Index of the neuron.
+	 * @param b
+	 *            Index of the member of the batch.
+	 * @return the output of a neuron for one member.
+	 */
+	public float getOutput( int neuron, int b );
+	
+	/**
+	 * Sets all states to 0.5 and outputs to 0, as for a new CTRNN.
+	 */
+	public void reset();
+	
+	/**
+	 * @return the number of neurons in each member.
+	 */
+	public int getNumberOfNeurons();
+	
+	/**
+	 * @return the number of members in the batch.
+	 */
+	public int getBatchSize();
+	
+	/**
+	 * Sets the number of members advanced by each step, so storage can be
+	 * reused for smaller batches.
+	 * 
+	 * @param size
+	 *            Number of members, from 0 to the size the batch was created
+	 *            with.
+	 */
+	public void setBatchSize( int size );
+	
+	/**
+	 * Sets whether step() records how far each member's state moves, for
+	 * getStateChange(). Off for a new batch.
+	 * 
+	 * @param track
+	 *            true to record state changes.
+	 */
+	public void setTrackStateChange( boolean track );
+	
+	/**
+	 * @param b
+	 *            Index of the member of the batch.
+	 * @return the largest absolute change of any neuron's state in one member
+	 *         during the last step, if state changes are being recorded.
+	 */
+	public float getStateChange( int b );
+	
+	/**
+	 * Swaps two members of the batch, so a member that no longer needs to be
+	 * advanced can be moved past the end of a smaller batch. Its outputs can
+	 * still be read there, and stay as they are until it is swapped back in or
+	 * the batch is reset.
+	 * 
+	 * @param a
+	 *            Index of one member, below the size the batch was created
+	 *            with.
+	 * @param b
+	 *            Index of the other member.
+	 */
+	public void swapMembers( int a, int b );
+	
+	/**
+	 * Gets the states of the batch, so an integrator can advance them in its
+	 * own way. After changing them, updateOutputs() must be called before
+	 * outputs are read.
+	 * 
+	 * @return the state of each neuron of each member, indexed by
+	 *         [neuron][member]. Only the first getBatchSize() members of each
+	 *         row are in use.
+	 */
+	public float[][] getStates();
+	
+	/**
+	 * Sets every output of every member from its current state.
+	 */
+	public void updateOutputs();
+	
+	/**
+	 * Calculates the rate of change of every state for the given states and
+	 * inputs, evaluating every neuron's input from the same states. The
+	 * batch's own states and outputs are not changed.
+	 * 
+	 * @param states
+	 *            States to evaluate at, indexed by [neuron][member].
+	 * @param inputs
+	 *            Values to input to each neuron of each member, as for step().
+	 * @param derivs
+	 *            Array of [neuron][member] to store the rate of change of each
+	 *            state in.
+	 */
+	public void derivatives( float[][] states, float[][] inputs, float[][] derivs );
+	
+	/**
+	 * @param neuron
+	 *            Index of the neuron.
+	 * @param b
+	 *            Index of the member of the batch.
+	 * @return the reciprocal of the neuron's time constant in one member.
+	 */
+	public float getInverseTimeConstant( int neuron, int b );
+	
+	/**
+	 * @param neuron
+	 *            Index of the neuron.
+	 * @param b
+	 *            Index of the member of the batch.
+	 * @param state
+	 *            State of the neuron.
+	 * @return the output the neuron would have in one member with the given
+	 *         state.
+	 */
+	public float getOutputForState( int neuron, int b, float state );
+}
@@ -1,108 +1,237 @@
-package mb.ctrnn.core;
-
-/**
- * Simulates a continuous time recurrent network of neurons, with tau,bias and
- * gain parameters and connection weights.
- * 
- * @author Miles Bryant
- */
-public class CTRNN {
-
-	protected final int n; // number of neurons
-	/**
-	 * parameters
-	 */
-	protected final float[] taus, biases, gains;
-	private float[] states, outputs; //states is an intermediary
-	protected final float[][] weights; //connection strengths between neurons, 0 if not connected
-	
-	/**
-	 * Initialises a new CTRNN with the specified parameters.
-	 * @param n Number of neurons.
-	 * @param taus Array of tau parameters; determines time constant for each neuron.
-	 * @param biases Array of bias parameters; determines biasing for each neuron.
-	 * @param gains Array of gain parameters; determines neural gain for each neuron.
-	 * @param weights Matrix of weight connections; weights[i][j] determines connection 
-	 * strength between neuron i and neuron j. No connection is indicated by 0.
-	 */
-	public CTRNN(int n, float[] taus, float[] biases, float[] gains, float[][] weights) {
-		
-		this.n = n;
-		validate(taus, "taus");
-		this.taus = taus;
-		validate(biases, "biases");
-		this.biases = biases;
-		validate(gains, "gains");
-		this.gains = gains;
-		if(weights.length != n)
-			throw new IllegalArgumentException(String.format("Weights should be of length %d; got an array of length %d",n,weights.length));
-		this.weights = weights;
-		
-		this.states = new float[n];
-		this.outputs = new float[n];
-		
-		//initialise states to 0.5 and outputs to 0
-		
-		for (int i = 0; i < n; i++) {
-			states[i] = 0.5f; outputs[i] = 0f;
-		}
-	}
-	
-	private void validate(float[] array,String arrayName) {
-		//checks that the array pass is of correct length
-		if(array.length != n)
-			throw new IllegalArgumentException(String.format("%s should be of length %d; got an array of length %d",arrayName,n,array.length));
-	}
-		
-	/**
-	 * Integrates one step using Euler's method, updating neural outputs.
-	 * Adapted from Randall Beer's C code available at http://mypage.iu.edu/~rdbeer/.
-	 * 
-	 * @param stepSize Timestep value for integration.
-	 * @param inputs Array of values to input to each neuron; sensory neurons will typically have nonzero inputs.
-	 */
-	public void step(float stepSize, float[] inputs) {
-		for (int i = 0; i < n; i++) {
-			float input;
-			input = inputs[i];
-			for (int j = 0; j < n; j++)
-				input += weights[j][i] * outputs[j];
-			
-			if(Float.isNaN( states[i] )) {
-				throw new AssertionError();
-			}
-			
-			states[i] += stepSize * (1/taus[i]) * (input - states[i]);
-			
-			//switch activation function through commenting the appropriate line
-			
-//			outputs[i] = MathUtils.sigmoid(gains[i] * (states[i] + biases[i]));
-			outputs[i] = (float) Math.tanh(gains[i] * (states[i] + biases[i]));
-			
-
-			if(Float.isNaN( outputs[i] )) {
-				throw new AssertionError();
-			}
-		}
-	}
-
-	/**
-	 * @return an array of the neuron outputs.
-	 */
-	public float[] getOutputs() {
-		return outputs.clone();
-	}
-	
-	@Override
-	public Object clone() {
-		CTRNN ctrnn = new CTRNN(n, taus.clone(), biases.clone(), gains.clone(), weights.clone());
-		ctrnn.states=states.clone();
-		ctrnn.outputs=outputs.clone();
-		return ctrnn;
-	}
-	
-	@Override
-	public String toString() {
-		return String.format("[CTRNN n=%d]",n);
-	}
-}
+package mb.ctrnn.core;
+
+/**
+ * Simulates a continuous time recurrent network of neurons, with tau,bias and
+ * gain parameters and connection weights.
+ * 
+ * For stepping, the weights are also kept flattened and transposed, so the
+ * weights into each neuron are contiguous, along with the reciprocal of each
+ * time constant. Parameters should only be changed through the setters so
+ * these stay consistent.
+ * 
+ * By default neurons are updated in turn within a step; see UpdateMode for the
+ * synchronous alternative.
+ * 
+ * @author Miles Bryant
+ */
+public class CTRNN {
+
+	protected final int n; // number of neurons
+	/**
+	 * parameters
+	 */
+	protected final float[] taus, biases, gains;
+	protected float[] states, outputs; //states is an intermediary
+	protected final float[][] weights; //connection strengths between neurons, 0 if not connected
+	protected final float[] weightsIn; //weightsIn[i * n + j] = weights[j][i], the weights into neuron i
+	protected final float[] invTaus; //1 / taus[i]
+	protected ActivationFunction activation = ActivationFunction.TANH;
+	protected UpdateMode updateMode = UpdateMode.SEQUENTIAL;
+	private float[] summedInputs; //previous step's input to each neuron, null unless synchronous
+	
+	/**
+	 * Initialises a new CTRNN with the specified parameters.
+	 * @param n Number of neurons.
+	 * @param taus Array of tau parameters; determines time constant for each neuron.
+	 * @param biases Array of bias parameters; determines biasing for each neuron.
+	 * @param gains Array of gain parameters; determines neural gain for each neuron.
+	 * @param weights Matrix of weight connections; weights[i][j] determines connection 
+	 * strength between neuron i and neuron j. No connection is indicated by 0.
+	 */
+	public CTRNN(int n, float[] taus, float[] biases, float[] gains, float[][] weights) {
+		
+		this.n = n;
+		validate(taus, "taus");
+		this.taus = taus;
+		validate(biases, "biases");
+		this.biases = biases;
+		validate(gains, "gains");
+		this.gains = gains;
+		if(weights.length != n)
+			throw new IllegalArgumentException(String.format("Weights should be of length %d; got an array of length %d",n,weights.length));
+		this.weights = weights;
+		
+		this.weightsIn = new float[n * n];
+		this.invTaus = new float[n];
+		for (int i = 0; i < n; i++) {
+			if(weights[i].length != n)
+				throw new IllegalArgumentException(String.format("Weights[%d] should be of length %d; got an array of length %d",i,n,weights[i].length));
+			invTaus[i] = 1/taus[i];
+			for (int j = 0; j < n; j++)
+				weightsIn[j * n + i] = weights[i][j];
+		}
+		
+		this.states = new float[n];
+		this.outputs = new float[n];
+		
+		//initialise states to 0.5 and outputs to 0
+		
+		reset();
+	}
+	
+	private void validate(float[] array,String arrayName) {
+		//checks that the array pass is of correct length
+		if(array.length != n)
+			throw new IllegalArgumentException(String.format("%s should be of length %d; got an array of length %d",arrayName,n,array.length));
+	}
+		
+	/**
+	 * Integrates one step using Euler's method, updating neural outputs, in
+	 * the order given by the update mode.
+	 * Adapted from Randall Beer's C code available at http://mypage.iu.edu/~rdbeer/.
+	 * 
+	 * @param stepSize Timestep value for integration.
+	 * @param inputs Array of values to input to each neuron; sensory neurons will typically have nonzero inputs.
+	 */
+	public void step(float stepSize, float[] inputs) {
+		if (updateMode == UpdateMode.SYNCHRONOUS) {
+			//every input is summed before any output changes
+			for (int i = 0; i < n; i++)
+				summedInputs[i] = sumInput(i, inputs[i]);
+			for (int i = 0; i < n; i++)
+				update(i, stepSize, summedInputs[i]);
+			return;
+		}
+		
+		for (int i = 0; i < n; i++)
+			update(i, stepSize, sumInput(i, inputs[i]));
+	}
+	
+	/**
+	 * @param i Index of the neuron.
+	 * @param input External input to the neuron.
+	 * @return the external input plus the weighted outputs of every neuron, as they are now.
+	 */
+	protected float sumInput(int i, float input) {
+		int row = i * n;
+		for (int j = 0; j < n; j++)
+			input += weightsIn[row + j] * outputs[j];
+		return input;
+	}
+	
+	private void update(int i, float stepSize, float input) {
+		states[i] += stepSize * invTaus[i] * (input - states[i]);
+		
+		outputs[i] = activation.apply(gains[i] * (states[i] + biases[i]));
+	}
+
+	/**
+	 * Sets the connection strength from one neuron to another.
+	 * @param from Index of the neuron the connection comes from.
+	 * @param to Index of the neuron the connection goes to.
+	 * @param weight New connection strength.
+	 */
+	public void setWeight(int from, int to, float weight) {
+		weights[from][to] = weight;
+		weightsIn[to * n + from] = weight;
+	}
+	
+	/**
+	 * @param i Index of the neuron.
+	 * @param tau New time constant for the neuron.
+	 */
+	public void setTau(int i, float tau) {
+		taus[i] = tau;
+		invTaus[i] = 1/tau;
+	}
+	
+	/**
+	 * @param i Index of the neuron.
+	 * @param bias New bias for the neuron.
+	 */
+	public void setBias(int i, float bias) {
+		biases[i] = bias;
+	}
+	
+	/**
+	 * @param i Index of the neuron.
+	 * @param gain New gain for the neuron.
+	 */
+	public void setGain(int i, float gain) {
+		gains[i] = gain;
+	}
+	
+	/**
+	 * @param activation Activation function to apply to each neuron's state.
+	 */
+	public void setActivation(ActivationFunction activation) {
+		this.activation = activation;
+	}
+	
+	/**
+	 * @return the activation function applied to each neuron's state.
+	 */
+	public ActivationFunction getActivation() {
+		return activation;
+	}
+	
+	/**
+	 * @param updateMode Order in which neurons are updated within a step.
+	 */
+	public void setUpdateMode(UpdateMode updateMode) {
+		this.updateMode = updateMode;
+		summedInputs = updateMode == UpdateMode.SYNCHRONOUS ? new float[n] : null;
+	}
+	
+	/**
+	 * @return the order in which neurons are updated within a step.
+	 */
+	public UpdateMode getUpdateMode() {
+		return updateMode;
+	}
+	
+	/**
+	 * @return an array of the neuron outputs.
+	 */
+	public float[] getOutputs() {
+		return outputs.clone();
+	}
+	
+	/**
+	 * Gets a single neuron output without copying the output array.
+	 * @param i Index of the neuron.
+	 * @return the output of the neuron.
+	 */
+	public float getOutput(int i) {
+		return outputs[i];
+	}
+	
+	/**
+	 * Sets all states to 0.5 and outputs to 0, as for a new CTRNN, so the
+	 * network can be run again without creating a new one.
+	 */
+	public void reset() {
+		for (int i = 0; i < n; i++) {
+			states[i] = 0.5f; outputs[i] = 0f;
+		}
+	}
+	
+	/**
+	 * Copies a weight matrix row by row, so a clone's setWeight() can't write
+	 * into the rows of the network it was cloned from.
+	 * @param weights Matrix to copy.
+	 * @return a copy sharing no rows with the original.
+	 */
+	static float[][] copyWeights(float[][] weights) {
+		float[][] copy = new float[weights.length][];
+		for (int i = 0; i < weights.length; i++) {
+			copy[i] = weights[i].clone();
+		}
+		return copy;
+	}
+	
+	@Override
+	public Object clone() {
+		CTRNN ctrnn = new CTRNN(n, taus.clone(), biases.clone(), gains.clone(), copyWeights(weights));
+		ctrnn.states=states.clone();
+		ctrnn.outputs=outputs.clone();
+		ctrnn.activation=activation;
+		ctrnn.setUpdateMode(updateMode);
+		return ctrnn;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("[CTRNN n=%d]",n);
+	}
+}
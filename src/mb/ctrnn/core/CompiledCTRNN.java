@@ -0,0 +1,121 @@
+package mb.ctrnn.core;
+
+/**
+ * Base of the CTRNN classes StepCompiler generates for a single layout. The
+ * generated step methods sum only the connections the layout has, with its
+ * fixed weights, time constants, biases and gains written in as constants and
+ * every loop unrolled. Genetic parameters are still read from the parameter
+ * arrays, so genomes can be loaded with GeneScatterPlan as for any other
+ * CTRNN.
+ * 
+ * The outputs are identical to those of the CTRNN or SparseCTRNN the layout
+ * would otherwise create. Since fixed parameters are compiled in, they can't
+ * be changed; the setters throw an IllegalArgumentException if asked to.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public abstract class CompiledCTRNN extends CTRNN {
+	
+	private final StepCompiler.Shape	shape;
+	
+	/**
+	 * Initialises a network with the parameters of the shape, genetic or not.
+	 * 
+	 * @param shape
+	 *            Shape the subclass was generated from.
+	 */
+	protected CompiledCTRNN ( StepCompiler.Shape shape ) {
+		super( shape.n, shape.taus.clone(), shape.biases.clone(), shape.gains.clone(), copyWeights( shape.weights ) );
+		this.shape = shape;
+	}
+	
+	@Override
+	public void step( float stepSize, float[] inputs ) {
+		if ( updateMode == UpdateMode.SYNCHRONOUS ) {
+			stepSynchronous( stepSize, inputs );
+		} else {
+			stepSequential( stepSize, inputs );
+		}
+	}
+	
+	/**
+	 * Integrates one step, updating each neuron in turn as CTRNN.step() does
+	 * in sequential mode.
+	 * 
+	 * @param stepSize
+	 *            Timestep value for integration.
+	 * @param inputs
+	 *            Array of values to input to each neuron.
+	 */
+	protected abstract void stepSequential( float stepSize, float[] inputs );
+	
+	/**
+	 * Integrates one step, summing every input before updating any neuron as
+	 * CTRNN.step() does in synchronous mode.
+	 * 
+	 * @param stepSize
+	 *            Timestep value for integration.
+	 * @param inputs
+	 *            Array of values to input to each neuron.
+	 */
+	protected abstract void stepSynchronous( float stepSize, float[] inputs );
+	
+	@Override
+	public void setWeight( int from, int to, float weight ) {
+		if ( !shape.geneticWeights[from][to] && weight != shape.weights[from][to] )
+			throw new IllegalArgumentException( String.format( "Weight from neuron %d to neuron %d is fixed", from, to ) );
+		super.setWeight( from, to, weight );
+	}
+	
+	@Override
+	public void setTau( int i, float tau ) {
+		if ( !shape.geneticTaus[i] && tau != shape.taus[i] )
+			throw new IllegalArgumentException( String.format( "Tau of neuron %d is fixed", i ) );
+		super.setTau( i, tau );
+	}
+	
+	@Override
+	public void setBias( int i, float bias ) {
+		if ( !shape.geneticBiases[i] && bias != shape.biases[i] )
+			throw new IllegalArgumentException( String.format( "Bias of neuron %d is fixed", i ) );
+		super.setBias( i, bias );
+	}
+	
+	@Override
+	public void setGain( int i, float gain ) {
+		if ( !shape.geneticGains[i] && gain != shape.gains[i] )
+			throw new IllegalArgumentException( String.format( "Gain of neuron %d is fixed", i ) );
+		super.setGain( i, gain );
+	}
+	
+	@Override
+	public Object clone() {
+		// a clone only needs this class, so never recompiles, even once the
+		// StepCompiler cache has been cleared
+		CompiledCTRNN ctrnn;
+		try {
+			ctrnn = getClass().getConstructor( StepCompiler.Shape.class ).newInstance( shape );
+		} catch ( ReflectiveOperationException e ) {
+			throw new IllegalStateException( "Couldn't clone compiled network", e );
+		}
+		System.arraycopy( taus, 0, ctrnn.taus, 0, n );
+		System.arraycopy( invTaus, 0, ctrnn.invTaus, 0, n );
+		System.arraycopy( biases, 0, ctrnn.biases, 0, n );
+		System.arraycopy( gains, 0, ctrnn.gains, 0, n );
+		System.arraycopy( weightsIn, 0, ctrnn.weightsIn, 0, n * n );
+		for ( int i = 0; i < n; i++ ) {
+			System.arraycopy( weights[i], 0, ctrnn.weights[i], 0, n );
+		}
+		ctrnn.states = states.clone();
+		ctrnn.outputs = outputs.clone();
+		ctrnn.activation = activation;
+		ctrnn.setUpdateMode( updateMode );
+		return ctrnn;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format( "[CompiledCTRNN n=%d connections=%d]", n, shape.nTerms );
+	}
+}
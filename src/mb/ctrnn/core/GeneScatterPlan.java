@@ -0,0 +1,255 @@
+package mb.ctrnn.core;
+
+import java.util.Arrays;
+
+/**
+ * A compiled mapping from a genome to the parameters of a network, e.g. from
+ * CTRNNLayout.compile(). Each entry maps one gene through a range and writes
+ * it straight into the network's parameter arrays, so apply() rebinds a
+ * network to a new genome with one loop over the entries and no objects
+ * walked or created.
+ * 
+ * Only gene-mapped parameters are written. Fixed parameters keep the values
+ * the network was created with, so a plan should only be applied to networks
+ * created from the same layout.
+ * 
+ * Values are calculated with the same arithmetic as Range.map(), and the
+ * reciprocal of each tau as in CTRNN.setTau(), so a rebound network is
+ * identical to a new one created with the same genes.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public class GeneScatterPlan {
+	
+	private static final int	TAU	= 0, BIAS = 1, GAIN = 2, WEIGHT = 3;
+	
+	private final int			n, nGenes;
+	private final int[]			sparseRowStart;					// connections
+																	// into neuron
+																	// i, as in
+																	// SparseCTRNN
+	private final boolean[][]	connected;
+	
+	private int					size;							// number of
+																// entries
+	private int[]				genes		= new int[16];		// gene of each
+																// entry
+	private int[]				kinds		= new int[16];
+	private int[]				neurons		= new int[16];		// neuron, or
+																// neuron the
+																// weight is from
+	private int[]				targets		= new int[16];		// neuron the
+																// weight is to
+	private int[]				sparse		= new int[16];		// index in
+																// SparseCTRNN.values
+	private float[]				lows		= new float[16], diffs = new float[16];
+	
+	/**
+	 * Creates an empty plan for networks of the given shape.
+	 * 
+	 * @param n
+	 *            Number of neurons.
+	 * @param nGenes
+	 *            Number of genes in a genome.
+	 * @param connected
+	 *            Matrix of declared connections; connected[i][j] is true if
+	 *            there is a connection from neuron i to neuron j. Used to find
+	 *            weights in a SparseCTRNN.
+	 */
+	public GeneScatterPlan ( int n, int nGenes, boolean[][] connected ) {
+		this.n = n;
+		this.nGenes = nGenes;
+		this.connected = connected;
+		
+		// number connections as in the SparseCTRNN constructor
+		sparseRowStart = new int[n + 1];
+		int c = 0;
+		for ( int i = 0; i < n; i++ ) {
+			sparseRowStart[i] = c;
+			for ( int j = 0; j < n; j++ ) {
+				if ( connected[j][i] ) {
+					c++;
+				}
+			}
+		}
+		sparseRowStart[n] = c;
+	}
+	
+	/**
+	 * Maps a gene to the time constant of a neuron.
+	 * 
+	 * @param gene
+	 *            Index of the gene.
+	 * @param neuron
+	 *            Index of the neuron.
+	 * @param low
+	 *            Value for a gene of -1.
+	 * @param high
+	 *            Value for a gene of 1.
+	 */
+	public void addTau( int gene, int neuron, float low, float high ) {
+		add( gene, TAU, neuron, low, high );
+	}
+	
+	/**
+	 * Maps a gene to the bias of a neuron.
+	 * 
+	 * @see #addTau(int, int, float, float)
+	 */
+	public void addBias( int gene, int neuron, float low, float high ) {
+		add( gene, BIAS, neuron, low, high );
+	}
+	
+	/**
+	 * Maps a gene to the gain of a neuron.
+	 * 
+	 * @see #addTau(int, int, float, float)
+	 */
+	public void addGain( int gene, int neuron, float low, float high ) {
+		add( gene, GAIN, neuron, low, high );
+	}
+	
+	/**
+	 * Maps a gene to the weight of a declared connection.
+	 * 
+	 * @param gene
+	 *            Index of the gene.
+	 * @param from
+	 *            Index of the neuron the connection comes from.
+	 * @param to
+	 *            Index of the neuron the connection goes to.
+	 * @param low
+	 *            Value for a gene of -1.
+	 * @param high
+	 *            Value for a gene of 1.
+	 */
+	public void addWeight( int gene, int from, int to, float low, float high ) {
+		if ( !connected[from][to] )
+			throw new IllegalArgumentException( String.format( "No connection from neuron %d to neuron %d", from, to ) );
+		
+		int c = sparseRowStart[to];
+		for ( int j = 0; j < from; j++ ) {
+			if ( connected[j][to] ) {
+				c++;
+			}
+		}
+		add( gene, WEIGHT, from, to, c, low, high );
+	}
+	
+	private void add( int gene, int kind, int neuron, float low, float high ) {
+		add( gene, kind, neuron, -1, -1, low, high );
+	}
+	
+	private void add( int gene, int kind, int neuron, int target, int sparseIndex, float low, float high ) {
+		if ( gene < 0 || gene >= nGenes )
+			throw new IllegalArgumentException( String.format( "Gene should be from 0 to %d; got %d", nGenes - 1, gene ) );
+		
+		if ( size == genes.length ) {
+			int capacity = size * 2;
+			genes = Arrays.copyOf( genes, capacity );
+			kinds = Arrays.copyOf( kinds, capacity );
+			neurons = Arrays.copyOf( neurons, capacity );
+			targets = Arrays.copyOf( targets, capacity );
+			sparse = Arrays.copyOf( sparse, capacity );
+			lows = Arrays.copyOf( lows, capacity );
+			diffs = Arrays.copyOf( diffs, capacity );
+		}
+		genes[size] = gene;
+		kinds[size] = kind;
+		neurons[size] = neuron;
+		targets[size] = target;
+		sparse[size] = sparseIndex;
+		lows[size] = low;
+		diffs[size] = high - low;
+		size++;
+	}
+	
+	/**
+	 * Sets the gene-mapped parameters of a network to those given by the
+	 * genes, without allocating. The network's state is not reset.
+	 * 
+	 * @param ctrnn
+	 *            Network created from the same layout as this plan.
+	 * @param genome
+	 *            Float array of gene values.
+	 */
+	public void apply( CTRNN ctrnn, float[] genome ) {
+		if ( genome.length != nGenes )
+			throw new IllegalArgumentException( String.format( "Expected %d genes; got %d", nGenes, genome.length ) );
+		if ( ctrnn.n != n )
+			throw new IllegalArgumentException( String.format( "Network should have %d neurons; got %d", n, ctrnn.n ) );
+		SparseCTRNN sparseCTRNN = ctrnn instanceof SparseCTRNN ? (SparseCTRNN) ctrnn : null;
+		if ( sparseCTRNN != null && sparseCTRNN.values.length != sparseRowStart[n] )
+			throw new IllegalArgumentException( "Network has different connections to this plan" );
+		
+		for ( int e = 0; e < size; e++ ) {
+			// same arithmetic as Range.map()
+			float value = diffs[e] * (genome[genes[e]] + 1) / 2 + lows[e];
+			int i = neurons[e];
+			switch ( kinds[e] ) {
+				case TAU:
+					ctrnn.taus[i] = value;
+					ctrnn.invTaus[i] = 1 / value;
+					break;
+				case BIAS:
+					ctrnn.biases[i] = value;
+					break;
+				case GAIN:
+					ctrnn.gains[i] = value;
+					break;
+				default:
+					int to = targets[e];
+					ctrnn.weights[i][to] = value;
+					ctrnn.weightsIn[to * n + i] = value;
+					if ( sparseCTRNN != null ) {
+						sparseCTRNN.values[sparse[e]] = value;
+					}
+			}
+		}
+	}
+
+	/**
+	 * Marks every parameter this plan writes, leaving the others untouched.
+	 *
+	 * @param taus
+	 *            Set true for each neuron with a genetic time constant.
+	 * @param biases
+	 *            Set true for each neuron with a genetic bias.
+	 * @param gains
+	 *            Set true for each neuron with a genetic gain.
+	 * @param weights
+	 *            weights[i][j] is set true if the weight from neuron i to
+	 *            neuron j is genetic.
+	 */
+	void markGenetic( boolean[] taus, boolean[] biases, boolean[] gains, boolean[][] weights ) {
+		for ( int e = 0; e < size; e++ ) {
+			int i = neurons[e];
+			switch ( kinds[e] ) {
+				case TAU:
+					taus[i] = true;
+					break;
+				case BIAS:
+					biases[i] = true;
+					break;
+				case GAIN:
+					gains[i] = true;
+					break;
+				default:
+					weights[i][targets[e]] = true;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of parameters mapped to genes.
+	 */
+	public int getNumberOfEntries() {
+		return size;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format( "[GeneScatterPlan n=%d genes=%d entries=%d]", n, nGenes, size );
+	}
+}
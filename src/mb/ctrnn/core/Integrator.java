@@ -0,0 +1,43 @@
+package mb.ctrnn.core;
+
+/**
+ * Methods a BatchIntegrator can advance a batch of CTRNNs with. Every method
+ * except EULER evaluates all neurons from the same states, so none of them
+ * depend on the network's UpdateMode.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public enum Integrator {
+	
+	/**
+	 * Forward Euler, first order. One derivative per step.
+	 */
+	EULER,
+	
+	/**
+	 * Exponential Euler: each state decays exactly towards its summed input
+	 * over the step, using a decay factor per neuron computed once per step
+	 * size. First order, but stable with steps much longer than the time
+	 * constants. One derivative per step.
+	 */
+	EXPONENTIAL_EULER,
+	
+	/**
+	 * Explicit midpoint method, second order. Two derivatives per step.
+	 */
+	MIDPOINT,
+	
+	/**
+	 * Classical fourth order Runge-Kutta. Four derivatives per step.
+	 */
+	RK4,
+	
+	/**
+	 * Dormand-Prince 5(4) with adaptive step size: each step is redone with a
+	 * shorter one until its estimated error is within the tolerance. Six
+	 * derivatives per accepted step.
+	 */
+	RK45;
+
+}
@@ -0,0 +1,345 @@
+package mb.ctrnn.core;
+
+import java.util.Arrays;
+
+/**
+ * Advances K independent state vectors through the same network, e.g. to run
+ * one model with several different input signals at once.
+ * 
+ * States and outputs are stored as [neuron][state], so the summed input to
+ * every neuron is the product of the n x n weight matrix with the n x K
+ * output matrix. Each weight is loaded once per step and applied to all K
+ * states in a unit-stride loop.
+ * 
+ * If the network is a SparseCTRNN, only its declared connections are summed.
+ * 
+ * Each state is updated in exactly the same order and with the same
+ * arithmetic as the network's own step(), in either UpdateMode, so gives
+ * identical outputs to running K copies of the network separately. In
+ * synchronous mode every neuron's input is summed before any is updated,
+ * which lets a dense network sum several neurons together.
+ * 
+ * Storage is allocated for K states, but setBatchSize() can advance fewer, so
+ * one MultiStateCTRNN can be reused for different numbers of inputs.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public class MultiStateCTRNN implements BatchStepper {
+	
+	protected final int			n, capacity;		// number of neurons,
+													// maximum number of states
+	protected int				k;					// number of states
+													// advanced
+	protected final float[]		invTaus, biases, gains;
+	protected final float[]		weightsIn;			// weightsIn[i * n + j] from
+													// j to i
+	private final SparseCTRNN	sparse;				// null if dense
+	private final ActivationFunction	activation;
+	private final float[][]		states, outputs;	// [neuron][state]
+	private final float[]		input;				// summed input for one
+													// neuron in each state
+	private float[]				stateChanges;		// null unless tracked
+	private final float[][]		summed;				// [neuron][state], null
+													// unless synchronous
+	private float[][]			stageOutputs;		// null until derivatives()
+													// is used
+													
+	/**
+	 * Creates a new set of states for the given network, initialised as for a
+	 * new CTRNN. The network's parameters are shared, not copied, so changes
+	 * made through its setters are seen here. Its activation function and
+	 * update mode are taken when this is created. The network's own state is
+	 * not used.
+	 * 
+	 * @param ctrnn
+	 *            Network to run.
+	 * @param k
+	 *            Number of states, which is also the maximum batch size.
+	 */
+	public MultiStateCTRNN ( CTRNN ctrnn, int k ) {
+		this.n = ctrnn.n;
+		this.capacity = k;
+		this.k = k;
+		this.invTaus = ctrnn.invTaus;
+		this.biases = ctrnn.biases;
+		this.gains = ctrnn.gains;
+		this.weightsIn = ctrnn.weightsIn;
+		this.sparse = ctrnn instanceof SparseCTRNN ? (SparseCTRNN) ctrnn : null;
+		this.activation = ctrnn.activation;
+		
+		states = new float[n][k];
+		outputs = new float[n][k];
+		input = new float[k];
+		summed = ctrnn.updateMode == UpdateMode.SYNCHRONOUS ? new float[n][k] : null;
+		
+		reset();
+	}
+	
+	@Override
+	public void setBatchSize( int k ) {
+		if ( k < 0 || k > capacity )
+			throw new IllegalArgumentException( String.format( "Number of states should be from 0 to %d; got %d", capacity, k ) );
+		this.k = k;
+	}
+	
+	/**
+	 * @return the maximum number of states.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	@Override
+	public void reset() {
+		for ( int i = 0; i < n; i++ ) {
+			for ( int s = 0; s < capacity; s++ ) {
+				states[i][s] = 0.5f;
+				outputs[i][s] = 0f;
+			}
+		}
+	}
+	
+	@Override
+	public void step( float stepSize, float[][] inputs ) {
+		if ( summed != null ) {
+			stepSynchronous( stepSize, inputs );
+			return;
+		}
+		
+		for ( int i = 0; i < n; i++ ) {
+			copyInput( inputs[i], input );
+			
+			if ( sparse == null ) {
+				int row = i * n;
+				for ( int j = 0; j < n; j++ ) {
+					addWeighted( input, weightsIn[row + j], outputs[j] );
+				}
+			} else {
+				for ( int c = sparse.rowStart[i]; c < sparse.rowStart[i + 1]; c++ ) {
+					addWeighted( input, sparse.values[c], outputs[sparse.sources[c]] );
+				}
+			}
+			
+			update( i, stepSize, input );
+		}
+	}
+	
+	/**
+	 * Steps as UpdateMode.SYNCHRONOUS: every neuron's input is summed from the
+	 * previous outputs before any neuron is updated.
+	 */
+	private void stepSynchronous( float stepSize, float[][] inputs ) {
+		for ( int i = 0; i < n; i++ ) {
+			copyInput( inputs[i], summed[i] );
+		}
+		
+		if ( sparse == null ) {
+			sumDense();
+		} else {
+			for ( int i = 0; i < n; i++ ) {
+				for ( int c = sparse.rowStart[i]; c < sparse.rowStart[i + 1]; c++ ) {
+					addWeighted( summed[i], sparse.values[c], outputs[sparse.sources[c]] );
+				}
+			}
+		}
+		
+		for ( int i = 0; i < n; i++ ) {
+			update( i, stepSize, summed[i] );
+		}
+	}
+	
+	/**
+	 * Adds the weighted outputs to every neuron's summed input. Neurons are
+	 * summed four at a time, so each output is loaded once for all four; each
+	 * sum is still added in increasing neuron order, so is the same as summing
+	 * one neuron at a time.
+	 */
+	private void sumDense() {
+		int i = 0;
+		for ( ; i + 4 <= n; i += 4 ) {
+			float[] in0 = summed[i], in1 = summed[i + 1], in2 = summed[i + 2], in3 = summed[i + 3];
+			int row0 = i * n, row1 = row0 + n, row2 = row1 + n, row3 = row2 + n;
+			for ( int j = 0; j < n; j++ ) {
+				float w0 = weightsIn[row0 + j], w1 = weightsIn[row1 + j], w2 = weightsIn[row2 + j], w3 = weightsIn[row3 + j];
+				float[] out = outputs[j];
+				for ( int s = 0; s < k; s++ ) {
+					float o = out[s];
+					in0[s] += w0 * o;
+					in1[s] += w1 * o;
+					in2[s] += w2 * o;
+					in3[s] += w3 * o;
+				}
+			}
+		}
+		for ( ; i < n; i++ ) {
+			int row = i * n;
+			for ( int j = 0; j < n; j++ ) {
+				addWeighted( summed[i], weightsIn[row + j], outputs[j] );
+			}
+		}
+	}
+	
+	/**
+	 * Copies one neuron's external input for every state, or zeros if there
+	 * is none.
+	 */
+	private void copyInput( float[] in, float[] to ) {
+		if ( in == null ) {
+			for ( int s = 0; s < k; s++ ) {
+				to[s] = 0f;
+			}
+		} else {
+			System.arraycopy( in, 0, to, 0, k );
+		}
+	}
+	
+	/**
+	 * Integrates one neuron's state in every state vector from its summed
+	 * input, and updates its outputs.
+	 */
+	private void update( int i, float stepSize, float[] in ) {
+		float[] state = states[i], out = outputs[i];
+		float rate = stepSize * invTaus[i], gain = gains[i], bias = biases[i];
+		if ( stateChanges == null ) {
+			for ( int s = 0; s < k; s++ ) {
+				state[s] += rate * (in[s] - state[s]);
+				out[s] = activation.apply( gain * (state[s] + bias) );
+			}
+		} else {
+			for ( int s = 0; s < k; s++ ) {
+				float change = rate * (in[s] - state[s]);
+				state[s] += change;
+				out[s] = activation.apply( gain * (state[s] + bias) );
+				// the first neuron starts each step's maximum
+				stateChanges[s] = i == 0 ? Math.abs( change ) : Math.max( stateChanges[s], Math.abs( change ) );
+			}
+		}
+	}
+	
+	@Override
+	public void setTrackStateChange( boolean track ) {
+		stateChanges = track ? (stateChanges == null ? new float[capacity] : stateChanges) : null;
+	}
+	
+	@Override
+	public float getStateChange( int s ) {
+		return stateChanges[s];
+	}
+	
+	/**
+	 * Swaps the states and outputs of two members; the network's parameters
+	 * are shared by every state, so stay as they are.
+	 */
+	@Override
+	public void swapMembers( int a, int b ) {
+		for ( int i = 0; i < n; i++ ) {
+			swap( states[i], a, b );
+			swap( outputs[i], a, b );
+		}
+		if ( stateChanges != null ) {
+			swap( stateChanges, a, b );
+		}
+	}
+	
+	private static void swap( float[] values, int a, int b ) {
+		float swap = values[a];
+		values[a] = values[b];
+		values[b] = swap;
+	}
+	
+	@Override
+	public float[][] getStates() {
+		return states;
+	}
+	
+	@Override
+	public void updateOutputs() {
+		for ( int i = 0; i < n; i++ ) {
+			float[] state = states[i], out = outputs[i];
+			float gain = gains[i], bias = biases[i];
+			for ( int s = 0; s < k; s++ ) {
+				out[s] = activation.apply( gain * (state[s] + bias) );
+			}
+		}
+	}
+	
+	@Override
+	public void derivatives( float[][] at, float[][] inputs, float[][] derivs ) {
+		if ( stageOutputs == null ) {
+			stageOutputs = new float[n][capacity];
+		}
+		for ( int i = 0; i < n; i++ ) {
+			float[] state = at[i], out = stageOutputs[i];
+			float gain = gains[i], bias = biases[i];
+			for ( int s = 0; s < k; s++ ) {
+				out[s] = activation.apply( gain * (state[s] + bias) );
+			}
+		}
+		
+		for ( int i = 0; i < n; i++ ) {
+			float[] deriv = derivs[i], state = at[i];
+			copyInput( inputs[i], deriv );
+			if ( sparse == null ) {
+				int row = i * n;
+				for ( int j = 0; j < n; j++ ) {
+					addWeighted( deriv, weightsIn[row + j], stageOutputs[j] );
+				}
+			} else {
+				for ( int c = sparse.rowStart[i]; c < sparse.rowStart[i + 1]; c++ ) {
+					addWeighted( deriv, sparse.values[c], stageOutputs[sparse.sources[c]] );
+				}
+			}
+			
+			float invTau = invTaus[i];
+			for ( int s = 0; s < k; s++ ) {
+				deriv[s] = invTau * (deriv[s] - state[s]);
+			}
+		}
+	}
+	
+	@Override
+	public float getInverseTimeConstant( int neuron, int s ) {
+		return invTaus[neuron];
+	}
+	
+	@Override
+	public float getOutputForState( int neuron, int s, float state ) {
+		return activation.apply( gains[neuron] * (state + biases[neuron]) );
+	}
+	
+	private void addWeighted( float[] in, float w, float[] out ) {
+		for ( int s = 0; s < k; s++ ) {
+			in[s] += w * out[s];
+		}
+	}
+	
+	@Override
+	public float getOutput( int neuron, int s ) {
+		return outputs[neuron][s];
+	}
+	
+	/**
+	 * @param neuron
+	 *            Index of the neuron.
+	 * @return an array of the outputs of a neuron in every state.
+	 */
+	public float[] getOutputs( int neuron ) {
+		return Arrays.copyOf( outputs[neuron], k );
+	}
+	
+	@Override
+	public int getNumberOfNeurons() {
+		return n;
+	}
+	
+	@Override
+	public int getBatchSize() {
+		return k;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format( "[MultiStateCTRNN n=%d k=%d]", n, k );
+	}
+}
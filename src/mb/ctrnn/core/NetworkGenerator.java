@@ -0,0 +1,67 @@
+package mb.ctrnn.core;
+
+import java.util.Random;
+
+/**
+ * Generates random networks of any size, e.g. to benchmark how simulation
+ * scales to thousands of neurons. Every neuron receives the same number of
+ * connections from distinct neurons chosen at random, with weights scaled by
+ * the fan-in so the summed input stays in the same range whatever the size.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public class NetworkGenerator {
+	
+	/**
+	 * Summed input scale: weights are drawn from [-WEIGHT_SCALE,
+	 * WEIGHT_SCALE] / sqrt(fanIn).
+	 */
+	static final float	WEIGHT_SCALE	= 3f;
+	
+	/**
+	 * Generates a random network with taus in [1, 10], biases in [-1, 1] and
+	 * gains of 1.
+	 * 
+	 * @param n
+	 *            Number of neurons.
+	 * @param fanIn
+	 *            Number of connections into each neuron, at most n; n gives a
+	 *            fully connected network.
+	 * @param seed
+	 *            Seed for the random generator, so the same network can be
+	 *            generated again.
+	 * @return the new network.
+	 */
+	public static ParallelCTRNN random( int n, int fanIn, long seed ) {
+		if ( fanIn < 0 || fanIn > n )
+			throw new IllegalArgumentException( String.format( "Fan-in should be from 0 to %d; got %d", n, fanIn ) );
+		Random rand = new Random( seed );
+		float[] taus = new float[n], biases = new float[n], gains = new float[n];
+		int[] rowStart = new int[n + 1], sources = new int[n * fanIn];
+		float[] values = new float[n * fanIn];
+		float scale = fanIn == 0 ? 0f : WEIGHT_SCALE / (float) Math.sqrt( fanIn );
+		
+		int c = 0;
+		for ( int i = 0; i < n; i++ ) {
+			taus[i] = 1f + rand.nextFloat() * 9f;
+			biases[i] = rand.nextFloat() * 2f - 1f;
+			gains[i] = 1f;
+			
+			// selection sampling, so each row's sources come out in order
+			rowStart[i] = c;
+			int needed = fanIn;
+			for ( int j = 0; j < n && needed > 0; j++ ) {
+				if ( rand.nextInt( n - j ) < needed ) {
+					sources[c] = j;
+					values[c] = (rand.nextFloat() * 2f - 1f) * scale;
+					c++;
+					needed--;
+				}
+			}
+		}
+		rowStart[n] = c;
+		
+		return new ParallelCTRNN( n, taus, biases, gains, rowStart, sources, values );
+	}
+}
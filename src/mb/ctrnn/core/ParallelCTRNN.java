@@ -0,0 +1,331 @@
+package mb.ctrnn.core;
+
+import java.util.concurrent.ForkJoinPool;
+
+import mb.util.ParallelLoop;
+
+/**
+ * Simulates a single large CTRNN, of thousands of neurons, splitting each step
+ * across a ForkJoinPool.
+ * 
+ * Connections are stored in compressed sparse row form as in SparseCTRNN, but
+ * without the dense weight matrices a CTRNN keeps, which would take 800MB at
+ * 10000 neurons. Neurons are updated synchronously (see
+ * UpdateMode): every input is summed from the outputs of the previous step,
+ * so the neurons can be split into chunks that are summed and updated
+ * independently. Outputs are double-buffered; each step reads one buffer and
+ * writes the other, then they are swapped. No chunk writes anything another
+ * chunk reads, so the chunks never wait for each other within a step, and the
+ * only synchronisation is waiting for the whole step to finish.
+ * 
+ * Steps of networks with fewer connections than the parallel threshold are
+ * run on the calling thread, as forking would cost more than it saves. Either
+ * way the result is identical to a synchronous CTRNN or SparseCTRNN with the
+ * same connections.
+ * 
+ * This isn't a CTRNN and isn't chosen by CTRNNLayout.createCTRNN() or
+ * LayoutTemplate: evolved networks are small and stepped in batches by
+ * MultiStateCTRNN, which gains nothing from splitting one network's step. It
+ * is only built by NetworkGenerator, for LargeNetworkBenchmark.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public class ParallelCTRNN {
+	
+	/**
+	 * Number of connections from which steps are split across the pool by
+	 * default. A serial step of this many takes over 100 microseconds, ten
+	 * times the cost of forking and joining its tasks.
+	 */
+	public static final int		DEFAULT_PARALLEL_THRESHOLD	= 1 << 16;
+	
+	/**
+	 * Chunks per pool thread, so a thread that finishes early can take work
+	 * from a slower one.
+	 */
+	static final int			CHUNKS_PER_THREAD			= 4;
+	
+	/**
+	 * Cost of updating a neuron, in connections, when balancing chunks. Mostly
+	 * the activation function.
+	 */
+	static final int			NEURON_COST					= 8;
+	
+	/**
+	 * Initialises a new ParallelCTRNN with the specified parameters and
+	 * connections. The arrays are used directly, not copied.
+	 * 
+	 * @param n
+	 *            Number of neurons.
+	 * @param taus
+	 *            Array of tau parameters; determines time constant for each
+	 *            neuron.
+	 * @param biases
+	 *            Array of bias parameters; determines biasing for each neuron.
+	 * @param gains
+	 *            Array of gain parameters; determines neural gain for each
+	 *            neuron.
+	 * @param rowStart
+	 *            Array of n + 1 indexes: the connections into neuron i are
+	 *            rowStart[i] to rowStart[i + 1] - 1.
+	 * @param sources
+	 *            Neuron each connection comes from.
+	 * @param values
+	 *            Weight of each connection.
+	 */
+	public ParallelCTRNN ( int n, float[] taus, float[] biases, float[] gains, int[] rowStart, int[] sources, float[] values ) {
+		validate( n, taus.length, "taus" );
+		validate( n, biases.length, "biases" );
+		validate( n, gains.length, "gains" );
+		validate( n + 1, rowStart.length, "rowStart" );
+		if ( sources.length != values.length || rowStart[n] != values.length )
+			throw new IllegalArgumentException( String.format( "Expected %d connections; got %d sources and %d values", rowStart[n],
+					sources.length, values.length ) );
+		this.n = n;
+		this.biases = biases;
+		this.gains = gains;
+		this.rowStart = rowStart;
+		this.sources = sources;
+		this.values = values;
+		this.invTaus = new float[n];
+		for ( int i = 0; i < n; i++ ) {
+			invTaus[i] = 1 / taus[i];
+		}
+		this.states = new float[n];
+		this.outputs = new float[n];
+		this.nextOutputs = new float[n];
+		this.chunkStart = new int[] { 0, n };
+		reset();
+	}
+	
+	/**
+	 * Copies the parameters and connections of a CTRNN. A SparseCTRNN keeps
+	 * its declared connections; a dense CTRNN keeps its non-zero weights.
+	 * 
+	 * @param ctrnn
+	 *            Network to copy. Its state is not copied.
+	 * @return a new ParallelCTRNN that steps like ctrnn in synchronous mode.
+	 */
+	public static ParallelCTRNN of( CTRNN ctrnn ) {
+		int n = ctrnn.n;
+		int[] rowStart, sources;
+		float[] values;
+		if ( ctrnn instanceof SparseCTRNN ) {
+			SparseCTRNN sparse = (SparseCTRNN) ctrnn;
+			rowStart = sparse.rowStart.clone();
+			sources = sparse.sources.clone();
+			values = sparse.values.clone();
+		} else {
+			int nConnections = 0;
+			for ( int w = 0; w < n * n; w++ ) {
+				if ( ctrnn.weightsIn[w] != 0f ) {
+					nConnections++;
+				}
+			}
+			rowStart = new int[n + 1];
+			sources = new int[nConnections];
+			values = new float[nConnections];
+			int c = 0;
+			for ( int i = 0; i < n; i++ ) {
+				rowStart[i] = c;
+				for ( int j = 0; j < n; j++ ) {
+					float weight = ctrnn.weightsIn[i * n + j];
+					if ( weight != 0f ) {
+						sources[c] = j;
+						values[c] = weight;
+						c++;
+					}
+				}
+			}
+			rowStart[n] = c;
+		}
+		ParallelCTRNN parallel = new ParallelCTRNN( n, ctrnn.taus.clone(), ctrnn.biases.clone(), ctrnn.gains.clone(), rowStart, sources,
+				values );
+		parallel.setActivation( ctrnn.activation );
+		return parallel;
+	}
+	
+	private static void validate( int expected, int length, String arrayName ) {
+		if ( length != expected )
+			throw new IllegalArgumentException( String.format( "%s should be of length %d; got an array of length %d", arrayName, expected,
+					length ) );
+	}
+	
+	private final int			n;									// number of
+																	// neurons
+	private final float[]		biases, gains, invTaus;
+	private final int[]			rowStart, sources;					// connections,
+																	// as
+																	// SparseCTRNN
+	private final float[]		values;
+	private final float[]		states;
+	private float[]				outputs, nextOutputs;				// read and
+																	// written by
+																	// a step
+	private ActivationFunction	activation			= ActivationFunction.TANH;
+	private ForkJoinPool		pool;								// null if
+																	// serial
+	private int					parallelThreshold	= DEFAULT_PARALLEL_THRESHOLD;
+	private int[]				chunkStart;							// neurons in
+																	// chunk c are
+																	// chunkStart[c]
+																	// to
+																	// chunkStart[c
+																	// + 1] - 1
+	
+	// the step being run, read by every chunk
+	private float				stepSize;
+	private float[]				inputs;
+	
+	private final ParallelLoop.Body	chunk	= new ParallelLoop.Body() {
+											@Override
+											public void run( int c ) {
+												stepNeurons( chunkStart[c], chunkStart[c + 1] );
+											}
+										};
+	
+	/**
+	 * Integrates one step using Euler's method, summing every input from the
+	 * outputs of the previous step.
+	 * 
+	 * @param stepSize
+	 *            Timestep value for integration.
+	 * @param inputs
+	 *            Array of values to input to each neuron.
+	 */
+	public void step( float stepSize, float[] inputs ) {
+		this.stepSize = stepSize;
+		this.inputs = inputs;
+		if ( isParallel() ) {
+			ParallelLoop.run( pool, chunkStart.length - 1, chunk );
+		} else {
+			stepNeurons( 0, n );
+		}
+		this.inputs = null;
+		
+		float[] swap = outputs;
+		outputs = nextOutputs;
+		nextOutputs = swap;
+	}
+	
+	/**
+	 * Sums and updates neurons from to to - 1, reading outputs and writing
+	 * only their own states and next outputs.
+	 */
+	private void stepNeurons( int from, int to ) {
+		float[] read = outputs, write = nextOutputs;
+		for ( int i = from; i < to; i++ ) {
+			float input = inputs[i];
+			for ( int c = rowStart[i]; c < rowStart[i + 1]; c++ ) {
+				input += values[c] * read[sources[c]];
+			}
+			states[i] += stepSize * invTaus[i] * (input - states[i]);
+			write[i] = activation.apply( gains[i] * (states[i] + biases[i]) );
+		}
+	}
+	
+	/**
+	 * Splits the neurons into chunks of about equal cost, for the current
+	 * pool.
+	 */
+	private void planChunks() {
+		int nChunks = pool == null ? 1 : Math.min( n, pool.getParallelism() * CHUNKS_PER_THREAD );
+		chunkStart = new int[nChunks + 1];
+		long total = (long) rowStart[n] + (long) n * NEURON_COST;
+		int i = 0;
+		for ( int c = 1; c < nChunks; c++ ) {
+			long target = total * c / nChunks;
+			while ( i < n && (long) rowStart[i] + (long) i * NEURON_COST < target ) {
+				i++;
+			}
+			chunkStart[c] = i;
+		}
+		chunkStart[nChunks] = n;
+	}
+	
+	/**
+	 * Sets the pool steps are split across once the network has at least the
+	 * parallel threshold of connections.
+	 * 
+	 * @param pool
+	 *            ForkJoinPool to use, or null to always step on the calling
+	 *            thread.
+	 */
+	public void setPool( ForkJoinPool pool ) {
+		this.pool = pool;
+		planChunks();
+	}
+	
+	/**
+	 * @param connections
+	 *            Number of connections from which steps are split across the
+	 *            pool.
+	 */
+	public void setParallelThreshold( int connections ) {
+		this.parallelThreshold = connections;
+	}
+	
+	/**
+	 * @return whether steps are split across the pool.
+	 */
+	public boolean isParallel() {
+		return pool != null && chunkStart.length > 2 && rowStart[n] >= parallelThreshold;
+	}
+	
+	/**
+	 * @param activation
+	 *            Activation function to apply to each neuron's state.
+	 */
+	public void setActivation( ActivationFunction activation ) {
+		this.activation = activation;
+	}
+	
+	/**
+	 * Gets a single neuron output without copying the output array.
+	 * 
+	 * @param i
+	 *            Index of the neuron.
+	 * @return the output of the neuron.
+	 */
+	public float getOutput( int i ) {
+		return outputs[i];
+	}
+	
+	/**
+	 * @return an array of the neuron outputs.
+	 */
+	public float[] getOutputs() {
+		return outputs.clone();
+	}
+	
+	/**
+	 * Sets all states to 0.5 and outputs to 0, as for a new CTRNN.
+	 */
+	public void reset() {
+		for ( int i = 0; i < n; i++ ) {
+			states[i] = 0.5f;
+			outputs[i] = 0f;
+			nextOutputs[i] = 0f;
+		}
+	}
+	
+	/**
+	 * @return the number of neurons.
+	 */
+	public int getNumberOfNeurons() {
+		return n;
+	}
+	
+	/**
+	 * @return the number of connections.
+	 */
+	public int getNumberOfConnections() {
+		return values.length;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format( "[ParallelCTRNN n=%d connections=%d parallel=%b]", n, values.length, isParallel() );
+	}
+}
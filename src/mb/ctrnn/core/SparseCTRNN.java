@@ -0,0 +1,136 @@
+package mb.ctrnn.core;
+
+/**
+ * A CTRNN that only sums over declared connections, stored in compressed
+ * sparse row form with one row per receiving neuron. A step costs time
+ * proportional to the number of connections rather than n * n.
+ * 
+ * The dense weight matrix is still kept so the network can be cloned or
+ * logged like any other CTRNN, but is not used while stepping. Connections are
+ * summed in increasing neuron order, the same order as CTRNN.step(), so the
+ * outputs are identical to a dense CTRNN with zeros for every undeclared
+ * connection.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public class SparseCTRNN extends CTRNN {
+	
+	final int[]		rowStart;	// connections into neuron i are
+								// rowStart[i] to rowStart[i + 1] - 1
+	final int[]		sources;	// neuron each connection comes from
+	final float[]	values;		// weight of each connection
+								
+	/**
+	 * Initialises a new SparseCTRNN with the specified parameters.
+	 * 
+	 * @param n
+	 *            Number of neurons.
+	 * @param taus
+	 *            Array of tau parameters; determines time constant for each
+	 *            neuron.
+	 * @param biases
+	 *            Array of bias parameters; determines biasing for each neuron.
+	 * @param gains
+	 *            Array of gain parameters; determines neural gain for each
+	 *            neuron.
+	 * @param weights
+	 *            Matrix of weight connections; weights[i][j] determines
+	 *            connection strength between neuron i and neuron j.
+	 * @param connected
+	 *            Matrix of declared connections; connected[i][j] is true if
+	 *            there is a connection from neuron i to neuron j. Weights of
+	 *            undeclared connections are ignored.
+	 */
+	public SparseCTRNN ( int n, float[] taus, float[] biases, float[] gains, float[][] weights, boolean[][] connected ) {
+		super( n, taus, biases, gains, weights );
+		if ( connected.length != n )
+			throw new IllegalArgumentException( String.format( "Connections should be of length %d; got an array of length %d", n,
+					connected.length ) );
+		
+		int nConnections = 0;
+		for ( int j = 0; j < n; j++ ) {
+			for ( int i = 0; i < n; i++ ) {
+				if ( connected[j][i] ) {
+					nConnections++;
+				}
+			}
+		}
+		
+		rowStart = new int[n + 1];
+		sources = new int[nConnections];
+		values = new float[nConnections];
+		
+		int c = 0;
+		for ( int i = 0; i < n; i++ ) {
+			rowStart[i] = c;
+			for ( int j = 0; j < n; j++ ) {
+				if ( connected[j][i] ) {
+					sources[c] = j;
+					values[c] = weights[j][i];
+					c++;
+				}
+			}
+		}
+		rowStart[n] = c;
+	}
+	
+	@Override
+	protected float sumInput( int i, float input ) {
+		for ( int c = rowStart[i]; c < rowStart[i + 1]; c++ )
+			input += values[c] * outputs[sources[c]];
+		return input;
+	}
+	
+	/**
+	 * Sets the connection strength from one neuron to another. Only declared
+	 * connections can be given a non-zero weight.
+	 * 
+	 * @param from
+	 *            Index of the neuron the connection comes from.
+	 * @param to
+	 *            Index of the neuron the connection goes to.
+	 * @param weight
+	 *            New connection strength.
+	 */
+	@Override
+	public void setWeight( int from, int to, float weight ) {
+		for ( int c = rowStart[to]; c < rowStart[to + 1]; c++ ) {
+			if ( sources[c] == from ) {
+				values[c] = weight;
+				super.setWeight( from, to, weight );
+				return;
+			}
+		}
+		if ( weight != 0f )
+			throw new IllegalArgumentException( String.format( "No connection from neuron %d to neuron %d", from, to ) );
+	}
+	
+	/**
+	 * @return the number of declared connections.
+	 */
+	public int getNumberOfConnections() {
+		return values.length;
+	}
+	
+	@Override
+	public Object clone() {
+		boolean[][] connected = new boolean[n][n];
+		for ( int i = 0; i < n; i++ ) {
+			for ( int c = rowStart[i]; c < rowStart[i + 1]; c++ ) {
+				connected[sources[c]][i] = true;
+			}
+		}
+		SparseCTRNN ctrnn = new SparseCTRNN( n, taus.clone(), biases.clone(), gains.clone(), copyWeights( weights ), connected );
+		ctrnn.states = states.clone();
+		ctrnn.outputs = outputs.clone();
+		ctrnn.activation = activation;
+		ctrnn.setUpdateMode( updateMode );
+		return ctrnn;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format( "[SparseCTRNN n=%d connections=%d]", n, values.length );
+	}
+}
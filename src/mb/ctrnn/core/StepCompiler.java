@@ -0,0 +1,394 @@
+package mb.ctrnn.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Generates, compiles and loads a CompiledCTRNN subclass specialised to the
+ * shape of a layout: which connections it has and which of its parameters are
+ * fixed. Source is compiled in memory with the system Java compiler. Classes
+ * are cached by the shape's fingerprint, so every layout of the same shape
+ * shares one class, and each is only compiled once per process.
+ * 
+ * Networks that can't be compiled, because there's no compiler (e.g. on a
+ * JRE) or the network is too large, are left to the generic engine: create()
+ * returns null and callers should create a CTRNN as usual.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public class StepCompiler {
+	
+	/**
+	 * Largest number of neurons compiled. Each step method is unrolled, so
+	 * its size grows with the network; methods over 8000 bytes of bytecode
+	 * are never JIT compiled and would run slower than the generic engine.
+	 */
+	public static final int								MAX_NEURONS		= 32;
+	
+	/**
+	 * Largest number of connections compiled, for the same reason.
+	 */
+	public static final int								MAX_CONNECTIONS	= 400;
+	
+	private static final String							PACKAGE			= "mb.ctrnn.core";
+	
+	private static final Logger							LOG				= Logger.getLogger( StepCompiler.class.getName() );
+	
+	private static final ConcurrentMap<String, Entry>	classes			= new ConcurrentHashMap<>();
+	
+	private static class Entry {
+		final Constructor<? extends CompiledCTRNN>	constructor;	// null if
+																	// compiling
+																	// failed
+		
+		Entry ( Constructor<? extends CompiledCTRNN> constructor ) {
+			this.constructor = constructor;
+		}
+	}
+	
+	/**
+	 * The parameters and connections of a network, and which of them are
+	 * genetic, as needed to generate its step methods.
+	 */
+	public static final class Shape {
+		
+		final int			n, nTerms;								// terms summed
+																	// per step
+		final float[]		taus, biases, gains;
+		final float[][]		weights;
+		final boolean[]		geneticTaus, geneticBiases, geneticGains;
+		final boolean[][]	geneticWeights;
+		final String		fingerprint;
+		
+		/**
+		 * Copies the parameters of a network, with every gene as set in the
+		 * layout, and marks those written by the plan as genetic. Connections
+		 * are summed if they are genetic or have a non-zero fixed weight.
+		 * 
+		 * @param n
+		 *            Number of neurons.
+		 * @param taus
+		 *            Array of tau parameters.
+		 * @param biases
+		 *            Array of bias parameters.
+		 * @param gains
+		 *            Array of gain parameters.
+		 * @param weights
+		 *            Matrix of weight connections; weights[i][j] determines
+		 *            connection strength between neuron i and neuron j.
+		 * @param plan
+		 *            Plan writing the genetic parameters.
+		 */
+		public Shape ( int n, float[] taus, float[] biases, float[] gains, float[][] weights, GeneScatterPlan plan ) {
+			this.n = n;
+			this.taus = taus.clone();
+			this.biases = biases.clone();
+			this.gains = gains.clone();
+			this.weights = new float[n][];
+			for ( int i = 0; i < n; i++ ) {
+				this.weights[i] = weights[i].clone();
+			}
+			geneticTaus = new boolean[n];
+			geneticBiases = new boolean[n];
+			geneticGains = new boolean[n];
+			geneticWeights = new boolean[n][n];
+			plan.markGenetic( geneticTaus, geneticBiases, geneticGains, geneticWeights );
+			
+			// every value is written exactly, so equal fingerprints mean
+			// identical step methods
+			StringBuilder fingerprint = new StringBuilder().append( n );
+			int terms = 0;
+			for ( int i = 0; i < n; i++ ) {
+				fingerprint.append( ";" ).append( parameter( geneticTaus[i], taus[i] ) );
+				fingerprint.append( "," ).append( parameter( geneticBiases[i], biases[i] ) );
+				fingerprint.append( "," ).append( parameter( geneticGains[i], gains[i] ) );
+				for ( int j = 0; j < n; j++ ) {
+					if ( isSummed( j, i ) ) {
+						fingerprint.append( "," ).append( j ).append( "=" ).append( parameter( geneticWeights[j][i], weights[j][i] ) );
+						terms++;
+					}
+				}
+			}
+			this.fingerprint = fingerprint.toString();
+			this.nTerms = terms;
+		}
+		
+		private static String parameter( boolean genetic, float value ) {
+			return genetic ? "g" : Integer.toHexString( Float.floatToIntBits( value ) );
+		}
+		
+		/**
+		 * @return whether the weight from neuron j to neuron i is summed.
+		 */
+		boolean isSummed( int j, int i ) {
+			return geneticWeights[j][i] || weights[j][i] != 0f;
+		}
+		
+		/**
+		 * @return whether the network is small enough to compile.
+		 */
+		public boolean isCompilable() {
+			return n <= MAX_NEURONS && nTerms <= MAX_CONNECTIONS;
+		}
+		
+		/**
+		 * @return a string identifying the step methods of the shape.
+		 */
+		public String getFingerprint() {
+			return fingerprint;
+		}
+	}
+	
+	private StepCompiler () {
+	}
+	
+	/**
+	 * Creates a network of the given shape, compiling its class if no network
+	 * of that shape has been created before.
+	 * 
+	 * @param shape
+	 *            Shape of the network.
+	 * @return a new network with the parameters of the shape, or null if it
+	 *         can't be compiled.
+	 */
+	public static CompiledCTRNN create( Shape shape ) {
+		if ( !shape.isCompilable() )
+			return null;
+		
+		Entry entry = classes.get( shape.fingerprint );
+		if ( entry == null ) {
+			// like LayoutRegistry, threads compiling at once all use the
+			// first class registered
+			Entry compiled = new Entry( compile( shape ) );
+			entry = classes.putIfAbsent( shape.fingerprint, compiled );
+			if ( entry == null ) {
+				entry = compiled;
+			}
+		}
+		if ( entry.constructor == null )
+			return null;
+		
+		try {
+			return entry.constructor.newInstance( shape );
+		} catch ( ReflectiveOperationException e ) {
+			throw new IllegalStateException( "Couldn't create compiled network", e );
+		}
+	}
+	
+	/**
+	 * @return the number of shapes compiled or attempted.
+	 */
+	public static int size() {
+		return classes.size();
+	}
+	
+	/**
+	 * Removes all cached classes. Networks already created are not affected.
+	 */
+	public static void clear() {
+		classes.clear();
+	}
+	
+	/**
+	 * @return the constructor of the compiled class, or null if it couldn't be
+	 *         compiled.
+	 */
+	private static Constructor<? extends CompiledCTRNN> compile( Shape shape ) {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if ( compiler == null ) {
+			LOG.warning( "No Java compiler available; using the generic CTRNN engine" );
+			return null;
+		}
+		
+		String simpleName = "GeneratedCTRNN" + Integer.toHexString( shape.fingerprint.hashCode() );
+		String name = PACKAGE + "." + simpleName;
+		final String source = generate( shape, simpleName );
+		final Map<String, ByteArrayOutputStream> output = new HashMap<>();
+		
+		JavaFileObject sourceFile = new SimpleJavaFileObject( URI.create( "string:///" + name.replace( '.', '/' ) + Kind.SOURCE.extension ),
+				Kind.SOURCE ) {
+			@Override
+			public CharSequence getCharContent( boolean ignoreEncodingErrors ) {
+				return source;
+			}
+		};
+		StandardJavaFileManager standardManager = compiler.getStandardFileManager( null, null, null );
+		JavaFileManager fileManager = new ForwardingJavaFileManager<StandardJavaFileManager>( standardManager ) {
+			@Override
+			public JavaFileObject getJavaFileForOutput( Location location, final String className, Kind kind, FileObject sibling ) {
+				return new SimpleJavaFileObject( URI.create( "mem:///" + className.replace( '.', '/' ) + kind.extension ), kind ) {
+					@Override
+					public OutputStream openOutputStream() {
+						ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+						output.put( className, bytes );
+						return bytes;
+					}
+				};
+			}
+		};
+		
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		boolean compiled;
+		try {
+			compiled = compiler.getTask( null, fileManager, diagnostics, Arrays.asList( "-classpath", classPath() ), null,
+					Arrays.asList( sourceFile ) ).call();
+		} catch ( RuntimeException e ) {
+			LOG.warning( "Couldn't compile " + name + ": " + e );
+			return null;
+		}
+		if ( !compiled || !output.containsKey( name ) ) {
+			StringBuilder errors = new StringBuilder();
+			for ( Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics() ) {
+				errors.append( "\n" ).append( diagnostic );
+			}
+			LOG.warning( "Couldn't compile " + name + ":" + errors );
+			return null;
+		}
+		
+		try {
+			byte[] bytes = output.get( name ).toByteArray();
+			Class<? extends CompiledCTRNN> generated = new GeneratedClassLoader( CompiledCTRNN.class.getClassLoader() )
+					.define( name, bytes ).asSubclass( CompiledCTRNN.class );
+			return generated.getConstructor( Shape.class );
+		} catch ( ReflectiveOperationException | LinkageError e ) {
+			LOG.warning( "Couldn't load " + name + ": " + e );
+			return null;
+		}
+	}
+	
+	/**
+	 * @return the class path, including wherever CompiledCTRNN was loaded
+	 *         from if it isn't on the system class path.
+	 */
+	private static String classPath() {
+		String classPath = System.getProperty( "java.class.path" );
+		try {
+			String location = new File( CompiledCTRNN.class.getProtectionDomain().getCodeSource().getLocation().toURI() ).getPath();
+			return location + File.pathSeparator + classPath;
+		} catch ( Exception e ) {
+			return classPath;
+		}
+	}
+	
+	private static class GeneratedClassLoader extends ClassLoader {
+		
+		GeneratedClassLoader ( ClassLoader parent ) {
+			super( parent );
+		}
+		
+		Class<?> define( String name, byte[] bytes ) {
+			return defineClass( name, bytes, 0, bytes.length );
+		}
+	}
+	
+	/**
+	 * Writes the source of a CompiledCTRNN subclass for the shape. Each input
+	 * is summed in increasing neuron order and every expression is evaluated in
+	 * the same order as CTRNN.step(), so the outputs are identical.
+	 */
+	static String generate( Shape shape, String simpleName ) {
+		int n = shape.n;
+		StringBuilder source = new StringBuilder();
+		source.append( "package " ).append( PACKAGE ).append( ";\n\n" );
+		source.append( "// generated by StepCompiler for " ).append( n ).append( " neurons and " ).append( shape.nTerms )
+				.append( " connections\n" );
+		source.append( "public final class " ).append( simpleName ).append( " extends CompiledCTRNN {\n\n" );
+		source.append( "\tpublic " ).append( simpleName ).append( " ( StepCompiler.Shape shape ) {\n\t\tsuper( shape );\n\t}\n\n" );
+		
+		source.append( "\t@Override\n\tprotected void stepSequential( float h, float[] in ) {\n" );
+		appendLocals( source );
+		source.append( "\t\tfloat x;\n" );
+		for ( int i = 0; i < n; i++ ) {
+			source.append( "\t\tx = " );
+			appendInput( source, shape, i );
+			source.append( ";\n" );
+			appendUpdate( source, shape, i, "x" );
+		}
+		source.append( "\t}\n\n" );
+		
+		source.append( "\t@Override\n\tprotected void stepSynchronous( float h, float[] in ) {\n" );
+		appendLocals( source );
+		for ( int i = 0; i < n; i++ ) {
+			source.append( "\t\tfloat x" ).append( i ).append( " = " );
+			appendInput( source, shape, i );
+			source.append( ";\n" );
+		}
+		for ( int i = 0; i < n; i++ ) {
+			appendUpdate( source, shape, i, "x" + i );
+		}
+		source.append( "\t}\n}\n" );
+		return source.toString();
+	}
+	
+	private static void appendLocals( StringBuilder source ) {
+		source.append( "\t\tfloat[] s = states, o = outputs, w = weightsIn, v = invTaus, b = biases, g = gains;\n" );
+		source.append( "\t\tActivationFunction f = activation;\n" );
+	}
+	
+	/**
+	 * Appends the summed input to neuron i.
+	 */
+	private static void appendInput( StringBuilder source, Shape shape, int i ) {
+		int n = shape.n;
+		source.append( "in[" ).append( i ).append( "]" );
+		for ( int j = 0; j < n; j++ ) {
+			if ( !shape.isSummed( j, i ) ) {
+				continue;
+			}
+			source.append( " + " );
+			if ( shape.geneticWeights[j][i] ) {
+				source.append( "w[" ).append( i * n + j ).append( "]" );
+			} else {
+				source.append( literal( shape.weights[j][i] ) );
+			}
+			source.append( " * o[" ).append( j ).append( "]" );
+		}
+	}
+	
+	/**
+	 * Appends the update of neuron i's state and output, as CTRNN.update().
+	 */
+	private static void appendUpdate( StringBuilder source, Shape shape, int i, String input ) {
+		String state = "s[" + i + "]";
+		String invTau = shape.geneticTaus[i] ? "v[" + i + "]" : literal( 1 / shape.taus[i] );
+		String bias = shape.geneticBiases[i] ? "b[" + i + "]" : literal( shape.biases[i] );
+		String gain = shape.geneticGains[i] ? "g[" + i + "]" : literal( shape.gains[i] );
+		source.append( "\t\t" ).append( state ).append( " += h * " ).append( invTau ).append( " * (" ).append( input ).append( " - " )
+				.append( state ).append( ");\n" );
+		source.append( "\t\to[" ).append( i ).append( "] = f.apply( " ).append( gain ).append( " * (" ).append( state ).append( " + " )
+				.append( bias ).append( ") );\n" );
+	}
+	
+	/**
+	 * @return a Java expression for exactly the given value.
+	 */
+	private static String literal( float value ) {
+		if ( Float.isNaN( value ) )
+			return "Float.NaN";
+		if ( Float.isInfinite( value ) )
+			return value > 0 ? "Float.POSITIVE_INFINITY" : "Float.NEGATIVE_INFINITY";
+		return "(" + Float.toHexString( value ) + "f)";
+	}
+}
@@ -0,0 +1,29 @@
+package mb.ctrnn.core;
+
+/**
+ * Orders in which the neurons of a CTRNN are updated within one Euler step.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public enum UpdateMode {
+	
+	/**
+	 * Neurons are updated one at a time in index order, as in Randall Beer's
+	 * C code, so neuron i sums the outputs that neurons 0 to i - 1 have
+	 * already produced in the same step. Each update depends on the one
+	 * before, so neurons can't be computed together. The default for a new
+	 * network.
+	 */
+	SEQUENTIAL,
+	
+	/**
+	 * Every neuron's input is summed from the outputs of the previous step
+	 * into a separate buffer before any neuron is updated, as in the usual
+	 * Euler discretisation of the CTRNN equations. The order neurons are
+	 * summed in doesn't matter, so batches can sum several neurons at once
+	 * and load each output once for all of them.
+	 */
+	SYNCHRONOUS;
+	
+}
@@ -6,11 +6,13 @@ import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
 
+import mb.ctrnn.core.ActivationFunction;
 import mb.ctrnn.json.Network.Layer.Neuron;
 import mb.ctrnn.layout.CTRNNLayout;
 import mb.ctrnn.layout.Neuron.ParameterType;
 import mb.ctrnn.layout.NeuronParam;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.core.JsonGenerationException;
 import com.fasterxml.jackson.databind.JsonMappingException;
@@ -48,12 +50,16 @@ public class Network {
 	}
 	
 	/**
-	 * Metadata for storing author,date,description
+	 * Metadata for storing author,date,description and the optional activation
+	 * function, which is the name of an ActivationFunction and defaults to
+	 * TANH.
 	 * 
 	 * @author Miles Bryant <mb459@sussex.ac.uk>
 	 */
 	public static class Metadata {
 		public String	description, author, date;
+		@JsonInclude( Include.NON_NULL )
+		public String	activation;
 		
 		@Override
 		public boolean equals( Object obj ) {
@@ -61,7 +67,8 @@ public class Network {
 				return false;
 			Metadata other = (Metadata) obj;
 			return (description.equals( other.description )
-					&& author.equals( other.author ) && date.equals( date ));
+					&& author.equals( other.author ) && date.equals( date )
+					&& (activation == null ? other.activation == null : activation.equals( other.activation )));
 		}
 	}
 	
@@ -214,6 +221,10 @@ public class Network {
 		
 		CTRNNLayout layout = new CTRNNLayout();
 		
+		if ( metadata != null && metadata.activation != null ) {
+			layout.setActivation( parseActivation( metadata.activation ) );
+		}
+		
 		int nNeurons = getNumberOfNeurons();
 		
 		Map<String, ParamRange> rangeMap = getRangeMap();
@@ -302,6 +313,14 @@ public class Network {
 		}
 	}
 	
+	private ActivationFunction parseActivation( String value ) throws JSONNetworkParseError {
+		try {
+			return ActivationFunction.valueOf( value.trim().toUpperCase() );
+		} catch ( IllegalArgumentException e ) {
+			throw new JSONNetworkParseError( "Value " + value + " is not a known activation function" );
+		}
+	}
+	
 	private boolean isGene( String spec ) {
 		return spec.startsWith( "g" );
 	}
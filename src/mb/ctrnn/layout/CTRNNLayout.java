@@ -6,7 +6,11 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import mb.ctrnn.core.ActivationFunction;
+import mb.ctrnn.core.BatchCTRNN;
 import mb.ctrnn.core.CTRNN;
+import mb.ctrnn.core.GeneScatterPlan;
+import mb.ctrnn.core.SparseCTRNN;
 import mb.ctrnn.json.Network;
 import mb.ctrnn.json.Network.JSONNetworkParseError;
 import mb.ctrnn.layout.Neuron.ParameterType;
@@ -20,8 +24,15 @@ import mb.ctrnn.layout.Neuron.ParameterType;
  *
  */
 public class CTRNNLayout {
-	private List<Neuron>	neurons;
-	private GeneMapping		mapping;
+	/**
+	 * Networks with at most this fraction of possible connections declared are
+	 * created as SparseCTRNNs.
+	 */
+	public static final float	SPARSE_MAX_DENSITY	= 0.5f;
+	
+	private List<Neuron>		neurons;
+	private GeneMapping			mapping;
+	private ActivationFunction	activation	= ActivationFunction.TANH;
 	
 	public static CTRNNLayout fromFileName(String filename) throws FileNotFoundException, JSONNetworkParseError, IOException {
 		return Network.fromInputStream( new FileInputStream(filename) ).getLayout();
@@ -77,6 +88,23 @@ public class CTRNNLayout {
 		return mapping.getTotalGenes();
 	}
 	
+	/**
+	 * Sets the activation function of networks created from this layout.
+	 * 
+	 * @param activation
+	 *            Activation function to use.
+	 */
+	public void setActivation( ActivationFunction activation ) {
+		this.activation = activation;
+	}
+	
+	/**
+	 * @return the activation function of networks created from this layout.
+	 */
+	public ActivationFunction getActivation() {
+		return activation;
+	}
+	
 	/**
 	 * Sets the gene values with the specified gene array.
 	 * 
@@ -90,31 +118,163 @@ public class CTRNNLayout {
 	
 	/**
 	 * Creates a CTRNN for simulation using the neurons in the layout and their
-	 * parameters.
+	 * parameters. If few enough connections are declared, this is a
+	 * SparseCTRNN. Very large networks should be built as a ParallelCTRNN
+	 * instead, which this never returns.
 	 * 
 	 * @return a CTRNN network
 	 */
 	public CTRNN createCTRNN() {
+		return buildCTRNN( null );
+	}
+	
+	/**
+	 * Creates a CTRNN for simulation using the neurons in the layout, with
+	 * genetic parameters taken from the given genes instead of the values set
+	 * by updateGenes(). The layout is not modified, so this can be called from
+	 * several threads at once.
+	 * 
+	 * @param genes
+	 *            Float array of gene values. Must be same number of genes as
+	 *            exist in the mapping.
+	 * @return a CTRNN network
+	 */
+	public CTRNN createCTRNN( float[] genes ) {
+		if ( genes.length != getNumberOfGenes() )
+			throw new IllegalArgumentException( String.format( "Expected %d genes; got %d", getNumberOfGenes(), genes.length ) );
+		return buildCTRNN( genes );
+	}
+	
+	/**
+	 * Compiles the gene mapping into a GeneScatterPlan, which writes a genome
+	 * straight into the parameter arrays of a network created by this layout,
+	 * so one network can be reused for many genomes. The plan reflects the
+	 * layout when it is compiled; later changes to the layout are not seen.
+	 * 
+	 * @return a plan with an entry for every gene-mapped parameter.
+	 */
+	public GeneScatterPlan compile() {
+		int n = neurons.size();
+		boolean[][] connected = new boolean[n][n];
+		for ( int i = 0; i < n; i++ ) {
+			for ( int j = 0; j < n; j++ ) {
+				connected[i][j] = neurons.get( i ).isConnected( j );
+			}
+		}
+		
+		GeneScatterPlan plan = new GeneScatterPlan( n, getNumberOfGenes(), connected );
+		for ( int i = 0; i < n; i++ ) {
+			Neuron neuron = neurons.get( i );
+			NeuronParam.Gene tau = mappedGene( neuron.getParameter( ParameterType.TAU ) ),
+					bias = mappedGene( neuron.getParameter( ParameterType.BIAS ) ),
+					gain = mappedGene( neuron.getParameter( ParameterType.GAIN ) );
+			if ( tau != null )
+				plan.addTau( tau.getGeneIndex(), i, tau.getRange().low, tau.getRange().high );
+			if ( bias != null )
+				plan.addBias( bias.getGeneIndex(), i, bias.getRange().low, bias.getRange().high );
+			if ( gain != null )
+				plan.addGain( gain.getGeneIndex(), i, gain.getRange().low, gain.getRange().high );
+			for ( int j = 0; j < n; j++ ) {
+				NeuronParam.Gene weight = mappedGene( neuron.getWeightParameter( j ) );
+				if ( weight != null )
+					plan.addWeight( weight.getGeneIndex(), i, j, weight.getRange().low, weight.getRange().high );
+			}
+		}
+		return plan;
+	}
+	
+	/**
+	 * @return the parameter if it is a gene in the mapping, otherwise null.
+	 */
+	private static NeuronParam.Gene mappedGene( NeuronParam param ) {
+		if ( param instanceof NeuronParam.Gene && ((NeuronParam.Gene) param).getGeneIndex() >= 0 )
+			return (NeuronParam.Gene) param;
+		return null;
+	}
+	
+	/**
+	 * Creates a batch of networks using the neurons in the layout, one for
+	 * each set of genes. As with createCTRNN(float[]), the layout is not
+	 * modified.
+	 * 
+	 * @param genes
+	 *            Gene values for each network in the batch. Each must have the
+	 *            same number of genes as exist in the mapping.
+	 * @return a BatchCTRNN with one network per set of genes
+	 */
+	public BatchCTRNN createBatchCTRNN( float[][] genes ) {
+		BatchCTRNN batch = new BatchCTRNN( neurons.size(), genes.length );
+		batch.setActivation( activation );
+		for ( int b = 0; b < genes.length; b++ ) {
+			batch.setNetwork( b, createCTRNN( genes[b] ) );
+		}
+		return batch;
+	}
+	
+	/**
+	 * Creates a batch of identical networks using the neurons in the layout
+	 * and their parameters, e.g. to run a fixed network with several different
+	 * inputs at once.
+	 * 
+	 * @param batchSize
+	 *            Number of networks in the batch.
+	 * @return a BatchCTRNN of copies of the network from createCTRNN()
+	 */
+	public BatchCTRNN createBatchCTRNN( int batchSize ) {
+		CTRNN ctrnn = createCTRNN();
+		BatchCTRNN batch = new BatchCTRNN( neurons.size(), batchSize );
+		batch.setActivation( activation );
+		for ( int b = 0; b < batchSize; b++ ) {
+			batch.setNetwork( b, ctrnn );
+		}
+		return batch;
+	}
+	
+	private CTRNN buildCTRNN( float[] genes ) {
 		int n = neurons.size();
 		float[] taus = new float[n];
 		float[] biases = new float[n];
 		float[] gains = new float[n];
 		float[][] weights = new float[n][n];
+		boolean[][] connected = new boolean[n][n];
+		int nConnections = 0;
 		
 		for ( int i = 0; i < n; i++ ) {
 			Neuron neuron = neurons.get( i );
 			if ( !neuron.areAllParametersSet() )
 				throw new IllegalStateException( "Some parameters weren't set for neuron " + neuron.toString() );
 			
-			taus[i] = neuron.getValue( ParameterType.TAU );
-			biases[i] = neuron.getValue( ParameterType.BIAS );
-			gains[i] = neuron.getValue( ParameterType.GAIN );
+			if ( genes == null ) {
+				taus[i] = neuron.getValue( ParameterType.TAU );
+				biases[i] = neuron.getValue( ParameterType.BIAS );
+				gains[i] = neuron.getValue( ParameterType.GAIN );
+				for ( int j = 0; j < n; j++ ) {
+					weights[i][j] = neuron.getWeight( j );
+				}
+			} else {
+				taus[i] = neuron.getValue( ParameterType.TAU, genes );
+				biases[i] = neuron.getValue( ParameterType.BIAS, genes );
+				gains[i] = neuron.getValue( ParameterType.GAIN, genes );
+				for ( int j = 0; j < n; j++ ) {
+					weights[i][j] = neuron.getWeight( j, genes );
+				}
+			}
 			for ( int j = 0; j < n; j++ ) {
-				weights[i][j] = neuron.getWeight( j );
+				if ( neuron.isConnected( j ) ) {
+					connected[i][j] = true;
+					nConnections++;
+				}
 			}
 		}
 		
-		CTRNN ctrnn = new CTRNN( n, taus, biases, gains, weights );
+		// only declared connections need summing for sparse networks
+		CTRNN ctrnn;
+		if ( nConnections <= SPARSE_MAX_DENSITY * n * n ) {
+			ctrnn = new SparseCTRNN( n, taus, biases, gains, weights, connected );
+		} else {
+			ctrnn = new CTRNN( n, taus, biases, gains, weights );
+		}
+		ctrnn.setActivation( activation );
 		return ctrnn;
 	}
 	
@@ -138,6 +298,6 @@ public class CTRNNLayout {
 	
 	@Override
 	public String toString() {
-		return "[CTRNNLayout neurons=" + neurons.size() + " genes=" + mapping.getTotalGenes() + "]";
+		return "[CTRNNLayout neurons=" + neurons.size() + " genes=" + mapping.getTotalGenes() + " activation=" + activation + "]";
 	}
 }
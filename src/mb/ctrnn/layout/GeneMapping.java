@@ -40,6 +40,7 @@ public class GeneMapping {
 		}
 		genes.get(geneIndex).add(gene);
 		genes.get(geneIndex).setGeneValue(gene.getGeneValue());
+		gene.setGeneIndex(geneIndex);
 	}
 
 	/**
@@ -0,0 +1,86 @@
+package mb.ctrnn.layout;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import mb.ctrnn.json.Network.JSONNetworkParseError;
+
+/**
+ * Process-wide registry of LayoutTemplates parsed from network files, so
+ * every experiment using the same file shares one read-only template instead
+ * of parsing its own copy. Files are identified by their canonical path and
+ * parsed again if they have been modified since.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public class LayoutRegistry {
+	
+	private static final ConcurrentMap<String, Entry>	templates	= new ConcurrentHashMap<>();
+	
+	private static class Entry {
+		final LayoutTemplate	template;
+		final long				modified;	// file modification time
+		
+		Entry ( LayoutTemplate template, long modified ) {
+			this.template = template;
+			this.modified = modified;
+		}
+	}
+	
+	private LayoutRegistry () {
+	}
+	
+	/**
+	 * Gets the template for a JSON network file, parsing it if it hasn't been
+	 * parsed yet or has changed since. If several threads parse the same file
+	 * at once, they all get the template that was registered first.
+	 * 
+	 * @param filename
+	 *            Path of the JSON network file.
+	 * @return the shared template for the file.
+	 * @throws FileNotFoundException
+	 *             If the file doesn't exist.
+	 * @throws JSONNetworkParseError
+	 *             If the file isn't a valid JSON network file.
+	 * @throws IOException
+	 *             If the file can't be read.
+	 */
+	public static LayoutTemplate get( String filename ) throws FileNotFoundException, JSONNetworkParseError, IOException {
+		File file = new File( filename ).getCanonicalFile();
+		String key = file.getPath();
+		long modified = file.lastModified();
+		
+		Entry entry = templates.get( key );
+		if ( entry != null && entry.modified == modified )
+			return entry.template;
+		
+		Entry parsed = new Entry( new LayoutTemplate( CTRNNLayout.fromFileName( key ) ), modified );
+		if ( entry == null ) {
+			Entry existing = templates.putIfAbsent( key, parsed );
+			if ( existing != null && existing.modified == modified )
+				return existing.template;
+		} else {
+			templates.replace( key, entry, parsed );
+		}
+		return parsed.template;
+	}
+	
+	/**
+	 * @return the number of files with registered templates.
+	 */
+	public static int size() {
+		return templates.size();
+	}
+	
+	/**
+	 * Removes all registered templates. Templates already in use are not
+	 * affected.
+	 */
+	public static void clear() {
+		templates.clear();
+	}
+}
@@ -0,0 +1,229 @@
+package mb.ctrnn.layout;
+
+import mb.ctrnn.core.ActivationFunction;
+import mb.ctrnn.core.CTRNN;
+import mb.ctrnn.core.GeneScatterPlan;
+import mb.ctrnn.core.SparseCTRNN;
+import mb.ctrnn.core.StepCompiler;
+import mb.ctrnn.core.UpdateMode;
+import mb.ctrnn.layout.Neuron.ParameterType;
+
+/**
+ * An immutable snapshot of a CTRNNLayout: its topology, gene ranges and fixed
+ * values. Genomes are given with each call rather than set on the template,
+ * so one template can be shared by any number of phenotypes, experiments and
+ * threads at once. Templates for network files are shared through
+ * LayoutRegistry.
+ * 
+ * Networks are created and rebound through the layout's GeneScatterPlan, and
+ * are identical to those created by the CTRNNLayout it was made from.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public final class LayoutTemplate {
+	
+	private final int					n, nGenes, nConnections;
+	private final float[]				taus, biases, gains;	// values with
+																// every gene
+																// as set in the
+																// layout
+	private final float[][]				weights;
+	private final boolean[][]			connected;
+	private final GeneScatterPlan		plan;					// only applied,
+																// never added
+																// to
+	private final ActivationFunction	activation;
+	private final UpdateMode			updateMode;
+	private final StepCompiler.Shape	stepShape;				// null unless
+																// compiled
+	
+	/**
+	 * Creates a template from the current state of a layout. Later changes to
+	 * the layout are not seen by the template.
+	 * 
+	 * @param layout
+	 *            Layout to copy. Every neuron must have all its parameters set.
+	 */
+	public LayoutTemplate ( CTRNNLayout layout ) {
+		n = layout.getNumberOfNeurons();
+		nGenes = layout.getNumberOfGenes();
+		taus = new float[n];
+		biases = new float[n];
+		gains = new float[n];
+		weights = new float[n][n];
+		connected = new boolean[n][n];
+		
+		int c = 0;
+		for ( int i = 0; i < n; i++ ) {
+			Neuron neuron = layout.getNeuron( i );
+			if ( !neuron.areAllParametersSet() )
+				throw new IllegalStateException( "Some parameters weren't set for neuron " + neuron.toString() );
+			
+			taus[i] = neuron.getValue( ParameterType.TAU );
+			biases[i] = neuron.getValue( ParameterType.BIAS );
+			gains[i] = neuron.getValue( ParameterType.GAIN );
+			for ( int j = 0; j < n; j++ ) {
+				weights[i][j] = neuron.getWeight( j );
+				if ( neuron.isConnected( j ) ) {
+					connected[i][j] = true;
+					c++;
+				}
+			}
+		}
+		nConnections = c;
+		plan = layout.compile();
+		activation = layout.getActivation();
+		updateMode = UpdateMode.SEQUENTIAL;
+		stepShape = null;
+	}
+	
+	private LayoutTemplate ( LayoutTemplate template, ActivationFunction activation, UpdateMode updateMode, StepCompiler.Shape stepShape ) {
+		n = template.n;
+		nGenes = template.nGenes;
+		nConnections = template.nConnections;
+		taus = template.taus;
+		biases = template.biases;
+		gains = template.gains;
+		weights = template.weights;
+		connected = template.connected;
+		plan = template.plan;
+		this.activation = activation;
+		this.updateMode = updateMode;
+		this.stepShape = stepShape;
+	}
+	
+	/**
+	 * @param activation
+	 *            Activation function for networks created from the new
+	 *            template.
+	 * @return a template the same as this one but with a different activation
+	 *         function. Both share the same read-only structure.
+	 */
+	public LayoutTemplate withActivation( ActivationFunction activation ) {
+		return activation == this.activation ? this : new LayoutTemplate( this, activation, updateMode, stepShape );
+	}
+	
+	/**
+	 * @param updateMode
+	 *            Order in which neurons of networks created from the new
+	 *            template are updated.
+	 * @return a template the same as this one but with a different update
+	 *         mode. Both share the same read-only structure.
+	 */
+	public LayoutTemplate withUpdateMode( UpdateMode updateMode ) {
+		return updateMode == this.updateMode ? this : new LayoutTemplate( this, activation, updateMode, stepShape );
+	}
+	
+	/**
+	 * @param compiled
+	 *            Whether networks created from the new template should step
+	 *            with a class generated for this layout by StepCompiler.
+	 *            Layouts StepCompiler can't compile still get the generic
+	 *            engine.
+	 * @return a template the same as this one but with or without compiled
+	 *         steps. Both share the same read-only structure.
+	 */
+	public LayoutTemplate withCompiledStep( boolean compiled ) {
+		if ( compiled == isCompiledStep() )
+			return this;
+		return new LayoutTemplate( this, activation, updateMode, compiled ? new StepCompiler.Shape( n, taus, biases, gains, weights, plan ) : null );
+	}
+	
+	/**
+	 * @return whether networks created from this template step with a class
+	 *         generated for the layout, where it can be compiled.
+	 */
+	public boolean isCompiledStep() {
+		return stepShape != null;
+	}
+	
+	/**
+	 * Creates a CTRNN with the parameters the layout had when this template
+	 * was created. If the template has compiled steps and the layout can be
+	 * compiled, this is a CompiledCTRNN. Otherwise, if few enough connections
+	 * are declared, as for CTRNNLayout.createCTRNN(), this is a SparseCTRNN.
+	 * 
+	 * @return a CTRNN network
+	 */
+	public CTRNN createCTRNN() {
+		CTRNN compiled = stepShape == null ? null : StepCompiler.create( stepShape );
+		if ( compiled != null ) {
+			compiled.setActivation( activation );
+			compiled.setUpdateMode( updateMode );
+			return compiled;
+		}
+		
+		float[][] weightsCopy = new float[n][];
+		for ( int i = 0; i < n; i++ ) {
+			weightsCopy[i] = weights[i].clone();
+		}
+		
+		CTRNN ctrnn;
+		if ( nConnections <= CTRNNLayout.SPARSE_MAX_DENSITY * n * n ) {
+			ctrnn = new SparseCTRNN( n, taus.clone(), biases.clone(), gains.clone(), weightsCopy, connected );
+		} else {
+			ctrnn = new CTRNN( n, taus.clone(), biases.clone(), gains.clone(), weightsCopy );
+		}
+		ctrnn.setActivation( activation );
+		ctrnn.setUpdateMode( updateMode );
+		return ctrnn;
+	}
+	
+	/**
+	 * Creates a CTRNN with genetic parameters taken from the given genes.
+	 * 
+	 * @param genes
+	 *            Float array of gene values. Must be same number of genes as
+	 *            the layout.
+	 * @return a CTRNN network
+	 */
+	public CTRNN createCTRNN( float[] genes ) {
+		CTRNN ctrnn = createCTRNN();
+		plan.apply( ctrnn, genes );
+		return ctrnn;
+	}
+	
+	/**
+	 * Sets the genetic parameters of a network created from this template to
+	 * those given by the genes, without allocating. The network's state is not
+	 * reset.
+	 * 
+	 * @param ctrnn
+	 *            Network created from this template.
+	 * @param genes
+	 *            Float array of gene values. Must be same number of genes as
+	 *            the layout.
+	 */
+	public void loadGenes( CTRNN ctrnn, float[] genes ) {
+		plan.apply( ctrnn, genes );
+	}
+	
+	public int getNumberOfNeurons() {
+		return n;
+	}
+	
+	public int getNumberOfGenes() {
+		return nGenes;
+	}
+	
+	/**
+	 * @return the activation function of networks created from this template.
+	 */
+	public ActivationFunction getActivation() {
+		return activation;
+	}
+	
+	/**
+	 * @return the update mode of networks created from this template.
+	 */
+	public UpdateMode getUpdateMode() {
+		return updateMode;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format( "[LayoutTemplate n=%d genes=%d connections=%d activation=%s updateMode=%s compiled=%b]", n, nGenes, nConnections,
+				activation, updateMode, isCompiledStep() );
+	}
+}
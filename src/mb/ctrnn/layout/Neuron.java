@@ -54,6 +54,8 @@ public class Neuron {
 	
 	private Map<ParameterType, NeuronParam>	parameters;
 	private List<NeuronParam>				weights;
+	private boolean[]						connected;	// whether each weight
+														// has been set
 	
 	/**
 	 * Instantiates a new blank neuron with no parameters set and connection
@@ -70,6 +72,7 @@ public class Neuron {
 		for ( int i = 0; i < noOfNeuronsInNetwork; i++ ) {
 			weights.add( new NeuronParam.Fixed( 0f ) );
 		}
+		connected = new boolean[noOfNeuronsInNetwork];
 	}
 	
 	/**
@@ -85,6 +88,20 @@ public class Neuron {
 		return parameters.get( type ).getValue();
 	}
 	
+	/**
+	 * Gets the float value a parameter would have with the given genes,
+	 * without modifying it.
+	 * 
+	 * @param type
+	 *            Parameter to get.
+	 * @param genes
+	 *            Array of all gene values in the layout.
+	 * @return float value of the parameter.
+	 */
+	public float getValue( ParameterType type, float[] genes ) {
+		return parameters.get( type ).getValue( genes );
+	}
+	
 	/**
 	 * Sets one of the parameters.
 	 * 
@@ -114,7 +131,8 @@ public class Neuron {
 	}
 	
 	/**
-	 * Sets a single weight to the specified parameter.
+	 * Sets a single weight to the specified parameter, declaring a connection
+	 * to that neuron.
 	 * 
 	 * @param neuronIndex
 	 *            Type of parameter to set.
@@ -123,6 +141,17 @@ public class Neuron {
 	 */
 	public void setWeight( int neuronIndex, NeuronParam parameter ) {
 		weights.set( neuronIndex, parameter );
+		connected[neuronIndex] = true;
+	}
+	
+	/**
+	 * @param neuronIndex
+	 *            Index of neuron in network
+	 * @return whether a connection to the neuron has been declared with
+	 *         setWeight(). Undeclared connections always have zero weight.
+	 */
+	public boolean isConnected( int neuronIndex ) {
+		return connected[neuronIndex];
 	}
 	
 	/**
@@ -136,6 +165,20 @@ public class Neuron {
 		return weights.get( neuronIndex ).getValue();
 	}
 	
+	/**
+	 * Gets the connection strength to another neuron in the network with the
+	 * given genes, without modifying it.
+	 * 
+	 * @param neuronIndex
+	 *            Index of neuron in network
+	 * @param genes
+	 *            Array of all gene values in the layout.
+	 * @return connection strength.
+	 */
+	public float getWeight( int neuronIndex, float[] genes ) {
+		return weights.get( neuronIndex ).getValue( genes );
+	}
+	
 	public NeuronParam getWeightParameter( int neuronIndex ) {
 		return weights.get( neuronIndex );
 	}
@@ -11,6 +11,16 @@ public interface NeuronParam {
 	 * @return gets the current value of this parameter.
 	 */
 	public float getValue();
+	
+	/**
+	 * Gets the value this parameter would have with the given genes, without
+	 * modifying the parameter. Safe to call from several threads at once.
+	 * 
+	 * @param genes
+	 *            Array of all gene values in the layout.
+	 * @return value of the parameter with the given genes.
+	 */
+	public float getValue(float[] genes);
 
 	/**
 	 * Represents a parameter mapped by a gene. The value of the parameter is
@@ -22,6 +32,7 @@ public interface NeuronParam {
 	public static class Gene implements NeuronParam {
 		private Range range;
 		private float geneValue = 0;
+		private int geneIndex = -1;
 
 		/**
 		 * Creates a new Gene parameter with the specified range.
@@ -58,10 +69,41 @@ public interface NeuronParam {
 			return range.map(geneValue);
 		}
 
+		/**
+		 * Maps the gene at this parameter's gene index. If the parameter
+		 * hasn't been added to a gene mapping, the current gene value is
+		 * used.
+		 */
+		@Override
+		public float getValue(float[] genes) {
+			if (geneIndex < 0)
+				return getValue();
+			return range.map(genes[geneIndex]);
+		}
+
 		public Range getRange() {
 			return range;
 		}
 
+		/**
+		 * @return index of the gene this parameter is mapped to, or -1 if it
+		 *         hasn't been mapped.
+		 */
+		public int getGeneIndex() {
+			return geneIndex;
+		}
+
+		/**
+		 * Sets the index of the gene this parameter is mapped to. Called by
+		 * GeneMapping when a mapping is created.
+		 * 
+		 * @param geneIndex
+		 *            Index of gene.
+		 */
+		public void setGeneIndex(int geneIndex) {
+			this.geneIndex = geneIndex;
+		}
+
 		@Override
 		public String toString() {
 			return String.format(
@@ -102,6 +144,11 @@ public interface NeuronParam {
 			return value;
 		}
 
+		@Override
+		public float getValue(float[] genes) {
+			return value;
+		}
+
 		@Override
 		public String toString() {
 			return "[FixedParam value=" + value + "]";
@@ -19,6 +19,25 @@ public interface CoEvoPhenotype {
 	 */
 	public float calculateFitness( List<Individual> individuals, float[] genes );
 	
+	/**
+	 * Calculates fitness as calculateFitness(), but may stop as soon as the
+	 * fitness is known to be below the cutoff, e.g. when it only needs to be
+	 * compared against a rival's fitness in a tournament.
+	 * 
+	 * @param individuals
+	 *            Population of individuals, typically from a competing
+	 *            population.
+	 * @param genes
+	 *            Float array of gene values
+	 * @param cutoff
+	 *            Fitness the result only needs to be compared with. Use
+	 *            Float.NEGATIVE_INFINITY to always evaluate fully.
+	 * @return the same fitness as calculateFitness() if that is at least the
+	 *         cutoff, otherwise any value that is below the cutoff and at
+	 *         least the fitness.
+	 */
+	public float calculateFitness( List<Individual> individuals, float[] genes, float cutoff );
+	
 	/**
 	 * @return the number of genes this phenotype accepts
 	 */
@@ -5,10 +5,13 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import mb.datalog.CSVWriter;
 import mb.datalog.CSVWriter.CSVParamBuilder;
+import mb.util.ParallelLoop;
 
 /**
  * The CoEvoPopulation maintains an Input and Model population. By calling their
@@ -44,6 +47,33 @@ public class CoEvoPopulation {
 	 *            with those within a certain index.
 	 */
 	public CoEvoPopulation ( CoEvoPhenotype inputPheno, CoEvoPhenotype modelPheno, int nPopulation, float mutSD, float pCross, int demeSize ) {
+		this( inputPheno, modelPheno, nPopulation, mutSD, pCross, demeSize, new EvaluationSettings() );
+	}
+	
+	/**
+	 * Creates a new CoEvoPopulation with the specified number of individuals in
+	 * each population, and calculates initial fitness for all individuals.
+	 * 
+	 * @param inputPheno
+	 *            CoEvoPhenotype for the input population.
+	 * @param modelPheno
+	 *            CoEvoPhenotype for the model population.
+	 * @param nPopulation
+	 *            Number of individuals in each population.
+	 * @param mutSD
+	 *            Standard deviation for Gaussian noise added to genes
+	 *            (creep/mutation).
+	 * @param pCross
+	 *            Probability of crossover from winner's genes to loser's in
+	 *            reproduction events, in range [0,1].
+	 * @param demeSize
+	 *            Geographical limitation meaning individuals can only reproduce
+	 *            with those within a certain index.
+	 * @param settings
+	 *            Settings controlling how fitness is evaluated.
+	 */
+	public CoEvoPopulation ( CoEvoPhenotype inputPheno, CoEvoPhenotype modelPheno, int nPopulation, float mutSD, float pCross, int demeSize,
+			EvaluationSettings settings ) {
 		LOG
 				.info( String
 						.format(
@@ -51,6 +81,7 @@ public class CoEvoPopulation {
 									inputPheno.getClass().getName(), modelPheno.getClass().getName(), nPopulation, demeSize, mutSD, pCross ) );
 		
 		LOG.setUseParentHandlers( true );
+		LOG.info( "Evaluation settings: " + settings );
 		
 		this.inputPheno = inputPheno;
 		this.modelPheno = modelPheno;
@@ -58,6 +89,12 @@ public class CoEvoPopulation {
 		this.pCross = pCross;
 		this.demeSize = demeSize;
 		this.nPopulation = nPopulation;
+		this.fitnessCache = settings.fitnessCache;
+		this.earlyAbandon = settings.earlyAbandon;
+		this.pool = settings.pool;
+		// each population is sampled with its own sequence
+		this.inputSampler = new OpponentSampler( settings.opponentSampling, settings.sampledOpponents, settings.samplingSeed );
+		this.modelSampler = new OpponentSampler( settings.opponentSampling, settings.sampledOpponents, ~settings.samplingSeed );
 		
 		inputInds = new ArrayList<>( nPopulation );
 		modelInds = new ArrayList<>( nPopulation );
@@ -65,6 +102,12 @@ public class CoEvoPopulation {
 		stats1 = new PopulationStats();
 		stats2 = new PopulationStats();
 		
+		// rows are the population being evaluated, columns their opponents
+		inputMatrix = settings.pairwiseMatrix && settings.inputPairwiseMatrix && inputPheno instanceof PairwisePhenotype ? new PairwiseScoreMatrix(
+				nPopulation, nPopulation, settings.pairwiseMatrixBytes ) : null;
+		modelMatrix = settings.pairwiseMatrix && modelPheno instanceof PairwisePhenotype ? new PairwiseScoreMatrix( nPopulation, nPopulation,
+				settings.pairwiseMatrixBytes ) : null;
+		
 		LOG.info( "Creating genotypes and calculating fitnesses..." );
 		
 		// generate both populations first, then calculate fitnesses
@@ -80,20 +123,50 @@ public class CoEvoPopulation {
 					.getGenotype().toString() ) );
 		}
 		
-		for ( int i = 0; i < nPopulation; i++ ) {
-			float fInput = inputPheno.calculateFitness( modelInds, inputInds.get( i ).getGenotype().getGenes() );
-			float fModel = modelPheno.calculateFitness( inputInds, modelInds.get( i ).getGenotype().getGenes() );
-			
-			inputInds.get( i ).setFitness( fInput );
-			modelInds.get( i ).setFitness( fModel );
-			LOG.info( String.format( "Done %d of %d individuals, fit1 = %f, fit2 = %f", i, nPopulation, fInput, fModel ) );
-			
-		}
+		calculateAllFitnesses();
 		
 		LOG.info( "Finished calculating fitnesses." );
 		
 	}
 	
+	/**
+	 * Calculates the fitness of every individual in both populations.
+	 */
+	private void calculateAllFitnesses() {
+		// individuals are independent, so may be scored in parallel
+		ParallelLoop.run( pool, nPopulation, new ParallelLoop.Body() {
+			@Override
+			public void run( int i ) {
+				float fInput = calculateFitness( inputInds, i, modelInds, inputPheno );
+				float fModel = calculateFitness( modelInds, i, inputInds, modelPheno );
+				
+				LOG.info( String.format( "Done %d of %d individuals, fit1 = %f, fit2 = %f", i, nPopulation, fInput, fModel ) );
+			}
+		} );
+	}
+	
+	/**
+	 * Discards every stored fitness and pairwise result, then calculates the
+	 * fitness of every individual again. This must be called whenever the
+	 * phenotypes change how they evaluate, e.g. their fidelity, as results
+	 * from before aren't comparable with those after.
+	 */
+	public void rescoreAll() {
+		// stored fitnesses are only valid for the epoch they were calculated
+		// against
+		inputEpoch++;
+		modelEpoch++;
+		if ( inputMatrix != null ) {
+			inputMatrix.invalidateAll();
+		}
+		if ( modelMatrix != null ) {
+			modelMatrix.invalidateAll();
+		}
+		
+		LOG.info( "Re-calculating fitnesses..." );
+		calculateAllFitnesses();
+	}
+	
 	/**
 	 * @return the index of an individual within the population bounds
 	 */
@@ -155,14 +228,150 @@ public class CoEvoPopulation {
 	protected void doSelection( List<Individual> primaryInd, List<Individual> secondaryInd, CoEvoPhenotype pheno ) {
 		int index1 = selectIndividual(), index2 = selectSecondIndividual( index1, demeSize );
 		
-		float fitness1 = pheno.calculateFitness( secondaryInd, primaryInd.get( index1 ).getGenotype().getGenes() );
-		primaryInd.get( index1 ).setFitness( fitness1 );
-		float fitness2 = pheno.calculateFitness( secondaryInd, primaryInd.get( index2 ).getGenotype().getGenes() );
-		primaryInd.get( index2 ).setFitness( fitness2 );
+		// fitnesses are stored on the individuals by calculateFitness(). Only
+		// whether the second beats the first matters, so it may be abandoned
+		// once it can't; it then loses and is evaluated again below.
+		float fitness1 = calculateFitness( primaryInd, index1, secondaryInd, pheno );
+		float fitness2 = calculateFitness( primaryInd, index2, secondaryInd, pheno, earlyAbandon ? fitness1 : Float.NEGATIVE_INFINITY );
 		int loser = doReproductionEvent( primaryInd, index1, index2, fitness1, fitness2 );
-		float loserFitness = pheno.calculateFitness( secondaryInd, primaryInd.get( loser ).getGenotype().getGenes() );
-		primaryInd.get( loser ).setFitness( loserFitness );
+		calculateFitness( primaryInd, loser, secondaryInd, pheno );
+		
+	}
+	
+	/**
+	 * Calculates the fitness of an individual against the competing
+	 * population, or the sample of it chosen for the individual if opponents
+	 * are sampled, and stores it on the individual. If the individual's
+	 * genotype and the competing population are unchanged since its fitness
+	 * was last calculated, the stored fitness is returned. Otherwise, if a
+	 * pairwise matrix is kept for the phenotype, only pairs that have changed
+	 * since they were last evaluated are recalculated.
+	 * 
+	 * @param primaryInd
+	 *            Population the individual belongs to.
+	 * @param index
+	 *            Index of the individual.
+	 * @param secondaryInd
+	 *            Population to pass to the phenotype.
+	 * @param pheno
+	 *            Phenotype to calculate fitness with.
+	 * @return the fitness of the individual.
+	 */
+	protected float calculateFitness( List<Individual> primaryInd, int index, List<Individual> secondaryInd, CoEvoPhenotype pheno ) {
+		return calculateFitness( primaryInd, index, secondaryInd, pheno, Float.NEGATIVE_INFINITY );
+	}
+	
+	/**
+	 * Calculates the fitness of an individual as calculateFitness(), but the
+	 * phenotype may stop as soon as the fitness is known to be below the
+	 * cutoff. A fitness below the cutoff may then only be a bound, so it isn't
+	 * stored on the individual, and pairs left unevaluated aren't stored in
+	 * the pairwise matrix.
+	 * 
+	 * @param primaryInd
+	 *            Population the individual belongs to.
+	 * @param index
+	 *            Index of the individual.
+	 * @param secondaryInd
+	 *            Population to pass to the phenotype.
+	 * @param pheno
+	 *            Phenotype to calculate fitness with.
+	 * @param cutoff
+	 *            Fitness the result only needs to be compared with, or
+	 *            Float.NEGATIVE_INFINITY to always evaluate fully.
+	 * @return the fitness of the individual if it is at least the cutoff,
+	 *         otherwise a value below the cutoff.
+	 */
+	protected float calculateFitness( List<Individual> primaryInd, int index, List<Individual> secondaryInd, CoEvoPhenotype pheno, float cutoff ) {
+		Individual individual = primaryInd.get( index );
+		long opponentEpoch = secondaryInd == inputInds ? inputEpoch : modelEpoch;
+		
+		if ( fitnessCache && individual.hasCachedFitness( opponentEpoch ) ) {
+			fitnessCacheHits.incrementAndGet();
+			return individual.getFitness();
+		}
+		fitnessCacheMisses.incrementAndGet();
+		
+		OpponentSampler sampler = secondaryInd == inputInds ? inputSampler : modelSampler;
+		float fitness = evaluate( primaryInd, index, secondaryInd, sampler.sample( index, secondaryInd.size(), opponentEpoch ), pheno, cutoff );
+		if ( fitness < cutoff ) {
+			boundedLosses.incrementAndGet();
+			return fitness;
+		}
+		
+		individual.cacheFitness( fitness, opponentEpoch );
+		return fitness;
+	}
+	
+	/**
+	 * Evaluates an individual against some of the competing population,
+	 * using the pairwise matrix if one is kept. Either way the phenotype may
+	 * stop early as in calculateFitness().
+	 * 
+	 * @param primaryInd
+	 *            Population the individual belongs to.
+	 * @param index
+	 *            Index of the individual.
+	 * @param secondaryInd
+	 *            Competing population.
+	 * @param opponents
+	 *            Indices of the opponents to evaluate against, or null for
+	 *            every opponent.
+	 * @param pheno
+	 *            Phenotype to calculate fitness with.
+	 * @param cutoff
+	 *            Fitness the result only needs to be compared with, or
+	 *            Float.NEGATIVE_INFINITY to always evaluate fully.
+	 * @return the fitness of the individual if it is at least the cutoff,
+	 *         otherwise a value below the cutoff.
+	 */
+	private float evaluate( List<Individual> primaryInd, int index, List<Individual> secondaryInd, int[] opponents, CoEvoPhenotype pheno,
+			float cutoff ) {
+		Individual individual = primaryInd.get( index );
+		PairwiseScoreMatrix matrix = getMatrix( primaryInd );
+		if ( matrix != null ) {
+			return matrix.getFitness( (PairwisePhenotype) pheno, index, individual, secondaryInd, opponents, cutoff );
+		}
 		
+		List<Individual> sample = secondaryInd;
+		if ( opponents != null ) {
+			sample = new ArrayList<>( opponents.length );
+			for ( int opponent : opponents ) {
+				sample.add( secondaryInd.get( opponent ) );
+			}
+		}
+		return pheno.calculateFitness( sample, individual.getGenotype().getGenes(), cutoff );
+	}
+	
+	/**
+	 * If opponents are sampled, calculates the fitness of every individual
+	 * against the whole competing population, so that saved fitnesses are
+	 * comparable. The fitnesses are only stored for reporting; later
+	 * generations are evaluated against samples again.
+	 */
+	public void rescoreAgainstFullPopulation() {
+		if ( inputSampler.isFull() ) {
+			return; // fitnesses are already against every opponent
+		}
+		
+		LOG.info( "Re-scoring populations against every opponent..." );
+		ParallelLoop.run( pool, nPopulation, new ParallelLoop.Body() {
+			@Override
+			public void run( int i ) {
+				inputInds.get( i ).setFitness( evaluate( inputInds, i, modelInds, null, inputPheno, Float.NEGATIVE_INFINITY ) );
+				modelInds.get( i ).setFitness( evaluate( modelInds, i, inputInds, null, modelPheno, Float.NEGATIVE_INFINITY ) );
+			}
+		} );
+	}
+	
+	/**
+	 * @param primaryInd
+	 *            Population being evaluated.
+	 * @return the pairwise matrix with rows for the given population, or null
+	 *         if none is kept.
+	 */
+	private PairwiseScoreMatrix getMatrix( List<Individual> primaryInd ) {
+		return primaryInd == inputInds ? inputMatrix : modelMatrix;
 	}
 	
 	/**
@@ -230,11 +439,30 @@ public class CoEvoPopulation {
 		}
 		
 		primaryInd.get( losingIndex ).setGenotype( newGeno );
+		
+		// the population has changed, so fitnesses of the competing
+		// population calculated against it are no longer valid
+		if ( primaryInd == inputInds ) {
+			inputEpoch++;
+		} else {
+			modelEpoch++;
+		}
+		
+		// results involving the old genotype are no longer valid
+		PairwiseScoreMatrix rowMatrix = getMatrix( primaryInd ), columnMatrix = primaryInd == inputInds ? modelMatrix : inputMatrix;
+		if ( rowMatrix != null ) {
+			rowMatrix.invalidateRow( losingIndex );
+		}
+		if ( columnMatrix != null ) {
+			columnMatrix.invalidateColumn( losingIndex );
+		}
 		return losingIndex;
 	}
 	
 	/**
-	 * Saves gene values and fitnesses to CSV files.
+	 * Saves gene values and fitnesses to CSV files. If opponents are sampled,
+	 * every individual is first re-scored against the whole competing
+	 * population.
 	 * 
 	 * @param file1
 	 *            File for input population.
@@ -244,6 +472,7 @@ public class CoEvoPopulation {
 	 *             if there is an error with file handling
 	 */
 	public void savePopToCSV( File file1, File file2 ) throws IOException {
+		rescoreAgainstFullPopulation();
 		saveIndToCSV( file1, inputPheno, inputInds );
 		saveIndToCSV( file2, modelPheno, modelInds );
 	}
@@ -286,6 +515,32 @@ public class CoEvoPopulation {
 	
 	private final CoEvoPhenotype		inputPheno, modelPheno;
 	
+	/**
+	 * Pairwise results for each population against the other, or null if not
+	 * kept.
+	 */
+	private final PairwiseScoreMatrix	inputMatrix, modelMatrix;
+	
+	/**
+	 * Incremented every time a genotype in the respective population is
+	 * replaced.
+	 */
+	private long						inputEpoch			= 0, modelEpoch = 0;
+	private final boolean				fitnessCache, earlyAbandon;
+	private final AtomicLong			fitnessCacheHits	= new AtomicLong(), fitnessCacheMisses = new AtomicLong(),
+			boundedLosses = new AtomicLong();
+	
+	/**
+	 * Choose the opponents from the respective population that individuals of
+	 * the other are evaluated against.
+	 */
+	private final OpponentSampler		inputSampler, modelSampler;
+	
+	/**
+	 * Pool for parallel evaluation, null if sequential.
+	 */
+	private final ForkJoinPool			pool;
+	
 	protected final PopulationStats		stats1, stats2;
 	protected final float				mutSD;
 	protected final float				pCross;
@@ -300,4 +555,65 @@ public class CoEvoPopulation {
 		return stats2;
 	}
 	
+	/**
+	 * @return the number of fitness calculations answered from a fitness
+	 *         stored on the individual.
+	 */
+	public long getFitnessCacheHits() {
+		return fitnessCacheHits.get();
+	}
+	
+	/**
+	 * @return the number of fitness calculations that had to be evaluated.
+	 */
+	public long getFitnessCacheMisses() {
+		return fitnessCacheMisses.get();
+	}
+	
+	/**
+	 * @return the number of bounded fitness calculations that found the
+	 *         individual below the cutoff, so weren't stored.
+	 */
+	public long getBoundedLosses() {
+		return boundedLosses.get();
+	}
+	
+	/**
+	 * @return a human readable summary of how much evaluation work was saved
+	 *         by the fitness cache and pairwise matrices.
+	 */
+	public String getEvaluationSummary() {
+		StringBuilder sb = new StringBuilder();
+		long hits = fitnessCacheHits.get(), misses = fitnessCacheMisses.get(), lookups = hits + misses;
+		sb.append( String.format( "fitness cache: %d hits, %d misses (%.1f%% hit rate)", hits, misses, lookups == 0 ? 0f : 100f * hits / lookups ) );
+		if ( earlyAbandon ) {
+			sb.append( String.format( "; bounded losses: %d", boundedLosses.get() ) );
+		}
+		if ( inputMatrix != null ) {
+			sb.append( String.format( "; input matrix: %d evaluated, %d reused, %d rows dropped", inputMatrix.getEvaluations(), inputMatrix.getReuses(),
+					inputMatrix.getEvictions() ) );
+		}
+		if ( modelMatrix != null ) {
+			sb.append( String.format( "; model matrix: %d evaluated, %d reused, %d rows dropped", modelMatrix.getEvaluations(), modelMatrix.getReuses(),
+					modelMatrix.getEvictions() ) );
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * @return the pairwise matrix for the input population, or null if not
+	 *         kept.
+	 */
+	public PairwiseScoreMatrix getInputMatrix() {
+		return inputMatrix;
+	}
+	
+	/**
+	 * @return the pairwise matrix for the model population, or null if not
+	 *         kept.
+	 */
+	public PairwiseScoreMatrix getModelMatrix() {
+		return modelMatrix;
+	}
+	
 }
@@ -0,0 +1,87 @@
+package mb.evolution;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Stores settings controlling how CoEvoPopulation evaluates fitness. Apart
+ * from opponent sampling, none of these alter the GA itself; the defaults give
+ * the same fitness values as evaluating every individual from scratch.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public class EvaluationSettings {
+	
+	/**
+	 * Whether to keep a matrix of results for every (individual, opponent)
+	 * pair, for phenotypes implementing PairwisePhenotype. Only pairs involving
+	 * a replaced genotype are re-evaluated, at the cost of storing a result
+	 * for each pair.
+	 */
+	public boolean		pairwiseMatrix	= true;
+	
+	/**
+	 * Whether the input population also keeps a pairwise matrix, if
+	 * pairwiseMatrix is set. An input phenotype's results may be whole output
+	 * series rather than scores, so this is off unless asked for.
+	 */
+	public boolean		inputPairwiseMatrix	= false;
+	
+	/**
+	 * Largest total size of the results each pairwise matrix keeps, in bytes.
+	 * Least recently requested rows are dropped and re-evaluated to stay
+	 * within it.
+	 */
+	public long			pairwiseMatrixBytes	= 64L * 1024L * 1024L;
+	
+	/**
+	 * Whether to reuse an individual's fitness until either its genotype is
+	 * replaced or the competing population changes.
+	 */
+	public boolean		fitnessCache	= true;
+	
+	/**
+	 * Whether the second individual in a tournament may stop being evaluated
+	 * as soon as it is known to lose. The winner is the same either way, and
+	 * the loser is given a new genotype and evaluated fully straight after.
+	 * Pairs a stopped evaluation didn't finish aren't kept in the pairwise
+	 * matrix.
+	 */
+	public boolean		earlyAbandon	= true;
+	
+	/**
+	 * Pool to evaluate individuals and pairs on in parallel, or null to
+	 * evaluate everything on the calling thread. Fitness values are the same
+	 * either way. The phenotypes must be safe to call from several threads at
+	 * once.
+	 */
+	public ForkJoinPool	pool			= null;
+	
+	/**
+	 * How the opponents each individual is evaluated against are chosen.
+	 * Sampling changes the fitness values, as they are calculated against
+	 * sampledOpponents individuals rather than the whole competing
+	 * population; CoEvoPopulation.savePopToCSV() re-scores against the whole
+	 * population first.
+	 */
+	public OpponentSampling	opponentSampling	= OpponentSampling.FULL;
+	
+	/**
+	 * Number of opponents each individual is evaluated against, if sampled.
+	 */
+	public int				sampledOpponents	= 20;
+	
+	/**
+	 * Seed for random opponent samples.
+	 */
+	public long				samplingSeed		= 0;
+	
+	@Override
+	public String toString() {
+		return "[EvaluationSettings pairwiseMatrix=" + pairwiseMatrix + " inputPairwiseMatrix=" + inputPairwiseMatrix + " pairwiseMatrixBytes="
+				+ pairwiseMatrixBytes + " fitnessCache=" + fitnessCache + " earlyAbandon=" + earlyAbandon + " threads="
+				+ (pool == null ? 1 : pool.getParallelism()) + " opponentSampling=" + opponentSampling + " sampledOpponents=" + sampledOpponents
+				+ " samplingSeed=" + samplingSeed + "]";
+	}
+
+}
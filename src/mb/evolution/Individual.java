@@ -9,6 +9,9 @@ package mb.evolution;
 public class Individual {
 	private float		fitness;
 	private Genotype	genotype;
+	private int			genotypeVersion	= 0;
+	private boolean		fitnessCached	= false;
+	private long		fitnessEpoch;
 	
 	/**
 	 * Creates a new Individual with a random Genotype with the specified number
@@ -39,6 +42,33 @@ public class Individual {
 	 */
 	public void setFitness( float fitness ) {
 		this.fitness = fitness;
+		fitnessCached = false;
+	}
+	
+	/**
+	 * Sets a fitness value that remains valid as long as this Individual keeps
+	 * its genotype and the competing population stays at the given epoch.
+	 * 
+	 * @param fitness
+	 *            Fitness calculated against the competing population.
+	 * @param opponentEpoch
+	 *            Epoch of the competing population when fitness was
+	 *            calculated.
+	 */
+	public void cacheFitness( float fitness, long opponentEpoch ) {
+		this.fitness = fitness;
+		fitnessCached = true;
+		fitnessEpoch = opponentEpoch;
+	}
+	
+	/**
+	 * @param opponentEpoch
+	 *            Current epoch of the competing population.
+	 * @return whether the fitness set by cacheFitness() is still valid for the
+	 *         current genotype and the given epoch.
+	 */
+	public boolean hasCachedFitness( long opponentEpoch ) {
+		return fitnessCached && fitnessEpoch == opponentEpoch;
 	}
 	
 	/**
@@ -54,6 +84,17 @@ public class Individual {
 	 */
 	public void setGenotype( Genotype genotype ) {
 		this.genotype = genotype;
+		genotypeVersion++;
+		fitnessCached = false;
+	}
+	
+	/**
+	 * @return a counter incremented every time a new Genotype is associated
+	 *         with this Individual, so that values derived from the genes can
+	 *         be cached until the genotype changes.
+	 */
+	public int getGenotypeVersion() {
+		return genotypeVersion;
 	}
 	
 }
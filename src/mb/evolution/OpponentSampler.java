@@ -0,0 +1,109 @@
+package mb.evolution;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Chooses the opponents each individual is evaluated against, from one
+ * competing population. Samples only depend on the seed, the individual's index
+ * and the epoch of the competing population, so they are reproducible and a
+ * fitness calculated against a sample stays valid for as long as a fitness
+ * calculated against the whole population would.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+class OpponentSampler {
+	
+	/**
+	 * Creates a new sampler.
+	 * 
+	 * @param sampling
+	 *            How opponents are chosen.
+	 * @param count
+	 *            Number of opponents to choose for each evaluation. Less than
+	 *            one chooses every opponent.
+	 * @param seed
+	 *            Seed for random samples.
+	 */
+	OpponentSampler ( OpponentSampling sampling, int count, long seed ) {
+		this.sampling = sampling;
+		this.count = count;
+		this.seed = seed;
+	}
+	
+	private final OpponentSampling	sampling;
+	private final int				count;
+	private final long				seed;
+	private int[]					randomSample;				// null until drawn
+	private long					randomSampleEpoch	= -1;
+	
+	/**
+	 * Gets the opponents to evaluate an individual against.
+	 * 
+	 * @param index
+	 *            Index of the individual being evaluated.
+	 * @param nOpponents
+	 *            Size of the competing population.
+	 * @param opponentEpoch
+	 *            Epoch of the competing population.
+	 * @return the indices of the opponents in ascending order, or null for
+	 *         every opponent. Must not be modified.
+	 */
+	int[] sample( int index, int nOpponents, long opponentEpoch ) {
+		if ( sampling == OpponentSampling.FULL || count < 1 || count >= nOpponents ) {
+			return null;
+		}
+		
+		if ( sampling == OpponentSampling.DEME ) {
+			int[] sample = new int[count];
+			int first = index - count / 2;
+			for ( int i = 0; i < count; i++ ) {
+				sample[i] = ((first + i) % nOpponents + nOpponents) % nOpponents;
+			}
+			Arrays.sort( sample );
+			return sample;
+		}
+		
+		return getRandomSample( nOpponents, opponentEpoch );
+	}
+	
+	/**
+	 * @return the random sample for the given epoch, drawn the first time it
+	 *         is asked for so every evaluation in the epoch shares it.
+	 */
+	private synchronized int[] getRandomSample( int nOpponents, long opponentEpoch ) {
+		if ( randomSample == null || randomSampleEpoch != opponentEpoch ) {
+			// the epoch is mixed into the seed so consecutive epochs aren't
+			// correlated
+			Random random = new Random( seed ^ (opponentEpoch * 0x9E3779B97F4A7C15L) );
+			
+			// partial Fisher-Yates shuffle
+			int[] indices = new int[nOpponents];
+			for ( int i = 0; i < nOpponents; i++ ) {
+				indices[i] = i;
+			}
+			for ( int i = 0; i < count; i++ ) {
+				int j = i + random.nextInt( nOpponents - i );
+				int swap = indices[i];
+				indices[i] = indices[j];
+				indices[j] = swap;
+			}
+			int[] sample = Arrays.copyOf( indices, count );
+			Arrays.sort( sample );
+			
+			randomSample = sample;
+			randomSampleEpoch = opponentEpoch;
+		}
+		return randomSample;
+	}
+	
+	/**
+	 * @return whether every individual is evaluated against the whole
+	 *         competing population.
+	 */
+	boolean isFull() {
+		return sampling == OpponentSampling.FULL;
+	}
+
+}
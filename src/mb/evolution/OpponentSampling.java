@@ -0,0 +1,32 @@
+package mb.evolution;
+
+/**
+ * Ways of choosing which individuals of the competing population an individual
+ * is evaluated against. Sampling makes each evaluation cost a fixed number of
+ * opponents, so a generation costs time linear in the population size rather
+ * than quadratic.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public enum OpponentSampling {
+	
+	/**
+	 * Every individual is evaluated against the whole competing population.
+	 */
+	FULL,
+	
+	/**
+	 * Every individual is evaluated against the same random subset of the
+	 * competing population, drawn again whenever that population changes, so
+	 * both individuals in a tournament meet the same opponents.
+	 */
+	RANDOM,
+	
+	/**
+	 * Each individual is evaluated against the opponents at the indices
+	 * centred on its own, wrapping at the ends of the population.
+	 */
+	DEME;
+
+}
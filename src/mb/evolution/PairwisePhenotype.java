@@ -0,0 +1,75 @@
+package mb.evolution;
+
+import java.util.List;
+
+/**
+ * A CoEvoPhenotype whose fitness can be broken down into a result for each
+ * opponent, so that results can be cached per (individual, opponent) pair and
+ * only recalculated when either genotype changes.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public interface PairwisePhenotype extends CoEvoPhenotype {
+	
+	/**
+	 * Evaluates an individual against a single opponent.
+	 * 
+	 * @param individual
+	 *            Individual being evaluated.
+	 * @param opponent
+	 *            Individual from the competing population.
+	 * @return the result for this pair. This may be cached and passed to
+	 *         reduce() later, so should not be modified afterwards.
+	 */
+	public float[] evaluatePair( Individual individual, Individual opponent );
+	
+	/**
+	 * Evaluates an individual against several opponents at once. Must give
+	 * the same results as calling evaluatePair() for each opponent, but may be
+	 * faster, e.g. by simulating them as a batch.
+	 * 
+	 * @param individual
+	 *            Individual being evaluated.
+	 * @param opponents
+	 *            Individuals from the competing population.
+	 * @return the result for each opponent, in the same order.
+	 */
+	public float[][] evaluatePairs( Individual individual, List<Individual> opponents );
+	
+	/**
+	 * Evaluates an individual against the opponents whose result isn't known
+	 * yet, and combines them with the known results as reduce() would. Like
+	 * CoEvoPhenotype.calculateFitness(List, float[], float), this may stop as
+	 * soon as the fitness is known to be below the cutoff.
+	 * 
+	 * @param individual
+	 *            Individual being evaluated.
+	 * @param opponents
+	 *            Individuals from the competing population.
+	 * @param results
+	 *            Result for each opponent, in the same order, or null where it
+	 *            must be evaluated. The missing results are filled in, as
+	 *            evaluatePairs() would give them, unless the evaluation stops
+	 *            early, when some may be left null.
+	 * @param cutoff
+	 *            Fitness the result only needs to be compared with, or
+	 *            Float.NEGATIVE_INFINITY to always evaluate fully.
+	 * @return the fitness reduce() gives for the completed results if it is at
+	 *         least the cutoff, otherwise a value below the cutoff.
+	 */
+	public float completePairs( Individual individual, List<Individual> opponents, float[][] results, float cutoff );
+	
+	/**
+	 * Combines the results of evaluatePair() against every opponent into a
+	 * fitness value. Must give the same value as calculateFitness() with the
+	 * same opponents.
+	 * 
+	 * @param results
+	 *            Results for each opponent, in the same order as the
+	 *            competing population.
+	 * @return a scalar fitness value
+	 */
+	public float reduce( float[][] results );
+
+}
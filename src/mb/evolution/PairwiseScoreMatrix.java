@@ -0,0 +1,313 @@
+package mb.evolution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores the result of evaluating each individual in one population against
+ * each individual in the competing population. Rows are individuals being
+ * evaluated, columns are opponents. A null cell has not been evaluated since
+ * either individual last changed, or was dropped to stay within the memory
+ * cap.
+ * 
+ * The size of a result is counted as 4 bytes per float. Once storing a new
+ * result would go over the cap, whole rows are dropped, least recently
+ * requested first, and re-evaluated if they are requested again.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public class PairwiseScoreMatrix {
+	
+	private final float[][][]	cells;
+	private final long			maxBytes;
+	private final long[]		rowBytes, lastUsed;	// guarded by this
+	private long				bytes, uses;		// guarded by this
+	private final AtomicLong	evaluations	= new AtomicLong(), reuses = new AtomicLong(), evictions = new AtomicLong();
+	
+	/**
+	 * Creates a new matrix with all cells invalid and no memory cap.
+	 * 
+	 * @param nRows
+	 *            Number of individuals being evaluated.
+	 * @param nColumns
+	 *            Number of opponents.
+	 */
+	public PairwiseScoreMatrix ( int nRows, int nColumns ) {
+		this( nRows, nColumns, Long.MAX_VALUE );
+	}
+	
+	/**
+	 * Creates a new matrix with all cells invalid.
+	 * 
+	 * @param nRows
+	 *            Number of individuals being evaluated.
+	 * @param nColumns
+	 *            Number of opponents.
+	 * @param maxBytes
+	 *            Largest total size of the results kept.
+	 */
+	public PairwiseScoreMatrix ( int nRows, int nColumns, long maxBytes ) {
+		cells = new float[nRows][nColumns][];
+		this.maxBytes = maxBytes;
+		rowBytes = new long[nRows];
+		lastUsed = new long[nRows];
+	}
+	
+	/**
+	 * Gets the results of an individual against every opponent, evaluating
+	 * only those pairs that aren't already stored. Missing pairs are evaluated
+	 * together with a single call to evaluatePairs(). Different rows may be
+	 * requested from several threads at once.
+	 * 
+	 * @param pheno
+	 *            Phenotype to evaluate pairs with.
+	 * @param row
+	 *            Index of the individual being evaluated.
+	 * @param individual
+	 *            Individual being evaluated.
+	 * @param opponents
+	 *            Competing population, indexed by column.
+	 * @return an array of results for each opponent.
+	 */
+	public float[][] getRow( PairwisePhenotype pheno, int row, Individual individual, List<Individual> opponents ) {
+		return getRow( pheno, row, individual, opponents, null );
+	}
+	
+	/**
+	 * Gets the results of an individual against some of the opponents, as
+	 * getRow(), leaving the other pairs untouched.
+	 * 
+	 * @param pheno
+	 *            Phenotype to evaluate pairs with.
+	 * @param row
+	 *            Index of the individual being evaluated.
+	 * @param individual
+	 *            Individual being evaluated.
+	 * @param opponents
+	 *            Competing population, indexed by column.
+	 * @param columns
+	 *            Columns of the opponents to get results for, or null for
+	 *            every opponent.
+	 * @return an array of results for each of the columns, in the same order.
+	 */
+	public float[][] getRow( PairwisePhenotype pheno, int row, Individual individual, List<Individual> opponents, int[] columns ) {
+		int n = columns == null ? cells[row].length : columns.length;
+		float[][] results = new float[n][];
+		
+		// find the pairs that need evaluating
+		int[] missing = new int[n];
+		List<Individual> missingOpponents = new ArrayList<>();
+		synchronized ( this ) {
+			lastUsed[row] = ++uses;
+			for ( int i = 0; i < n; i++ ) {
+				int col = columns == null ? i : columns[i];
+				results[i] = cells[row][col];
+				if ( results[i] == null ) {
+					missing[missingOpponents.size()] = i;
+					missingOpponents.add( opponents.get( col ) );
+				}
+			}
+		}
+		int nMissing = missingOpponents.size();
+		
+		if ( nMissing > 0 ) {
+			float[][] evaluated = pheno.evaluatePairs( individual, missingOpponents );
+			for ( int i = 0; i < nMissing; i++ ) {
+				results[missing[i]] = evaluated[i];
+			}
+			store( row, columns, results, missing, nMissing );
+		}
+		
+		evaluations.addAndGet( nMissing );
+		reuses.addAndGet( n - nMissing );
+		return results;
+	}
+	
+	/**
+	 * Calculates the fitness of an individual against some of the opponents,
+	 * evaluating only those pairs that aren't already stored, with a single
+	 * call to completePairs(). The evaluation may stop once the fitness is
+	 * known to be below the cutoff; any pairs it leaves unevaluated are simply
+	 * not stored.
+	 * 
+	 * @param pheno
+	 *            Phenotype to evaluate pairs with.
+	 * @param row
+	 *            Index of the individual being evaluated.
+	 * @param individual
+	 *            Individual being evaluated.
+	 * @param opponents
+	 *            Competing population, indexed by column.
+	 * @param columns
+	 *            Columns of the opponents to evaluate against, or null for
+	 *            every opponent.
+	 * @param cutoff
+	 *            Fitness the result only needs to be compared with, or
+	 *            Float.NEGATIVE_INFINITY to always evaluate fully.
+	 * @return the fitness of the individual if it is at least the cutoff,
+	 *         otherwise a value below the cutoff.
+	 */
+	public float getFitness( PairwisePhenotype pheno, int row, Individual individual, List<Individual> opponents, int[] columns, float cutoff ) {
+		int n = columns == null ? cells[row].length : columns.length;
+		float[][] results = new float[n][];
+		List<Individual> rowOpponents = new ArrayList<>( n );
+		int[] missing = new int[n];
+		int nMissing = 0;
+		synchronized ( this ) {
+			lastUsed[row] = ++uses;
+			for ( int i = 0; i < n; i++ ) {
+				int col = columns == null ? i : columns[i];
+				results[i] = cells[row][col];
+				rowOpponents.add( opponents.get( col ) );
+				if ( results[i] == null ) {
+					missing[nMissing++] = i;
+				}
+			}
+		}
+		
+		float fitness = nMissing > 0 ? pheno.completePairs( individual, rowOpponents, results, cutoff ) : pheno.reduce( results );
+		
+		// keep whichever missing pairs were evaluated
+		int nEvaluated = 0;
+		for ( int i = 0; i < nMissing; i++ ) {
+			if ( results[missing[i]] != null ) {
+				missing[nEvaluated++] = missing[i];
+			}
+		}
+		if ( nEvaluated > 0 ) {
+			store( row, columns, results, missing, nEvaluated );
+		}
+		
+		evaluations.addAndGet( nEvaluated );
+		reuses.addAndGet( n - nMissing );
+		return fitness;
+	}
+	
+	/**
+	 * Stores newly evaluated results in a row, dropping other rows if needed
+	 * to stay within the memory cap. Results that don't fit even then aren't
+	 * kept.
+	 * 
+	 * @param row
+	 *            Index of the individual evaluated.
+	 * @param columns
+	 *            Columns the results are for, or null if they are for every
+	 *            opponent.
+	 * @param results
+	 *            Results as returned by getRow().
+	 * @param missing
+	 *            Indices in results of the newly evaluated results.
+	 * @param nMissing
+	 *            Number of newly evaluated results.
+	 */
+	private synchronized void store( int row, int[] columns, float[][] results, int[] missing, int nMissing ) {
+		for ( int i = 0; i < nMissing; i++ ) {
+			float[] result = results[missing[i]];
+			long size = 4L * result.length;
+			if ( !makeRoom( row, size ) ) {
+				return;
+			}
+			cells[row][columns == null ? missing[i] : columns[missing[i]]] = result;
+			rowBytes[row] += size;
+			bytes += size;
+		}
+	}
+	
+	/**
+	 * Drops the least recently requested rows, other than the one being
+	 * stored to, until a result of the given size fits within the cap.
+	 * 
+	 * @return false if it doesn't fit even with every other row dropped.
+	 */
+	private boolean makeRoom( int row, long size ) {
+		while ( bytes + size > maxBytes ) {
+			int oldest = -1;
+			for ( int r = 0; r < cells.length; r++ ) {
+				if ( r != row && rowBytes[r] > 0 && (oldest < 0 || lastUsed[r] < lastUsed[oldest]) ) {
+					oldest = r;
+				}
+			}
+			if ( oldest < 0 ) {
+				return false;
+			}
+			invalidateRow( oldest );
+			evictions.incrementAndGet();
+		}
+		return true;
+	}
+	
+	/**
+	 * Marks every result in the matrix as invalid, e.g. after the phenotype
+	 * has changed how it evaluates pairs.
+	 */
+	public synchronized void invalidateAll() {
+		for ( int row = 0; row < cells.length; row++ ) {
+			invalidateRow( row );
+		}
+	}
+	
+	/**
+	 * Marks every result for an individual as invalid, e.g. after it has been
+	 * given a new genotype.
+	 * 
+	 * @param row
+	 *            Index of the individual.
+	 */
+	public synchronized void invalidateRow( int row ) {
+		for ( int col = 0; col < cells[row].length; col++ ) {
+			cells[row][col] = null;
+		}
+		bytes -= rowBytes[row];
+		rowBytes[row] = 0;
+	}
+	
+	/**
+	 * Marks every result against an opponent as invalid, e.g. after it has
+	 * been given a new genotype.
+	 * 
+	 * @param col
+	 *            Index of the opponent.
+	 */
+	public synchronized void invalidateColumn( int col ) {
+		for ( int row = 0; row < cells.length; row++ ) {
+			if ( cells[row][col] != null ) {
+				long size = 4L * cells[row][col].length;
+				rowBytes[row] -= size;
+				bytes -= size;
+				cells[row][col] = null;
+			}
+		}
+	}
+	
+	/**
+	 * @return the number of pairs that have been evaluated.
+	 */
+	public long getEvaluations() {
+		return evaluations.get();
+	}
+	
+	/**
+	 * @return the number of times a stored result was used instead of
+	 *         evaluating the pair.
+	 */
+	public long getReuses() {
+		return reuses.get();
+	}
+	
+	/**
+	 * @return the number of rows dropped to stay within the memory cap.
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+	
+	/**
+	 * @return the total size of the results currently kept, in bytes.
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+}
@@ -1,6 +1,7 @@
 package mb.evolution;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import mb.datalog.Loggable;
@@ -55,7 +56,8 @@ public class PopulationStats implements Loggable {
 		for ( int i = 0; i < n; i++ ) {
 			float fitness = individuals.get( i ).getFitness();
 			if ( Float.isNaN( fitness ) ) {
-				throw new AssertionError(); //shouldn't happen!
+				throw new IllegalStateException( String.format( "Fitness of individual %d is NaN; genes %s", i,
+						Arrays.toString( individuals.get( i ).getGenotype().getGenes() ) ) );
 			}
 			if ( Float.isNaN( currentMax ) || fitness > currentMax ) {
 				currentMax = fitness;
@@ -6,13 +6,16 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import mb.ctrnn.json.Network.JSONNetworkParseError;
-import mb.ctrnn.layout.CTRNNLayout;
+import mb.ctrnn.layout.LayoutRegistry;
+import mb.ctrnn.layout.LayoutTemplate;
 import mb.datalog.DataLogger;
 import mb.evolution.CoEvoPopulation;
+import mb.evolution.EvaluationSettings;
 import mb.projectmain.experiment.inputs.InputProvider;
 import mb.projectmain.experiment.params.Parameters;
 import mb.projectmain.tasks.Task;
@@ -48,9 +51,14 @@ public class ExperimentTask implements Task {
 	private float						progress		= 0f;
 	private final ByteArrayOutputStream	outputStream;
 	private InputProvider				provider;
-	private CTRNNLayout					testingLayout;
-	private CTRNNLayout					targetLayout;
+	private LayoutTemplate				testingLayout;
+	private LayoutTemplate				targetLayout;
 	private CoEvoPopulation				pop;
+	private InputPhenotype				input;
+	private ModelPhenotype				model;
+	private FidelitySchedule			fidelitySchedule;
+	private TrajectoryStore				trajectoryStore;	// null if not
+															// shared
 	private DataLogger					inputsLogger;
 	private DataLogger					modelLogger;
 	private TaskFinishCallback			taskFinishCallback;
@@ -58,6 +66,12 @@ public class ExperimentTask implements Task {
 	private volatile boolean			running			= false;
 	private volatile boolean			cancelRequested	= false;
 	
+	/**
+	 * Pool used to evaluate fitness in parallel, null if evaluating
+	 * sequentially.
+	 */
+	private ForkJoinPool				pool			= null;
+	
 	/**
 	 * Registers a class implementing the TaskFinishCallback interface; when the
 	 * GAs have finished running this will notify the registered class.
@@ -82,11 +96,58 @@ public class ExperimentTask implements Task {
 	private void initialise() throws FileNotFoundException, JSONNetworkParseError, IOException {
 		provider = params.inputProperties.getProvider();
 		
-		testingLayout = CTRNNLayout.fromFileName( params.netPropertiesParams.evolved_network_file );
-		targetLayout = CTRNNLayout.fromFileName( params.netPropertiesParams.target_network_file );
+		// layouts are shared with every other task using the same files
+		testingLayout = LayoutRegistry.get( params.netPropertiesParams.evolved_network_file );
+		targetLayout = LayoutRegistry.get( params.netPropertiesParams.target_network_file );
+		
+		// optionally trade exactness for speed while evolving
+		testingLayout = testingLayout.withActivation( testingLayout.getActivation().approximate( params.netPropertiesParams.activation_approximation ) );
+		targetLayout = targetLayout.withActivation( targetLayout.getActivation().approximate( params.netPropertiesParams.activation_approximation ) );
+		
+		// the update order is part of the model being evolved, not an
+		// approximation of it
+		testingLayout = testingLayout.withUpdateMode( params.netPropertiesParams.update_mode );
+		targetLayout = targetLayout.withUpdateMode( params.netPropertiesParams.update_mode );
 		
-		InputPhenotype input = new InputPhenotype( provider, testingLayout, params.netPropertiesParams );
-		ModelPhenotype model = new ModelPhenotype( testingLayout, targetLayout, provider, params );
+		// compiled_step isn't applied: the phenotypes step every network in a
+		// batch engine, which only reads its parameters, so a compiled network
+		// would just lose the sparse engine. Inspector replays use it.
+		
+		input = new InputPhenotype( provider, testingLayout, params.netPropertiesParams );
+		model = new ModelPhenotype( testingLayout, targetLayout, provider, params );
+		
+		// early generations may be evaluated at reduced fidelity
+		fidelitySchedule = new FidelitySchedule( params );
+		input.setFidelity( fidelitySchedule.getFidelity() );
+		model.setFidelity( fidelitySchedule.getFidelity() );
+		
+		// both phenotypes simulate the same (model, input) pairs
+		if ( params.gaPropertiesParams.trajectory_store_size_mb > 0 ) {
+			trajectoryStore = new TrajectoryStore( params.gaPropertiesParams.trajectory_store_size_mb * 1024L * 1024L );
+			input.setTrajectoryStore( trajectoryStore );
+			model.setTrajectoryStore( trajectoryStore );
+		}
+		
+		if ( params.gaPropertiesParams.evaluation_threads > 1 ) {
+			pool = new ForkJoinPool( params.gaPropertiesParams.evaluation_threads );
+			input.setPool( pool );
+			model.setPool( pool );
+		}
+		
+		EvaluationSettings settings = new EvaluationSettings();
+		settings.pairwiseMatrix = params.gaPropertiesParams.pairwise_matrix;
+		settings.inputPairwiseMatrix = params.gaPropertiesParams.input_pairwise_matrix;
+		settings.pairwiseMatrixBytes = params.gaPropertiesParams.pairwise_matrix_size_mb * 1024L * 1024L;
+		settings.fitnessCache = params.gaPropertiesParams.fitness_cache;
+		settings.earlyAbandon = params.gaPropertiesParams.early_abandon;
+		if ( settings.earlyAbandon && !model.canStopEarly() ) {
+			LOG.warning( String.format( "%s\tearly_abandon is set but has no effect: runs with the %s integrator are always run to the end",
+					Thread.currentThread().getName(), params.netPropertiesParams.integrator ) );
+		}
+		settings.pool = pool;
+		settings.opponentSampling = params.gaPropertiesParams.opponent_sampling;
+		settings.sampledOpponents = params.gaPropertiesParams.sampled_opponents;
+		settings.samplingSeed = params.gaPropertiesParams.sampling_seed;
 		
 		pop = new CoEvoPopulation(
 				input,
@@ -94,7 +155,8 @@ public class ExperimentTask implements Task {
 				params.gaPropertiesParams.population,
 				params.gaPropertiesParams.mutation_rate,
 				params.gaPropertiesParams.crossover_probability,
-				params.gaPropertiesParams.deme_size
+				params.gaPropertiesParams.deme_size,
+				settings
 				);
 		
 		inputsLogger = new DataLogger( pop.getInputStats() );
@@ -168,21 +230,82 @@ public class ExperimentTask implements Task {
 					progress = runsCounter / totalNumberOfRuns;
 				}
 				
+				if ( fidelitySchedule.update( pop.getModelStats().getLastMaxFit() ) ) {
+					increaseFidelity();
+				}
+				
+				LOG.info( Thread.currentThread().getName() + "\t" + pop.getEvaluationSummary() );
+				LOG.info( Thread.currentThread().getName() + "\t" + model.getEarlyAbandonSummary() );
+				if ( trajectoryStore != null ) {
+					LOG.info( Thread.currentThread().getName() + "\t" + trajectoryStore );
+				}
+				if ( params.netPropertiesParams.steady_state_tolerance > 0f ) {
+					LOG.info( Thread.currentThread().getName() + "\tinput " + input.getSteadyStateSummary() );
+					LOG.info( Thread.currentThread().getName() + "\tmodel " + model.getSteadyStateSummary() );
+				}
 			}
 			finish(); // clean up
 		} catch ( Exception e ) {
 			LOG.log( Level.SEVERE, Thread.currentThread().getName() + "Exception", e );
 			e.printStackTrace();
+		} finally {
+			if ( pool != null ) {
+				pool.shutdown();
+				pool = null;
+			}
+		}
+	}
+	
+	/**
+	 * Moves the phenotypes to the schedule's new fidelity level. Stored
+	 * trajectories and fitnesses from the previous level aren't comparable, so
+	 * are discarded and every individual is re-scored.
+	 */
+	private void increaseFidelity() {
+		Fidelity fidelity = fidelitySchedule.getFidelity();
+		LOG.info( String.format( "%s\tfidelity level %d of %d: %s", Thread.currentThread().getName(), fidelitySchedule.getLevel() + 1,
+				fidelitySchedule.getNumberOfLevels(), fidelity ) );
+		
+		rescoreAt( fidelity );
+	}
+	
+	/**
+	 * Moves the phenotypes to full fidelity if the run ended before the
+	 * schedule reached it, because total_runs was too short or the task was
+	 * stopped, and re-scores every individual. Saved fitnesses are then
+	 * comparable with other experiments and with the Inspector runs.
+	 */
+	private void ensureFullFidelity() {
+		Fidelity full = Fidelity.full( params.netPropertiesParams );
+		if ( fidelitySchedule.getFidelity().equals( full ) ) {
+			return;
+		}
+		LOG.info( String.format( "%s\tended at fidelity level %d of %d, re-scoring at full fidelity before saving: %s", Thread.currentThread()
+				.getName(), fidelitySchedule.getLevel() + 1, fidelitySchedule.getNumberOfLevels(), full ) );
+		rescoreAt( full );
+	}
+	
+	/**
+	 * Moves the phenotypes to a fidelity, discarding stored trajectories and
+	 * fitnesses from the previous one and re-scoring every individual.
+	 */
+	private void rescoreAt( Fidelity fidelity ) {
+		input.setFidelity( fidelity );
+		model.setFidelity( fidelity );
+		if ( trajectoryStore != null ) {
+			trajectoryStore.clear();
 		}
+		pop.rescoreAll();
 	}
 	
 	/**
-	 * cleans up streams, etc. and saves
+	 * cleans up streams, etc. and saves, at full fidelity
 	 */
 	private void finish() {
 		try {
 			setRunning( false );
 			outputStream.close();
+			ensureFullFidelity();
 			save( params.output_path );
 			if ( taskFinishCallback != null ) {
 				taskFinishCallback.finishTask( this );
@@ -0,0 +1,124 @@
+package mb.projectmain.experiment;
+
+import mb.projectmain.experiment.inputs.InputProvider;
+import mb.projectmain.experiment.params.Parameters;
+
+/**
+ * How closely the phenotypes simulate the networks: the number of timesteps
+ * to run for, and the timestep. A coarser timestep covers the same simulated
+ * time in fewer steps, so the input is sampled every inputStride steps of the
+ * full-resolution waveform.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public class Fidelity {
+	
+	/**
+	 * Creates a new fidelity level.
+	 * 
+	 * @param runLength
+	 *            Number of timesteps to run for.
+	 * @param timeStep
+	 *            Timestep for Euler integration.
+	 * @param inputStride
+	 *            Number of full-resolution input steps per timestep.
+	 */
+	public Fidelity ( int runLength, float timeStep, int inputStride ) {
+		this.runLength = runLength;
+		this.timeStep = timeStep;
+		this.inputStride = inputStride;
+	}
+	
+	/**
+	 * @param params
+	 *            Network parameters.
+	 * @return the full fidelity given by the parameters.
+	 */
+	public static Fidelity full( Parameters.NetPropertiesParams params ) {
+		return new Fidelity( params.run_length_steps, params.time_step, 1 );
+	}
+	
+	/**
+	 * @param params
+	 *            Network parameters.
+	 * @param runFraction
+	 *            Fraction of the full run's simulated time to run for.
+	 * @param timeStepMultiplier
+	 *            Multiple of the full timestep to use.
+	 * @return a reduced fidelity, running for at least one timestep.
+	 */
+	public static Fidelity reduced( Parameters.NetPropertiesParams params, float runFraction, int timeStepMultiplier ) {
+		int runLength = Math.max( 1, Math.round( params.run_length_steps * runFraction / timeStepMultiplier ) );
+		return new Fidelity( runLength, params.time_step * timeStepMultiplier, timeStepMultiplier );
+	}
+	
+	private final int	runLength;
+	private final float	timeStep;
+	private final int	inputStride;
+	
+	/**
+	 * Fills an input waveform for this fidelity: out[t] is the
+	 * full-resolution input at step t * inputStride.
+	 * 
+	 * @param provider
+	 *            InputProvider to generate the input with.
+	 * @param params
+	 *            Parameters for the InputProvider.
+	 * @param out
+	 *            Array of at least runLength to fill.
+	 * @param oscillator
+	 *            Whether to fill by recurrence, as InputProvider.fillInputs().
+	 */
+	public void fillInputs( InputProvider provider, float[] params, float[] out, boolean oscillator ) {
+		if ( inputStride == 1 ) {
+			provider.fillInputs( params, out, 0, runLength, oscillator );
+			return;
+		}
+		
+		float[] full = new float[(runLength - 1) * inputStride + 1];
+		provider.fillInputs( params, full, 0, full.length, oscillator );
+		for ( int t = 0; t < runLength; t++ ) {
+			out[t] = full[t * inputStride];
+		}
+	}
+	
+	/**
+	 * @return the number of timesteps to run for.
+	 */
+	public int getRunLength() {
+		return runLength;
+	}
+	
+	/**
+	 * @return the timestep for Euler integration.
+	 */
+	public float getTimeStep() {
+		return timeStep;
+	}
+	
+	/**
+	 * @return the number of full-resolution input steps per timestep.
+	 */
+	public int getInputStride() {
+		return inputStride;
+	}
+	
+	@Override
+	public boolean equals( Object obj ) {
+		if ( !(obj instanceof Fidelity) )
+			return false;
+		Fidelity other = (Fidelity) obj;
+		return runLength == other.runLength && Float.compare( timeStep, other.timeStep ) == 0 && inputStride == other.inputStride;
+	}
+	
+	@Override
+	public int hashCode() {
+		return (31 * runLength + Float.floatToIntBits( timeStep )) * 31 + inputStride;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format( "[Fidelity runLength=%d timeStep=%s inputStride=%d]", runLength, timeStep, inputStride );
+	}
+}
@@ -0,0 +1,109 @@
+package mb.projectmain.experiment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import mb.projectmain.experiment.params.Parameters;
+
+/**
+ * Decides how closely networks are simulated as an experiment runs. Early
+ * generations only need rough rankings, so they can use shorter runs and
+ * coarser timesteps; fidelity moves up a level after a fixed number of main
+ * loop iterations, or once the best model stops improving, until it reaches
+ * full fidelity.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public class FidelitySchedule {
+	
+	/**
+	 * Creates a new schedule at its first level.
+	 * 
+	 * @param params
+	 *            Parameters, giving the levels in fidelityParams and the full
+	 *            run length and timestep in netPropertiesParams.
+	 */
+	public FidelitySchedule ( Parameters params ) {
+		Parameters.FidelityParams fidelityParams = params.fidelityParams;
+		int nLevels = Math.max( fidelityParams.run_fractions.length, fidelityParams.timestep_multipliers.length );
+		for ( int l = 0; l < nLevels; l++ ) {
+			// a shorter list keeps its last value, and an empty one is full
+			float runFraction = fidelityParams.run_fractions.length == 0 ? 1f : fidelityParams.run_fractions[Math.min( l,
+					fidelityParams.run_fractions.length - 1 )];
+			int multiplier = fidelityParams.timestep_multipliers.length == 0 ? 1 : fidelityParams.timestep_multipliers[Math.min( l,
+					fidelityParams.timestep_multipliers.length - 1 )];
+			levels.add( Fidelity.reduced( params.netPropertiesParams, runFraction, multiplier ) );
+		}
+		
+		// always finish at full fidelity
+		Fidelity full = Fidelity.full( params.netPropertiesParams );
+		if ( levels.isEmpty() || !levels.get( levels.size() - 1 ).equals( full ) ) {
+			levels.add( full );
+		}
+		
+		this.runsPerLevel = fidelityParams.runs_per_level;
+		this.stagnationRuns = fidelityParams.stagnation_runs;
+	}
+	
+	private final List<Fidelity>	levels			= new ArrayList<>();
+	private final int				runsPerLevel, stagnationRuns;
+	private int						level			= 0, runsAtLevel = 0, runsWithoutImprovement = 0;
+	private float					bestAtLevel		= Float.NEGATIVE_INFINITY;
+	
+	/**
+	 * Records the end of a main loop iteration, moving up a level if enough
+	 * iterations have been run at the current one or the best fitness has
+	 * stagnated. Fitnesses at different levels aren't comparable, so
+	 * stagnation is only measured within a level.
+	 * 
+	 * @param bestFitness
+	 *            Best model fitness after the iteration.
+	 * @return true if the fidelity has changed, in which case every fitness
+	 *         must be calculated again.
+	 */
+	public boolean update( float bestFitness ) {
+		if ( level == levels.size() - 1 ) {
+			return false;
+		}
+		
+		runsAtLevel++;
+		if ( bestFitness > bestAtLevel ) {
+			bestAtLevel = bestFitness;
+			runsWithoutImprovement = 0;
+		} else {
+			runsWithoutImprovement++;
+		}
+		
+		if ( (runsPerLevel > 0 && runsAtLevel >= runsPerLevel) || (stagnationRuns > 0 && runsWithoutImprovement >= stagnationRuns) ) {
+			level++;
+			runsAtLevel = 0;
+			runsWithoutImprovement = 0;
+			bestAtLevel = Float.NEGATIVE_INFINITY;
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * @return the fidelity to evaluate at.
+	 */
+	public Fidelity getFidelity() {
+		return levels.get( level );
+	}
+	
+	/**
+	 * @return the index of the current level, from 0.
+	 */
+	public int getLevel() {
+		return level;
+	}
+	
+	/**
+	 * @return the number of levels, including the final full fidelity.
+	 */
+	public int getNumberOfLevels() {
+		return levels.size();
+	}
+
+}
@@ -0,0 +1,143 @@
+package mb.projectmain.experiment;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import mb.evolution.Individual;
+
+/**
+ * Caches a value calculated from each individual's genes, so it can be reused
+ * until the individual is given a new genotype.
+ * 
+ * Entries are keyed by individual identity and are only returned if the
+ * individual's genotype version matches the version stored with the entry.
+ * The cache is bounded by an approximate memory cap; when it is exceeded the
+ * least recently used entries are evicted.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ * @param <V>
+ *            Type of cached value.
+ */
+public abstract class GenotypeCache<V> {
+	
+	/**
+	 * Creates a new empty cache.
+	 * 
+	 * @param maxBytes
+	 *            Approximate upper limit on memory used by cached values, in
+	 *            bytes. A value of zero or less disables caching.
+	 */
+	public GenotypeCache ( long maxBytes ) {
+		this.maxBytes = maxBytes;
+		// access ordered, so iteration starts at the least recently used entry
+		this.entries = new LinkedHashMap<>( 16, 0.75f, true );
+	}
+	
+	private final long									maxBytes;
+	private final LinkedHashMap<Individual, Entry<V>>	entries;
+	private long										usedBytes	= 0;
+	private long										hits		= 0, misses = 0;
+	
+	/**
+	 * @param value
+	 *            Value to be cached.
+	 * @return approximate number of bytes used by the value.
+	 */
+	protected abstract long sizeOf( V value );
+	
+	/**
+	 * Gets the cached value for the given individual.
+	 * 
+	 * @param individual
+	 *            Individual the value was calculated for.
+	 * @return the cached value, or null if there is no entry for the
+	 *         individual's current genotype.
+	 */
+	public synchronized V get( Individual individual ) {
+		Entry<V> entry = entries.get( individual );
+		if ( entry == null || entry.genotypeVersion != individual.getGenotypeVersion() ) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.value;
+	}
+	
+	/**
+	 * Stores a value for the given individual's current genotype, replacing
+	 * any previous entry and evicting least recently used entries if the
+	 * memory cap is exceeded. The value should not be modified after it is
+	 * cached.
+	 * 
+	 * @param individual
+	 *            Individual the value was calculated for.
+	 * @param value
+	 *            Value to cache.
+	 */
+	public synchronized void put( Individual individual, V value ) {
+		long size = sizeOf( value );
+		if ( size > maxBytes ) {
+			return; // would never fit
+		}
+		
+		Entry<V> old = entries.put( individual, new Entry<>( individual.getGenotypeVersion(), value, size ) );
+		if ( old != null ) {
+			usedBytes -= old.size;
+		}
+		usedBytes += size;
+		
+		Iterator<Map.Entry<Individual, Entry<V>>> it = entries.entrySet().iterator();
+		while ( usedBytes > maxBytes && it.hasNext() ) {
+			usedBytes -= it.next().getValue().size;
+			it.remove();
+		}
+	}
+	
+	/**
+	 * Removes all entries from the cache.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		usedBytes = 0;
+	}
+	
+	/**
+	 * @return the number of lookups that returned a cached value.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	/**
+	 * @return the number of lookups that found no valid value.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	/**
+	 * @return approximate number of bytes currently used by cached entries.
+	 */
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+	
+	private static class Entry<V> {
+		final int	genotypeVersion;
+		final V		value;
+		final long	size;
+		
+		Entry ( int genotypeVersion, V value, long size ) {
+			this.genotypeVersion = genotypeVersion;
+			this.value = value;
+			this.size = size;
+		}
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return String.format( "[%s entries=%d usedBytes=%d hits=%d misses=%d]", getClass().getSimpleName(), entries.size(), usedBytes, hits, misses );
+	}
+}
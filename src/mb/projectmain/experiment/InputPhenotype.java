@@ -1,14 +1,21 @@
 package mb.projectmain.experiment;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
+import mb.ctrnn.core.BatchCTRNN;
+import mb.ctrnn.core.BatchIntegrator;
 import mb.ctrnn.core.CTRNN;
-import mb.ctrnn.layout.CTRNNLayout;
-import mb.evolution.CoEvoPhenotype;
+import mb.ctrnn.core.Integrator;
+import mb.ctrnn.layout.LayoutTemplate;
 import mb.evolution.Individual;
+import mb.evolution.PairwisePhenotype;
 import mb.projectmain.experiment.inputs.InputProvider;
 import mb.projectmain.experiment.params.Parameters;
+import mb.util.ParallelLoop;
 import mb.util.StatsUtils;
 
 /**
@@ -17,10 +24,12 @@ import mb.util.StatsUtils;
  * @author Miles Bryant <mb459@sussex.ac.uk>
  *
  */
-public class InputPhenotype implements CoEvoPhenotype {
+public class InputPhenotype implements PairwisePhenotype {
 	
 	/**
-	 * Creates a new InputPhenotype with the specified input and network layouts
+	 * Creates a new InputPhenotype with the specified input and network layouts.
+	 * The layout is read-only, so may be shared with other phenotypes and
+	 * experiments.
 	 * 
 	 * @param provider
 	 *            InputProvider to use
@@ -29,15 +38,35 @@ public class InputPhenotype implements CoEvoPhenotype {
 	 * @param params
 	 *            Experiment parameters
 	 */
-	public InputPhenotype ( InputProvider provider, CTRNNLayout layout, Parameters.NetPropertiesParams params ) {
+	public InputPhenotype ( InputProvider provider, LayoutTemplate layout, Parameters.NetPropertiesParams params ) {
 		this.provider = provider;
 		this.layout = layout;
 		this.params = params;
+		this.fidelity = Fidelity.full( params );
+		this.steadyState = new SteadyState( params.steady_state_tolerance );
+		this.validator = new RunValidator( params.validation );
+		// bad settings fail here rather than in a pool thread
+		new BatchIntegrator( params.integrator, params.integrator_step_multiplier, params.integrator_tolerance );
 	}
 	
 	private final InputProvider						provider;
-	private final CTRNNLayout						layout;
+	private final LayoutTemplate					layout;
 	private final Parameters.NetPropertiesParams	params;
+	private ForkJoinPool							pool;		// null if
+																// sequential
+	private TrajectoryStore							store;		// null if
+																// not shared
+	private Fidelity								fidelity;
+	private final SteadyState						steadyState;	// fast-forwards
+																	// settled runs
+	private final RunValidator						validator;		// checks runs
+																	// for NaN
+	private final ThreadLocal<Scratch>				scratch	= new ThreadLocal<Scratch>() {
+																@Override
+																protected Scratch initialValue() {
+																	return new Scratch();
+																}
+															};
 	
 	/**
 	 * Calculates the variance that the InputProvider generated by the genes
@@ -48,45 +77,602 @@ public class InputPhenotype implements CoEvoPhenotype {
 	 */
 	@Override
 	public float calculateFitness( List<Individual> individuals, float[] genes ) {
+		return simulateVariance( individuals, genes, fidelity.getRunLength() );
+	}
+	
+	/**
+	 * The variance can rise or fall as more of the run is seen, so there is no
+	 * bound to stop early with; this always evaluates fully, as
+	 * calculateFitness().
+	 */
+	@Override
+	public float calculateFitness( List<Individual> individuals, float[] genes, float cutoff ) {
+		return calculateFitness( individuals, genes );
+	}
+	
+	/**
+	 * Runs a single candidate model with the input generated by the given
+	 * individual's genes.
+	 * 
+	 * @param individual
+	 *            Input individual.
+	 * @param opponent
+	 *            Model individual.
+	 * @return the model's output at each timestep.
+	 */
+	@Override
+	public float[] evaluatePair( Individual individual, Individual opponent ) {
+		return evaluatePairs( individual, Collections.singletonList( opponent ) )[0];
+	}
+	
+	/**
+	 * Runs several candidate models as a batch with the input generated by
+	 * the given individual's genes.
+	 * 
+	 * @param individual
+	 *            Input individual.
+	 * @param opponents
+	 *            Model individuals.
+	 * @return each model's output at each timestep.
+	 */
+	@Override
+	public float[][] evaluatePairs( Individual individual, List<Individual> opponents ) {
+		return getNetOutputs( opponents, individual.getGenotype().getGenes(), fidelity.getRunLength() );
+	}
+	
+	/**
+	 * Runs the models whose outputs aren't known yet, as evaluatePairs(), and
+	 * reduces every output. There is no bound to stop early with, so the
+	 * cutoff is ignored, as in calculateFitness().
+	 */
+	@Override
+	public float completePairs( Individual individual, List<Individual> opponents, float[][] results, float cutoff ) {
+		List<Individual> missing = new ArrayList<>();
+		int[] missingIndex = new int[results.length];
+		for ( int m = 0; m < results.length; m++ ) {
+			if ( results[m] == null ) {
+				missingIndex[missing.size()] = m;
+				missing.add( opponents.get( m ) );
+			}
+		}
+		if ( !missing.isEmpty() ) {
+			float[][] evaluated = evaluatePairs( individual, missing );
+			for ( int i = 0; i < evaluated.length; i++ ) {
+				results[missingIndex[i]] = evaluated[i];
+			}
+		}
+		return reduce( results );
+	}
+	
+	/**
+	 * @return the variance of the model outputs, as in calculateFitness().
+	 *         Each output is folded into the running variance in order, so
+	 *         this is the same as a sequential calculateFitness().
+	 */
+	@Override
+	public float reduce( float[][] results ) {
+		int length = results[0].length;
+		Scratch buffers = scratch.get();
+		buffers.ensureLength( length );
+		double[] means = buffers.means[0], m2s = buffers.m2s[0];
+		StatsUtils.resetRunningVariance( means, m2s, length );
+		for ( int m = 0; m < results.length; m++ ) {
+			StatsUtils.addToRunningVariance( means, m2s, m, results[m], length );
+		}
+		return StatsUtils.meanOfRunningVariances( m2s, results.length, length );
+	}
+	
+	/**
+	 * Gets CTRNN outputs, taking them from the trajectory store where they
+	 * have already been simulated. Only the models missing from the store are
+	 * simulated, and their outputs are stored for either phenotype to reuse.
+	 * 
+	 * @param individuals
+	 *            List of model individuals
+	 * @param genes
+	 *            Parameters for the InputProvider.
+	 * @param runLength
+	 *            Number of timesteps to run for.
+	 * @return the output of each model at each timestep. Stored arrays are
+	 *         returned as they are, so must not be modified.
+	 */
+	private float[][] getNetOutputs( List<Individual> individuals, float[] genes, int runLength ) {
+		if ( store == null ) {
+			float[][] outputs = new float[individuals.size()][runLength];
+			simulate( individuals, genes, runLength, null, outputs, null, null );
+			return outputs;
+		}
 		
-		List<float[]> timeSeries = getNetOutputs( individuals, genes, params.run_length_steps );
+		float[][] outputs = new float[individuals.size()][];
+		List<Individual> missing = new ArrayList<>();
+		int[] missingIndex = new int[individuals.size()];
+		for ( int m = 0; m < individuals.size(); m++ ) {
+			outputs[m] = store.get( individuals.get( m ).getGenotype().getGenes(), genes );
+			if ( outputs[m] == null ) {
+				missingIndex[missing.size()] = m;
+				missing.add( individuals.get( m ) );
+			}
+		}
+		if ( missing.isEmpty() )
+			return outputs;
+		
+		float[][] simulated = new float[missing.size()][runLength];
+		simulate( missing, genes, runLength, null, simulated, null, null );
+		for ( int i = 0; i < simulated.length; i++ ) {
+			outputs[missingIndex[i]] = simulated[i];
+			store.put( missing.get( i ).getGenotype().getGenes(), genes, simulated[i] );
+		}
+		return outputs;
+	}
+	
+	/**
+	 * Calculates the mean variance over time between the CTRNN outputs,
+	 * folding each output into a running mean and M2 at each timestep as it
+	 * is produced, so no output series are kept. In parallel, each batch keeps
+	 * its own running totals, which are combined in order afterwards; the
+	 * result is the same as sequentially to within rounding.
+	 * 
+	 * Models whose outputs are already in the trajectory store aren't run;
+	 * their stored outputs are folded in at the same point instead, so the
+	 * result doesn't depend on what is stored. Outputs of models that are run
+	 * aren't stored, as only the variance is needed.
+	 * 
+	 * @param individuals
+	 *            List of model individuals
+	 * @param genes
+	 *            Parameters for the InputProvider.
+	 * @param runLength
+	 *            Number of timesteps to run for.
+	 * @return scalar value of the mean variance.
+	 */
+	private float simulateVariance( List<Individual> individuals, float[] genes, int runLength ) {
+		int nPop = individuals.size();
+		float[][] stored = null;
+		if ( store != null ) {
+			stored = new float[nPop][];
+			for ( int m = 0; m < nPop; m++ ) {
+				stored[m] = store.get( individuals.get( m ).getGenotype().getGenes(), genes );
+			}
+		}
 		
-		float[] meanTimeSeries = StatsUtils.calculateMeansOfArrays( timeSeries );
-		List<float[]> variances = StatsUtils.calculateVarianceWithMeans( timeSeries, meanTimeSeries );
-		float[] aveVarianceTS = StatsUtils.calculateMeansOfArrays( variances );
-		float average = StatsUtils.calculateMean( aveVarianceTS );
+		if ( pool == null ) {
+			// a single batch, whose totals are only needed until the variance
+			// is calculated
+			Scratch buffers = scratch.get();
+			buffers.ensureLength( runLength );
+			simulate( individuals, genes, runLength, stored, null, buffers.means, buffers.m2s );
+			return StatsUtils.meanOfRunningVariances( buffers.m2s[0], nPop, runLength );
+		}
 		
-		return average;
+		// one set of totals per batch
+		double[][] means = new double[nPop][], m2s = new double[nPop][];
+		simulate( individuals, genes, runLength, stored, null, means, m2s );
+		// batches are contiguous, so the models before each batch are the ones
+		// already combined
+		double[] totalMeans = means[0], totalM2s = m2s[0];
+		int from = 0;
+		for ( int to = 1; to <= nPop; to++ ) {
+			if ( to < nPop && means[to] == null )
+				continue;
+			if ( from > 0 ) {
+				StatsUtils.mergeRunningVariance( totalMeans, totalM2s, from, means[from], m2s[from], to - from, runLength );
+			}
+			from = to;
+		}
+		return StatsUtils.meanOfRunningVariances( totalM2s, nPop, runLength );
 	}
 	
 	/**
-	 * Calculates CTRNN outputs.
-	 * @param individuals List of model individuals
+	 * Runs the CTRNNs, possibly in parallel. The input waveform is generated
+	 * once for the whole run, then the models are split into one contiguous
+	 * batch per pool thread, and each batch is simulated with a single
+	 * BatchCTRNN.
+	 * 
+	 * @param individuals
+	 *            List of model individuals
 	 * @param genes
+	 *            Parameters for the InputProvider.
 	 * @param runLength
-	 * @return
+	 *            Number of timesteps to run for.
+	 * @param stored
+	 *            Stored outputs of each model, null for those to run, or null
+	 *            if none are stored.
+	 * @param outputs
+	 *            Array of at least [individuals][runLength] to store the output
+	 *            of each model at each timestep in, or null.
+	 * @param means
+	 *            Array of [individuals][] for each batch to fold its outputs
+	 *            into a running mean at each timestep of, at the index of the
+	 *            batch's first model. Missing arrays are allocated. Null if the
+	 *            variance isn't needed.
+	 * @param m2s
+	 *            Running sums of squared differences from the mean, as means.
 	 */
-	private List<float[]> getNetOutputs( List<Individual> individuals, float[] genes, int runLength ) {
-		List<float[]> outputs = new ArrayList<>( individuals.size() );
-		provider.setParams( genes );
+	private void simulate( final List<Individual> individuals, final float[] genes, final int runLength, final float[][] stored,
+			final float[][] outputs, final double[][] means, final double[][] m2s ) {
+		// the thread's own buffer is only safe to use if no other evaluation
+		// can run on this thread before it is finished with
+		final float[] waveform = pool == null ? scratch.get().getWaveform( runLength ) : new float[runLength];
+		fidelity.fillInputs( provider, genes, waveform, params.oscillator_inputs );
 		
-		for ( int i = 0; i < individuals.size(); i++ ) {
-			layout.updateGenes( individuals.get( i ).getGenotype().getGenes() );
-			
-			//calculate CTRNN outputs
-			CTRNN net = layout.createCTRNN();
-			float[] input = new float[layout.getNumberOfNeurons()];
-			float[] output = new float[runLength];
+		if ( pool == null ) {
+			runModels( individuals, genes, 0, individuals.size(), waveform, runLength, stored, outputs, means, m2s );
+			return;
+		}
+		
+		ParallelLoop.runRanges( pool, individuals.size(), new ParallelLoop.RangeBody() {
+			@Override
+			public void run( int from, int to ) {
+				runModels( individuals, genes, from, to, waveform, runLength, stored, outputs, means, m2s );
+			}
+		} );
+	}
+	
+	/**
+	 * Calculates the outputs of a batch of models. Neither the layout nor the
+	 * InputProvider are modified, so this can be run for several batches at
+	 * once. The networks are the calling thread's Scratch, so nothing is
+	 * allocated once it has grown to the batch size.
+	 * 
+	 * Models with stored outputs are left out of the batch, and their stored
+	 * output is used at each timestep in their place.
+	 * 
+	 * Once the input is constant for the rest of the run, models that settle
+	 * are moved out of the batch and their last output is used for the
+	 * remaining timesteps; see SteadyState.
+	 * 
+	 * If an integrator other than plain Euler steps is set, the whole run is
+	 * given to the thread's BatchIntegrator instead, and its outputs on the
+	 * original timesteps are recorded in the same way.
+	 * 
+	 * Unless validation is off, the batch's running mean or outputs are
+	 * checked for NaN at the end of the run; if paranoid, every model is also
+	 * checked after every step.
+	 * 
+	 * @param individuals
+	 *            List of model individuals
+	 * @param inputGenes
+	 *            Parameters for the InputProvider, to report if a check
+	 *            fails.
+	 * @param from
+	 *            Index of the first model to run.
+	 * @param to
+	 *            Index after the last model to run.
+	 * @param waveform
+	 *            Input for each timestep, from Fidelity.fillInputs().
+	 * @param runLength
+	 *            Number of timesteps to run for.
+	 * @param stored
+	 *            Stored outputs at the same index as the individual, null for
+	 *            models to run, or null if none are stored.
+	 * @param outputs
+	 *            Array to store the output of each model in, at the same index
+	 *            as the individual, or null.
+	 * @param batchMeans
+	 *            Array to fold the outputs at each timestep into a running
+	 *            mean in, at the index of the first model, or null. The
+	 *            running mean is allocated if missing.
+	 * @param batchM2s
+	 *            Running sums of squared differences from the mean, as
+	 *            batchMeans.
+	 */
+	private void runModels( List<Individual> individuals, float[] inputGenes, int from, int to, float[] waveform, int runLength,
+			float[][] stored, float[][] outputs, double[][] batchMeans, double[][] batchM2s ) {
+		//calculate CTRNN outputs
+		int k = to - from;
+		Scratch buffers = scratch.get();
+		int[] batchIndex = buffers.getBatchIndex( k ), batchModels = buffers.batchModels;
+		int nRun = 0;
+		for ( int m = 0; m < k; m++ ) {
+			if ( stored != null && stored[from + m] != null ) {
+				batchIndex[m] = -1;
+			} else {
+				batchModels[nRun] = m;
+				batchIndex[m] = nRun++;
+			}
+		}
+		BatchCTRNN net = null;
+		if ( nRun > 0 ) {
+			net = buffers.getBatch( nRun );
+			for ( int b = 0; b < nRun; b++ ) {
+				net.setNetwork( b, buffers.getModel( individuals.get( from + batchModels[b] ).getGenotype().getGenes() ) );
+			}
+		}
+		double[] means = null, m2s = null;
+		if ( batchMeans != null ) {
+			if ( batchMeans[from] == null ) {
+				batchMeans[from] = new double[runLength];
+				batchM2s[from] = new double[runLength];
+			}
+			means = batchMeans[from];
+			m2s = batchM2s[from];
+			StatsUtils.resetRunningVariance( means, m2s, runLength );
+		}
+		
+		if ( buffers.integrator != null ) {
+			float[][] integrated = null;
+			if ( net != null ) {
+				integrated = buffers.getIntegratedOutputs( runLength );
+				float[][] waveforms = buffers.waveforms;
+				Arrays.fill( waveforms, 0, nRun, waveform );
+				buffers.integrator.run( net, waveforms, params.network_input_index, params.network_output_index, fidelity.getTimeStep(),
+						runLength, integrated );
+				Arrays.fill( waveforms, 0, nRun, null ); // don't keep the waveform alive
+				if ( validator.isParanoid() ) {
+					checkStep( net, nRun, null, batchModels, individuals, inputGenes, from, waveform, runLength );
+				}
+			}
+			for ( int t = 0; t < runLength; t++ ) {
+				for ( int m = 0; m < k; m++ ) {
+					float output = batchIndex[m] < 0 ? stored[from + m][t] : integrated[batchIndex[m]][t];
+					if ( outputs != null ) {
+						outputs[from + m][t] = output;
+					}
+					if ( means != null ) {
+						StatsUtils.addToRunningVariance( means, m2s, t, m, output );
+					}
+				}
+			}
+			checkRun( individuals, inputGenes, from, to, waveform, runLength, outputs, means );
+			return;
+		}
+		
+		float[][] input = buffers.input;
+		int[] members = buffers.members, slots = buffers.slots, calmSteps = buffers.calmSteps;
+		int active = nRun, constantFrom = runLength;
+		if ( net != null ) {
+			steadyState.start( net, members, slots, calmSteps );
+			if ( steadyState.isEnabled() ) {
+				constantFrom = SteadyState.constantFrom( waveform, runLength );
+			}
+		}
+		
+		for ( int t = 0; t < runLength; t++ ) {
+			if ( active > 0 ) {
+				// every model gets the same input
+				Arrays.fill( input[params.network_input_index], 0, active, waveform[t] );
+				net.step( fidelity.getTimeStep(), input );
+				if ( validator.isParanoid() ) {
+					checkStep( net, active, members, batchModels, individuals, inputGenes, from, waveform, runLength );
+				}
+			}
+			for ( int m = 0; m < k; m++ ) {
+				float output = batchIndex[m] < 0 ? stored[from + m][t] : net.getOutput( params.network_output_index, slots[batchIndex[m]] );
+				if ( outputs != null ) {
+					outputs[from + m][t] = output;
+				}
+				if ( means != null ) {
+					StatsUtils.addToRunningVariance( means, m2s, t, m, output );
+				}
+			}
 			
+			if ( t >= constantFrom ) {
+				active = steadyState.settle( net, active, members, slots, calmSteps, null, t, runLength );
+			}
+		}
+		checkRun( individuals, inputGenes, from, to, waveform, runLength, outputs, means );
+	}
+	
+	/**
+	 * Checks every state and output of the models still being stepped, as
+	 * RunValidator.checkStep().
+	 * 
+	 * @param batchModels
+	 *            Index from the first model of the range of the model each
+	 *            batch member runs.
+	 * @throws IllegalStateException
+	 *             If any is NaN.
+	 */
+	private void checkStep( BatchCTRNN net, int active, int[] members, int[] batchModels, List<Individual> individuals, float[] inputGenes,
+			int from, float[] waveform, int runLength ) {
+		try {
+			validator.checkStep( net, active, members );
+		} catch ( RunValidator.NaNFound e ) {
+			int m = from + batchModels[e.member];
+			throw failure( "Model " + m + " went NaN", individuals, inputGenes, m, m + 1, waveform, runLength );
+		}
+	}
+	
+	/**
+	 * Checks a batch's outputs, or its running mean if they aren't kept, for
+	 * NaN once it has been run to the end. A NaN output at any timestep makes
+	 * the mean at that timestep NaN.
+	 * 
+	 * @throws IllegalStateException
+	 *             If any is NaN.
+	 */
+	private void checkRun( List<Individual> individuals, float[] inputGenes, int from, int to, float[] waveform, int runLength,
+			float[][] outputs, double[] means ) {
+		if ( !validator.checksResults() )
+			return;
+		
+		if ( outputs != null ) {
+			for ( int m = from; m < to; m++ ) {
+				for ( int t = 0; t < runLength; t++ ) {
+					if ( Float.isNaN( outputs[m][t] ) )
+						throw failure( "Output of model " + m + " is NaN", individuals, inputGenes, m, m + 1, waveform, runLength );
+				}
+			}
+		}
+		if ( means != null ) {
 			for ( int t = 0; t < runLength; t++ ) {
-				input[params.network_input_index] = provider.getInput( t );
-				net.step( params.time_step, input );
-				output[t] = net.getOutputs()[params.network_output_index];
+				if ( Double.isNaN( means[t] ) )
+					throw failure( "Mean output of models " + from + " to " + (to - 1) + " is NaN", individuals, inputGenes, from, to, waveform,
+							runLength );
 			}
-			outputs.add( output );
 		}
+	}
+	
+	/**
+	 * Runs each of a range of models that may have failed validation again on
+	 * its own, checking every step, until one is found to go NaN.
+	 * 
+	 * @param what
+	 *            Description of the check that failed.
+	 * @param individuals
+	 *            List of model individuals
+	 * @param inputGenes
+	 *            Parameters for the InputProvider.
+	 * @param from
+	 *            Index of the first model to run.
+	 * @param to
+	 *            Index after the last model to run.
+	 * @param waveform
+	 *            Input for each timestep.
+	 * @param runLength
+	 *            Number of timesteps in the run.
+	 * @return an exception describing the failure, for the caller to throw.
+	 */
+	private IllegalStateException failure( String what, List<Individual> individuals, float[] inputGenes, int from, int to,
+			float[] waveform, int runLength ) {
+		for ( int m = from; m < to; m++ ) {
+			float[] modelGenes = individuals.get( m ).getGenotype().getGenes();
+			String diagnosis = RunValidator.diagnose( layout.createCTRNN( modelGenes ), waveform, params.network_input_index,
+					params.network_output_index, fidelity.getTimeStep(), runLength, scratch.get().integrator );
+			if ( diagnosis != null )
+				return RunValidator.failure( to - from > 1 ? what + "; model " + m : what, diagnosis, modelGenes, inputGenes );
+		}
+		return RunValidator.failure( what, null, to - from == 1 ? individuals.get( from ).getGenotype().getGenes() : null, inputGenes );
+	}
+	
+	/**
+	 * Sets the pool used to run batches of models in parallel. The result is
+	 * the same as running them sequentially, to within the rounding of
+	 * combining each batch's running variance.
+	 * 
+	 * @param pool
+	 *            ForkJoinPool to use, or null to evaluate sequentially.
+	 */
+	public void setPool( ForkJoinPool pool ) {
+		this.pool = pool;
+	}
+	
+	/**
+	 * Sets how closely networks are simulated. Must not be called while an
+	 * evaluation is running.
+	 * 
+	 * @param fidelity
+	 *            Run length and timestep to simulate with.
+	 */
+	public void setFidelity( Fidelity fidelity ) {
+		this.fidelity = fidelity;
+	}
+	
+	/**
+	 * Sets the store used to share the evolved network's output for each
+	 * (model, input) pair with a ModelPhenotype. The result is the same as
+	 * without a store. calculateFitness() only reads from it, while
+	 * evaluatePairs() stores the outputs it runs, as it returns them anyway.
+	 * 
+	 * @param store
+	 *            Store shared with phenotypes using the same evolved layout,
+	 *            InputProvider and network parameters, or null to simulate
+	 *            every pair.
+	 */
+	public void setTrajectoryStore( TrajectoryStore store ) {
+		this.store = store;
+	}
+	
+	/**
+	 * @return a human readable summary of how many runs settled into a steady
+	 *         state and were fast-forwarded.
+	 */
+	public String getSteadyStateSummary() {
+		return steadyState.toString();
+	}
+	
+	/**
+	 * Networks and arrays reused by one thread for every batch it runs. They
+	 * grow to fit the largest batch so far and are never shrunk.
+	 */
+	private class Scratch {
 		
-		return outputs;
+		private CTRNN		model;			// null until first run
+		private BatchCTRNN	batch;			// null until first run
+		private float[]		waveform;
+		private float[][]	integratedOutputs;	// null until needed
+		final BatchIntegrator	integrator	= params.integrator == Integrator.EULER && params.integrator_step_multiplier == 1 ? null
+													: new BatchIntegrator( params.integrator, params.integrator_step_multiplier,
+															params.integrator_tolerance );	// null for
+																							// plain Euler
+																							// steps
+		float[][]			input, waveforms;
+		int[]				members, slots, calmSteps;
+		int[]				batchIndex, batchModels;	// see getBatchIndex()
+		// running totals for a single batch, as simulate() takes them
+		double[][]			means	= new double[1][], m2s = new double[1][];
+		
+		/**
+		 * @return a network with the parameters given by the genes, for
+		 *         copying into the batch.
+		 */
+		CTRNN getModel( float[] modelGenes ) {
+			if ( model == null ) {
+				model = layout.createCTRNN( modelGenes );
+			} else {
+				layout.loadGenes( model, modelGenes );
+			}
+			return model;
+		}
+		
+		/**
+		 * @return a batch of k networks, reset to their initial states.
+		 */
+		BatchCTRNN getBatch( int k ) {
+			if ( batch == null || batch.getCapacity() < k ) {
+				batch = new BatchCTRNN( layout.getNumberOfNeurons(), k );
+				input = new float[layout.getNumberOfNeurons()][];
+				input[params.network_input_index] = new float[k];
+				members = new int[k];
+				slots = new int[k];
+				calmSteps = new int[k];
+				waveforms = new float[k][];
+				integratedOutputs = null;
+				batch.setActivation( layout.getActivation() );
+				batch.setUpdateMode( layout.getUpdateMode() );
+			}
+			batch.setBatchSize( k );
+			batch.reset();
+			return batch;
+		}
+		
+		/**
+		 * @return an array of at least k for the batch member running each
+		 *         model of a range, or -1 if its outputs are stored.
+		 *         batchModels then has room for the model each member runs.
+		 */
+		int[] getBatchIndex( int k ) {
+			if ( batchIndex == null || batchIndex.length < k ) {
+				batchIndex = new int[k];
+				batchModels = new int[k];
+			}
+			return batchIndex;
+		}
+		
+		/**
+		 * @return an array of [capacity][runLength] for the models' outputs
+		 *         when run by the integrator.
+		 */
+		float[][] getIntegratedOutputs( int runLength ) {
+			if ( integratedOutputs == null || integratedOutputs[0].length != runLength ) {
+				integratedOutputs = new float[batch.getCapacity()][runLength];
+			}
+			return integratedOutputs;
+		}
+		
+		float[] getWaveform( int runLength ) {
+			if ( waveform == null || waveform.length != runLength ) {
+				waveform = new float[runLength];
+			}
+			return waveform;
+		}
+		
+		void ensureLength( int length ) {
+			if ( means[0] == null || means[0].length < length ) {
+				means[0] = new double[length];
+				m2s[0] = new double[length];
+			}
+		}
 	}
 	
 	@Override
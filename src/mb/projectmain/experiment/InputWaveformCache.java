@@ -0,0 +1,29 @@
+package mb.projectmain.experiment;
+
+/**
+ * Caches the input waveform generated from each input individual's genes, as
+ * filled by InputProvider.fillInputs(). Every model is run with the same
+ * inputs, so a waveform can be reused by every model evaluation until the
+ * input individual is given a new genotype.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public class InputWaveformCache extends GenotypeCache<float[]> {
+	
+	/**
+	 * Creates a new empty cache.
+	 * 
+	 * @param maxBytes
+	 *            Approximate upper limit on memory used by cached waveforms, in
+	 *            bytes. A value of zero or less disables caching.
+	 */
+	public InputWaveformCache ( long maxBytes ) {
+		super( maxBytes );
+	}
+	
+	@Override
+	protected long sizeOf( float[] waveform ) {
+		return 4L * waveform.length;
+	}
+}
@@ -15,7 +15,8 @@ import java.util.logging.Logger;
 
 import mb.ctrnn.core.LoggableCTRNN;
 import mb.ctrnn.json.Network.JSONNetworkParseError;
-import mb.ctrnn.layout.CTRNNLayout;
+import mb.ctrnn.layout.LayoutRegistry;
+import mb.ctrnn.layout.LayoutTemplate;
 import mb.datalog.DataLogger;
 import mb.projectmain.experiment.inputs.InputProvider;
 import mb.projectmain.experiment.params.Parameters;
@@ -124,14 +125,26 @@ public class Inspector implements Task {
 		
 		// set up networks, input, parameters etc
 		
-		evolvedLayout = CTRNNLayout.fromFileName( evolvedNet.getAbsolutePath() );
-		fixedLayout = CTRNNLayout.fromFileName( fixedNet.getAbsolutePath() );
+		evolvedLayout = LayoutRegistry.get( evolvedNet.getAbsolutePath() );
+		fixedLayout = LayoutRegistry.get( fixedNet.getAbsolutePath() );
+		
+		// replays always use the exact activation functions
+		evolvedLayout = evolvedLayout.withActivation( evolvedLayout.getActivation().getExact() );
+		fixedLayout = fixedLayout.withActivation( fixedLayout.getActivation().getExact() );
+		
+		// but the same update order as the experiment
+		evolvedLayout = evolvedLayout.withUpdateMode( params.netPropertiesParams.update_mode );
+		fixedLayout = fixedLayout.withUpdateMode( params.netPropertiesParams.update_mode );
+		
+		// replays step single networks, which is where generated step classes
+		// help
+		evolvedLayout = evolvedLayout.withCompiledStep( params.netPropertiesParams.compiled_step );
+		fixedLayout = fixedLayout.withCompiledStep( params.netPropertiesParams.compiled_step );
 		
 		provider = params.inputProperties.getProvider();
 		provider.setParams( inputGenes );
-		evolvedLayout.updateGenes( modelGenes );
 		
-		evolvedCTRNN = new LoggableCTRNN( evolvedLayout.createCTRNN() );
+		evolvedCTRNN = new LoggableCTRNN( evolvedLayout.createCTRNN( modelGenes ) );
 		fixedCTRNN = new LoggableCTRNN( fixedLayout.createCTRNN() );
 		
 		fixedLogger = new DataLogger( fixedCTRNN );
@@ -143,8 +156,8 @@ public class Inspector implements Task {
 	
 	private final Parameters	params;
 	
-	private CTRNNLayout			fixedLayout;
-	private CTRNNLayout			evolvedLayout;
+	private LayoutTemplate		fixedLayout;
+	private LayoutTemplate		evolvedLayout;
 	
 	private LoggableCTRNN		fixedCTRNN;
 	private LoggableCTRNN		evolvedCTRNN;
@@ -0,0 +1,99 @@
+package mb.projectmain.experiment;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import mb.ctrnn.core.NetworkGenerator;
+import mb.ctrnn.core.ParallelCTRNN;
+
+/**
+ * Times ParallelCTRNN.step() on random networks of increasing size, to give
+ * scaling curves for large networks and to choose the parallel threshold.
+ * Each network is timed stepping serially and then split across pools of 2,
+ * 4, ... threads up to the given number; the best of several repeats is
+ * reported to reduce the effect of JIT compilation and GC.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public class LargeNetworkBenchmark {
+	
+	private static final int	REPEATS	= 5;
+	private static final long	WORK	= 200000000L;	// connections summed
+														// per repeat
+	
+	/**
+	 * Runs the benchmark and prints the time per step for each network size
+	 * and number of threads.
+	 * 
+	 * @param args
+	 *            Optional -threads T (default: available processors), -fanin F
+	 *            (connections into each neuron, default 1000, capped at the
+	 *            network size) and network sizes (default 1000 5000 10000).
+	 */
+	public static void main( String[] args ) {
+		int threads = Runtime.getRuntime().availableProcessors(), fanIn = 1000;
+		int[] sizes = { 1000, 5000, 10000 };
+		int nSizes = 0;
+		for ( int a = 0; a < args.length; a++ ) {
+			if ( args[a].equals( "-threads" ) ) {
+				threads = Integer.parseInt( args[++a] );
+			} else if ( args[a].equals( "-fanin" ) ) {
+				fanIn = Integer.parseInt( args[++a] );
+			} else {
+				if ( nSizes == 0 ) {
+					sizes = new int[args.length];
+				}
+				sizes[nSizes++] = Integer.parseInt( args[a] );
+			}
+		}
+		if ( nSizes > 0 ) {
+			sizes = Arrays.copyOf( sizes, nSizes );
+		}
+		
+		System.out.println( "neurons\tconnections\tthreads\tns/step\tspeedup" );
+		for ( int n : sizes ) {
+			ParallelCTRNN net = NetworkGenerator.random( n, Math.min( fanIn, n ), 42 );
+			net.setParallelThreshold( 0 );
+			double serial = timeStep( net );
+			System.out.println( String.format( "%d\t%d\t%d\t%.0f\t%.2f", n, net.getNumberOfConnections(), 1, serial, 1.0 ) );
+			
+			for ( int t = 2; t <= threads; t *= 2 ) {
+				ForkJoinPool pool = new ForkJoinPool( t );
+				net.setPool( pool );
+				double parallel = timeStep( net );
+				System.out.println( String.format( "%d\t%d\t%d\t%.0f\t%.2f", n, net.getNumberOfConnections(), t, parallel, serial / parallel ) );
+				net.setPool( null );
+				pool.shutdown();
+			}
+		}
+	}
+	
+	/**
+	 * @param net
+	 *            Network to time. It is reset before each repeat.
+	 * @return the best time per step over all repeats, in nanoseconds.
+	 */
+	public static double timeStep( ParallelCTRNN net ) {
+		int n = net.getNumberOfNeurons(), steps = (int) Math.max( 10, WORK / Math.max( 1, net.getNumberOfConnections() ) );
+		float[] inputs = new float[n];
+		long best = Long.MAX_VALUE;
+		float sink = 0f; // stops the simulation being optimised away
+		
+		for ( int r = 0; r < REPEATS; r++ ) {
+			net.reset();
+			long start = System.nanoTime();
+			for ( int t = 0; t < steps; t++ ) {
+				inputs[0] = (float) Math.sin( t * 0.01 );
+				net.step( 0.01f, inputs );
+			}
+			best = Math.min( best, System.nanoTime() - start );
+			sink += net.getOutput( n - 1 );
+		}
+		
+		if ( Float.isNaN( sink ) ) {
+			System.out.println( "NaN output" );
+		}
+		return (double) best / steps;
+	}
+}
@@ -1,24 +1,35 @@
 package mb.projectmain.experiment;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+import mb.ctrnn.core.BatchIntegrator;
+import mb.ctrnn.core.BatchStepper;
 import mb.ctrnn.core.CTRNN;
-import mb.ctrnn.layout.CTRNNLayout;
-import mb.evolution.CoEvoPhenotype;
+import mb.ctrnn.core.Integrator;
+import mb.ctrnn.core.MultiStateCTRNN;
+import mb.ctrnn.layout.LayoutTemplate;
 import mb.evolution.Individual;
+import mb.evolution.PairwisePhenotype;
 import mb.projectmain.experiment.inputs.InputProvider;
 import mb.projectmain.experiment.params.Parameters;
+import mb.util.ParallelLoop;
 
 /**
  * Implements fitness functions for models.
  * 
  * @author Miles Bryant <mb459@sussex.ac.uk> *
  */
-public class ModelPhenotype implements CoEvoPhenotype {
+public class ModelPhenotype implements PairwisePhenotype {
 	
 	/**
 	 * Creates a new ModelPhenotype with the specified network layouts,
-	 * InputProvider and Parameters.
+	 * InputProvider and Parameters. The layouts are read-only, so may be
+	 * shared with other phenotypes and experiments.
 	 * 
 	 * @param testingLayout
 	 *            Evolvable layout used for candidate models.
@@ -28,37 +39,92 @@ public class ModelPhenotype implements CoEvoPhenotype {
 	 *            InputProvider to provide input to networks.
 	 * @param params
 	 *            Parameters object. This class only uses
-	 *            NUM_DERIVS,RUN_LENGTH,INPUT_INDEX,OUTPUT_INDEX and TIMESTEP.
+	 *            NUM_DERIVS,INPUT_INDEX,OUTPUT_INDEX,OSCILLATOR_INPUTS, the
+	 *            cache sizes, the steady state tolerance, the integrator
+	 *            settings, the validation level, and the run length and
+	 *            timestep for the initial full fidelity.
 	 */
-	public ModelPhenotype ( CTRNNLayout testingLayout, CTRNNLayout targetLayout, InputProvider input, Parameters params ) {
+	public ModelPhenotype ( LayoutTemplate testingLayout, LayoutTemplate targetLayout, InputProvider input, Parameters params ) {
 		// set parameters
 		this.testingLayout = testingLayout;
 		this.targetLayout = targetLayout;
 		this.input = input;
 		this.NUM_DERIVS = params.modelProperties.derivative_depth;
-		this.RUN_LENGTH = params.netPropertiesParams.run_length_steps;
 		this.INPUT_INDEX = params.netPropertiesParams.network_input_index;
 		this.OUTPUT_INDEX = params.netPropertiesParams.network_output_index;
-		this.TIMESTEP = params.netPropertiesParams.time_step;
-		
+		this.OSCILLATOR_INPUTS = params.netPropertiesParams.oscillator_inputs;
+		this.targetCache = new TargetTrajectoryCache( params.modelProperties.target_cache_size_mb * 1024L * 1024L );
+		this.waveformCache = new InputWaveformCache( params.modelProperties.waveform_cache_size_mb * 1024L * 1024L );
+		this.steadyState = new SteadyState( params.netPropertiesParams.steady_state_tolerance );
+		this.INTEGRATOR = params.netPropertiesParams.integrator;
+		this.INTEGRATOR_STEP_MULTIPLIER = params.netPropertiesParams.integrator_step_multiplier;
+		this.INTEGRATOR_TOLERANCE = params.netPropertiesParams.integrator_tolerance;
+		this.validator = new RunValidator( params.netPropertiesParams.validation );
+		// bad settings fail here rather than in a pool thread
+		new BatchIntegrator( INTEGRATOR, INTEGRATOR_STEP_MULTIPLIER, INTEGRATOR_TOLERANCE );
+		setFidelity( Fidelity.full( params.netPropertiesParams ) );
 	}
 	
-	private final CTRNNLayout	testingLayout, targetLayout;	// layouts
+	private final LayoutTemplate	testingLayout, targetLayout;	// layouts
+	private final TargetTrajectoryCache	targetCache;			// target
+																// derivatives
+																// per input
+	private final InputWaveformCache	waveformCache;			// input
+																// waveform per
+																// input
 	private final InputProvider	input;							// input to
 																// networks
+	private ForkJoinPool		pool;							// null if
+																// sequential
+	private TrajectoryStore		store;							// null if
+																// not shared
+	private final ThreadLocal<Scratch>	scratch	= new ThreadLocal<Scratch>() {
+													@Override
+													protected Scratch initialValue() {
+														return new Scratch();
+													}
+												};
 																
 	private final int			NUM_DERIVS, // number of derivatives to
 											// calculate generalized coordinates
 											// to
-			RUN_LENGTH, // number of timesteps to run network for
 			INPUT_INDEX, // index of neuron to provide input to
 			OUTPUT_INDEX;										// index of
 																// neuron to
 																// record output
 																// from
-	private final float			TIMESTEP;						// timestep for
+	private Fidelity			fidelity;						// current
+																// fidelity
+	private int					runLength;						// number of
+																// timesteps to
+																// run network
+																// for
+	private float				timeStep;						// timestep for
 																// Euler
 																// integration
+	private final boolean		OSCILLATOR_INPUTS;				// fill
+																// waveforms by
+																// recurrence
+	private final SteadyState	steadyState;					// fast-forwards
+																// settled runs
+	private final Integrator	INTEGRATOR;						// method to
+																// run networks
+																// with
+	private final int			INTEGRATOR_STEP_MULTIPLIER;		// timesteps
+																// per internal
+																// step
+	private final float			INTEGRATOR_TOLERANCE;			// largest
+																// RK45 error
+	private final RunValidator	validator;						// checks runs
+																// for NaN
+	
+	/**
+	 * Timesteps between checks of whether a bounded evaluation can stop.
+	 */
+	static final int			CUTOFF_CHECK_INTERVAL	= 16;
+	
+	private final AtomicLong	abandonedEvaluations	= new AtomicLong(), simulatedSteps = new AtomicLong(),
+			skippedSteps = new AtomicLong();
 																
 	/**
 	 * Calculates model fitness for a particular set of genes, with the given
@@ -67,7 +133,7 @@ public class ModelPhenotype implements CoEvoPhenotype {
 	 * This calculates the mean of the generalized coordinates similarity metric
 	 * between the evolved network with the given genes, and the given target
 	 * network on every single set of input parameters. See (in the source code)
-	 * the private doRun() method for more detailed information.
+	 * the private runRange() method for more detailed information.
 	 * 
 	 * @param individuals
 	 *            List of InputProvider individuals. Genes will be taken from
@@ -80,16 +146,188 @@ public class ModelPhenotype implements CoEvoPhenotype {
 	 */
 	@Override
 	public float calculateFitness( List<Individual> individuals, float[] genes ) {
+		return calculateFitness( individuals, genes, Float.NEGATIVE_INFINITY );
+	}
+	
+	/**
+	 * Calculates model fitness as calculateFitness(), but stops simulating as
+	 * soon as the fitness is known to be below the cutoff.
+	 * 
+	 * Every input is simulated at once, and the error against each only ever
+	 * grows, so each input's score so far is an upper bound on its final
+	 * score. Float addition and division are monotone, so averaging those
+	 * bounds in the same order as the final scores gives an upper bound on
+	 * the fitness. This is checked every CUTOFF_CHECK_INTERVAL timesteps, and
+	 * if it is below the cutoff the run is abandoned and the bound returned.
+	 * 
+	 * @param individuals
+	 *            List of InputProvider individuals.
+	 * @param genes
+	 *            float array of genes for the model.
+	 * @param cutoff
+	 *            Fitness the result only needs to be compared with.
+	 * @return the fitness from calculateFitness() if it is at least the
+	 *         cutoff, otherwise a value below the cutoff.
+	 */
+	@Override
+	public float calculateFitness( List<Individual> individuals, float[] genes, float cutoff ) {
+		int nPop = individuals.size();
 		
-		// update evolved network
-		testingLayout.updateGenes( genes );
+		// score against each input. The scores are only needed until they are
+		// summed, so a thread's own buffer can be used unless another
+		// evaluation could run on this thread while waiting for the pool.
+		float[] scores = pool == null ? scratch.get().getScores( nPop ) : new float[nPop];
+		if ( cutoff > Float.NEGATIVE_INFINITY ) {
+			// bounds for inputs that haven't been run yet
+			Arrays.fill( scores, 0, nPop, 1f );
+		}
+		if ( !runBatch( genes, individuals, null, scores, cutoff ) ) {
+			abandonedEvaluations.incrementAndGet();
+		}
 		
-		// sum up fitness scores
-		int nPop = individuals.size();
+		return meanScore( scores, nPop );
+	}
+	
+	/**
+	 * Calculates the generalized coordinates similarity metric between the
+	 * model with the given individual's genes and the target network, using a
+	 * single input individual.
+	 * 
+	 * @param individual
+	 *            Model individual.
+	 * @param opponent
+	 *            Input individual.
+	 * @return a single element array with the similarity metric.
+	 */
+	@Override
+	public float[] evaluatePair( Individual individual, Individual opponent ) {
+		return evaluatePairs( individual, Collections.singletonList( opponent ) )[0];
+	}
+	
+	/**
+	 * Calculates the similarity metric for a model against several input
+	 * individuals, running them as a batch.
+	 * 
+	 * @param individual
+	 *            Model individual.
+	 * @param opponents
+	 *            Input individuals.
+	 * @return a single element array with the similarity metric for each
+	 *         input.
+	 */
+	@Override
+	public float[][] evaluatePairs( Individual individual, List<Individual> opponents ) {
+		float[][] results = new float[opponents.size()][];
+		completePairs( individual, opponents, results, Float.NEGATIVE_INFINITY );
+		return results;
+	}
+	
+	/**
+	 * Calculates the similarity metric for a model against the inputs whose
+	 * result isn't known yet, as calculateFitness(List, float[], float) with
+	 * the known results standing in for their scores. Only the missing inputs
+	 * are run, and the bound is checked against the mean of every score.
+	 * 
+	 * @param individual
+	 *            Model individual.
+	 * @param opponents
+	 *            Input individuals.
+	 * @param results
+	 *            Single element array with the similarity metric for each
+	 *            input, or null where it must be calculated. Filled in unless
+	 *            the evaluation is abandoned.
+	 * @param cutoff
+	 *            Fitness the result only needs to be compared with.
+	 * @return the mean similarity metric if it is at least the cutoff,
+	 *         otherwise a value below the cutoff.
+	 */
+	@Override
+	public float completePairs( Individual individual, List<Individual> opponents, float[][] results, float cutoff ) {
+		int nPop = opponents.size();
+		float[] scores = new float[nPop];
+		for ( int r = 0; r < nPop; r++ ) {
+			// missing scores start at their bound, as in calculateFitness()
+			scores[r] = results[r] != null ? results[r][0] : cutoff > Float.NEGATIVE_INFINITY ? 1f : 0f;
+		}
+		if ( !runBatch( individual.getGenotype().getGenes(), opponents, results, scores, cutoff ) ) {
+			abandonedEvaluations.incrementAndGet();
+			return meanScore( scores, nPop );
+		}
+		
+		for ( int r = 0; r < nPop; r++ ) {
+			if ( results[r] == null ) {
+				results[r] = new float[] { scores[r] };
+			}
+		}
+		return meanScore( scores, nPop );
+	}
+	
+	/**
+	 * @return the mean of the similarity metrics, as in calculateFitness().
+	 */
+	@Override
+	public float reduce( float[][] results ) {
+		float fitSum = 0f;
+		for ( int r = 0; r < results.length; r++ ) {
+			fitSum += results[r][0];
+		}
+		return fitSum / results.length;
+	}
+	
+	/**
+	 * Calculates the similarity metric for a model against each of the given
+	 * input individuals. The inputs are split into one contiguous batch per
+	 * pool thread, and each batch is simulated as one MultiStateCTRNN.
+	 * 
+	 * @param modelGenes
+	 *            float array of genes for the evolved network.
+	 * @param inputInds
+	 *            Input individuals.
+	 * @param known
+	 *            Single element array with the similarity metric for each
+	 *            input, null for those to run, or null to run every input.
+	 * @param scores
+	 *            Array to store the similarity metric for each input in, in
+	 *            the same order. Must already hold the known metrics, and for
+	 *            a bounded evaluation, 1 for each input to run.
+	 * @param cutoff
+	 *            Fitness below which the evaluation may be abandoned, or
+	 *            Float.NEGATIVE_INFINITY to run every input to the end.
+	 * @return true if every input was run to the end, false if the
+	 *         evaluation was abandoned, leaving upper bounds on some scores.
+	 */
+	private boolean runBatch( final float[] modelGenes, final List<Individual> inputInds, final float[][] known, final float[] scores,
+			final float cutoff ) {
+		if ( pool == null ) {
+			return runRange( modelGenes, inputInds, 0, inputInds.size(), known, scores, cutoff, null );
+		}
+		
+		// abandoning in one batch stops the others
+		final AtomicBoolean abandoned = new AtomicBoolean();
+		ParallelLoop.runRanges( pool, inputInds.size(), new ParallelLoop.RangeBody() {
+			@Override
+			public void run( int from, int to ) {
+				if ( !runRange( modelGenes, inputInds, from, to, known, scores, cutoff, abandoned ) ) {
+					abandoned.set( true );
+				}
+			}
+		} );
+		return !abandoned.get();
+	}
+	
+	/**
+	 * @param scores
+	 *            Similarity metric, or an upper bound on it, for each input.
+	 * @param nPop
+	 *            Number of inputs.
+	 * @return the mean score, summed in order so the result doesn't depend on
+	 *         scheduling.
+	 */
+	private static float meanScore( float[] scores, int nPop ) {
 		float fitSum = 0f;
 		
 		for ( int r = 0; r < nPop; r++ ) {
-			fitSum += doRun( individuals.get( r ).getGenotype().getGenes() );
+			fitSum += scores[r];
 		}
 		
 		// return mean of fitness scores
@@ -98,113 +336,753 @@ public class ModelPhenotype implements CoEvoPhenotype {
 	
 	/**
 	 * Calculates the generalized coordinates similarity metric between an
-	 * evolved and a target network, with the given input parameters.
+	 * evolved and a target network, for each of the given inputs.
+	 * 
+	 * The target network only depends on the input, so its output is taken
+	 * from the target cache if the input individual hasn't changed since it
+	 * was last calculated. Any missing target runs are simulated as one batch.
+	 * Likewise each input's waveform is generated once and taken from the
+	 * waveform cache by every model evaluation.
+	 * 
+	 * The model is run as a single network advancing one state per input, so
+	 * each weight is loaded once per step for the whole batch, and its error
+	 * against the target is summed as it runs; see runScores().
+	 * 
+	 * Neither the layouts nor the InputProvider are modified, so this can be
+	 * run for several batches at once. The model network and all working
+	 * arrays are the calling thread's Scratch, so once the caches are warm
+	 * nothing is allocated.
+	 * 
+	 * @param modelGenes
+	 *            float array of genes for the evolved network.
+	 * @param inputInds
+	 *            Input individuals. Their genes are used as input parameters
+	 *            and must match the number of parameters for the InputProvider
+	 *            specified when constructing this ModelPhenotype.
+	 * @param from
+	 *            Index of the first input individual to run.
+	 * @param to
+	 *            Index after the last input individual to run.
+	 * @param known
+	 *            Similarity metric for each input whose result is already
+	 *            known, which isn't run, or null to run every input.
+	 * @param scores
+	 *            Array to store the similarity metric for each input in, at
+	 *            the same index as the input individual.
+	 * @param cutoff
+	 *            Fitness below which the evaluation may be abandoned.
+	 * @param abandoned
+	 *            Set once any batch of the same evaluation is abandoned, or
+	 *            null if this is the only batch.
+	 * @return true if every input was run to the end.
+	 */
+	private boolean runRange( float[] modelGenes, List<Individual> inputInds, int from, int to, float[][] known, float[] scores, float cutoff,
+			AtomicBoolean abandoned ) {
+		Scratch buffers = scratch.get();
+		buffers.ensureCapacity( to - from );
+		
+		// index in scores of each input to run
+		int[] positions = buffers.positions;
+		int k = 0;
+		for ( int i = from; i < to; i++ ) {
+			if ( known == null || known[i] == null ) {
+				positions[k++] = i;
+			}
+		}
+		if ( k == 0 ) {
+			return true;
+		}
+		
+		// input waveforms
+		float[][] waveforms = buffers.waveforms;
+		for ( int r = 0; r < k; r++ ) {
+			waveforms[r] = getWaveform( inputInds.get( positions[r] ) );
+		}
+		
+		// output of the target network for each input
+		float[][] targetOutputs = buffers.targetOutputs;
+		int[] missing = buffers.missing;
+		int nMissing = 0;
+		for ( int r = 0; r < k; r++ ) {
+			targetOutputs[r] = targetCache.get( inputInds.get( positions[r] ) );
+			if ( targetOutputs[r] == null ) {
+				missing[nMissing++] = r;
+			}
+		}
+		if ( nMissing > 0 ) {
+			// cached outputs are kept, so are never scratch arrays
+			float[][] missingWaveforms = new float[nMissing][];
+			for ( int m = 0; m < nMissing; m++ ) {
+				missingWaveforms[m] = waveforms[missing[m]];
+			}
+			float[][] outputs = new float[nMissing][runLength];
+			try {
+				runOutputs( new MultiStateCTRNN( targetLayout.createCTRNN(), nMissing ), missingWaveforms, buffers, outputs );
+			} catch ( RunValidator.NaNFound e ) {
+				throw failure( "Target network went NaN", modelGenes, inputInds.get( positions[missing[e.member]] ), buffers );
+			}
+			for ( int m = 0; m < nMissing; m++ ) {
+				int r = missing[m];
+				targetOutputs[r] = outputs[m];
+				targetCache.put( inputInds.get( positions[r] ), targetOutputs[r] );
+			}
+		}
+		
+		// the same model is run with each input
+		int steps;
+		if ( store == null ) {
+			try {
+				steps = runScores( buffers.getModelStates( modelGenes, k ), waveforms, targetOutputs, buffers, scores, positions, inputInds.size(),
+						cutoff, abandoned, null );
+			} catch ( RunValidator.NaNFound e ) {
+				throw failure( "Model went NaN", modelGenes, inputInds.get( positions[e.member] ), buffers );
+			}
+		} else {
+			steps = runStored( modelGenes, inputInds, k, buffers, scores, cutoff, abandoned );
+		}
+		
+		// a NaN output at any timestep makes the score NaN
+		if ( validator.checksResults() ) {
+			for ( int r = 0; r < k; r++ ) {
+				float score = scores[positions[r]];
+				if ( Float.isNaN( score ) || score > 1f )
+					throw failure( "Score against input " + positions[r] + " is " + score, modelGenes, inputInds.get( positions[r] ), buffers );
+			}
+		}
+		
+		for ( int r = 0; r < k; r++ ) {
+			targetOutputs[r] = null; // don't keep cached arrays alive
+			waveforms[r] = null;
+		}
+		return steps == runLength;
+	}
+	
+	/**
+	 * Calculates the similarity metric for a batch of inputs, as runScores()
+	 * does, but taking the model's output for each input from the trajectory
+	 * store where it has already been simulated. The stored outputs are
+	 * scored first, then the missing pairs are run as a bounded run. Their
+	 * outputs are stored for either phenotype to reuse if they were run to
+	 * the end; a run that stopped early isn't stored.
+	 * 
+	 * @param modelGenes
+	 *            float array of genes for the evolved network.
+	 * @param inputInds
+	 *            Input individuals.
+	 * @param k
+	 *            Number of inputs in the batch.
+	 * @param buffers
+	 *            Scratch holding the waveforms, target outputs and score
+	 *            positions for the batch.
+	 * @param scores
+	 *            Array to store the similarity metric for each input in, at
+	 *            the same index as the input individual.
+	 * @param cutoff
+	 *            Fitness below which the run may stop.
+	 * @param abandoned
+	 *            Set once another batch of the same evaluation stops, or
+	 *            null if this is the only batch.
+	 * @return the number of timesteps run, which is runLength unless the run
+	 *         stopped early.
+	 */
+	private int runStored( float[] modelGenes, List<Individual> inputInds, int k, Scratch buffers, float[] scores, float cutoff,
+			AtomicBoolean abandoned ) {
+		float[][] modelOutputs = buffers.modelOutputs;
+		int[] positions = buffers.positions, missing = buffers.missing;
+		int nMissing = 0;
+		for ( int r = 0; r < k; r++ ) {
+			modelOutputs[r] = store.get( modelGenes, inputInds.get( positions[r] ).getGenotype().getGenes() );
+			if ( modelOutputs[r] == null ) {
+				missing[nMissing++] = r;
+			}
+		}
+		scoreOutputs( modelOutputs, buffers.targetOutputs, buffers, scores, positions, k );
+		
+		int steps = runLength;
+		if ( nMissing > 0 ) {
+			// stored outputs are kept, so are never scratch arrays
+			float[][] missingWaveforms = new float[nMissing][], missingTargets = new float[nMissing][];
+			int[] missingPositions = new int[nMissing];
+			for ( int m = 0; m < nMissing; m++ ) {
+				missingWaveforms[m] = buffers.waveforms[missing[m]];
+				missingTargets[m] = buffers.targetOutputs[missing[m]];
+				missingPositions[m] = positions[missing[m]];
+			}
+			float[][] outputs = new float[nMissing][runLength];
+			try {
+				steps = runScores( buffers.getModelStates( modelGenes, nMissing ), missingWaveforms, missingTargets, buffers, scores,
+						missingPositions, inputInds.size(), cutoff, abandoned, outputs );
+			} catch ( RunValidator.NaNFound e ) {
+				throw failure( "Model went NaN", modelGenes, inputInds.get( missingPositions[e.member] ), buffers );
+			}
+			if ( steps == runLength ) {
+				for ( int m = 0; m < nMissing; m++ ) {
+					store.put( modelGenes, inputInds.get( missingPositions[m] ).getGenotype().getGenes(), outputs[m] );
+				}
+			}
+		}
+		
+		for ( int r = 0; r < k; r++ ) {
+			modelOutputs[r] = null;
+		}
+		return steps;
+	}
+	
+	/**
+	 * Calculates the similarity metric for a batch of model outputs that have
+	 * already been run to the end.
+	 * 
+	 * @param modelOutputs
+	 *            Output of the model at each timestep, one for each member of
+	 *            the batch, or null for members to skip.
+	 * @param targetOutputs
+	 *            Output of the target network at each timestep, one for each
+	 *            member of the batch.
+	 * @param buffers
+	 *            Scratch holding the derivative windows.
+	 * @param scores
+	 *            Array to store the similarity metric for each member of the
+	 *            batch in.
+	 * @param positions
+	 *            Index in scores of each member of the batch.
+	 * @param k
+	 *            Number of members in the batch.
+	 */
+	private void scoreOutputs( float[][] modelOutputs, float[][] targetOutputs, Scratch buffers, float[] scores, int[] positions, int k ) {
+		for ( int r = 0; r < k; r++ ) {
+			if ( modelOutputs[r] == null )
+				continue;
+			float[] derivSums = buffers.derivSums[r];
+			Arrays.fill( derivSums, 0f );
+			for ( int t = 0; t < runLength; t++ ) {
+				addDerivs( buffers.windowsA[r], buffers.windowsB[r], derivSums, modelOutputs[r][t], targetOutputs[r][t], t );
+			}
+			scores[positions[r]] = sumDerivs( derivSums );
+		}
+	}
+	
+	/**
+	 * Runs a (model, input) pair that failed validation again on its own,
+	 * checking every step of the model and then the target network, to find
+	 * where it first went NaN.
+	 * 
+	 * @param what
+	 *            Description of the check that failed.
+	 * @param modelGenes
+	 *            float array of genes for the evolved network.
+	 * @param inputInd
+	 *            Input individual.
+	 * @param buffers
+	 *            Scratch holding the integrator.
+	 * @return an exception describing the failure, for the caller to throw.
+	 */
+	private IllegalStateException failure( String what, float[] modelGenes, Individual inputInd, Scratch buffers ) {
+		float[] waveform = getWaveform( inputInd );
+		String diagnosis = RunValidator.diagnose( testingLayout.createCTRNN( modelGenes ), waveform, INPUT_INDEX, OUTPUT_INDEX, timeStep,
+				runLength, buffers.integrator );
+		if ( diagnosis != null ) {
+			diagnosis = "in the model, " + diagnosis;
+		} else {
+			diagnosis = RunValidator.diagnose( targetLayout.createCTRNN(), waveform, INPUT_INDEX, OUTPUT_INDEX, timeStep, runLength,
+					buffers.integrator );
+			if ( diagnosis != null ) {
+				diagnosis = "in the target network, " + diagnosis;
+			}
+		}
+		return RunValidator.failure( what, diagnosis, modelGenes, inputInd.getGenotype().getGenes() );
+	}
+	
+	/**
+	 * Gets the input waveform for an input individual from the waveform
+	 * cache, generating and caching it if the individual has changed since it
+	 * was last generated.
+	 * 
+	 * @param inputInd
+	 *            Input individual. Its genes are used as input parameters.
+	 * @return the input for each timestep of a run. Must not be modified.
+	 */
+	private float[] getWaveform( Individual inputInd ) {
+		float[] waveform = waveformCache.get( inputInd );
+		if ( waveform == null ) {
+			waveform = new float[runLength];
+			fidelity.fillInputs( input, inputInd.getGenotype().getGenes(), waveform, OSCILLATOR_INPUTS );
+			waveformCache.put( inputInd, waveform );
+		}
+		return waveform;
+	}
+	
+	/**
+	 * Runs a batch of network states, each with its own input waveform, and
+	 * records the output at each timestep. Members that settle while their
+	 * input is constant are fast-forwarded; see startRun().
+	 * 
+	 * If an integrator other than plain Euler steps is set, the whole run is
+	 * given to the thread's BatchIntegrator instead, which records the output
+	 * on the same timesteps whatever its internal step.
+	 * 
+	 * If the validation level is paranoid, every member is checked after
+	 * every step, or at the end of an integrator run, and a NaNFound thrown
+	 * for the first to go NaN.
+	 * 
+	 * @param net
+	 *            Batch to run.
+	 * @param waveforms
+	 *            Input at each timestep, one waveform for each member of the
+	 *            batch.
+	 * @param buffers
+	 *            Scratch holding the input array, member slots and
+	 *            integrator.
+	 * @param outputs
+	 *            Array of at least [batch][runLength] to store the output of
+	 *            each member of the batch in.
+	 */
+	private void runOutputs( BatchStepper net, float[][] waveforms, Scratch buffers, float[][] outputs ) {
+		if ( buffers.integrator != null ) {
+			buffers.integrator.run( net, waveforms, INPUT_INDEX, OUTPUT_INDEX, timeStep, runLength, outputs );
+			if ( validator.isParanoid() ) {
+				validator.checkStep( net, net.getBatchSize(), null );
+			}
+			return;
+		}
+		
+		int k = net.getBatchSize(), active = k;
+		float[][] inputs = buffers.inputs;
+		float[] netInput = inputs[INPUT_INDEX];
+		int[] members = buffers.members, slots = buffers.slots;
+		startRun( net, waveforms, buffers );
+		
+		for ( int t = 0; t < runLength; t++ ) {
+			for ( int s = 0; s < active; s++ ) {
+				netInput[s] = waveforms[members[s]][t];
+			}
+			
+			// Steps through CTRNN using Euler's method
+			net.step( timeStep, inputs );
+			if ( validator.isParanoid() ) {
+				validator.checkStep( net, active, members );
+			}
+			
+			for ( int r = 0; r < k; r++ ) {
+				outputs[r][t] = net.getOutput( OUTPUT_INDEX, slots[r] );
+			}
+			
+			if ( steadyState.isEnabled() ) {
+				active = steadyState.settle( net, active, members, slots, buffers.calmSteps, buffers.constantFrom, t, runLength );
+			}
+		}
+	}
+	
+	/**
+	 * Prepares a batch for a run. If steady states are detected, members that
+	 * settle while their input stays constant for the rest of the run are
+	 * moved out of the batch, and their last output is used for the remaining
+	 * timesteps; buffers.slots gives the slot each member's output is read
+	 * from.
+	 * 
+	 * @param net
+	 *            Batch about to be run.
+	 * @param waveforms
+	 *            Input at each timestep, one waveform for each member of the
+	 *            batch.
+	 * @param buffers
+	 *            Scratch holding the member slots.
+	 */
+	private void startRun( BatchStepper net, float[][] waveforms, Scratch buffers ) {
+		steadyState.start( net, buffers.members, buffers.slots, buffers.calmSteps );
+		if ( steadyState.isEnabled() ) {
+			for ( int r = 0; r < net.getBatchSize(); r++ ) {
+				buffers.constantFrom[r] = SteadyState.constantFrom( waveforms[r], runLength );
+			}
+		}
+	}
+	
+	/**
+	 * Runs a batch of model states, each with its own input waveform, and
+	 * calculates the generalized coordinates similarity metric against the
+	 * target output for the same input.
 	 * 
 	 * The temporal derivatives are numerically calculated between each
 	 * timestep. These are not mathematically/analytically correct but
 	 * approximate enough to provide a strong similarity metric. The sum of the
 	 * derivative error is then returned.
 	 * 
-	 * @param inputParameters
-	 *            float array of input parameters. Length must match the number
-	 *            of parameters for the InputProvider specified when
-	 *            constructing this ModelPhenotype.
-	 * @return a scalar float with generalized coordinates similarity metric.
+	 * Rather than storing every derivative for the whole run, only the latest
+	 * value of each derivative level is kept, and each timestep's error is
+	 * added as soon as it is known. Errors are added in the same order as
+	 * summing whole derivative arrays would, so the result is the same, but
+	 * memory doesn't depend on the run length.
+	 * 
+	 * Members that settle while their input is constant are fast-forwarded, as
+	 * in runOutputs(), and their error is still added at every timestep.
+	 * 
+	 * If there is a cutoff, the score so far for each member of the batch is
+	 * stored every CUTOFF_CHECK_INTERVAL timesteps, and the run stops if the
+	 * mean of all scores is then below the cutoff; see
+	 * calculateFitness(List, float[], float).
+	 * 
+	 * If an integrator other than plain Euler steps is set, the outputs are
+	 * recorded by runOutputs() and scored afterwards, so the run is never
+	 * fast-forwarded or stopped early.
+	 * 
+	 * The model's outputs may also be recorded, for storing if the run isn't
+	 * stopped early.
+	 * 
+	 * Steps are checked as in runOutputs().
+	 * 
+	 * @param net
+	 *            Batch of model states to run.
+	 * @param waveforms
+	 *            Input at each timestep, one waveform for each member of the
+	 *            batch.
+	 * @param targetOutputs
+	 *            Output of the target network at each timestep, one for each
+	 *            member of the batch.
+	 * @param buffers
+	 *            Scratch holding the input array, member slots and derivative
+	 *            windows.
+	 * @param scores
+	 *            Array to store the similarity metric for each member of the
+	 *            batch in.
+	 * @param positions
+	 *            Index in scores of each member of the batch.
+	 * @param nScores
+	 *            Number of scores in the whole evaluation.
+	 * @param cutoff
+	 *            Fitness below which the run may stop.
+	 * @param abandoned
+	 *            Set once another batch of the same evaluation stops, or
+	 *            null if this is the only batch.
+	 * @param outputs
+	 *            Array of at least [batch][runLength] to record the model's
+	 *            output for each member of the batch in, or null.
+	 * @return the number of timesteps run, which is runLength unless the run
+	 *         stopped early.
 	 */
-	private float doRun( float[] inputParameters ) {
-		
-		// create networks. Evolved/testing layout should have had genes updated
-		// already.
-		CTRNN testing = testingLayout.createCTRNN(), target = targetLayout.createCTRNN();
-		
-		// set up input with specified parameters.
-		input.setParams( inputParameters );
+	private int runScores( BatchStepper net, float[][] waveforms, float[][] targetOutputs, Scratch buffers, float[] scores, int[] positions,
+			int nScores, float cutoff, AtomicBoolean abandoned, float[][] outputs ) {
+		int k = net.getBatchSize();
+		if ( buffers.integrator != null ) {
+			float[][] modelOutputs = outputs != null ? outputs : buffers.getIntegratedOutputs( runLength );
+			runOutputs( net, waveforms, buffers, modelOutputs );
+			scoreOutputs( modelOutputs, targetOutputs, buffers, scores, positions, k );
+			countSteps( cutoff, k, runLength );
+			return runLength;
+		}
 		
-		// A and B refer to the evolved and target networks, respectively.
-		// These arrays hold the calculated derivative, or difference between
-		// each timestep.
-		float[][] derivsA = new float[NUM_DERIVS + 1][RUN_LENGTH];
-		float[][] derivsB = new float[NUM_DERIVS + 1][RUN_LENGTH];
+		int active = k;
+		float[][] inputs = buffers.inputs;
+		float[] netInput = inputs[INPUT_INDEX];
+		float[][] windowsA = buffers.windowsA, windowsB = buffers.windowsB, derivSums = buffers.derivSums;
+		int[] members = buffers.members, slots = buffers.slots;
+		for ( int r = 0; r < k; r++ ) {
+			Arrays.fill( derivSums[r], 0f );
+		}
+		startRun( net, waveforms, buffers );
 		
-		for ( int t = 0; t < RUN_LENGTH; t++ ) {
-			
-			// creates input array. All values are zero other than the specified
-			// index.
-			float[] inputsTarget = new float[targetLayout.getNumberOfNeurons()];
-			float[] inputsTest = new float[testingLayout.getNumberOfNeurons()];
+		for ( int t = 0; t < runLength; t++ ) {
+			for ( int s = 0; s < active; s++ ) {
+				netInput[s] = waveforms[members[s]][t];
+			}
 			
-			inputsTarget[INPUT_INDEX] = input.getInput( t );
-			inputsTest[INPUT_INDEX] = input.getInput( t );
+			// Steps through CTRNN using Euler's method
+			net.step( timeStep, inputs );
+			if ( validator.isParanoid() ) {
+				validator.checkStep( net, active, members );
+			}
 			
-			// Steps through CTRNNS using Euler's method
-			testing.step( TIMESTEP, inputsTest );
-			target.step( TIMESTEP, inputsTarget );
+			for ( int r = 0; r < k; r++ ) {
+				float output = net.getOutput( OUTPUT_INDEX, slots[r] );
+				if ( outputs != null ) {
+					outputs[r][t] = output;
+				}
+				addDerivs( windowsA[r], windowsB[r], derivSums[r], output, targetOutputs[r][t], t );
+			}
 			
-			// Record the first order
-			derivsA[0][t] = testing.getOutputs()[OUTPUT_INDEX];
-			derivsB[0][t] = target.getOutputs()[OUTPUT_INDEX];
+			if ( steadyState.isEnabled() ) {
+				active = steadyState.settle( net, active, members, slots, buffers.calmSteps, buffers.constantFrom, t, runLength );
+			}
 			
-			// Calculate all derivatives up to the specified level.
-			for ( int d = 1; d <= NUM_DERIVS; d++ ) {
-				if ( t > d - 1 ) { // but only if enough timesteps have passed
-					calcDerivs( derivsA, t, d );
-					calcDerivs( derivsB, t, d );
+			if ( cutoff > Float.NEGATIVE_INFINITY && (t + 1) % CUTOFF_CHECK_INTERVAL == 0 && t + 1 < runLength ) {
+				for ( int r = 0; r < k; r++ ) {
+					scores[positions[r]] = boundDerivs( derivSums[r] );
+				}
+				// other batches only ever lower their scores, so reading
+				// them while they run still gives an upper bound
+				if ( (abandoned != null && abandoned.get()) || meanScore( scores, nScores ) < cutoff ) {
+					countSteps( cutoff, k, t + 1 );
+					return t + 1;
 				}
 			}
 		}
 		
-		// then go through and calculate all derivative differences
-		float[] derivSums = new float[NUM_DERIVS];
-		
-		for ( int i = 0; i < RUN_LENGTH; i++ ) {
-			for ( int d = 0; d < NUM_DERIVS; d++ ) {
+		for ( int r = 0; r < k; r++ ) {
+			scores[positions[r]] = sumDerivs( derivSums[r] );
+		}
+		countSteps( cutoff, k, runLength );
+		return runLength;
+	}
+	
+	/**
+	 * Counts the timesteps a bounded run simulated and skipped.
+	 * 
+	 * @param cutoff
+	 *            Fitness below which the run could stop.
+	 * @param k
+	 *            Number of members in the batch.
+	 * @param steps
+	 *            Number of timesteps run.
+	 */
+	private void countSteps( float cutoff, int k, int steps ) {
+		if ( cutoff > Float.NEGATIVE_INFINITY ) {
+			simulatedSteps.addAndGet( (long) k * steps );
+			skippedSteps.addAndGet( (long) k * (runLength - steps) );
+		}
+	}
+	
+	/**
+	 * Calculates every derivative level that a new output makes available,
+	 * for both the evolved (A) and target (B) networks, and adds their errors
+	 * to the sums.
+	 * 
+	 * Level d at timestep index i is the difference between level d - 1 at
+	 * i + 1 and at i, so it becomes known at timestep i + d. The windows hold
+	 * the latest value of each level, which is the previous value by the time
+	 * the next level is calculated.
+	 * 
+	 * @param windowA
+	 *            Latest value of each derivative level of the evolved network.
+	 * @param windowB
+	 *            Latest value of each derivative level of the target network.
+	 * @param derivSums
+	 *            Array of length NUM_DERIVS to sum each derivative level in.
+	 * @param a
+	 *            Output of the evolved network at timestep t.
+	 * @param b
+	 *            Output of the target network at timestep t.
+	 * @param t
+	 *            Timestep.
+	 */
+	private void addDerivs( float[] windowA, float[] windowB, float[] derivSums, float a, float b, int t ) {
+		int levels = Math.min( t, NUM_DERIVS );
+		for ( int d = 0; d <= levels; d++ ) {
+			if ( d < NUM_DERIVS ) {
 				// this is the core of the similarity metric, e.g. d^2 * |dA-dB|
-				float diff = (float) ((d * d) * Math.abs( derivsA[d][i] - derivsB[d][i] ));
+				float diff = (float) ((d * d) * Math.abs( a - b ));
 				
 				if ( diff < 0 ) { // shouldn't happen
 					diff = 0;
 				}
 				derivSums[d] += diff;
-				
-				if ( Float.isNaN( diff ) ) {
-					throw new AssertionError();
-				}
-				
 			}
+			
+			// the next level, at the previous timestep index
+			float previousA = windowA[d], previousB = windowB[d];
+			windowA[d] = a;
+			windowB[d] = b;
+			a = a - previousA;
+			b = b - previousB;
 		}
-		
+	}
+	
+	/**
+	 * @param derivSums
+	 *            Error summed so far for each derivative level.
+	 * @return the similarity metric if the run ended now, which is an upper
+	 *         bound on the final metric.
+	 */
+	private float boundDerivs( float[] derivSums ) {
 		float fitSum = 0;
-		// go through and sum the differences
 		for ( int d = 0; d < NUM_DERIVS; d++ ) {
 			fitSum += derivSums[d];
 		}
-		if ( fitSum < 0 || Float.isNaN( fitSum ) ) {
-			throw new AssertionError();
+		return 1f - fitSum;
+	}
+	
+	/**
+	 * @param derivSums
+	 *            Error summed for each derivative level.
+	 * @return a scalar float with generalized coordinates similarity metric.
+	 */
+	private float sumDerivs( float[] derivSums ) {
+		float fitSum = 0;
+		// go through and sum the differences
+		for ( int d = 0; d < NUM_DERIVS; d++ ) {
+			fitSum += derivSums[d];
 		}
 		return 1f - fitSum;
 	}
 	
 	/**
-	 * The hidden core of numerical derivative calculation. Takes values from
-	 * and outputs to the specified array.
+	 * Sets the pool used to evaluate batches of inputs in parallel.
+	 * The result is the same as evaluating sequentially.
+	 * 
+	 * @param pool
+	 *            ForkJoinPool to use, or null to evaluate sequentially.
+	 */
+	public void setPool( ForkJoinPool pool ) {
+		this.pool = pool;
+	}
+	
+	/**
+	 * Sets how closely networks are simulated, discarding the cached targets
+	 * and waveforms from the previous fidelity. Must not be called while an
+	 * evaluation is running.
+	 * 
+	 * @param fidelity
+	 *            Run length and timestep to simulate with.
+	 */
+	public void setFidelity( Fidelity fidelity ) {
+		this.fidelity = fidelity;
+		this.runLength = fidelity.getRunLength();
+		this.timeStep = fidelity.getTimeStep();
+		targetCache.clear();
+		waveformCache.clear();
+	}
+	
+	/**
+	 * Sets the store used to share the evolved network's output for each
+	 * (model, input) pair with an InputPhenotype. Bounded evaluations may
+	 * still stop early, but only the pairs of runs that reached the end are
+	 * stored. The result is the same as without a store.
 	 * 
-	 * @param arr Array for input/output.
-	 * @param t Timestep.
-	 * @param d Derivative level.
+	 * @param store
+	 *            Store shared with phenotypes using the same evolved layout,
+	 *            InputProvider and network parameters, or null to simulate
+	 *            every pair.
+	 */
+	public void setTrajectoryStore( TrajectoryStore store ) {
+		this.store = store;
+	}
+	
+	/**
+	 * @return whether bounded evaluations can stop early. Runs given to an
+	 *         integrator other than plain Euler steps are always run to the
+	 *         end.
 	 */
-	private void calcDerivs( float[][] arr, int t, int d ) {
-		//this is an obscure method created through refactoring repetitive code.
-		//it has been thoroughly tested
+	public boolean canStopEarly() {
+		return INTEGRATOR == Integrator.EULER && INTEGRATOR_STEP_MULTIPLIER == 1;
+	}
+	
+	/**
+	 * @return the number of bounded evaluations that stopped early.
+	 */
+	public long getAbandonedEvaluations() {
+		return abandonedEvaluations.get();
+	}
+	
+	/**
+	 * @return the number of input timesteps simulated by bounded evaluations.
+	 */
+	public long getSimulatedSteps() {
+		return simulatedSteps.get();
+	}
+	
+	/**
+	 * @return the number of input timesteps bounded evaluations skipped by
+	 *         stopping early.
+	 */
+	public long getSkippedSteps() {
+		return skippedSteps.get();
+	}
+	
+	/**
+	 * @return a human readable summary of how much simulation was saved by
+	 *         stopping bounded evaluations early.
+	 */
+	public String getEarlyAbandonSummary() {
+		long simulated = simulatedSteps.get(), skipped = skippedSteps.get(), total = simulated + skipped;
+		return String.format( "early abandon: %d evaluations abandoned, %d of %d input timesteps skipped (%.1f%%)", abandonedEvaluations.get(),
+				skipped, total, total == 0 ? 0f : 100f * skipped / total );
+	}
+	
+	/**
+	 * @return a human readable summary of how many runs settled into a steady
+	 *         state and were fast-forwarded.
+	 */
+	public String getSteadyStateSummary() {
+		return steadyState.toString();
+	}
+	
+	/**
+	 * Arrays and networks reused by one thread for every batch it runs. They
+	 * grow to fit the largest batch so far and are never shrunk.
+	 */
+	private class Scratch {
 		
-		int timeStep = t - d;
+		private int					capacity	= -1;
+		private CTRNN				model;				// null until first run
+		private MultiStateCTRNN		modelStates;		// null until sized
+		private float[]				scores;
+		private float[][]			integratedOutputs;	// null until needed
+		final BatchIntegrator		integrator	= INTEGRATOR == Integrator.EULER && INTEGRATOR_STEP_MULTIPLIER == 1 ? null
+															: new BatchIntegrator( INTEGRATOR, INTEGRATOR_STEP_MULTIPLIER,
+																	INTEGRATOR_TOLERANCE );	// null for
+																							// plain Euler
+																							// steps
+		float[][]					waveforms, targetOutputs, modelOutputs, inputs;
+		float[][]					windowsA, windowsB, derivSums;
+		int[]						missing, positions, members, slots, calmSteps, constantFrom;
 		
-		float result = arr[d - 1][timeStep + 1] - arr[d - 1][timeStep];
+		/**
+		 * Grows the arrays to hold at least k inputs.
+		 */
+		void ensureCapacity( int k ) {
+			if ( k <= capacity )
+				return;
+			capacity = k;
+			waveforms = new float[k][];
+			targetOutputs = new float[k][];
+			modelOutputs = new float[k][];
+			windowsA = new float[k][NUM_DERIVS + 1];
+			windowsB = new float[k][NUM_DERIVS + 1];
+			derivSums = new float[k][NUM_DERIVS];
+			missing = new int[k];
+			positions = new int[k];
+			members = new int[k];
+			slots = new int[k];
+			calmSteps = new int[k];
+			constantFrom = new int[k];
+			integratedOutputs = null;
+			inputs = new float[Math.max( testingLayout.getNumberOfNeurons(), targetLayout.getNumberOfNeurons() )][];
+			inputs[INPUT_INDEX] = new float[k];
+			modelStates = null;
+		}
 		
-		if ( Float.isNaN( result ) ) {
-			throw new AssertionError();
+		/**
+		 * @return states for k inputs to the model with the given genes, reset
+		 *         to their initial values.
+		 */
+		MultiStateCTRNN getModelStates( float[] modelGenes, int k ) {
+			if ( model == null ) {
+				model = testingLayout.createCTRNN( modelGenes );
+			} else {
+				testingLayout.loadGenes( model, modelGenes );
+			}
+			if ( modelStates == null ) {
+				modelStates = new MultiStateCTRNN( model, capacity );
+			}
+			modelStates.setBatchSize( k );
+			modelStates.reset();
+			return modelStates;
 		}
 		
-		arr[d][timeStep] = result;
+		/**
+		 * @return an array of [capacity][runLength] for the model's outputs
+		 *         when run by the integrator.
+		 */
+		float[][] getIntegratedOutputs( int runLength ) {
+			if ( integratedOutputs == null || integratedOutputs[0].length != runLength ) {
+				integratedOutputs = new float[capacity][runLength];
+			}
+			return integratedOutputs;
+		}
+		
+		float[] getScores( int k ) {
+			if ( scores == null || scores.length < k ) {
+				scores = new float[k];
+			}
+			return scores;
+		}
 	}
 	
 	@Override
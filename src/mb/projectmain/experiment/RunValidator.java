@@ -0,0 +1,163 @@
+package mb.projectmain.experiment;
+
+import java.util.Arrays;
+
+import mb.ctrnn.core.BatchIntegrator;
+import mb.ctrnn.core.BatchStepper;
+import mb.ctrnn.core.CTRNN;
+import mb.ctrnn.core.MultiStateCTRNN;
+
+/**
+ * Checks the runs of a phenotype for NaN at a ValidationLevel, and runs
+ * failed (model, input) pairs again on their own to find where they first went
+ * NaN.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+class RunValidator {
+	
+	/**
+	 * Thrown by checkStep() to leave a run as soon as one of its members has a
+	 * NaN state or output. Callers catch it where they know which individuals
+	 * the member belongs to, and throw a failure() instead.
+	 */
+	static class NaNFound extends RuntimeException {
+		
+		private static final long	serialVersionUID	= 1L;
+		
+		final int					member;				// member of the
+														// batch
+		
+		NaNFound ( int member ) {
+			super( null, null, false, false );
+			this.member = member;
+		}
+	}
+	
+	/**
+	 * Creates a new validator.
+	 * 
+	 * @param level
+	 *            How closely runs are checked.
+	 */
+	RunValidator ( ValidationLevel level ) {
+		this.level = level;
+	}
+	
+	private final ValidationLevel	level;
+	
+	/**
+	 * @return whether the result of each run should be checked.
+	 */
+	boolean checksResults() {
+		return level != ValidationLevel.OFF;
+	}
+	
+	/**
+	 * @return whether every step of each run should be checked.
+	 */
+	boolean isParanoid() {
+		return level == ValidationLevel.PARANOID;
+	}
+	
+	/**
+	 * Checks every state and output of the active members of a batch.
+	 * 
+	 * @param net
+	 *            Batch that has just been stepped.
+	 * @param active
+	 *            Number of members still being stepped.
+	 * @param members
+	 *            Member at each slot, or null if every member is at its own
+	 *            slot.
+	 * @throws NaNFound
+	 *             If any of them is NaN.
+	 */
+	void checkStep( BatchStepper net, int active, int[] members ) {
+		float[][] states = net.getStates();
+		for ( int i = 0; i < states.length; i++ ) {
+			for ( int s = 0; s < active; s++ ) {
+				if ( Float.isNaN( states[i][s] ) || Float.isNaN( net.getOutput( i, s ) ) )
+					throw new NaNFound( members == null ? s : members[s] );
+			}
+		}
+	}
+	
+	/**
+	 * Runs a network on its own from its initial state as the phenotypes do,
+	 * checking every neuron after every step. Integrator runs can only be
+	 * checked on the timesteps outputs are recorded at.
+	 * 
+	 * @param ctrnn
+	 *            Network to run. Its state is overwritten.
+	 * @param waveform
+	 *            Input at each timestep.
+	 * @param inputIndex
+	 *            Index of the neuron given the input.
+	 * @param outputIndex
+	 *            Index of the neuron the output is read from.
+	 * @param timeStep
+	 *            Timestep of the run.
+	 * @param runLength
+	 *            Number of timesteps in the run.
+	 * @param integrator
+	 *            Integrator the phenotype runs networks with, or null for
+	 *            plain Euler steps.
+	 * @return where the run first went NaN, or null if it never does.
+	 */
+	static String diagnose( CTRNN ctrnn, float[] waveform, int inputIndex, int outputIndex, float timeStep, int runLength,
+			BatchIntegrator integrator ) {
+		MultiStateCTRNN net = new MultiStateCTRNN( ctrnn, 1 );
+		int n = net.getStates().length;
+		
+		if ( integrator != null ) {
+			float[][] outputs = new float[1][runLength];
+			integrator.run( net, new float[][] { waveform }, inputIndex, outputIndex, timeStep, runLength, outputs );
+			for ( int t = 0; t < runLength; t++ ) {
+				if ( Float.isNaN( outputs[0][t] ) )
+					return String.format( "output of neuron %d is NaN from timestep %d", outputIndex, t );
+			}
+			for ( int i = 0; i < n; i++ ) {
+				if ( Float.isNaN( net.getStates()[i][0] ) )
+					return String.format( "state of neuron %d is NaN at the end of the run", i );
+			}
+			return null;
+		}
+		
+		float[][] inputs = new float[n][];
+		inputs[inputIndex] = new float[1];
+		for ( int t = 0; t < runLength; t++ ) {
+			inputs[inputIndex][0] = waveform[t];
+			net.step( timeStep, inputs );
+			for ( int i = 0; i < n; i++ ) {
+				float state = net.getStates()[i][0];
+				if ( Float.isNaN( state ) || Float.isNaN( net.getOutput( i, 0 ) ) )
+					return String.format( "neuron %d went NaN at timestep %d (input %f, state %f)", i, t, waveform[t], state );
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * @param what
+	 *            Description of the check that failed.
+	 * @param diagnosis
+	 *            Where the pair first went NaN, from diagnose(), or null if it
+	 *            didn't.
+	 * @param modelGenes
+	 *            Genes of the model, or null if the model isn't known.
+	 * @param inputGenes
+	 *            Genes of the input.
+	 * @return an exception describing a failed run.
+	 */
+	static IllegalStateException failure( String what, String diagnosis, float[] modelGenes, float[] inputGenes ) {
+		StringBuilder message = new StringBuilder( what ).append( ": " );
+		message.append( diagnosis == null ? "no NaN found running it again step by step" : diagnosis );
+		if ( modelGenes != null ) {
+			message.append( "\n\tmodel genes: " ).append( Arrays.toString( modelGenes ) );
+		}
+		message.append( "\n\tinput genes: " ).append( Arrays.toString( inputGenes ) );
+		return new IllegalStateException( message.toString() );
+	}
+}
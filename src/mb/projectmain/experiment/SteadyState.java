@@ -0,0 +1,183 @@
+package mb.projectmain.experiment;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import mb.ctrnn.core.BatchStepper;
+
+/**
+ * Detects members of a batch that have settled into a fixed point while their
+ * input stays constant for the rest of the run, so they can be fast-forwarded
+ * instead of integrated. A settled member's state no longer changes, so its
+ * output for every remaining timestep is the output it has now; it is swapped
+ * past the end of the batch, where its output can still be read, and the
+ * remaining members are advanced without it.
+ * 
+ * A member only counts as settled once its state has stayed within the
+ * tolerance for SETTLED_STEPS timesteps in a row. A single small step may
+ * just be a turning point of an oscillation.
+ * 
+ * Members are tracked through three arrays: members[s] is the member at slot
+ * s of the batch, slots[m] is the slot holding member m, and calmSteps[m] is
+ * the number of timesteps in a row member m has been within the tolerance.
+ * Members settled so far are at the slots from the number still active up to
+ * the full batch size.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+class SteadyState {
+	
+	/**
+	 * Creates a new detector.
+	 * 
+	 * @param tolerance
+	 *            Largest state change in a timestep for which a network is
+	 *            treated as calm; it has settled once it has been calm for
+	 *            SETTLED_STEPS timesteps in a row. Zero or less never
+	 *            fast-forwards.
+	 */
+	SteadyState ( float tolerance ) {
+		this.tolerance = tolerance;
+	}
+	
+	/**
+	 * Timesteps in a row a member's state must stay within the tolerance
+	 * before it is fast-forwarded.
+	 */
+	static final int			SETTLED_STEPS		= 10;
+	
+	private final float			tolerance;
+	private final AtomicLong	fastForwardedRuns	= new AtomicLong(), fastForwardedSteps = new AtomicLong();
+	
+	/**
+	 * @return whether settled networks are fast-forwarded.
+	 */
+	boolean isEnabled() {
+		return tolerance > 0f;
+	}
+	
+	/**
+	 * Puts every member of a batch at its own slot with no calm timesteps, and
+	 * has the batch record state changes if settled members are
+	 * fast-forwarded.
+	 * 
+	 * @param net
+	 *            Batch about to be run, reset to its initial state.
+	 * @param members
+	 *            Array of at least the batch size to hold the member at each
+	 *            slot.
+	 * @param slots
+	 *            Array of at least the batch size to hold the slot of each
+	 *            member.
+	 * @param calmSteps
+	 *            Array of at least the batch size to count the timesteps in a
+	 *            row each member has been within the tolerance.
+	 */
+	void start( BatchStepper net, int[] members, int[] slots, int[] calmSteps ) {
+		for ( int m = 0; m < net.getBatchSize(); m++ ) {
+			members[m] = m;
+			slots[m] = m;
+			calmSteps[m] = 0;
+		}
+		net.setTrackStateChange( isEnabled() );
+	}
+	
+	/**
+	 * @param waveform
+	 *            Input at each timestep.
+	 * @param runLength
+	 *            Number of timesteps in the run.
+	 * @return the first timestep from which the input is the same until the
+	 *         end of the run.
+	 */
+	static int constantFrom( float[] waveform, int runLength ) {
+		int from = runLength - 1;
+		while ( from > 0 && Float.floatToIntBits( waveform[from - 1] ) == Float.floatToIntBits( waveform[runLength - 1] ) ) {
+			from--;
+		}
+		return from;
+	}
+	
+	/**
+	 * Counts the calm timesteps of every active member, moves each that has
+	 * now settled past the end of the batch, and shrinks the batch to the
+	 * members still active.
+	 * 
+	 * @param net
+	 *            Batch that has just been advanced through timestep t.
+	 * @param active
+	 *            Number of members still active.
+	 * @param members
+	 *            Member at each slot, updated as members are moved.
+	 * @param slots
+	 *            Slot of each member, updated as members are moved.
+	 * @param calmSteps
+	 *            Timesteps in a row each member has been within the
+	 *            tolerance, updated for timestep t.
+	 * @param constantFrom
+	 *            First timestep of constant input for each member, as
+	 *            constantFrom(), or null if every member's input is already
+	 *            constant.
+	 * @param t
+	 *            Timestep just run.
+	 * @param runLength
+	 *            Number of timesteps in the run.
+	 * @return the number of members still active.
+	 */
+	int settle( BatchStepper net, int active, int[] members, int[] slots, int[] calmSteps, int[] constantFrom, int t, int runLength ) {
+		int remaining = runLength - t - 1;
+		if ( remaining == 0 ) {
+			return active;
+		}
+		
+		// from the end, so a member moved into a slot has already been checked
+		int settled = 0;
+		for ( int s = active - 1; s >= 0; s-- ) {
+			int m = members[s];
+			if ( (constantFrom == null || t >= constantFrom[m]) && net.getStateChange( s ) <= tolerance ) {
+				calmSteps[m]++;
+			} else {
+				calmSteps[m] = 0;
+			}
+			if ( calmSteps[m] >= SETTLED_STEPS ) {
+				active--;
+				if ( s != active ) {
+					int other = members[active];
+					net.swapMembers( s, active );
+					members[s] = other;
+					slots[other] = s;
+					members[active] = m;
+					slots[m] = active;
+				}
+				settled++;
+			}
+		}
+		
+		if ( settled > 0 ) {
+			net.setBatchSize( active );
+			fastForwardedRuns.addAndGet( settled );
+			fastForwardedSteps.addAndGet( (long) settled * remaining );
+		}
+		return active;
+	}
+	
+	/**
+	 * @return the number of network runs that were fast-forwarded.
+	 */
+	long getFastForwardedRuns() {
+		return fastForwardedRuns.get();
+	}
+	
+	/**
+	 * @return the number of timesteps filled in by fast-forwarding instead of
+	 *         integrated.
+	 */
+	long getFastForwardedSteps() {
+		return fastForwardedSteps.get();
+	}
+	
+	@Override
+	public String toString() {
+		return String.format( "steady state: %d runs fast-forwarded, %d timesteps skipped", fastForwardedRuns.get(), fastForwardedSteps.get() );
+	}
+}
@@ -0,0 +1,112 @@
+package mb.projectmain.experiment;
+
+import java.io.IOException;
+import java.util.Random;
+
+import mb.ctrnn.core.CTRNN;
+import mb.ctrnn.json.Network.JSONNetworkParseError;
+import mb.ctrnn.layout.CTRNNLayout;
+import mb.ctrnn.layout.LayoutTemplate;
+import mb.ctrnn.layout.Neuron;
+import mb.ctrnn.layout.Neuron.ParameterType;
+
+/**
+ * Times CTRNN.step() on network files, e.g. the evolved networks under
+ * Analysis/data, to compare simulation engines. Each network is given a
+ * random genome and driven by a sine wave on its first neuron; the best of
+ * several repeats is reported to reduce the effect of JIT compilation and GC.
+ * A dense CTRNN, the network chosen by the layout (which may be sparse) and
+ * the network compiled for the layout by StepCompiler are timed.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public class StepBenchmark {
+	
+	private static final int	STEPS	= 200000, REPEATS = 15;
+	
+	/**
+	 * Runs the benchmark and prints the time per step for each network.
+	 * 
+	 * @param args
+	 *            Paths of JSON network files to time.
+	 * @throws JSONNetworkParseError
+	 *             If a file given is not a valid JSON network file.
+	 * @throws IOException
+	 *             If a file can't be read.
+	 */
+	public static void main( String[] args ) throws JSONNetworkParseError, IOException {
+		if ( args.length == 0 ) {
+			System.err.println( "Usage: StepBenchmark network.json..." );
+			System.exit( 1 );
+		}
+		
+		for ( String file : args ) {
+			CTRNNLayout layout = CTRNNLayout.fromFileName( file );
+			float[] genes = randomGenes( layout );
+			CTRNN dense = createDenseCTRNN( layout, genes ), chosen = layout.createCTRNN( genes );
+			CTRNN compiled = new LayoutTemplate( layout ).withCompiledStep( true ).createCTRNN( genes );
+			System.out.println( String.format( "%s\t%d neurons\tdense %.1f ns/step\t%s %.1f ns/step\t%s %.1f ns/step", file,
+					layout.getNumberOfNeurons(), timeStep( dense ), chosen, timeStep( chosen ), compiled, timeStep( compiled ) ) );
+		}
+	}
+	
+	/**
+	 * @param prototype
+	 *            Network to time. Each repeat steps a fresh clone.
+	 * @return the best time per step over all repeats, in nanoseconds.
+	 */
+	public static double timeStep( CTRNN prototype ) {
+		int n = prototype.getOutputs().length;
+		float[] wave = new float[STEPS];
+		for ( int t = 0; t < STEPS; t++ ) {
+			wave[t] = (float) Math.sin( t * 0.01 );
+		}
+		
+		long best = Long.MAX_VALUE;
+		float sink = 0f; // stops the simulation being optimised away
+		
+		for ( int r = 0; r < REPEATS; r++ ) {
+			CTRNN net = (CTRNN) prototype.clone();
+			float[] inputs = new float[n];
+			
+			long start = System.nanoTime();
+			for ( int t = 0; t < STEPS; t++ ) {
+				inputs[0] = wave[t];
+				net.step( 0.01f, inputs );
+			}
+			best = Math.min( best, System.nanoTime() - start );
+			sink += net.getOutputs()[0];
+		}
+		
+		if ( Float.isNaN( sink ) ) {
+			System.out.println( "NaN output" );
+		}
+		return (double) best / STEPS;
+	}
+	
+	private static float[] randomGenes( CTRNNLayout layout ) {
+		Random random = new Random( 42 );
+		float[] genes = new float[layout.getNumberOfGenes()];
+		for ( int g = 0; g < genes.length; g++ ) {
+			genes[g] = random.nextFloat() * 2f - 1f;
+		}
+		return genes;
+	}
+	
+	private static CTRNN createDenseCTRNN( CTRNNLayout layout, float[] genes ) {
+		int n = layout.getNumberOfNeurons();
+		float[] taus = new float[n], biases = new float[n], gains = new float[n];
+		float[][] weights = new float[n][n];
+		for ( int i = 0; i < n; i++ ) {
+			Neuron neuron = layout.getNeuron( i );
+			taus[i] = neuron.getValue( ParameterType.TAU, genes );
+			biases[i] = neuron.getValue( ParameterType.BIAS, genes );
+			gains[i] = neuron.getValue( ParameterType.GAIN, genes );
+			for ( int j = 0; j < n; j++ ) {
+				weights[i][j] = neuron.getWeight( j, genes );
+			}
+		}
+		return new CTRNN( n, taus, biases, gains, weights );
+	}
+}
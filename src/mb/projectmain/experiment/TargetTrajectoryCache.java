@@ -0,0 +1,30 @@
+package mb.projectmain.experiment;
+
+/**
+ * Caches the output of the fixed target network at each timestep for each
+ * input individual. The target network's output only depends on the input
+ * genes, so a trajectory can be reused by every model evaluation until the
+ * input individual is given a new genotype.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public class TargetTrajectoryCache extends GenotypeCache<float[]> {
+	
+	/**
+	 * Creates a new empty cache.
+	 * 
+	 * @param maxBytes
+	 *            Approximate upper limit on memory used by cached
+	 *            trajectories, in bytes. A value of zero or less disables
+	 *            caching.
+	 */
+	public TargetTrajectoryCache ( long maxBytes ) {
+		super( maxBytes );
+	}
+	
+	@Override
+	protected long sizeOf( float[] outputs ) {
+		return 4L * outputs.length;
+	}
+}
@@ -0,0 +1,155 @@
+package mb.projectmain.experiment;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Stores the output of the evolved network at each timestep for (model,
+ * input) pairs, so that a pair simulated by one phenotype can be reused by the
+ * other. InputPhenotype and ModelPhenotype both run the evolved layout with a
+ * model genome driven by an input genome, and alternate generations usually
+ * need the same pairs again.
+ * 
+ * Pairs are keyed by the identity of the model and input gene arrays. A
+ * genotype's genes are never modified and are replaced whenever the genotype
+ * is, so an entry is only found until either individual is given a new
+ * genotype. The store is bounded by an approximate memory cap; when it is
+ * exceeded the least recently used entries are evicted.
+ * 
+ * A store must only be shared between phenotypes using the same evolved
+ * layout, input provider and network parameters, so that both would
+ * calculate the same outputs for a pair.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public class TrajectoryStore {
+	
+	/**
+	 * Creates a new empty store.
+	 * 
+	 * @param maxBytes
+	 *            Approximate upper limit on memory used by stored outputs, in
+	 *            bytes. A value of zero or less disables storing.
+	 */
+	public TrajectoryStore ( long maxBytes ) {
+		this.maxBytes = maxBytes;
+		// access ordered, so iteration starts at the least recently used entry
+		this.entries = new LinkedHashMap<>( 16, 0.75f, true );
+	}
+	
+	private final long							maxBytes;
+	private final LinkedHashMap<Key, float[]>	entries;
+	private long								usedBytes	= 0;
+	private long								hits		= 0, misses = 0;
+	
+	/**
+	 * Gets the stored outputs for a pair.
+	 * 
+	 * @param modelGenes
+	 *            Genes of the model.
+	 * @param inputGenes
+	 *            Genes of the input.
+	 * @return the outputs of the model with the input, or null if the pair
+	 *         isn't stored. Must not be modified.
+	 */
+	public synchronized float[] get( float[] modelGenes, float[] inputGenes ) {
+		float[] outputs = entries.get( new Key( modelGenes, inputGenes ) );
+		if ( outputs == null ) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return outputs;
+	}
+	
+	/**
+	 * Stores the outputs for a pair, evicting least recently used entries if
+	 * the memory cap is exceeded. The outputs should not be modified after
+	 * they are stored.
+	 * 
+	 * @param modelGenes
+	 *            Genes of the model.
+	 * @param inputGenes
+	 *            Genes of the input.
+	 * @param outputs
+	 *            Output of the model with the input at each timestep.
+	 */
+	public synchronized void put( float[] modelGenes, float[] inputGenes, float[] outputs ) {
+		long size = 4L * outputs.length;
+		if ( size > maxBytes ) {
+			return; // would never fit
+		}
+		
+		float[] old = entries.put( new Key( modelGenes, inputGenes ), outputs );
+		if ( old != null ) {
+			usedBytes -= 4L * old.length;
+		}
+		usedBytes += size;
+		
+		Iterator<float[]> it = entries.values().iterator();
+		while ( usedBytes > maxBytes && it.hasNext() ) {
+			usedBytes -= 4L * it.next().length;
+			it.remove();
+		}
+	}
+	
+	/**
+	 * Removes all entries from the store.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		usedBytes = 0;
+	}
+	
+	/**
+	 * @return the number of lookups that found stored outputs.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	/**
+	 * @return the number of lookups that found nothing stored.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	/**
+	 * @return approximate number of bytes currently used by stored outputs.
+	 */
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+	
+	/**
+	 * A (model, input) pair of gene arrays, compared by identity.
+	 */
+	private static final class Key {
+		final float[]	modelGenes, inputGenes;
+		
+		Key ( float[] modelGenes, float[] inputGenes ) {
+			this.modelGenes = modelGenes;
+			this.inputGenes = inputGenes;
+		}
+		
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode( modelGenes ) + System.identityHashCode( inputGenes );
+		}
+		
+		@Override
+		public boolean equals( Object obj ) {
+			if ( !(obj instanceof Key) )
+				return false;
+			Key other = (Key) obj;
+			return modelGenes == other.modelGenes && inputGenes == other.inputGenes;
+		}
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return String.format( "[TrajectoryStore entries=%d usedBytes=%d hits=%d misses=%d]", entries.size(), usedBytes, hits, misses );
+	}
+}
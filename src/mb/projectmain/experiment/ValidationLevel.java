@@ -0,0 +1,36 @@
+package mb.projectmain.experiment;
+
+/**
+ * How closely the phenotypes check their simulations for NaN. The networks
+ * themselves never check, so these checks are the only ones made.
+ * 
+ * Whenever a check fails, the (model, input) pair responsible is run again on
+ * its own, checking every neuron after every step, and an
+ * IllegalStateException is thrown giving the first neuron and timestep to go
+ * NaN along with the genes of both individuals.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public enum ValidationLevel {
+	
+	/**
+	 * Nothing is checked. NaN fitnesses are passed on to the population.
+	 */
+	OFF,
+	
+	/**
+	 * Only the result of each run is checked: each model's score against
+	 * each input, and each batch's running variance or outputs. A NaN output
+	 * at any timestep reaches these, so this costs nothing per step.
+	 */
+	END_OF_RUN,
+	
+	/**
+	 * As END_OF_RUN, but every state and output of every network is also
+	 * checked after every step, so NaNs in neurons that don't reach the output
+	 * are found too.
+	 */
+	PARANOID;
+
+}
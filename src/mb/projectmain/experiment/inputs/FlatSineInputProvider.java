@@ -44,9 +44,45 @@ public class FlatSineInputProvider implements InputProvider {
 	
 	@Override
 	public float getInput( float x ) {
+		return getInput( p, x );
+	}
+	
+	/**
+	 * The flat sine wave doesn't depend on the parameters.
+	 */
+	@Override
+	public float getInput( float[] params, float x ) {
 		return amp * sinf(freq * x);
 	}
 	
+	/**
+	 * Fills the input for a range of timesteps. With the oscillator, the sine
+	 * wave is advanced one timestep at a time by rotating (sin, cos) by its
+	 * angular frequency, so sin is only called when it is restarted.
+	 */
+	@Override
+	public void fillInputs( float[] params, float[] out, int from, int to, boolean oscillator ) {
+		if ( !oscillator ) {
+			for ( int t = from; t < to; t++ ) {
+				out[t] = getInput( params, t );
+			}
+			return;
+		}
+		
+		double w = freq, cw = Math.cos( w ), sw = Math.sin( w );
+		for ( int start = from; start < to; start += SinusoidalInputProvider.OSCILLATOR_RESTART ) {
+			int end = Math.min( to, start + SinusoidalInputProvider.OSCILLATOR_RESTART );
+			double s = Math.sin( w * start ), c = Math.cos( w * start );
+			for ( int t = start; t < end; t++ ) {
+				out[t] = amp * (float) s;
+				
+				double next = s * cw + c * sw;
+				c = c * cw - s * sw;
+				s = next;
+			}
+		}
+	}
+	
 	/**
 	 * Utility method for a floating point sine method.
 	 * 
@@ -30,4 +30,42 @@ public interface InputProvider {
 	 * @return the result of the underlying function of this InputProvider.
 	 */
 	public float getInput( float x );
+	
+	/**
+	 * Gets the input with the given parameters rather than those set with
+	 * setParams(). Does not modify this InputProvider, so can be called from
+	 * several threads at once.
+	 * 
+	 * @param params
+	 *            Parameters to modulate the input with, same length as the
+	 *            result of getNumParams().
+	 * @param x
+	 *            value to modulate InputProvider with, e.g. time step
+	 * @return the result of the underlying function of this InputProvider.
+	 */
+	public float getInput( float[] params, float x );
+	
+	/**
+	 * Fills an array with the input at each timestep in a range, so a whole
+	 * run's input can be generated once and reused. Does not modify this
+	 * InputProvider, so can be called from several threads at once.
+	 * 
+	 * Unless oscillator is set, out[t] is exactly getInput(params, t). If it
+	 * is, providers made of sine waves may generate them with an oscillator
+	 * recurrence instead of calling sin for every sample, which is faster but
+	 * differs from getInput() by rounding error.
+	 * 
+	 * @param params
+	 *            Parameters to modulate the input with, same length as the
+	 *            result of getNumParams().
+	 * @param out
+	 *            Array to store the input for timestep t at index t.
+	 * @param from
+	 *            First timestep to fill.
+	 * @param to
+	 *            Timestep after the last one to fill.
+	 * @param oscillator
+	 *            Whether sine waves may be generated by recurrence.
+	 */
+	public void fillInputs( float[] params, float[] out, int from, int to, boolean oscillator );
 }
\ No newline at end of file
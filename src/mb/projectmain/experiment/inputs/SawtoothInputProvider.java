@@ -27,10 +27,17 @@ public class SawtoothInputProvider extends SinusoidalInputProvider {
 	}
 	
 	@Override
-	public float getInput( float x ) {
+	public float getInput( float[] p, float x ) {
 		float a = x / (freqM * p[1]);
 		return ampM * p[0] * 2 * (a - MathUtils.floorF(0.5f+a));
 	}
 	
+	/**
+	 * Not made of sine waves, so is always filled exactly.
+	 */
+	@Override
+	public void fillInputs( float[] p, float[] out, int from, int to, boolean oscillator ) {
+		fillExact( p, out, from, to );
+	}
 	
 }
@@ -42,11 +42,67 @@ public class SinusoidalInputProvider implements InputProvider {
 		return 6;
 	}
 	
+	@Override
+	public float getInput( float x ) {
+		return getInput( p, x );
+	}
+	
 	/**
 	 * calculates input by adding six sine waves with the parameters.
 	 */
 	@Override
-	public float getInput( float x ) {
+	public float getInput( float[] p, float x ) {
 		return ampM * (p[0] * MathUtils.sinf( freqM * p[1] * x ) + p[2] * MathUtils.sinf( freqM * p[3] * x ) + p[4] * MathUtils.sinf( freqM * p[5] * x ));
 	}
+	
+	/**
+	 * Timesteps between restarting oscillators from sin and cos in
+	 * fillInputs(), so rounding error can't build up over long runs.
+	 */
+	static final int	OSCILLATOR_RESTART	= 256;
+	
+	/**
+	 * Fills the input for a range of timesteps. With the oscillator, each sine
+	 * wave is advanced one timestep at a time by rotating (sin, cos) by its
+	 * angular frequency, so sin is only called when it is restarted.
+	 */
+	@Override
+	public void fillInputs( float[] p, float[] out, int from, int to, boolean oscillator ) {
+		if ( !oscillator ) {
+			fillExact( p, out, from, to );
+			return;
+		}
+		
+		// angular frequency of each wave per timestep, as in getInput()
+		double w1 = freqM * p[1], w2 = freqM * p[3], w3 = freqM * p[5];
+		double cw1 = Math.cos( w1 ), sw1 = Math.sin( w1 ), cw2 = Math.cos( w2 ), sw2 = Math.sin( w2 ), cw3 = Math.cos( w3 ), sw3 = Math.sin( w3 );
+		
+		for ( int start = from; start < to; start += OSCILLATOR_RESTART ) {
+			int end = Math.min( to, start + OSCILLATOR_RESTART );
+			double s1 = Math.sin( w1 * start ), c1 = Math.cos( w1 * start ), s2 = Math.sin( w2 * start ), c2 = Math.cos( w2 * start ),
+					s3 = Math.sin( w3 * start ), c3 = Math.cos( w3 * start );
+			for ( int t = start; t < end; t++ ) {
+				out[t] = ampM * (p[0] * (float) s1 + p[2] * (float) s2 + p[4] * (float) s3);
+				
+				double next = s1 * cw1 + c1 * sw1;
+				c1 = c1 * cw1 - s1 * sw1;
+				s1 = next;
+				next = s2 * cw2 + c2 * sw2;
+				c2 = c2 * cw2 - s2 * sw2;
+				s2 = next;
+				next = s3 * cw3 + c3 * sw3;
+				c3 = c3 * cw3 - s3 * sw3;
+				s3 = next;
+			}
+		}
+	}
+	
+	/**
+	 * Fills out[t] with getInput(p, t) for each timestep in the range.
+	 */
+	protected void fillExact( float[] p, float[] out, int from, int to ) {
+		for ( int t = from; t < to; t++ ) {
+			out[t] = getInput( p, t );
+		}
+	}
 }
\ No newline at end of file
@@ -35,8 +35,17 @@ public class SquareWaveInputProvider extends SinusoidalInputProvider {
 	}
 	
 	@Override
-	public float getInput( float x ) {
+	public float getInput( float[] p, float x ) {
 		return ampM * p[0] * Math.signum( MathUtils.sinf( freqM * p[1] * x ) );
 	}
 	
+	/**
+	 * Not made of a sine wave alone: rounding error from an oscillator would
+	 * move the edges, so is always filled exactly.
+	 */
+	@Override
+	public void fillInputs( float[] p, float[] out, int from, int to, boolean oscillator ) {
+		fillExact( p, out, from, to );
+	}
+	
 }
@@ -17,7 +17,7 @@ public class TriangleInputProvider extends SawtoothInputProvider {
 	}
 	
 	@Override
-	public float getInput( float x ) {
-		return Math.abs( super.getInput( x ) );
+	public float getInput( float[] p, float x ) {
+		return Math.abs( super.getInput( p, x ) );
 	}
 }
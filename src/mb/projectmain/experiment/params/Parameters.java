@@ -4,6 +4,11 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Arrays;
 
+import mb.ctrnn.core.ActivationFunction.Approximation;
+import mb.ctrnn.core.Integrator;
+import mb.ctrnn.core.UpdateMode;
+import mb.evolution.OpponentSampling;
+import mb.projectmain.experiment.ValidationLevel;
 import mb.projectmain.experiment.inputs.InputProvider;
 import mb.projectmain.experiment.inputs.InputProviderTypes;
 
@@ -35,12 +40,46 @@ public class Parameters {
 		newParams.gaPropertiesParams.mutation_rate = params.gaPropertiesParams.mutation_rate;
 		newParams.gaPropertiesParams.crossover_probability = params.gaPropertiesParams.crossover_probability;
 		newParams.gaPropertiesParams.deme_size = params.gaPropertiesParams.deme_size;
+		newParams.gaPropertiesParams.pairwise_matrix = params.gaPropertiesParams.pairwise_matrix;
+		newParams.gaPropertiesParams.input_pairwise_matrix = params.gaPropertiesParams.input_pairwise_matrix;
+		newParams.gaPropertiesParams.pairwise_matrix_size_mb = params.gaPropertiesParams.pairwise_matrix_size_mb;
+		newParams.gaPropertiesParams.fitness_cache = params.gaPropertiesParams.fitness_cache;
+		newParams.gaPropertiesParams.early_abandon = params.gaPropertiesParams.early_abandon;
+		newParams.gaPropertiesParams.trajectory_store_size_mb = params.gaPropertiesParams.trajectory_store_size_mb;
+		newParams.gaPropertiesParams.opponent_sampling = params.gaPropertiesParams.opponent_sampling;
+		newParams.gaPropertiesParams.sampled_opponents = params.gaPropertiesParams.sampled_opponents;
+		newParams.gaPropertiesParams.sampling_seed = params.gaPropertiesParams.sampling_seed;
+		newParams.gaPropertiesParams.evaluation_threads = params.gaPropertiesParams.evaluation_threads;
+		
+		newParams.netPropertiesParams.target_network_file = params.netPropertiesParams.target_network_file;
+		newParams.netPropertiesParams.evolved_network_file = params.netPropertiesParams.evolved_network_file;
+		newParams.netPropertiesParams.time_step = params.netPropertiesParams.time_step;
+		newParams.netPropertiesParams.run_length_steps = params.netPropertiesParams.run_length_steps;
+		newParams.netPropertiesParams.network_input_index = params.netPropertiesParams.network_input_index;
+		newParams.netPropertiesParams.network_output_index = params.netPropertiesParams.network_output_index;
+		newParams.netPropertiesParams.activation_approximation = params.netPropertiesParams.activation_approximation;
+		newParams.netPropertiesParams.oscillator_inputs = params.netPropertiesParams.oscillator_inputs;
+		newParams.netPropertiesParams.steady_state_tolerance = params.netPropertiesParams.steady_state_tolerance;
+		newParams.netPropertiesParams.update_mode = params.netPropertiesParams.update_mode;
+		newParams.netPropertiesParams.integrator = params.netPropertiesParams.integrator;
+		newParams.netPropertiesParams.integrator_step_multiplier = params.netPropertiesParams.integrator_step_multiplier;
+		newParams.netPropertiesParams.integrator_tolerance = params.netPropertiesParams.integrator_tolerance;
+		newParams.netPropertiesParams.validation = params.netPropertiesParams.validation;
+		newParams.netPropertiesParams.compiled_step = params.netPropertiesParams.compiled_step;
 		
 		newParams.inputProperties.input_provider = params.inputProperties.input_provider;
 		newParams.inputProperties.parameters = Arrays.copyOf( params.inputProperties.parameters, params.inputProperties.parameters.length );
 		
 		newParams.modelProperties.derivative_depth = params.modelProperties.derivative_depth;
 		newParams.modelProperties.exponential_penalty = params.modelProperties.exponential_penalty;
+		newParams.modelProperties.target_cache_size_mb = params.modelProperties.target_cache_size_mb;
+		newParams.modelProperties.waveform_cache_size_mb = params.modelProperties.waveform_cache_size_mb;
+		
+		newParams.fidelityParams.run_fractions = Arrays.copyOf( params.fidelityParams.run_fractions, params.fidelityParams.run_fractions.length );
+		newParams.fidelityParams.timestep_multipliers = Arrays.copyOf( params.fidelityParams.timestep_multipliers,
+				params.fidelityParams.timestep_multipliers.length );
+		newParams.fidelityParams.runs_per_level = params.fidelityParams.runs_per_level;
+		newParams.fidelityParams.stagnation_runs = params.fidelityParams.stagnation_runs;
 		
 		return newParams;
 	}
@@ -59,6 +98,7 @@ public class Parameters {
 	public NetPropertiesParams	netPropertiesParams	= new NetPropertiesParams();
 	public InputProperties		inputProperties		= new InputProperties();
 	public ModelProperties		modelProperties		= new ModelProperties();
+	public FidelityParams		fidelityParams		= new FidelityParams();
 	
 	/**
 	 * Stores GA length parameters.
@@ -97,6 +137,34 @@ public class Parameters {
 												// being crossed over
 		public int		deme_size		= 5;	// geographical size to select
 												// individuals from
+		public boolean	pairwise_matrix	= true;	// cache results for every
+												// (model, input) pair
+		public boolean	input_pairwise_matrix	= false;	// also for inputs,
+															// whose results
+															// are output series
+		public int		pairwise_matrix_size_mb	= 64;	// memory cap for
+														// each pairwise
+														// matrix
+		public boolean	fitness_cache	= true;	// reuse fitnesses until
+												// either population changes
+		public boolean	early_abandon	= true;	// stop evaluating tournament
+												// losers early
+		public int		trajectory_store_size_mb	= 128;	// memory cap for
+															// (model, input)
+															// outputs shared by
+															// both phenotypes
+		public int		evaluation_threads	= 1;	// threads to evaluate
+												// fitness on, 1 is sequential
+		public OpponentSampling	opponent_sampling	= OpponentSampling.FULL;	// enum
+																			// FULL,
+																			// RANDOM
+																			// or
+																			// DEME
+		public int				sampled_opponents	= 20;	// opponents per
+															// evaluation if
+															// sampled
+		public long				sampling_seed		= 0;	// seed for random
+															// opponent samples
 												
 		@Override
 		public String toString() {
@@ -108,7 +176,27 @@ public class Parameters {
 			builder.append( "\n\tcrossover_probability=" );
 			builder.append( crossover_probability );
 			builder.append( "\n\tdeme_size=" );
-			builder.append( deme_size ).append( "\n" );
+			builder.append( deme_size );
+			builder.append( "\n\tpairwise_matrix=" );
+			builder.append( pairwise_matrix );
+			builder.append( "\n\tinput_pairwise_matrix=" );
+			builder.append( input_pairwise_matrix );
+			builder.append( "\n\tpairwise_matrix_size_mb=" );
+			builder.append( pairwise_matrix_size_mb );
+			builder.append( "\n\tfitness_cache=" );
+			builder.append( fitness_cache );
+			builder.append( "\n\tearly_abandon=" );
+			builder.append( early_abandon );
+			builder.append( "\n\ttrajectory_store_size_mb=" );
+			builder.append( trajectory_store_size_mb );
+			builder.append( "\n\tevaluation_threads=" );
+			builder.append( evaluation_threads );
+			builder.append( "\n\topponent_sampling=" );
+			builder.append( opponent_sampling );
+			builder.append( "\n\tsampled_opponents=" );
+			builder.append( sampled_opponents );
+			builder.append( "\n\tsampling_seed=" );
+			builder.append( sampling_seed ).append( "\n" );
 			return builder.toString();
 		}
 		
@@ -130,6 +218,44 @@ public class Parameters {
 				network_output_index = 1;				// node to
 														// record/compare output
 														// from
+		public Approximation	activation_approximation	= Approximation.EXACT;	// fast
+																						// activation
+																						// functions
+																						// to
+																						// evolve
+																						// with
+		public boolean			oscillator_inputs			= false;				// generate
+																						// sine
+																						// inputs
+																						// by
+																						// recurrence
+		public float			steady_state_tolerance		= 0f;					// fast-forward
+																						// tolerance,
+																						// 0 for off
+		public UpdateMode		update_mode					= UpdateMode.SEQUENTIAL;	// order
+																						// neurons
+																						// update in
+		public Integrator		integrator					= Integrator.EULER;		// method
+																						// to run
+																						// networks
+																						// with
+		public int				integrator_step_multiplier	= 1;					// timesteps
+																						// per
+																						// internal
+																						// step
+		public float			integrator_tolerance		= 1e-4f;				// largest
+																						// RK45
+																						// error
+																						// per step
+		public ValidationLevel	validation					= ValidationLevel.END_OF_RUN;	// how
+																						// runs are
+																						// checked
+																						// for NaN
+		public boolean			compiled_step				= false;				// replay
+																						// with
+																						// generated
+																						// step
+																						// classes
 				
 		@Override
 		public String toString() {
@@ -145,7 +271,25 @@ public class Parameters {
 			builder.append( "\n\tnetwork_input_index=" );
 			builder.append( network_input_index );
 			builder.append( "\n\tnetwork_output_index=" );
-			builder.append( network_output_index ).append( "\n" );
+			builder.append( network_output_index );
+			builder.append( "\n\tactivation_approximation=" );
+			builder.append( activation_approximation );
+			builder.append( "\n\toscillator_inputs=" );
+			builder.append( oscillator_inputs );
+			builder.append( "\n\tsteady_state_tolerance=" );
+			builder.append( steady_state_tolerance );
+			builder.append( "\n\tupdate_mode=" );
+			builder.append( update_mode );
+			builder.append( "\n\tintegrator=" );
+			builder.append( integrator );
+			builder.append( "\n\tintegrator_step_multiplier=" );
+			builder.append( integrator_step_multiplier );
+			builder.append( "\n\tintegrator_tolerance=" );
+			builder.append( integrator_tolerance );
+			builder.append( "\n\tvalidation=" );
+			builder.append( validation );
+			builder.append( "\n\tcompiled_step=" );
+			builder.append( compiled_step ).append( "\n" );
 			return builder.toString();
 		}
 		
@@ -183,7 +327,13 @@ public class Parameters {
 	
 	public static class ModelProperties {
 		public int	derivative_depth	= 5,
-										exponential_penalty = 2;
+										exponential_penalty = 2,
+										target_cache_size_mb = 64,	// memory cap for
+																	// cached target
+																	// trajectories
+										waveform_cache_size_mb = 8;	// memory cap for
+																	// cached input
+																	// waveforms
 		
 		@Override
 		public String toString() {
@@ -191,7 +341,50 @@ public class Parameters {
 			builder.append( "Model Properties\n\tderivative_depth=" );
 			builder.append( derivative_depth );
 			builder.append( "\n\texponential_penalty=" );
-			builder.append( exponential_penalty ).append( "\n" );
+			builder.append( exponential_penalty );
+			builder.append( "\n\ttarget_cache_size_mb=" );
+			builder.append( target_cache_size_mb );
+			builder.append( "\n\twaveform_cache_size_mb=" );
+			builder.append( waveform_cache_size_mb ).append( "\n" );
+			return builder.toString();
+		}
+		
+	}
+	
+	/**
+	 * Stores the fidelity schedule. Each level runs networks for a fraction
+	 * of the full run's simulated time, with a multiple of the full timestep.
+	 * Levels are used in order, and the last is always full fidelity. With
+	 * the defaults every evaluation is at full fidelity.
+	 */
+	public static class FidelityParams {
+		public float[]	run_fractions			= { 1f };	// fraction of the
+															// full run per level
+		public int[]	timestep_multipliers	= { 1 };	// multiple of
+															// time_step per
+															// level
+		public int		runs_per_level			= 0;		// main loop
+															// iterations per
+															// level, 0 for no
+															// limit
+		public int		stagnation_runs			= 0;		// move up a level
+															// after this many
+															// iterations
+															// without the best
+															// model improving,
+															// 0 to disable
+		
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder();
+			builder.append( "Fidelity\n\trun_fractions=" );
+			builder.append( Arrays.toString( run_fractions ) );
+			builder.append( "\n\ttimestep_multipliers=" );
+			builder.append( Arrays.toString( timestep_multipliers ) );
+			builder.append( "\n\truns_per_level=" );
+			builder.append( runs_per_level );
+			builder.append( "\n\tstagnation_runs=" );
+			builder.append( stagnation_runs ).append( "\n" );
 			return builder.toString();
 		}
 		
@@ -206,7 +399,8 @@ public class Parameters {
 		sb.append( gaPropertiesParams.toString() );
 		sb.append( netPropertiesParams.toString() );
 		sb.append( inputProperties.toString() );
-		sb.append( modelProperties.toString() ).append( "\n" );
+		sb.append( modelProperties.toString() );
+		sb.append( fidelityParams.toString() ).append( "\n" );
 		return sb.toString();
 	}
 	
@@ -17,11 +17,7 @@ public class MathUtils {
 	 * @return float sigmoid of x.
 	 */
 	public static float sigmoid( float x ) {
-		float result = 1.0f / (1 + (float) Math.exp( -x ));
-		if ( Float.isNaN( result ) ) {
-			throw new AssertionError();
-		}
-		return result;
+		return 1.0f / (1 + (float) Math.exp( -x ));
 	}
 	
 	/**
@@ -0,0 +1,124 @@
+package mb.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs the iterations of a loop in parallel on a ForkJoinPool, or
+ * sequentially if no pool is given. Iterations should only write to their own
+ * index of any shared arrays; results can then be combined in index order
+ * afterwards so they don't depend on how the work was scheduled.
+ * 
+ * @author Miles Bryant <mb459@sussex.ac.uk>
+ * 
+ */
+public class ParallelLoop {
+	
+	/**
+	 * The body of a loop, run once for each index.
+	 */
+	public interface Body {
+		/**
+		 * @param i
+		 *            Index of this iteration.
+		 */
+		public void run( int i );
+	}
+	
+	/**
+	 * The body of a loop over a range of indexes, e.g. to process a batch at
+	 * once.
+	 */
+	public interface RangeBody {
+		/**
+		 * @param from
+		 *            First index in the range, inclusive.
+		 * @param to
+		 *            Last index in the range, exclusive.
+		 */
+		public void run( int from, int to );
+	}
+	
+	/**
+	 * Runs body for every index from 0 to n - 1 and waits for all iterations
+	 * to finish. Any exception thrown by an iteration is rethrown.
+	 * 
+	 * @param pool
+	 *            Pool to run iterations on, or null to run them sequentially
+	 *            on the calling thread.
+	 * @param n
+	 *            Number of iterations.
+	 * @param body
+	 *            Loop body.
+	 */
+	public static void run( ForkJoinPool pool, int n, Body body ) {
+		if ( pool == null || n < 2 ) {
+			for ( int i = 0; i < n; i++ ) {
+				body.run( i );
+			}
+			return;
+		}
+		
+		RangeAction action = new RangeAction( body, 0, n );
+		if ( ForkJoinTask.getPool() == pool ) {
+			action.invoke(); // already on one of the pool's threads, e.g. nested loops
+		} else {
+			pool.invoke( action );
+		}
+	}
+	
+	/**
+	 * Splits the indexes from 0 to n - 1 into contiguous ranges, one for each
+	 * thread in the pool, runs body for every range and waits for them all to
+	 * finish.
+	 * 
+	 * @param pool
+	 *            Pool to run ranges on, or null to run a single range on the
+	 *            calling thread.
+	 * @param n
+	 *            Number of indexes.
+	 * @param body
+	 *            Loop body.
+	 */
+	public static void runRanges( ForkJoinPool pool, final int n, final RangeBody body ) {
+		if ( n == 0 ) {
+			return;
+		}
+		final int nRanges = pool == null ? 1 : Math.min( n, pool.getParallelism() );
+		run( pool, nRanges, new Body() {
+			@Override
+			public void run( int r ) {
+				body.run( (int) ((long) n * r / nRanges), (int) ((long) n * (r + 1) / nRanges) );
+			}
+		} );
+	}
+	
+	/**
+	 * Splits a range of indexes in half until single iterations remain.
+	 */
+	private static class RangeAction extends RecursiveAction {
+		
+		private static final long	serialVersionUID	= 1L;
+		
+		private final Body			body;
+		private final int			from, to;
+		
+		RangeAction ( Body body, int from, int to ) {
+			this.body = body;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if ( to - from == 1 ) {
+				body.run( from );
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll( new RangeAction( body, from, mid ), new RangeAction( body, mid, to ) );
+		}
+	}
+
+}
@@ -1,6 +1,7 @@
 package mb.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -92,4 +93,179 @@ public class StatsUtils {
 		}
 		return sum / array.length;
 	}
+	
+	/**
+	 * Calculates the mean over time of the variance between arrays at each
+	 * index, with the same result as calculating the means with
+	 * calculateMeansOfArrays(), the variances with calculateVarianceWithMeans(),
+	 * then the mean of their means, but without allocating.
+	 * 
+	 * @param arrays
+	 *            Float arrays, all of the same length.
+	 * @param count
+	 *            Number of arrays, from the start of arrays, to use.
+	 * @param means
+	 *            Working array to hold the mean at each index. Must be at least
+	 *            as long as the arrays.
+	 * @param variances
+	 *            Working array to hold the mean variance at each index. Must be
+	 *            at least as long as the arrays.
+	 * @return the mean variance.
+	 */
+	public static float calculateMeanVariance( float[][] arrays, int count, float[] means, float[] variances ) {
+		
+		int length = arrays[0].length;
+		
+		// sum each index in the same order as calculateMeansOfArrays()
+		for ( int t = 0; t < length; t++ ) {
+			means[t] = 0f;
+			variances[t] = 0f;
+		}
+		for ( int i = 0; i < count; i++ ) {
+			float[] array = arrays[i];
+			for ( int t = 0; t < length; t++ ) {
+				means[t] += array[t];
+			}
+		}
+		for ( int t = 0; t < length; t++ ) {
+			means[t] /= count;
+		}
+		
+		for ( int i = 0; i < count; i++ ) {
+			float[] array = arrays[i];
+			for ( int t = 0; t < length; t++ ) {
+				float diff = (means[t] - array[t]);
+				variances[t] += diff * diff;
+			}
+		}
+		
+		float sum = 0;
+		for ( int t = 0; t < length; t++ ) {
+			variances[t] /= count;
+			sum += variances[t];
+		}
+		return sum / length;
+	}
+	
+	/**
+	 * Clears running means and sums of squared differences from the mean (M2)
+	 * so that values can be added with addToRunningVariance().
+	 * 
+	 * @param means
+	 *            Running mean at each index.
+	 * @param m2s
+	 *            Running sum of squared differences from the mean at each
+	 *            index.
+	 * @param length
+	 *            Number of indices, from the start of the arrays, to clear.
+	 */
+	public static void resetRunningVariance( double[] means, double[] m2s, int length ) {
+		Arrays.fill( means, 0, length, 0.0 );
+		Arrays.fill( m2s, 0, length, 0.0 );
+	}
+	
+	/**
+	 * Adds a value at one index to a running mean and sum of squared
+	 * differences from the mean (M2), using Welford's online algorithm. Values
+	 * can be added as they are produced, so nothing but the running totals
+	 * needs to be kept.
+	 * 
+	 * @param means
+	 *            Running mean at each index.
+	 * @param m2s
+	 *            Running sum of squared differences from the mean at each
+	 *            index.
+	 * @param index
+	 *            Index to add the value at.
+	 * @param n
+	 *            Number of values already added at the index.
+	 * @param value
+	 *            Value to add.
+	 */
+	public static void addToRunningVariance( double[] means, double[] m2s, int index, int n, float value ) {
+		double delta = value - means[index];
+		means[index] += delta / (n + 1);
+		m2s[index] += delta * (value - means[index]);
+	}
+	
+	/**
+	 * Adds every value of an array to running means and M2s, as if by calling
+	 * addToRunningVariance() at each index.
+	 * 
+	 * @param means
+	 *            Running mean at each index.
+	 * @param m2s
+	 *            Running sum of squared differences from the mean at each
+	 *            index.
+	 * @param n
+	 *            Number of arrays already added.
+	 * @param values
+	 *            Array to add.
+	 * @param length
+	 *            Number of values, from the start of the array, to add.
+	 */
+	public static void addToRunningVariance( double[] means, double[] m2s, int n, float[] values, int length ) {
+		for ( int t = 0; t < length; t++ ) {
+			addToRunningVariance( means, m2s, t, n, values[t] );
+		}
+	}
+	
+	/**
+	 * Combines the running means and M2s of two separate sets of arrays, as
+	 * if the second set had been added after the first (Chan et al.'s
+	 * parallel algorithm). The result is the same as adding the values one
+	 * at a time, to within rounding.
+	 * 
+	 * @param means
+	 *            Running mean at each index of the first set, replaced by the
+	 *            combined means.
+	 * @param m2s
+	 *            Running M2 at each index of the first set, replaced by the
+	 *            combined M2s.
+	 * @param n
+	 *            Number of arrays in the first set.
+	 * @param otherMeans
+	 *            Running mean at each index of the second set.
+	 * @param otherM2s
+	 *            Running M2 at each index of the second set.
+	 * @param otherN
+	 *            Number of arrays in the second set.
+	 * @param length
+	 *            Number of indices to combine.
+	 */
+	public static void mergeRunningVariance( double[] means, double[] m2s, int n, double[] otherMeans, double[] otherM2s, int otherN,
+			int length ) {
+		if ( otherN == 0 ) {
+			return;
+		}
+		double total = n + otherN;
+		double weight = otherN / total, scale = (double) n * otherN / total;
+		for ( int t = 0; t < length; t++ ) {
+			double delta = otherMeans[t] - means[t];
+			means[t] += delta * weight;
+			m2s[t] += otherM2s[t] + delta * delta * scale;
+		}
+	}
+	
+	/**
+	 * Calculates the mean over time of the variance at each index from running
+	 * M2s, giving the same value as calculateMeanVariance() to within
+	 * rounding.
+	 * 
+	 * @param m2s
+	 *            Running sum of squared differences from the mean at each
+	 *            index.
+	 * @param n
+	 *            Number of arrays added.
+	 * @param length
+	 *            Number of indices.
+	 * @return the mean variance.
+	 */
+	public static float meanOfRunningVariances( double[] m2s, int n, int length ) {
+		double sum = 0;
+		for ( int t = 0; t < length; t++ ) {
+			sum += m2s[t] / n;
+		}
+		return (float) (sum / length);
+	}
 }
@@ -0,0 +1,53 @@
+package mb.ctrnn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import mb.ctrnn.core.ActivationFunction;
+import mb.ctrnn.core.ActivationFunction.Approximation;
+import mb.ctrnn.core.CTRNN;
+
+import org.junit.Test;
+
+public class ActivationFunctionTest {
+	
+	@Test
+	public void approximationsAreWithinDocumentedBounds() throws Exception {
+		for ( ActivationFunction function : ActivationFunction.values() ) {
+			ActivationFunction exact = function.getExact();
+			float worst = 0f;
+			for ( int i = -2000000; i <= 2000000; i++ ) {
+				float x = i * 1e-5f; // every 1e-5 over [-20, 20]
+				worst = Math.max( worst, Math.abs( function.apply( x ) - exact.apply( x ) ) );
+			}
+			assertTrue( function + " error " + worst, worst <= function.getMaxError() );
+		}
+	}
+	
+	@Test
+	public void approximationsSaturate() throws Exception {
+		assertEquals( 1f, ActivationFunction.TANH_LUT.apply( 100f ), 0f );
+		assertEquals( -1f, ActivationFunction.TANH_RATIONAL.apply( -100f ), 0f );
+		assertEquals( 0f, ActivationFunction.SIGMOID_LUT.apply( -100f ), 0f );
+		assertEquals( 1f, ActivationFunction.SIGMOID_RATIONAL.apply( 100f ), 0f );
+	}
+	
+	@Test
+	public void mapsBetweenExactAndApproximateForms() throws Exception {
+		assertEquals( ActivationFunction.TANH, ActivationFunction.TANH_LUT.getExact() );
+		assertEquals( ActivationFunction.SIGMOID, ActivationFunction.SIGMOID_RATIONAL.getExact() );
+		assertEquals( ActivationFunction.SIGMOID_LUT, ActivationFunction.SIGMOID_RATIONAL.approximate( Approximation.LUT ) );
+		assertEquals( ActivationFunction.TANH_RATIONAL, ActivationFunction.TANH.approximate( Approximation.RATIONAL ) );
+		assertEquals( ActivationFunction.TANH, ActivationFunction.TANH_LUT.approximate( Approximation.EXACT ) );
+	}
+	
+	@Test
+	public void ctrnnUsesItsActivationFunction() throws Exception {
+		CTRNN ctrnn = new CTRNN( 1, new float[] { 1f }, new float[] { 0f }, new float[] { 1f }, new float[][] { { 0f } } );
+		ctrnn.setActivation( ActivationFunction.SIGMOID );
+		ctrnn.step( 0.1f, new float[] { 0f } );
+		
+		// state decays from 0.5 to 0.45
+		assertEquals( 1f / (1f + (float) Math.exp( -0.45f )), ctrnn.getOutputs()[0], 1e-6f );
+	}
+	
+}
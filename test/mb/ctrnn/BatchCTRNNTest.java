@@ -0,0 +1,84 @@
+package mb.ctrnn;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import mb.ctrnn.core.BatchCTRNN;
+import mb.ctrnn.core.CTRNN;
+import mb.ctrnn.core.UpdateMode;
+
+import org.junit.Test;
+
+public class BatchCTRNNTest {
+	
+	final int		n	= 4, batch = 3, steps = 200;
+	final Random	rand	= new Random( 42 );
+	
+	CTRNN randomCTRNN() {
+		return CTRNNTestUtils.createRandomCTRNN( rand, n, 10f, 5f, 5f );
+	}
+	
+	@Test
+	public void matchesSeparateNetworksExactly() throws Exception {
+		checkMatchesSeparateNetworks( UpdateMode.SEQUENTIAL );
+	}
+	
+	@Test
+	public void matchesSeparateSynchronousNetworksExactly() throws Exception {
+		checkMatchesSeparateNetworks( UpdateMode.SYNCHRONOUS );
+	}
+	
+	void checkMatchesSeparateNetworks( UpdateMode updateMode ) {
+		CTRNN[] nets = new CTRNN[batch];
+		BatchCTRNN batchNet = new BatchCTRNN( n, batch );
+		batchNet.setUpdateMode( updateMode );
+		for ( int b = 0; b < batch; b++ ) {
+			nets[b] = randomCTRNN();
+			nets[b].setUpdateMode( updateMode );
+			batchNet.setNetwork( b, (CTRNN) nets[b].clone() );
+		}
+		
+		float[][] batchInputs = new float[n][];
+		batchInputs[0] = new float[batch];
+		
+		for ( int t = 0; t < steps; t++ ) {
+			for ( int b = 0; b < batch; b++ ) {
+				float[] inputs = new float[n];
+				inputs[0] = batchInputs[0][b] = (float) Math.sin( t * 0.1 + b );
+				nets[b].step( 0.1f, inputs );
+			}
+			batchNet.step( 0.1f, batchInputs );
+			
+			for ( int b = 0; b < batch; b++ ) {
+				for ( int i = 0; i < n; i++ ) {
+					assertEquals( Float.floatToIntBits( nets[b].getOutputs()[i] ), Float.floatToIntBits( batchNet.getOutput( i, b ) ) );
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void resetRestoresInitialState() throws Exception {
+		BatchCTRNN batchNet = new BatchCTRNN( n, batch );
+		for ( int b = 0; b < batch; b++ ) {
+			batchNet.setNetwork( b, randomCTRNN() );
+		}
+		float[][] inputs = new float[n][];
+		inputs[1] = new float[] { 1f, 2f, 3f };
+		
+		batchNet.step( 0.1f, inputs );
+		float first = batchNet.getOutput( 2, 1 );
+		batchNet.step( 0.1f, inputs );
+		batchNet.reset();
+		batchNet.step( 0.1f, inputs );
+		
+		assertEquals( first, batchNet.getOutput( 2, 1 ), 0f );
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNetworkOfWrongSize() throws Exception {
+		new BatchCTRNN( n + 1, batch ).setNetwork( 0, randomCTRNN() );
+	}
+
+}
@@ -0,0 +1,165 @@
+package mb.ctrnn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import mb.ctrnn.core.BatchCTRNN;
+import mb.ctrnn.core.BatchIntegrator;
+import mb.ctrnn.core.CTRNN;
+import mb.ctrnn.core.Integrator;
+import mb.ctrnn.core.MultiStateCTRNN;
+import mb.ctrnn.core.UpdateMode;
+
+import org.junit.Test;
+
+public class BatchIntegratorTest {
+	
+	final int	n	= 7, k = 4, runLength = 500, fine = 64;
+	final float	timeStep	= 0.1f;
+	
+	CTRNN randomCTRNN( Random rand ) {
+		return CTRNNTestUtils.createRandomCTRNN( rand, n, 5f, 3f, 3f );
+	}
+	
+	/**
+	 * @return a sine wave of a different frequency for each member, with
+	 *         `per` samples per timestep.
+	 */
+	float[][] waveforms( int per ) {
+		float[][] waveforms = new float[k][runLength * per];
+		for ( int s = 0; s < k; s++ ) {
+			for ( int t = 0; t < runLength * per; t++ ) {
+				waveforms[s][t] = (float) Math.sin( t * timeStep / per * (s + 1) * 0.7 );
+			}
+		}
+		return waveforms;
+	}
+	
+	/**
+	 * @return the largest difference between the outputs and the reference,
+	 *         which has `fine` outputs per timestep.
+	 */
+	float maxError( float[][] outputs, float[][] reference ) {
+		float max = 0f;
+		for ( int s = 0; s < k; s++ ) {
+			for ( int t = 0; t < runLength; t++ ) {
+				max = Math.max( max, Math.abs( outputs[s][t] - reference[s][(t + 1) * fine - 1] ) );
+			}
+		}
+		return max;
+	}
+	
+	float[][] run( CTRNN net, Integrator integrator, int stepMultiplier, BatchIntegrator[] used ) {
+		float[][] outputs = new float[k][runLength];
+		BatchIntegrator batchIntegrator = new BatchIntegrator( integrator, stepMultiplier, 1e-4f );
+		batchIntegrator.run( new MultiStateCTRNN( (CTRNN) net.clone(), k ), waveforms( 1 ), 0, n - 1, timeStep, runLength, outputs );
+		if ( used != null ) {
+			used[0] = batchIntegrator;
+		}
+		return outputs;
+	}
+	
+	@Test
+	public void eulerWithUnitStepMatchesSynchronousStep() throws Exception {
+		CTRNN net = randomCTRNN( new Random( 5 ) );
+		float[][] outputs = run( net, Integrator.EULER, 1, null );
+		
+		net.setUpdateMode( UpdateMode.SYNCHRONOUS );
+		MultiStateCTRNN multi = new MultiStateCTRNN( net, k );
+		// the integrator takes every output from the states, even at the start
+		multi.updateOutputs();
+		float[][] waveforms = waveforms( 1 ), inputs = new float[n][];
+		inputs[0] = new float[k];
+		for ( int t = 0; t < runLength; t++ ) {
+			for ( int s = 0; s < k; s++ ) {
+				inputs[0][s] = waveforms[s][t];
+			}
+			multi.step( timeStep, inputs );
+			for ( int s = 0; s < k; s++ ) {
+				assertEquals( multi.getOutput( n - 1, s ), outputs[s][t], 1e-4f );
+			}
+		}
+	}
+	
+	@Test
+	public void higherOrderMethodsBeatEulerInFewerSteps() throws Exception {
+		CTRNN net = randomCTRNN( new Random( 5 ) );
+		
+		// RK4 with a step much shorter than any time constant
+		float[][] reference = new float[k][runLength * fine];
+		new BatchIntegrator( Integrator.RK4, 1, 0f ).run( new MultiStateCTRNN( (CTRNN) net.clone(), k ), waveforms( fine ), 0, n - 1, timeStep
+				/ fine, runLength * fine, reference );
+		float eulerError = maxError( run( net, Integrator.EULER, 1, null ), reference );
+		
+		BatchIntegrator[] used = new BatchIntegrator[1];
+		float midpointError = maxError( run( net, Integrator.MIDPOINT, 5, used ), reference );
+		assertEquals( runLength / 5, used[0].getSteps() );
+		float rk4Error = maxError( run( net, Integrator.RK4, 5, used ), reference );
+		assertEquals( runLength / 5, used[0].getSteps() );
+		float rk45Error = maxError( run( net, Integrator.RK45, 1, used ), reference );
+		assertTrue( used[0].getSteps() < runLength / 5 );
+		
+		assertTrue( midpointError < eulerError / 5f );
+		assertTrue( rk4Error < eulerError / 100f );
+		assertTrue( rk45Error < eulerError / 100f );
+	}
+	
+	@Test
+	public void exponentialEulerIsExactForUncoupledNeuron() throws Exception {
+		// steps ten times the time constant would make forward Euler diverge
+		float tau = 0.5f, input = 0.8f, bias = 0.3f;
+		CTRNN net = new CTRNN( 1, new float[] { tau }, new float[] { bias }, new float[] { 1f }, new float[1][1] );
+		MultiStateCTRNN multi = new MultiStateCTRNN( net, 1 );
+		float[][] waveforms = { new float[40] };
+		Arrays.fill( waveforms[0], input );
+		float[][] outputs = new float[1][40];
+		
+		new BatchIntegrator( Integrator.EXPONENTIAL_EULER, 5, 0f ).run( multi, waveforms, 0, 0, 1f, 40, outputs );
+		
+		assertEquals( (float) Math.tanh( input + bias ), outputs[0][39], 1e-6f );
+		assertEquals( (float) Math.tanh( input + (0.5f - input) * Math.exp( -5f / tau ) + bias ), outputs[0][4], 1e-6f );
+	}
+	
+	@Test
+	public void batchOfNetworksMatchesStatesOfOneNetworkExactly() throws Exception {
+		CTRNN net = randomCTRNN( new Random( 7 ) );
+		BatchCTRNN batch = new BatchCTRNN( n, k );
+		for ( int b = 0; b < k; b++ ) {
+			batch.setNetwork( b, (CTRNN) net.clone() );
+		}
+		for ( Integrator integrator : Integrator.values() ) {
+			float[][] multiOutputs = run( net, integrator, 3, null ), batchOutputs = new float[k][runLength];
+			batch.reset();
+			new BatchIntegrator( integrator, 3, 1e-4f ).run( batch, waveforms( 1 ), 0, n - 1, timeStep, runLength, batchOutputs );
+			
+			for ( int s = 0; s < k; s++ ) {
+				for ( int t = 0; t < runLength; t++ ) {
+					assertEquals( integrator + " at " + t, Float.floatToIntBits( multiOutputs[s][t] ), Float.floatToIntBits( batchOutputs[s][t] ) );
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void rk45FinishesRunsThatGoNaN() throws Exception {
+		CTRNN net = randomCTRNN( new Random( 9 ) ), broken = (CTRNN) net.clone();
+		broken.setBias( 2, Float.NaN );
+		BatchCTRNN batch = new BatchCTRNN( n, 2 ), alone = new BatchCTRNN( n, 1 );
+		batch.setNetwork( 0, broken );
+		batch.setNetwork( 1, (CTRNN) net.clone() );
+		alone.setNetwork( 0, (CTRNN) net.clone() );
+		float[][] waveforms = waveforms( 1 ), outputs = new float[2][runLength], aloneOutputs = new float[1][runLength];
+		
+		new BatchIntegrator( Integrator.RK45, 4, 1e-4f ).run( batch, waveforms, 0, n - 1, timeStep, runLength, outputs );
+		new BatchIntegrator( Integrator.RK45, 4, 1e-4f ).run( alone, new float[][] { waveforms[1] }, 0, n - 1, timeStep, runLength, aloneOutputs );
+		
+		assertTrue( Float.isNaN( outputs[0][runLength - 1] ) );
+		for ( int t = 0; t < runLength; t++ ) {
+			assertEquals( Float.floatToIntBits( aloneOutputs[0][t] ), Float.floatToIntBits( outputs[1][t] ) );
+		}
+	}
+
+}
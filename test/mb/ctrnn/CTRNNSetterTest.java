@@ -0,0 +1,73 @@
+package mb.ctrnn;
+
+import static org.junit.Assert.assertArrayEquals;
+import mb.ctrnn.core.CTRNN;
+import mb.ctrnn.core.SparseCTRNN;
+
+import org.junit.Test;
+
+public class CTRNNSetterTest {
+	
+	final int	n	= 3;
+	
+	CTRNN create( float tau, float weight01 ) {
+		float[] taus = { 1f, tau, 2f }, biases = { 0f, 0.5f, -0.5f }, gains = { 1f, 1f, 2f };
+		float[][] weights = { { 0f, weight01, 0f }, { 0f, 0f, 3f }, { -2f, 0f, 0f } };
+		return new CTRNN( n, taus, biases, gains, weights );
+	}
+	
+	void stepBoth( CTRNN a, CTRNN b ) {
+		for ( int t = 0; t < 100; t++ ) {
+			float[] inputs = { (float) Math.sin( t * 0.1 ), 0f, 0f };
+			a.step( 0.1f, inputs );
+			b.step( 0.1f, inputs );
+		}
+	}
+	
+	@Test
+	public void settersKeepCachedWeightsAndTausConsistent() throws Exception {
+		CTRNN updated = create( 1f, 1f ), expected = create( 4f, -5f );
+		updated.setTau( 1, 4f );
+		updated.setWeight( 0, 1, -5f );
+		
+		stepBoth( updated, expected );
+		
+		assertArrayEquals( expected.getOutputs(), updated.getOutputs(), 0f );
+	}
+	
+	@Test
+	public void sparseSetterUpdatesDeclaredConnection() throws Exception {
+		boolean[][] connected = { { false, true, false }, { false, false, true }, { true, false, false } };
+		CTRNN expected = create( 1f, 6f );
+		CTRNN sparse = new SparseCTRNN( n, new float[] { 1f, 1f, 2f }, new float[] { 0f, 0.5f, -0.5f }, new float[] { 1f, 1f, 2f },
+				new float[][] { { 0f, 1f, 0f }, { 0f, 0f, 3f }, { -2f, 0f, 0f } }, connected );
+		sparse.setWeight( 0, 1, 6f );
+		
+		stepBoth( sparse, expected );
+		
+		assertArrayEquals( expected.getOutputs(), sparse.getOutputs(), 0f );
+	}
+	
+	@Test
+	public void settingWeightOfCloneLeavesOriginal() throws Exception {
+		boolean[][] connected = { { false, true, false }, { false, false, true }, { true, false, false } };
+		CTRNN sparse = new SparseCTRNN( n, new float[] { 1f, 1f, 2f }, new float[] { 0f, 0.5f, -0.5f }, new float[] { 1f, 1f, 2f },
+				new float[][] { { 0f, 1f, 0f }, { 0f, 0f, 3f }, { -2f, 0f, 0f } }, connected );
+		for ( CTRNN original : new CTRNN[] { create( 1f, 1f ), sparse } ) {
+			((CTRNN) original.clone()).setWeight( 0, 1, 5f );
+			
+			// the original's weights are only read again when it is cloned
+			CTRNN copy = (CTRNN) original.clone(), expected = create( 1f, 1f );
+			stepBoth( copy, expected );
+			
+			assertArrayEquals( expected.getOutputs(), copy.getOutputs(), 0f );
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void sparseSetterRejectsUndeclaredConnection() throws Exception {
+		boolean[][] connected = new boolean[n][n];
+		new SparseCTRNN( n, new float[] { 1f, 1f, 1f }, new float[n], new float[n], new float[n][n], connected ).setWeight( 0, 2, 1f );
+	}
+	
+}
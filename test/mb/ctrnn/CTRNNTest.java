@@ -2,6 +2,7 @@ package mb.ctrnn;
 
 import static org.junit.Assert.assertArrayEquals;
 import mb.ctrnn.core.CTRNN;
+import mb.ctrnn.core.UpdateMode;
 import mb.util.MathUtils;
 import mockit.Deencapsulation;
 import mockit.Expectations;
@@ -91,6 +92,22 @@ public class CTRNNTest {
 		assertArrayEquals(expected, result,0.001f);
 	}
 	
+	@Test
+	public void synchronousStepSumsPreviousOutputs() throws Exception {
+		/*
+		 * From outputs of 0, a synchronous step only sees the external input,
+		 * whereas neuron 1 of a sequential step sees neuron 0's new output.
+		 */
+		CTRNN sync = (CTRNN) ctrnn.clone();
+		sync.setUpdateMode(UpdateMode.SYNCHRONOUS);
+		
+		sync.step(1, new float[]{1,0});
+		ctrnn.step(1, new float[]{1,0});
+		
+		assertArrayEquals(new float[]{(float)Math.tanh(2), (float)Math.tanh(1)}, sync.getOutputs(), 1e-6f);
+		assertArrayEquals(new float[]{(float)Math.tanh(2), (float)Math.tanh(Math.tanh(2) + 1)}, ctrnn.getOutputs(), 1e-6f);
+	}
+	
 	@Test(expected=IllegalArgumentException.class)
 	public void throwsIllegalArgumentExceptionIfIncorrectArrayLength() throws Exception {
 		taus = new float[] {1f,1f,1f};
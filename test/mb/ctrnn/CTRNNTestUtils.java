@@ -0,0 +1,45 @@
+package mb.ctrnn;
+
+import java.util.Random;
+
+import mb.ctrnn.core.CTRNN;
+import mb.ctrnn.core.SparseCTRNN;
+
+public class CTRNNTestUtils {
+	
+	/**
+	 * Creates a network with random parameters: time constants from 1 to 1 +
+	 * tauRange, biases from -1 to 1, gains from 0 to maxGain and weights from
+	 * -maxWeight to maxWeight.
+	 * 
+	 * @param density
+	 *            Probability of each connection being declared. Below 1, the
+	 *            network is a SparseCTRNN with zero weights for undeclared
+	 *            connections.
+	 */
+	public static CTRNN createRandomCTRNN( Random rand, int n, float tauRange, float maxGain, float maxWeight, float density ) {
+		boolean sparse = density < 1f;
+		float[] taus = new float[n], biases = new float[n], gains = new float[n];
+		float[][] weights = new float[n][n];
+		boolean[][] connected = new boolean[n][n];
+		for ( int i = 0; i < n; i++ ) {
+			taus[i] = 1f + rand.nextFloat() * tauRange;
+			biases[i] = rand.nextFloat() * 2f - 1f;
+			gains[i] = rand.nextFloat() * maxGain;
+			for ( int j = 0; j < n; j++ ) {
+				connected[i][j] = !sparse || rand.nextFloat() < density;
+				weights[i][j] = connected[i][j] ? (rand.nextFloat() * 2f - 1f) * maxWeight : 0f;
+			}
+		}
+		return sparse ? new SparseCTRNN( n, taus, biases, gains, weights, connected ) : new CTRNN( n, taus, biases, gains, weights );
+	}
+	
+	/**
+	 * @return a fully connected network with random parameters, as for
+	 *         createRandomCTRNN().
+	 */
+	public static CTRNN createRandomCTRNN( Random rand, int n, float tauRange, float maxGain, float maxWeight ) {
+		return createRandomCTRNN( rand, n, tauRange, maxGain, maxWeight, 1f );
+	}
+
+}
@@ -0,0 +1,104 @@
+package mb.ctrnn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import mb.ctrnn.core.CTRNN;
+import mb.ctrnn.core.GeneScatterPlan;
+import mb.ctrnn.core.SparseCTRNN;
+import mb.ctrnn.layout.CTRNNLayout;
+import mb.ctrnn.layout.Neuron;
+import mb.ctrnn.layout.Neuron.ParameterType;
+import mb.ctrnn.layout.NeuronParam;
+import mb.ctrnn.layout.Range;
+
+import org.junit.Test;
+
+public class GeneScatterPlanTest {
+	
+	final int		n	= 4, steps = 200;
+	final Random	rand	= new Random( 42 );
+	
+	/**
+	 * Layout with every tau, bias and gain mapped to a gene, and each weight
+	 * connected with the given probability and mapped to a gene.
+	 */
+	CTRNNLayout createLayout( float density ) {
+		CTRNNLayout layout = new CTRNNLayout();
+		int gene = 0;
+		for ( int i = 0; i < n; i++ ) {
+			Neuron neuron = new Neuron( n );
+			for ( ParameterType type : new ParameterType[] { ParameterType.TAU, ParameterType.BIAS, ParameterType.GAIN } ) {
+				NeuronParam.Gene param = new NeuronParam.Gene( type == ParameterType.TAU ? new Range( 1f, 10f ) : new Range( -3f, 3f ) );
+				neuron.setParameter( type, param );
+				layout.setGeneAt( gene++, param );
+			}
+			for ( int j = 0; j < n; j++ ) {
+				if ( rand.nextFloat() < density ) {
+					NeuronParam.Gene weight = new NeuronParam.Gene( new Range( -5f, 5f ) );
+					neuron.setWeight( j, weight );
+					layout.setGeneAt( gene++, weight );
+				}
+			}
+			layout.addNeuron( neuron );
+		}
+		return layout;
+	}
+	
+	float[] randomGenes( CTRNNLayout layout ) {
+		float[] genes = new float[layout.getNumberOfGenes()];
+		for ( int g = 0; g < genes.length; g++ ) {
+			genes[g] = rand.nextFloat() * 2f - 1f;
+		}
+		return genes;
+	}
+	
+	void assertSameOutputs( CTRNN expected, CTRNN actual ) {
+		float[] inputs = new float[n];
+		for ( int t = 0; t < steps; t++ ) {
+			inputs[0] = (float) Math.sin( t * 0.1 );
+			expected.step( 0.1f, inputs );
+			actual.step( 0.1f, inputs );
+			for ( int i = 0; i < n; i++ ) {
+				assertEquals( Float.floatToIntBits( expected.getOutput( i ) ), Float.floatToIntBits( actual.getOutput( i ) ) );
+			}
+		}
+	}
+	
+	@Test
+	public void reboundDenseNetworkMatchesNewNetwork() throws Exception {
+		CTRNNLayout layout = createLayout( 1f );
+		GeneScatterPlan plan = layout.compile();
+		CTRNN rebound = layout.createCTRNN( randomGenes( layout ) );
+		float[] genes = randomGenes( layout );
+		
+		plan.apply( rebound, genes );
+		rebound.reset();
+		
+		assertEquals( 3 * n + n * n, plan.getNumberOfEntries() );
+		assertSameOutputs( layout.createCTRNN( genes ), rebound );
+	}
+	
+	@Test
+	public void reboundSparseNetworkMatchesNewNetwork() throws Exception {
+		CTRNNLayout layout = createLayout( 0.3f );
+		GeneScatterPlan plan = layout.compile();
+		CTRNN rebound = layout.createCTRNN( randomGenes( layout ) );
+		float[] genes = randomGenes( layout );
+		
+		plan.apply( rebound, genes );
+		rebound.reset();
+		
+		assertTrue( rebound instanceof SparseCTRNN );
+		assertSameOutputs( layout.createCTRNN( genes ), rebound );
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsGenomeOfWrongLength() throws Exception {
+		CTRNNLayout layout = createLayout( 1f );
+		layout.compile().apply( layout.createCTRNN( randomGenes( layout ) ), new float[1] );
+	}
+
+}
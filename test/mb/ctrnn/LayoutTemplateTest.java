@@ -0,0 +1,117 @@
+package mb.ctrnn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import mb.ctrnn.core.ActivationFunction;
+import mb.ctrnn.core.CTRNN;
+import mb.ctrnn.layout.CTRNNLayout;
+import mb.ctrnn.layout.LayoutRegistry;
+import mb.ctrnn.layout.LayoutTemplate;
+import mb.ctrnn.layout.Neuron;
+import mb.ctrnn.layout.Neuron.ParameterType;
+import mb.ctrnn.layout.NeuronParam;
+import mb.ctrnn.layout.Range;
+
+import org.junit.Test;
+
+public class LayoutTemplateTest {
+	
+	final int	n	= 3, steps = 100;
+	
+	CTRNNLayout createLayout() {
+		CTRNNLayout layout = new CTRNNLayout();
+		int gene = 0;
+		for ( int i = 0; i < n; i++ ) {
+			Neuron neuron = Neuron.withFixedValues( 2f, 0.5f, 1f, new float[] { 1f, -1f, 0.5f } );
+			NeuronParam.Gene tau = new NeuronParam.Gene( new Range( 1f, 10f ) ), weight = new NeuronParam.Gene( new Range( -5f, 5f ) );
+			neuron.setParameter( ParameterType.TAU, tau );
+			neuron.setWeight( i, weight );
+			layout.setGeneAt( gene++, tau );
+			layout.setGeneAt( gene++, weight );
+			layout.addNeuron( neuron );
+		}
+		return layout;
+	}
+	
+	void assertSameOutputs( CTRNN expected, CTRNN actual ) {
+		float[] inputs = new float[n];
+		for ( int t = 0; t < steps; t++ ) {
+			inputs[0] = (float) Math.sin( t * 0.1 );
+			expected.step( 0.1f, inputs );
+			actual.step( 0.1f, inputs );
+			for ( int i = 0; i < n; i++ ) {
+				assertEquals( Float.floatToIntBits( expected.getOutput( i ) ), Float.floatToIntBits( actual.getOutput( i ) ) );
+			}
+		}
+	}
+	
+	@Test
+	public void createsSameNetworksAsLayout() throws Exception {
+		CTRNNLayout layout = createLayout();
+		LayoutTemplate template = new LayoutTemplate( layout );
+		float[] genes = { -0.5f, 0.25f, 0.1f, -0.9f, 0.7f, 0.3f };
+		
+		assertSameOutputs( layout.createCTRNN( genes ), template.createCTRNN( genes ) );
+		assertSameOutputs( layout.createCTRNN(), template.createCTRNN() );
+	}
+	
+	@Test
+	public void isUnaffectedByLaterChangesToLayout() throws Exception {
+		CTRNNLayout layout = createLayout();
+		LayoutTemplate template = new LayoutTemplate( layout );
+		CTRNN before = layout.createCTRNN();
+		
+		layout.updateGenes( new float[] { 1f, 1f, 1f, 1f, 1f, 1f } );
+		
+		assertSameOutputs( before, template.createCTRNN() );
+	}
+	
+	@Test
+	public void withActivationLeavesOriginalUnchanged() throws Exception {
+		LayoutTemplate template = new LayoutTemplate( createLayout() );
+		LayoutTemplate approximate = template.withActivation( ActivationFunction.TANH_LUT );
+		
+		assertEquals( ActivationFunction.TANH, template.getActivation() );
+		assertEquals( ActivationFunction.TANH_LUT, approximate.getActivation() );
+		assertEquals( ActivationFunction.TANH_LUT, approximate.createCTRNN().getActivation() );
+		assertSame( template, template.withActivation( ActivationFunction.TANH ) );
+	}
+	
+	@Test
+	public void registryParsesEachFileOnce() throws Exception {
+		File file = File.createTempFile( "network", ".json" );
+		file.deleteOnExit();
+		writeNetwork( file, "2" );
+		
+		LayoutTemplate first = LayoutRegistry.get( file.getPath() );
+		assertSame( first, LayoutRegistry.get( file.getAbsolutePath() ) );
+		assertEquals( 2, first.getNumberOfNeurons() );
+		
+		// a changed file is parsed again
+		writeNetwork( file, "3" );
+		file.setLastModified( file.lastModified() + 2000 );
+		assertNotSame( first, LayoutRegistry.get( file.getPath() ) );
+	}
+	
+	void writeNetwork( File file, String tau ) throws IOException {
+		try (Writer writer = new FileWriter( file )) {
+			writer.write( "{ \"metadata\" : { \"description\" : \"test\", \"author\" : \"test\", \"date\" : \"test\" },"
+					+ " \"ranges\" : [ { \"name\" : \"range\", \"tauRange\" : { \"low\" : 1, \"high\" : 50 },"
+					+ " \"biasRange\" : { \"low\" : -16, \"high\" : 50 }, \"gainRange\" : { \"low\" : 1, \"high\" : 10 },"
+					+ " \"weightRange\" : { \"low\" : -5, \"high\" : 5 } } ],"
+					+ " \"layers\" : [ { \"name\" : \"Neurons\", \"neurons\" : ["
+					+ " { \"name\" : \"n1\", \"range\" : \"range\", \"tau\" : \"" + tau + "\", \"bias\" : \"0\", \"gain\" : \"1\","
+					+ " \"conns\" : [ \"n2\" ], \"weights\" : [ \"g0\" ] },"
+					+ " { \"name\" : \"n2\", \"range\" : \"range\", \"tau\" : \"1\", \"bias\" : \"0\", \"gain\" : \"1\","
+					+ " \"conns\" : [ \"n1\" ], \"weights\" : [ \"1\" ] } ] } ] }" );
+		}
+	}
+
+}
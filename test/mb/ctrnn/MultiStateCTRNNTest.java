@@ -0,0 +1,128 @@
+package mb.ctrnn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import mb.ctrnn.core.CTRNN;
+import mb.ctrnn.core.MultiStateCTRNN;
+import mb.ctrnn.core.UpdateMode;
+
+import org.junit.Test;
+
+public class MultiStateCTRNNTest {
+	
+	final int	n	= 3, k = 4, steps = 200;
+	
+	CTRNN createCTRNN() {
+		float[] taus = { 1f, 2.5f, 7f }, biases = { -0.5f, 0.2f, 1f }, gains = { 1f, 3f, 0.5f };
+		float[][] weights = { { 0.5f, -2f, 4f }, { 3f, 1f, -1f }, { -4f, 2f, 0.1f } };
+		return new CTRNN( n, taus, biases, gains, weights );
+	}
+	
+	@Test
+	public void matchesSeparateNetworksExactly() throws Exception {
+		CTRNN[] nets = new CTRNN[k];
+		for ( int s = 0; s < k; s++ ) {
+			nets[s] = createCTRNN();
+		}
+		MultiStateCTRNN multi = new MultiStateCTRNN( createCTRNN(), k );
+		
+		float[][] multiInputs = new float[n][];
+		multiInputs[1] = new float[k];
+		
+		for ( int t = 0; t < steps; t++ ) {
+			for ( int s = 0; s < k; s++ ) {
+				float[] inputs = new float[n];
+				inputs[1] = multiInputs[1][s] = (float) Math.cos( t * 0.05 * (s + 1) );
+				nets[s].step( 0.1f, inputs );
+			}
+			multi.step( 0.1f, multiInputs );
+			
+			for ( int s = 0; s < k; s++ ) {
+				for ( int i = 0; i < n; i++ ) {
+					assertEquals( Float.floatToIntBits( nets[s].getOutputs()[i] ), Float.floatToIntBits( multi.getOutput( i, s ) ) );
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void synchronousMatchesSeparateNetworksExactly() throws Exception {
+		// enough neurons to sum both in blocks of four and one at a time
+		int n = 7;
+		CTRNN single = CTRNNTestUtils.createRandomCTRNN( new Random( 5 ), n, 5f, 3f, 3f );
+		single.setUpdateMode( UpdateMode.SYNCHRONOUS );
+		MultiStateCTRNN multi = new MultiStateCTRNN( (CTRNN) single.clone(), k );
+		
+		float[][] multiInputs = new float[n][];
+		multiInputs[0] = new float[k];
+		for ( int t = 0; t < steps; t++ ) {
+			float[] inputs = new float[n];
+			inputs[0] = (float) Math.cos( t * 0.05 );
+			Arrays.fill( multiInputs[0], inputs[0] );
+			single.step( 0.1f, inputs );
+			multi.step( 0.1f, multiInputs );
+			
+			for ( int i = 0; i < n; i++ ) {
+				assertEquals( Float.floatToIntBits( single.getOutputs()[i] ), Float.floatToIntBits( multi.getOutput( i, k - 1 ) ) );
+			}
+		}
+	}
+	
+	@Test
+	public void statesWithSameInputStayEqual() throws Exception {
+		MultiStateCTRNN multi = new MultiStateCTRNN( createCTRNN(), k );
+		float[][] inputs = new float[n][];
+		inputs[0] = new float[] { 1f, 1f, 1f, 1f };
+		
+		for ( int t = 0; t < steps; t++ ) {
+			multi.step( 0.1f, inputs );
+		}
+		
+		for ( int s = 1; s < k; s++ ) {
+			assertEquals( multi.getOutput( 2, 0 ), multi.getOutput( 2, s ), 0f );
+		}
+	}
+	
+	@Test
+	public void trackingStateChangeGivesSameOutputsAndSettles() throws Exception {
+		MultiStateCTRNN plain = new MultiStateCTRNN( createCTRNN(), k ), tracked = new MultiStateCTRNN( createCTRNN(), k );
+		tracked.setTrackStateChange( true );
+		float[][] inputs = new float[n][];
+		inputs[0] = new float[] { 0f, 0.5f, 1f, -1f };
+		
+		float firstChange = 0f;
+		for ( int t = 0; t < 2000; t++ ) {
+			plain.step( 0.1f, inputs );
+			tracked.step( 0.1f, inputs );
+			if ( t == 0 ) {
+				firstChange = tracked.getStateChange( 1 );
+			}
+			for ( int s = 0; s < k; s++ ) {
+				assertEquals( Float.floatToIntBits( plain.getOutput( 2, s ) ), Float.floatToIntBits( tracked.getOutput( 2, s ) ) );
+			}
+		}
+		
+		assertTrue( firstChange > 0f );
+		assertTrue( tracked.getStateChange( 1 ) < 1e-5f );
+	}
+	
+	@Test
+	public void swappedOutMemberKeepsItsOutputs() throws Exception {
+		MultiStateCTRNN multi = new MultiStateCTRNN( createCTRNN(), k );
+		float[][] inputs = new float[n][];
+		inputs[0] = new float[] { 0f, 0.5f, 1f, -1f };
+		multi.step( 0.1f, inputs );
+		float output0 = multi.getOutput( 2, 0 );
+		
+		multi.swapMembers( 0, 3 );
+		multi.setBatchSize( 3 );
+		multi.step( 0.1f, inputs );
+		
+		assertEquals( output0, multi.getOutput( 2, 3 ), 0f );
+	}
+	
+}
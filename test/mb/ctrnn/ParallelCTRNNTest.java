@@ -0,0 +1,95 @@
+package mb.ctrnn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import mb.ctrnn.core.CTRNN;
+import mb.ctrnn.core.NetworkGenerator;
+import mb.ctrnn.core.ParallelCTRNN;
+import mb.ctrnn.core.UpdateMode;
+
+import org.junit.Test;
+
+public class ParallelCTRNNTest {
+	
+	final int	n	= 60, steps = 300;
+	
+	CTRNN randomCTRNN( boolean sparse ) {
+		CTRNN ctrnn = CTRNNTestUtils.createRandomCTRNN( new Random( 11 ), n, 5f, 3f, 1f, sparse ? 0.2f : 1f );
+		ctrnn.setUpdateMode( UpdateMode.SYNCHRONOUS );
+		return ctrnn;
+	}
+	
+	void checkMatches( CTRNN ctrnn, ForkJoinPool pool ) {
+		ParallelCTRNN parallel = ParallelCTRNN.of( ctrnn );
+		parallel.setPool( pool );
+		parallel.setParallelThreshold( 0 );
+		assertEquals( pool != null, parallel.isParallel() );
+		
+		float[] inputs = new float[n];
+		for ( int t = 0; t < steps; t++ ) {
+			inputs[0] = (float) Math.sin( t * 0.1 );
+			ctrnn.step( 0.1f, inputs );
+			parallel.step( 0.1f, inputs );
+			for ( int i = 0; i < n; i++ ) {
+				assertEquals( Float.floatToIntBits( ctrnn.getOutput( i ) ), Float.floatToIntBits( parallel.getOutput( i ) ) );
+			}
+		}
+	}
+	
+	@Test
+	public void matchesSynchronousNetworksExactly() throws Exception {
+		ForkJoinPool pool = new ForkJoinPool( 3 );
+		try {
+			for ( boolean sparse : new boolean[] { false, true } ) {
+				checkMatches( randomCTRNN( sparse ), null );
+				checkMatches( randomCTRNN( sparse ), pool );
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	@Test
+	public void switchesToParallelAtThreshold() throws Exception {
+		ForkJoinPool pool = new ForkJoinPool( 2 );
+		try {
+			ParallelCTRNN net = NetworkGenerator.random( 100, 10, 1 );
+			net.setPool( pool );
+			net.setParallelThreshold( 1001 );
+			assertFalse( net.isParallel() );
+			net.setParallelThreshold( 1000 );
+			assertTrue( net.isParallel() );
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	@Test
+	public void generatedNetworksAreRepeatable() throws Exception {
+		ParallelCTRNN a = NetworkGenerator.random( 500, 40, 7 ), b = NetworkGenerator.random( 500, 40, 7 );
+		assertEquals( 500 * 40, a.getNumberOfConnections() );
+		
+		ForkJoinPool pool = new ForkJoinPool( 4 );
+		try {
+			b.setPool( pool );
+			b.setParallelThreshold( 0 );
+			float[] inputs = new float[500];
+			for ( int t = 0; t < steps; t++ ) {
+				inputs[0] = (float) Math.sin( t * 0.1 );
+				a.step( 0.1f, inputs );
+				b.step( 0.1f, inputs );
+			}
+			for ( int i = 0; i < 500; i++ ) {
+				assertEquals( Float.floatToIntBits( a.getOutput( i ) ), Float.floatToIntBits( b.getOutput( i ) ) );
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+}
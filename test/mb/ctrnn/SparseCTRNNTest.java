@@ -0,0 +1,115 @@
+package mb.ctrnn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import mb.ctrnn.core.CTRNN;
+import mb.ctrnn.core.MultiStateCTRNN;
+import mb.ctrnn.core.SparseCTRNN;
+import mb.ctrnn.core.UpdateMode;
+import mb.ctrnn.layout.CTRNNLayout;
+import mb.ctrnn.layout.Neuron;
+import mb.ctrnn.layout.NeuronParam;
+
+import org.junit.Test;
+
+public class SparseCTRNNTest {
+	
+	final int		n		= 4;
+	final float[]	taus	= { 1f, 2f, 3f, 4f }, biases = { 0.5f, -0.5f, 1f, 0f }, gains = { 1f, 2f, 1f, 5f };
+	
+	// a ring: each neuron connects to the next
+	float[][] ringWeights() {
+		float[][] weights = new float[n][n];
+		for ( int i = 0; i < n; i++ ) {
+			weights[i][(i + 1) % n] = 3f - i;
+		}
+		return weights;
+	}
+	
+	boolean[][] ringConnections() {
+		boolean[][] connected = new boolean[n][n];
+		for ( int i = 0; i < n; i++ ) {
+			connected[i][(i + 1) % n] = true;
+		}
+		return connected;
+	}
+	
+	@Test
+	public void matchesDenseNetworkExactly() throws Exception {
+		CTRNN dense = new CTRNN( n, taus, biases, gains, ringWeights() );
+		SparseCTRNN sparse = new SparseCTRNN( n, taus, biases, gains, ringWeights(), ringConnections() );
+		
+		assertEquals( n, sparse.getNumberOfConnections() );
+		
+		for ( int t = 0; t < 500; t++ ) {
+			float[] inputs = new float[n];
+			inputs[0] = (float) Math.sin( t * 0.1 );
+			dense.step( 0.1f, inputs );
+			sparse.step( 0.1f, inputs );
+			for ( int i = 0; i < n; i++ ) {
+				assertEquals( Float.floatToIntBits( dense.getOutputs()[i] ), Float.floatToIntBits( sparse.getOutputs()[i] ) );
+			}
+		}
+	}
+	
+	@Test
+	public void multiStateUsesSparseConnections() throws Exception {
+		SparseCTRNN sparse = new SparseCTRNN( n, taus, biases, gains, ringWeights(), ringConnections() );
+		MultiStateCTRNN multi = new MultiStateCTRNN( (CTRNN) sparse.clone(), 2 );
+		
+		float[][] multiInputs = new float[n][];
+		multiInputs[2] = new float[] { 1f, 1f };
+		float[] inputs = new float[n];
+		inputs[2] = 1f;
+		
+		for ( int t = 0; t < 100; t++ ) {
+			sparse.step( 0.1f, inputs );
+			multi.step( 0.1f, multiInputs );
+		}
+		
+		assertEquals( sparse.getOutputs()[3], multi.getOutput( 3, 1 ), 0f );
+	}
+	
+	@Test
+	public void synchronousMatchesDenseNetworkExactly() throws Exception {
+		CTRNN dense = new CTRNN( n, taus, biases, gains, ringWeights() );
+		SparseCTRNN sparse = new SparseCTRNN( n, taus, biases, gains, ringWeights(), ringConnections() );
+		dense.setUpdateMode( UpdateMode.SYNCHRONOUS );
+		sparse.setUpdateMode( UpdateMode.SYNCHRONOUS );
+		MultiStateCTRNN multi = new MultiStateCTRNN( (CTRNN) sparse.clone(), 2 );
+		
+		float[][] multiInputs = new float[n][];
+		multiInputs[0] = new float[2];
+		for ( int t = 0; t < 500; t++ ) {
+			float[] inputs = new float[n];
+			inputs[0] = multiInputs[0][0] = multiInputs[0][1] = (float) Math.sin( t * 0.1 );
+			dense.step( 0.1f, inputs );
+			sparse.step( 0.1f, inputs );
+			multi.step( 0.1f, multiInputs );
+			for ( int i = 0; i < n; i++ ) {
+				assertEquals( Float.floatToIntBits( dense.getOutputs()[i] ), Float.floatToIntBits( sparse.getOutputs()[i] ) );
+				assertEquals( Float.floatToIntBits( dense.getOutputs()[i] ), Float.floatToIntBits( multi.getOutput( i, 1 ) ) );
+			}
+		}
+	}
+	
+	@Test
+	public void layoutPicksEngineByDensity() throws Exception {
+		CTRNNLayout sparseLayout = new CTRNNLayout(), denseLayout = new CTRNNLayout();
+		for ( int i = 0; i < n; i++ ) {
+			Neuron neuron = new Neuron( n );
+			neuron.setParameter( Neuron.ParameterType.TAU, new NeuronParam.Fixed( taus[i] ) );
+			neuron.setParameter( Neuron.ParameterType.BIAS, new NeuronParam.Fixed( biases[i] ) );
+			neuron.setParameter( Neuron.ParameterType.GAIN, new NeuronParam.Fixed( gains[i] ) );
+			neuron.setWeight( (i + 1) % n, new NeuronParam.Fixed( 1f ) );
+			sparseLayout.addNeuron( neuron );
+			
+			denseLayout.addNeuron( Neuron.withFixedValues( taus[i], biases[i], gains[i], new float[n] ) );
+		}
+		
+		assertTrue( sparseLayout.createCTRNN() instanceof SparseCTRNN );
+		assertFalse( denseLayout.createCTRNN() instanceof SparseCTRNN );
+	}
+	
+}
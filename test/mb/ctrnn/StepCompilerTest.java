@@ -0,0 +1,167 @@
+package mb.ctrnn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import mb.ctrnn.core.CTRNN;
+import mb.ctrnn.core.CompiledCTRNN;
+import mb.ctrnn.core.LoggableCTRNN;
+import mb.ctrnn.core.StepCompiler;
+import mb.ctrnn.core.UpdateMode;
+import mb.ctrnn.layout.CTRNNLayout;
+import mb.ctrnn.layout.LayoutTemplate;
+import mb.ctrnn.layout.Neuron;
+import mb.ctrnn.layout.Neuron.ParameterType;
+import mb.ctrnn.layout.NeuronParam;
+import mb.ctrnn.layout.Range;
+
+import org.junit.Test;
+
+public class StepCompilerTest {
+	
+	final int	n	= 6, steps = 300;
+	
+	/**
+	 * A layout with some of every kind of parameter genetic. A ring layout
+	 * only connects each neuron to the next, so is created sparse.
+	 */
+	CTRNNLayout createLayout( int n, boolean ring ) {
+		Random rand = new Random( 3 );
+		CTRNNLayout layout = new CTRNNLayout();
+		int gene = 0;
+		for ( int i = 0; i < n; i++ ) {
+			Neuron neuron;
+			if ( ring ) {
+				neuron = new Neuron( n );
+				neuron.setParameter( ParameterType.TAU, new NeuronParam.Fixed( 1f + i ) );
+				neuron.setParameter( ParameterType.BIAS, new NeuronParam.Fixed( 0.5f - i * 0.25f ) );
+				neuron.setParameter( ParameterType.GAIN, new NeuronParam.Fixed( 1f ) );
+			} else {
+				float[] weights = new float[n];
+				for ( int j = 0; j < n; j++ ) {
+					// leave some fixed weights at zero
+					weights[j] = rand.nextFloat() < 0.3f ? 0f : rand.nextFloat() * 4f - 2f;
+				}
+				neuron = Neuron.withFixedValues( 1f + rand.nextFloat() * 4f, rand.nextFloat() * 2f - 1f, 1f + rand.nextFloat(), weights );
+			}
+			
+			NeuronParam.Gene weight = new NeuronParam.Gene( new Range( -5f, 5f ) );
+			neuron.setWeight( (i + 1) % n, weight );
+			layout.setGeneAt( gene++, weight );
+			NeuronParam.Gene param = new NeuronParam.Gene( new Range( 1f, 3f ) );
+			neuron.setParameter( ParameterType.values()[i % 3], param );
+			layout.setGeneAt( gene++, param );
+			layout.addNeuron( neuron );
+		}
+		return layout;
+	}
+	
+	float[] randomGenes( int nGenes, long seed ) {
+		Random rand = new Random( seed );
+		float[] genes = new float[nGenes];
+		for ( int g = 0; g < nGenes; g++ ) {
+			genes[g] = rand.nextFloat() * 2f - 1f;
+		}
+		return genes;
+	}
+	
+	void assertSameOutputs( CTRNN expected, CTRNN actual ) {
+		float[] inputs = new float[expected.getOutputs().length];
+		for ( int t = 0; t < steps; t++ ) {
+			inputs[0] = (float) Math.sin( t * 0.1 );
+			expected.step( 0.1f, inputs );
+			actual.step( 0.1f, inputs );
+			for ( int i = 0; i < inputs.length; i++ ) {
+				assertEquals( Float.floatToIntBits( expected.getOutput( i ) ), Float.floatToIntBits( actual.getOutput( i ) ) );
+			}
+		}
+	}
+	
+	@Test
+	public void compiledNetworksMatchGenericNetworksExactly() throws Exception {
+		for ( boolean ring : new boolean[] { false, true } ) {
+			for ( UpdateMode updateMode : UpdateMode.values() ) {
+				LayoutTemplate generic = new LayoutTemplate( createLayout( n, ring ) ).withUpdateMode( updateMode ), compiled = generic
+						.withCompiledStep( true );
+				float[] genes = randomGenes( generic.getNumberOfGenes(), 1 );
+				
+				CTRNN expected = generic.createCTRNN( genes ), actual = compiled.createCTRNN( genes );
+				assertTrue( actual instanceof CompiledCTRNN );
+				assertSameOutputs( expected, actual );
+				assertSameOutputs( (CTRNN) expected.clone(), (CTRNN) actual.clone() );
+				
+				// genes can be reloaded like any other network
+				genes = randomGenes( generic.getNumberOfGenes(), 2 );
+				generic.loadGenes( expected, genes );
+				compiled.loadGenes( actual, genes );
+				expected.reset();
+				actual.reset();
+				assertSameOutputs( expected, actual );
+			}
+		}
+	}
+	
+	@Test
+	public void loggableNetworksStepWithCompiledNetwork() throws Exception {
+		LayoutTemplate generic = new LayoutTemplate( createLayout( n, false ) );
+		float[] genes = randomGenes( generic.getNumberOfGenes(), 1 );
+		CTRNN compiled = generic.withCompiledStep( true ).createCTRNN( genes );
+		compiled.step( 0.1f, new float[n] );
+		
+		// starts from the initial state whatever the network had done
+		LoggableCTRNN loggable = new LoggableCTRNN( compiled );
+		assertSameOutputs( generic.createCTRNN( genes ), loggable );
+		loggable.reset();
+		assertSameOutputs( generic.createCTRNN( genes ), loggable );
+	}
+	
+	@Test
+	public void classesAreCachedByFingerprint() throws Exception {
+		CTRNN first = new LayoutTemplate( createLayout( n, false ) ).withCompiledStep( true ).createCTRNN();
+		int size = StepCompiler.size();
+		CTRNN second = new LayoutTemplate( createLayout( n, false ) ).withCompiledStep( true ).createCTRNN();
+		
+		assertNotSame( first, second );
+		assertSame( first.getClass(), second.getClass() );
+		assertEquals( size, StepCompiler.size() );
+		
+		CTRNN ring = new LayoutTemplate( createLayout( n, true ) ).withCompiledStep( true ).createCTRNN();
+		assertFalse( first.getClass() == ring.getClass() );
+	}
+	
+	@Test
+	public void clonesDontNeedCachedClass() throws Exception {
+		LayoutTemplate generic = new LayoutTemplate( createLayout( n, false ) );
+		CTRNN compiled = generic.withCompiledStep( true ).createCTRNN();
+		StepCompiler.clear();
+		
+		CTRNN clone = (CTRNN) compiled.clone();
+		assertSame( compiled.getClass(), clone.getClass() );
+		assertEquals( 0, StepCompiler.size() );
+		assertSameOutputs( generic.createCTRNN(), clone );
+	}
+	
+	@Test
+	public void largeLayoutsUseGenericEngine() throws Exception {
+		LayoutTemplate template = new LayoutTemplate( createLayout( StepCompiler.MAX_NEURONS + 1, false ) ).withCompiledStep( true );
+		assertTrue( template.isCompiledStep() );
+		assertFalse( template.createCTRNN() instanceof CompiledCTRNN );
+		assertSame( template, template.withCompiledStep( true ) );
+		assertFalse( template.withCompiledStep( false ).isCompiledStep() );
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void fixedParametersCantBeChanged() throws Exception {
+		CTRNN ctrnn = new LayoutTemplate( createLayout( n, true ) ).withCompiledStep( true ).createCTRNN();
+		// tau of neuron 0 and bias of neuron 1 are genetic
+		ctrnn.setTau( 0, 5f );
+		ctrnn.setBias( 1, 5f );
+		ctrnn.setBias( 0, 5f );
+	}
+
+}
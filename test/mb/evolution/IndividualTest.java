@@ -0,0 +1,49 @@
+package mb.evolution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class IndividualTest {
+	
+	@Test
+	public void cachedFitnessValidForSameEpoch() throws Exception {
+		Individual ind = Individual.withRandomGenome( 3 );
+		ind.cacheFitness( 0.5f, 4 );
+		
+		assertTrue( ind.hasCachedFitness( 4 ) );
+		assertEquals( 0.5f, ind.getFitness(), 0f );
+	}
+	
+	@Test
+	public void cachedFitnessInvalidAfterEpochAdvances() throws Exception {
+		Individual ind = Individual.withRandomGenome( 3 );
+		ind.cacheFitness( 0.5f, 4 );
+		
+		assertFalse( ind.hasCachedFitness( 5 ) );
+	}
+	
+	@Test
+	public void newGenotypeInvalidatesCachedFitness() throws Exception {
+		Individual ind = Individual.withRandomGenome( 3 );
+		ind.cacheFitness( 0.5f, 4 );
+		int version = ind.getGenotypeVersion();
+		
+		ind.setGenotype( Genotype.withRandomGenome( 3 ) );
+		
+		assertFalse( ind.hasCachedFitness( 4 ) );
+		assertEquals( version + 1, ind.getGenotypeVersion() );
+	}
+	
+	@Test
+	public void setFitnessIsNotCached() throws Exception {
+		Individual ind = Individual.withRandomGenome( 3 );
+		ind.cacheFitness( 0.5f, 4 );
+		ind.setFitness( 0.2f );
+		
+		assertFalse( ind.hasCachedFitness( 4 ) );
+	}
+	
+}
@@ -0,0 +1,58 @@
+package mb.evolution;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class OpponentSamplerTest {
+	
+	@Test
+	public void fullSamplesEveryOpponent() throws Exception {
+		OpponentSampler sampler = new OpponentSampler( OpponentSampling.FULL, 5, 0 );
+		
+		assertNull( sampler.sample( 3, 20, 0 ) );
+	}
+	
+	@Test
+	public void samplingWholePopulationSamplesEveryOpponent() throws Exception {
+		OpponentSampler sampler = new OpponentSampler( OpponentSampling.RANDOM, 20, 0 );
+		
+		assertNull( sampler.sample( 3, 20, 0 ) );
+	}
+	
+	@Test
+	public void randomSampleIsDistinctAndSorted() throws Exception {
+		OpponentSampler sampler = new OpponentSampler( OpponentSampling.RANDOM, 8, 42 );
+		int[] sample = sampler.sample( 0, 30, 7 );
+		
+		assertEquals( 8, sample.length );
+		for ( int i = 1; i < sample.length; i++ ) {
+			assertTrue( sample[i - 1] < sample[i] );
+		}
+		assertTrue( sample[0] >= 0 && sample[7] < 30 );
+	}
+	
+	@Test
+	public void randomSampleIsSharedWithinEpochAndReproducible() throws Exception {
+		OpponentSampler sampler = new OpponentSampler( OpponentSampling.RANDOM, 8, 42 );
+		int[] sample = sampler.sample( 0, 30, 7 );
+		
+		assertSame( sample, sampler.sample( 12, 30, 7 ) );
+		sampler.sample( 0, 30, 8 );
+		assertArrayEquals( sample, sampler.sample( 0, 30, 7 ) );
+		assertArrayEquals( sample, new OpponentSampler( OpponentSampling.RANDOM, 8, 42 ).sample( 5, 30, 7 ) );
+	}
+	
+	@Test
+	public void demeSampleIsCentredOnIndexAndWraps() throws Exception {
+		OpponentSampler sampler = new OpponentSampler( OpponentSampling.DEME, 5, 0 );
+		
+		assertArrayEquals( new int[] { 8, 9, 10, 11, 12 }, sampler.sample( 10, 20, 0 ) );
+		assertArrayEquals( new int[] { 0, 1, 2, 18, 19 }, sampler.sample( 0, 20, 0 ) );
+	}
+
+}
@@ -0,0 +1,142 @@
+package mb.evolution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PairwiseScoreMatrixTest {
+	
+	/**
+	 * Gives every pair a result of 10 floats, 40 bytes, holding the
+	 * opponent's first gene.
+	 */
+	static class SeriesPhenotype implements PairwisePhenotype {
+		
+		int	evaluated;
+		
+		@Override
+		public float calculateFitness( List<Individual> individuals, float[] genes ) {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public float calculateFitness( List<Individual> individuals, float[] genes, float cutoff ) {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public int getGenotypeLength() {
+			return 1;
+		}
+		
+		@Override
+		public float[] evaluatePair( Individual individual, Individual opponent ) {
+			evaluated++;
+			float[] result = new float[10];
+			result[0] = opponent.getGenotype().getGenes()[0];
+			return result;
+		}
+		
+		@Override
+		public float[][] evaluatePairs( Individual individual, List<Individual> opponents ) {
+			float[][] results = new float[opponents.size()][];
+			for ( int i = 0; i < results.length; i++ ) {
+				results[i] = evaluatePair( individual, opponents.get( i ) );
+			}
+			return results;
+		}
+		
+		@Override
+		public float completePairs( Individual individual, List<Individual> opponents, float[][] results, float cutoff ) {
+			for ( int i = 0; i < results.length; i++ ) {
+				if ( results[i] == null ) {
+					results[i] = evaluatePair( individual, opponents.get( i ) );
+				}
+			}
+			return reduce( results );
+		}
+		
+		@Override
+		public float reduce( float[][] results ) {
+			return 0f;
+		}
+	}
+	
+	final SeriesPhenotype	pheno	= new SeriesPhenotype();
+	final List<Individual>	opponents	= individuals( 3 );
+	final Individual		individual	= individuals( 1 ).get( 0 );
+	
+	List<Individual> individuals( int n ) {
+		List<Individual> individuals = new ArrayList<>();
+		for ( int i = 0; i < n; i++ ) {
+			Individual ind = new Individual();
+			ind.setGenotype( Genotype.withGenes( new float[] { i } ) );
+			individuals.add( ind );
+		}
+		return individuals;
+	}
+	
+	@Test
+	public void storedResultsAreReused() throws Exception {
+		PairwiseScoreMatrix matrix = new PairwiseScoreMatrix( 2, 3 );
+		matrix.getRow( pheno, 0, individual, opponents );
+		float[][] row = matrix.getRow( pheno, 0, individual, opponents );
+		
+		assertEquals( 3, pheno.evaluated );
+		assertEquals( 3, matrix.getEvaluations() );
+		assertEquals( 3, matrix.getReuses() );
+		assertEquals( 2f, row[2][0], 0f );
+		assertEquals( 120, matrix.getBytes() );
+	}
+	
+	@Test
+	public void capDropsLeastRecentlyRequestedRow() throws Exception {
+		// room for two rows of three 40 byte results
+		PairwiseScoreMatrix matrix = new PairwiseScoreMatrix( 3, 3, 250 );
+		matrix.getRow( pheno, 0, individual, opponents );
+		matrix.getRow( pheno, 1, individual, opponents );
+		matrix.getRow( pheno, 0, individual, opponents );
+		matrix.getRow( pheno, 2, individual, opponents );
+		assertEquals( 9, pheno.evaluated );
+		assertEquals( 1, matrix.getEvictions() );
+		assertTrue( matrix.getBytes() <= 250 );
+		
+		// row 1 was dropped rather than row 0
+		matrix.getRow( pheno, 0, individual, opponents );
+		assertEquals( 9, pheno.evaluated );
+		matrix.getRow( pheno, 1, individual, opponents );
+		assertEquals( 12, pheno.evaluated );
+		assertEquals( 240, matrix.getBytes() );
+	}
+	
+	@Test
+	public void resultsThatDontFitAreReturnedButNotKept() throws Exception {
+		PairwiseScoreMatrix matrix = new PairwiseScoreMatrix( 1, 3, 50 );
+		float[][] row = matrix.getRow( pheno, 0, individual, opponents );
+		assertEquals( 1f, row[1][0], 0f );
+		assertEquals( 40, matrix.getBytes() );
+		
+		matrix.getRow( pheno, 0, individual, opponents );
+		assertEquals( 5, pheno.evaluated );
+	}
+	
+	@Test
+	public void invalidatingFreesBytes() throws Exception {
+		PairwiseScoreMatrix matrix = new PairwiseScoreMatrix( 2, 3 );
+		matrix.getRow( pheno, 0, individual, opponents );
+		matrix.getRow( pheno, 1, individual, opponents, new int[] { 0, 2 } );
+		assertEquals( 200, matrix.getBytes() );
+		
+		matrix.invalidateColumn( 2 );
+		assertEquals( 120, matrix.getBytes() );
+		matrix.invalidateRow( 0 );
+		assertEquals( 40, matrix.getBytes() );
+		matrix.invalidateAll();
+		assertEquals( 0, matrix.getBytes() );
+	}
+
+}
@@ -0,0 +1,80 @@
+package mb.projectmain.experiment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import mb.projectmain.experiment.inputs.InputProvider;
+import mb.projectmain.experiment.inputs.InputProviderTypes;
+import mb.projectmain.experiment.params.Parameters;
+
+import org.junit.Test;
+
+public class FidelityScheduleTest {
+	
+	Parameters params( float[] runFractions, int[] multipliers, int runsPerLevel, int stagnationRuns ) {
+		Parameters params = new Parameters();
+		params.netPropertiesParams.run_length_steps = 1000;
+		params.netPropertiesParams.time_step = 0.1f;
+		params.fidelityParams.run_fractions = runFractions;
+		params.fidelityParams.timestep_multipliers = multipliers;
+		params.fidelityParams.runs_per_level = runsPerLevel;
+		params.fidelityParams.stagnation_runs = stagnationRuns;
+		return params;
+	}
+	
+	@Test
+	public void defaultScheduleIsFullFidelity() throws Exception {
+		Parameters params = new Parameters();
+		FidelitySchedule schedule = new FidelitySchedule( params );
+		
+		assertEquals( 1, schedule.getNumberOfLevels() );
+		assertEquals( Fidelity.full( params.netPropertiesParams ), schedule.getFidelity() );
+	}
+	
+	@Test
+	public void shorterListKeepsLastValueAndScheduleEndsAtFull() throws Exception {
+		FidelitySchedule schedule = new FidelitySchedule( params( new float[] { 0.2f, 0.5f }, new int[] { 4 }, 1, 0 ) );
+		
+		assertEquals( 3, schedule.getNumberOfLevels() );
+		assertEquals( new Fidelity( 50, 0.4f, 4 ), schedule.getFidelity() );
+		assertTrue( schedule.update( 0f ) );
+		assertEquals( new Fidelity( 125, 0.4f, 4 ), schedule.getFidelity() );
+		assertTrue( schedule.update( 0f ) );
+		assertEquals( new Fidelity( 1000, 0.1f, 1 ), schedule.getFidelity() );
+		assertTrue( !schedule.update( 0f ) );
+	}
+	
+	@Test
+	public void advancesOnStagnationWithinLevel() throws Exception {
+		FidelitySchedule schedule = new FidelitySchedule( params( new float[] { 0.5f }, new int[] { 1 }, 0, 2 ) );
+		
+		assertTrue( !schedule.update( 1f ) );
+		assertTrue( !schedule.update( 2f ) );
+		assertTrue( !schedule.update( 2f ) );
+		assertTrue( schedule.update( 1.5f ) );
+		assertEquals( 1, schedule.getLevel() );
+	}
+	
+	@Test
+	public void stridedInputsSampleFullResolutionWaveform() throws Exception {
+		Random rand = new Random( 3 );
+		Fidelity fidelity = new Fidelity( 200, 0.3f, 3 );
+		for ( InputProviderTypes type : InputProviderTypes.values() ) {
+			InputProvider provider = type.createNewInstance();
+			float[] genes = new float[provider.getNumParams()];
+			for ( int i = 0; i < genes.length; i++ ) {
+				genes[i] = rand.nextFloat() * 2f - 1f;
+			}
+			float[] out = new float[fidelity.getRunLength()];
+			
+			fidelity.fillInputs( provider, genes, out, false );
+			
+			for ( int t = 0; t < out.length; t++ ) {
+				assertEquals( type + " at " + t, Float.floatToIntBits( provider.getInput( genes, t * 3 ) ), Float.floatToIntBits( out[t] ) );
+			}
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+package mb.projectmain.experiment;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import mb.ctrnn.layout.CTRNNLayout;
+import mb.ctrnn.layout.LayoutTemplate;
+import mb.ctrnn.layout.Neuron;
+import mb.ctrnn.layout.NeuronParam;
+import mb.ctrnn.layout.Range;
+import mb.evolution.Individual;
+import mb.projectmain.experiment.inputs.SinusoidalInputProvider;
+import mb.projectmain.experiment.params.Parameters;
+
+import org.junit.Test;
+
+public class InputPhenotypeTest {
+	
+	final int	n	= 2, nPop = 6;
+	
+	CTRNNLayout evolvableLayout() {
+		CTRNNLayout layout = new CTRNNLayout();
+		int gene = 0;
+		for ( int i = 0; i < n; i++ ) {
+			Neuron neuron = Neuron.withFixedValues( 1f, 0.2f, 1f, new float[n] );
+			for ( int j = 0; j < n; j++ ) {
+				NeuronParam.Gene weight = new NeuronParam.Gene( new Range( -5f, 5f ) );
+				neuron.setWeight( j, weight );
+				layout.setGeneAt( gene++, weight );
+			}
+			layout.addNeuron( neuron );
+		}
+		return layout;
+	}
+	
+	CTRNNLayout targetLayout() {
+		CTRNNLayout layout = new CTRNNLayout();
+		layout.addNeuron( Neuron.withFixedValues( 2f, -0.5f, 1f, new float[] { 1f, -2f } ) );
+		layout.addNeuron( Neuron.withFixedValues( 4f, 0.3f, 1f, new float[] { 3f, 0.5f } ) );
+		return layout;
+	}
+	
+	List<Individual> population( int genes ) {
+		List<Individual> individuals = new ArrayList<>();
+		for ( int i = 0; i < nPop; i++ ) {
+			individuals.add( Individual.withRandomGenome( genes ) );
+		}
+		return individuals;
+	}
+	
+	/**
+	 * Checks that fitness with some of the models' outputs already stored by
+	 * a ModelPhenotype is the same as without a store, and that the outputs
+	 * run for the variance aren't stored.
+	 */
+	void checkStoredOutputsAreFoldedIn( ForkJoinPool pool ) {
+		Parameters params = new Parameters();
+		SinusoidalInputProvider provider = new SinusoidalInputProvider();
+		LayoutTemplate layout = new LayoutTemplate( evolvableLayout() );
+		List<Individual> models = population( n * n ), inputs = population( provider.getNumParams() );
+		float[] inputGenes = inputs.get( 0 ).getGenotype().getGenes();
+		
+		InputPhenotype plain = new InputPhenotype( provider, layout, params.netPropertiesParams );
+		plain.setPool( pool );
+		float expected = plain.calculateFitness( models, inputGenes );
+		
+		TrajectoryStore store = new TrajectoryStore( 1L << 20 );
+		ModelPhenotype modelPheno = new ModelPhenotype( layout, new LayoutTemplate( targetLayout() ), provider, params );
+		modelPheno.setTrajectoryStore( store );
+		modelPheno.calculateFitness( inputs, models.get( 1 ).getGenotype().getGenes() );
+		modelPheno.calculateFitness( inputs, models.get( 4 ).getGenotype().getGenes() );
+		long storedBytes = store.getUsedBytes();
+		
+		InputPhenotype stored = new InputPhenotype( provider, layout, params.netPropertiesParams );
+		stored.setPool( pool );
+		stored.setTrajectoryStore( store );
+		long hits = store.getHits();
+		
+		assertEquals( Float.floatToIntBits( expected ), Float.floatToIntBits( stored.calculateFitness( models, inputGenes ) ) );
+		assertEquals( hits + 2, store.getHits() );
+		assertEquals( storedBytes, store.getUsedBytes() );
+	}
+	
+	@Test
+	public void storedOutputsAreFoldedIn() throws Exception {
+		checkStoredOutputsAreFoldedIn( null );
+	}
+	
+	@Test
+	public void storedOutputsAreFoldedInParallel() throws Exception {
+		ForkJoinPool pool = new ForkJoinPool( 3 );
+		try {
+			checkStoredOutputsAreFoldedIn( pool );
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,148 @@
+package mb.projectmain.experiment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import mb.ctrnn.layout.CTRNNLayout;
+import mb.ctrnn.layout.LayoutTemplate;
+import mb.ctrnn.layout.Neuron;
+import mb.ctrnn.layout.Neuron.ParameterType;
+import mb.ctrnn.layout.NeuronParam;
+import mb.ctrnn.layout.Range;
+import mb.evolution.Individual;
+import mb.evolution.PairwiseScoreMatrix;
+import mb.projectmain.experiment.inputs.SinusoidalInputProvider;
+import mb.projectmain.experiment.params.Parameters;
+
+import org.junit.Test;
+
+public class ModelPhenotypeCutoffTest {
+	
+	final int	n	= 2, nPop = 8;
+	
+	CTRNNLayout evolvableLayout() {
+		CTRNNLayout layout = new CTRNNLayout();
+		int gene = 0;
+		for ( int i = 0; i < n; i++ ) {
+			Neuron neuron = Neuron.withFixedValues( 1f, 0.2f, 1f, new float[n] );
+			for ( int j = 0; j < n; j++ ) {
+				NeuronParam.Gene weight = new NeuronParam.Gene( new Range( -5f, 5f ) );
+				neuron.setWeight( j, weight );
+				layout.setGeneAt( gene++, weight );
+			}
+			layout.addNeuron( neuron );
+		}
+		return layout;
+	}
+	
+	CTRNNLayout targetLayout() {
+		CTRNNLayout layout = new CTRNNLayout();
+		layout.addNeuron( Neuron.withFixedValues( 2f, -0.5f, 1f, new float[] { 1f, -2f } ) );
+		layout.addNeuron( Neuron.withFixedValues( 4f, 0.3f, 1f, new float[] { 3f, 0.5f } ) );
+		return layout;
+	}
+	
+	ModelPhenotype createPhenotype() {
+		return new ModelPhenotype( new LayoutTemplate( evolvableLayout() ), new LayoutTemplate( targetLayout() ), new SinusoidalInputProvider(),
+				new Parameters() );
+	}
+	
+	List<Individual> inputs() {
+		List<Individual> inputs = new ArrayList<>();
+		for ( int i = 0; i < nPop; i++ ) {
+			inputs.add( Individual.withRandomGenome( 6 ) );
+		}
+		return inputs;
+	}
+	
+	@Test
+	public void fitnessAtCutoffIsExact() throws Exception {
+		ModelPhenotype phenotype = createPhenotype();
+		List<Individual> inputs = inputs();
+		float[] genes = Individual.withRandomGenome( n * n ).getGenotype().getGenes();
+		float fitness = phenotype.calculateFitness( inputs, genes );
+		
+		assertEquals( Float.floatToIntBits( fitness ), Float.floatToIntBits( phenotype.calculateFitness( inputs, genes, fitness ) ) );
+		assertEquals( Float.floatToIntBits( fitness ), Float.floatToIntBits( phenotype.calculateFitness( inputs, genes, fitness - 1f ) ) );
+		assertEquals( 0, phenotype.getAbandonedEvaluations() );
+	}
+	
+	@Test
+	public void fitnessBelowCutoffIsBounded() throws Exception {
+		ModelPhenotype phenotype = createPhenotype();
+		List<Individual> inputs = inputs();
+		float[] genes = Individual.withRandomGenome( n * n ).getGenotype().getGenes();
+		float fitness = phenotype.calculateFitness( inputs, genes );
+		
+		float cutoff = Math.nextUp( fitness );
+		float bounded = phenotype.calculateFitness( inputs, genes, cutoff );
+		assertTrue( bounded < cutoff );
+		assertTrue( bounded >= fitness );
+	}
+	
+	@Test
+	public void unreachableCutoffStopsAtFirstCheck() throws Exception {
+		ModelPhenotype phenotype = createPhenotype();
+		List<Individual> inputs = inputs();
+		float[] genes = Individual.withRandomGenome( n * n ).getGenotype().getGenes();
+		int runLength = new Parameters().netPropertiesParams.run_length_steps;
+		
+		// no score can be above 1
+		assertTrue( phenotype.calculateFitness( inputs, genes, 1.5f ) < 1.5f );
+		assertEquals( 1, phenotype.getAbandonedEvaluations() );
+		assertEquals( nPop * ModelPhenotype.CUTOFF_CHECK_INTERVAL, phenotype.getSimulatedSteps() );
+		assertEquals( nPop * (runLength - ModelPhenotype.CUTOFF_CHECK_INTERVAL), phenotype.getSkippedSteps() );
+	}
+	
+	@Test
+	public void storedRunsStopEarlyWithoutBeingStored() throws Exception {
+		ModelPhenotype phenotype = createPhenotype();
+		TrajectoryStore store = new TrajectoryStore( 1L << 20 );
+		phenotype.setTrajectoryStore( store );
+		List<Individual> inputs = inputs();
+		float[] genes = Individual.withRandomGenome( n * n ).getGenotype().getGenes();
+		
+		assertTrue( phenotype.calculateFitness( inputs, genes, 1.5f ) < 1.5f );
+		assertEquals( 1, phenotype.getAbandonedEvaluations() );
+		assertEquals( 0, store.getUsedBytes() );
+		
+		// a run to the end is stored, and scored the same from the store
+		float fitness = phenotype.calculateFitness( inputs, genes, Float.NEGATIVE_INFINITY );
+		long storedBytes = store.getUsedBytes();
+		assertTrue( storedBytes > 0 );
+		assertEquals( Float.floatToIntBits( fitness ), Float.floatToIntBits( phenotype.calculateFitness( inputs, genes, fitness ) ) );
+		assertEquals( Float.floatToIntBits( fitness ), Float.floatToIntBits( createPhenotype().calculateFitness( inputs, genes ) ) );
+		assertEquals( storedBytes, store.getUsedBytes() );
+	}
+	
+	@Test
+	public void matrixKeepsOnlyPairsOfFinishedEvaluations() throws Exception {
+		ModelPhenotype phenotype = createPhenotype();
+		List<Individual> inputs = inputs();
+		Individual model = Individual.withRandomGenome( n * n );
+		float fitness = phenotype.calculateFitness( inputs, model.getGenotype().getGenes() );
+		PairwiseScoreMatrix matrix = new PairwiseScoreMatrix( 1, nPop );
+		
+		assertTrue( matrix.getFitness( phenotype, 0, model, inputs, null, 1.5f ) < 1.5f );
+		assertEquals( 0, matrix.getBytes() );
+		
+		assertEquals( Float.floatToIntBits( fitness ), Float.floatToIntBits( matrix.getFitness( phenotype, 0, model, inputs, null, fitness ) ) );
+		assertEquals( nPop, matrix.getEvaluations() );
+		
+		// known pairs count towards the bound at their exact score
+		matrix.invalidateColumn( 3 );
+		float cutoff = Math.nextUp( fitness );
+		float bounded = matrix.getFitness( phenotype, 0, model, inputs, null, cutoff );
+		assertTrue( bounded < cutoff );
+		assertTrue( bounded >= fitness );
+		
+		// a pair that wasn't finished isn't stored
+		matrix.invalidateColumn( 3 );
+		assertTrue( matrix.getFitness( phenotype, 0, model, inputs, null, 1.5f ) < 1.5f );
+		assertEquals( 4 * (nPop - 1), matrix.getBytes() );
+	}
+
+}
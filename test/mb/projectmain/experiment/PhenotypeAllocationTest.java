@@ -0,0 +1,129 @@
+package mb.projectmain.experiment;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import mb.ctrnn.core.Integrator;
+import mb.ctrnn.layout.CTRNNLayout;
+import mb.ctrnn.layout.LayoutTemplate;
+import mb.ctrnn.layout.Neuron;
+import mb.ctrnn.layout.Neuron.ParameterType;
+import mb.ctrnn.layout.NeuronParam;
+import mb.ctrnn.layout.Range;
+import mb.evolution.CoEvoPhenotype;
+import mb.evolution.Individual;
+import mb.projectmain.experiment.inputs.SinusoidalInputProvider;
+import mb.projectmain.experiment.params.Parameters;
+
+import org.junit.Test;
+
+public class PhenotypeAllocationTest {
+	
+	final int	n	= 3, nPop = 6, warmup = 500, windows = 10, repeats = 10;
+	
+	CTRNNLayout evolvableLayout() {
+		CTRNNLayout layout = new CTRNNLayout();
+		int gene = 0;
+		for ( int i = 0; i < n; i++ ) {
+			Neuron neuron = Neuron.withFixedValues( 1f, 0.2f, 1f, new float[n] );
+			NeuronParam.Gene tau = new NeuronParam.Gene( new Range( 1f, 10f ) );
+			neuron.setParameter( ParameterType.TAU, tau );
+			layout.setGeneAt( gene++, tau );
+			for ( int j = 0; j < n; j++ ) {
+				NeuronParam.Gene weight = new NeuronParam.Gene( new Range( -5f, 5f ) );
+				neuron.setWeight( j, weight );
+				layout.setGeneAt( gene++, weight );
+			}
+			layout.addNeuron( neuron );
+		}
+		return layout;
+	}
+	
+	CTRNNLayout targetLayout() {
+		CTRNNLayout layout = new CTRNNLayout();
+		layout.addNeuron( Neuron.withFixedValues( 2f, -0.5f, 1f, new float[] { 1f, -2f, 0f } ) );
+		layout.addNeuron( Neuron.withFixedValues( 4f, 0.3f, 1f, new float[] { 3f, 0.5f, 1f } ) );
+		layout.addNeuron( Neuron.withFixedValues( 1f, 0f, 1f, new float[] { 0f, 2f, -1f } ) );
+		return layout;
+	}
+	
+	List<Individual> population( int genes ) {
+		List<Individual> individuals = new ArrayList<>();
+		for ( int i = 0; i < nPop; i++ ) {
+			individuals.add( Individual.withRandomGenome( genes ) );
+		}
+		return individuals;
+	}
+	
+	static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes( Thread.currentThread().getId() );
+	}
+	
+	/**
+	 * @return the fewest bytes allocated by a window of calls of
+	 *         calculateFitness() once warmed up, less any allocated by
+	 *         measuring. JIT compilation can allocate during any one window,
+	 *         but an allocation in the evaluation itself appears in all of them.
+	 */
+	long steadyStateAllocation( CoEvoPhenotype phenotype, List<Individual> opponents, float[] genes ) {
+		for ( int r = 0; r < warmup; r++ ) {
+			phenotype.calculateFitness( opponents, genes );
+		}
+		
+		long fewest = Long.MAX_VALUE;
+		for ( int w = 0; w < windows; w++ ) {
+			long start = allocatedBytes();
+			long overhead = allocatedBytes() - start;
+			long before = allocatedBytes();
+			for ( int r = 0; r < repeats; r++ ) {
+				phenotype.calculateFitness( opponents, genes );
+			}
+			fewest = Math.min( fewest, allocatedBytes() - before - overhead );
+		}
+		return fewest;
+	}
+	
+	@Test
+	public void modelFitnessDoesNotAllocate() throws Exception {
+		Parameters params = new Parameters();
+		SinusoidalInputProvider provider = new SinusoidalInputProvider();
+		CTRNNLayout layout = evolvableLayout();
+		ModelPhenotype phenotype = new ModelPhenotype( new LayoutTemplate( layout ), new LayoutTemplate( targetLayout() ), provider, params );
+		
+		List<Individual> inputs = population( provider.getNumParams() );
+		float[] genes = population( layout.getNumberOfGenes() ).get( 0 ).getGenotype().getGenes();
+		
+		assertEquals( 0, steadyStateAllocation( phenotype, inputs, genes ) );
+	}
+	
+	@Test
+	public void integratedModelFitnessDoesNotAllocate() throws Exception {
+		Parameters params = new Parameters();
+		params.netPropertiesParams.integrator = Integrator.RK45;
+		params.netPropertiesParams.integrator_step_multiplier = 4;
+		SinusoidalInputProvider provider = new SinusoidalInputProvider();
+		CTRNNLayout layout = evolvableLayout();
+		ModelPhenotype phenotype = new ModelPhenotype( new LayoutTemplate( layout ), new LayoutTemplate( targetLayout() ), provider, params );
+		
+		List<Individual> inputs = population( provider.getNumParams() );
+		float[] genes = population( layout.getNumberOfGenes() ).get( 0 ).getGenotype().getGenes();
+		
+		assertEquals( 0, steadyStateAllocation( phenotype, inputs, genes ) );
+	}
+	
+	@Test
+	public void inputFitnessDoesNotAllocate() throws Exception {
+		Parameters params = new Parameters();
+		SinusoidalInputProvider provider = new SinusoidalInputProvider();
+		InputPhenotype phenotype = new InputPhenotype( provider, new LayoutTemplate( evolvableLayout() ), params.netPropertiesParams );
+		
+		List<Individual> models = population( evolvableLayout().getNumberOfGenes() );
+		float[] genes = population( provider.getNumParams() ).get( 0 ).getGenotype().getGenes();
+		
+		assertEquals( 0, steadyStateAllocation( phenotype, models, genes ) );
+	}
+
+}
@@ -0,0 +1,116 @@
+package mb.projectmain.experiment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import mb.ctrnn.core.CTRNN;
+import mb.ctrnn.core.MultiStateCTRNN;
+
+import org.junit.Test;
+
+public class SteadyStateTest {
+	
+	final int	n	= 3, k = 3, runLength = 3000;
+	
+	CTRNN createCTRNN() {
+		float[] taus = { 1f, 2.5f, 7f }, biases = { -0.5f, 0.2f, 1f }, gains = { 1f, 3f, 0.5f };
+		float[][] weights = { { 0.5f, -2f, 0.4f }, { 0.3f, 1f, -1f }, { -0.4f, 0.2f, 0.1f } };
+		return new CTRNN( n, taus, biases, gains, weights );
+	}
+	
+	@Test
+	public void constantFromFindsConstantTail() throws Exception {
+		assertEquals( 2, SteadyState.constantFrom( new float[] { 1f, 0f, 2f, 2f, 2f }, 5 ) );
+		assertEquals( 4, SteadyState.constantFrom( new float[] { 1f, 2f, 2f, 2f, 3f }, 5 ) );
+		assertEquals( 0, SteadyState.constantFrom( new float[] { 2f, 2f, 2f }, 3 ) );
+	}
+	
+	@Test
+	public void fastForwardedOutputsMatchIntegration() throws Exception {
+		// member 1 has a constant input from the start; the others never do
+		float[][] waveforms = new float[k][runLength];
+		for ( int t = 0; t < runLength; t++ ) {
+			waveforms[0][t] = (float) Math.sin( t * 0.01 );
+			waveforms[1][t] = 0.5f;
+			waveforms[2][t] = (float) Math.cos( t * 0.02 );
+		}
+		float[][] expected = run( new SteadyState( 0f ), waveforms, null );
+		SteadyState steadyState = new SteadyState( 1e-6f );
+		int[] constantFrom = new int[k];
+		for ( int r = 0; r < k; r++ ) {
+			constantFrom[r] = SteadyState.constantFrom( waveforms[r], runLength );
+		}
+		float[][] outputs = run( steadyState, waveforms, constantFrom );
+		
+		assertEquals( 1, steadyState.getFastForwardedRuns() );
+		assertTrue( steadyState.getFastForwardedSteps() > runLength / 2 );
+		for ( int r = 0; r < k; r++ ) {
+			for ( int t = 0; t < runLength; t++ ) {
+				assertEquals( expected[r][t], outputs[r][t], 1e-4f );
+			}
+		}
+		// the members still integrated are unaffected
+		assertEquals( Float.floatToIntBits( expected[2][runLength - 1] ), Float.floatToIntBits( outputs[2][runLength - 1] ) );
+	}
+	
+	@Test
+	public void oscillationIsntFastForwarded() throws Exception {
+		// a limit cycle whose largest state change per step dips below the
+		// tolerance for a few steps around each diagonal, as a single step
+		// check sees as settled
+		float[] taus = { 1f, 1f }, zeros = { 0f, 0f }, gains = { 1f, 1f };
+		float[][] weights = { { 1.5f, -2f }, { 2f, 1.5f } };
+		CTRNN oscillator = new CTRNN( 2, taus, zeros, gains, weights );
+		// the input is constant once the cycle is established
+		float[][] waveforms = new float[k][runLength];
+		int[] constantFrom = new int[k];
+		for ( int r = 0; r < k; r++ ) {
+			Arrays.fill( waveforms[r], 0, 500, 0.1f );
+			constantFrom[r] = SteadyState.constantFrom( waveforms[r], runLength );
+		}
+		SteadyState steadyState = new SteadyState( 0.16f );
+		
+		float[][] expected = run( oscillator, new SteadyState( 0f ), waveforms, null );
+		float[][] outputs = run( oscillator, steadyState, waveforms, constantFrom );
+		
+		assertEquals( 0, steadyState.getFastForwardedRuns() );
+		for ( int t = 0; t < runLength; t++ ) {
+			assertEquals( Float.floatToIntBits( expected[0][t] ), Float.floatToIntBits( outputs[0][t] ) );
+		}
+	}
+	
+	float[][] run( SteadyState steadyState, float[][] waveforms, int[] constantFrom ) {
+		return run( createCTRNN(), steadyState, waveforms, constantFrom );
+	}
+	
+	/**
+	 * Runs a batch of k copies of a network, recording the output of its last
+	 * neuron.
+	 */
+	float[][] run( CTRNN ctrnn, SteadyState steadyState, float[][] waveforms, int[] constantFrom ) {
+		int size = ctrnn.getOutputs().length;
+		MultiStateCTRNN net = new MultiStateCTRNN( ctrnn, k );
+		int[] members = new int[k], slots = new int[k], calmSteps = new int[k];
+		float[][] inputs = new float[size][], outputs = new float[k][runLength];
+		inputs[0] = new float[k];
+		steadyState.start( net, members, slots, calmSteps );
+		int active = k;
+		
+		for ( int t = 0; t < runLength; t++ ) {
+			for ( int s = 0; s < active; s++ ) {
+				inputs[0][s] = waveforms[members[s]][t];
+			}
+			net.step( 0.1f, inputs );
+			for ( int r = 0; r < k; r++ ) {
+				outputs[r][t] = net.getOutput( size - 1, slots[r] );
+			}
+			if ( steadyState.isEnabled() ) {
+				active = steadyState.settle( net, active, members, slots, calmSteps, constantFrom, t, runLength );
+			}
+		}
+		return outputs;
+	}
+
+}
@@ -0,0 +1,65 @@
+package mb.projectmain.experiment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import mb.evolution.Genotype;
+import mb.evolution.Individual;
+
+import org.junit.Test;
+
+public class TargetTrajectoryCacheTest {
+	
+	// each entry is 20 floats = 80 bytes
+	final float[]	derivs1	= new float[20], derivs2 = new float[20], derivs3 = new float[20];
+	
+	@Test
+	public void returnsCachedTrajectoryForSameGenotype() throws Exception {
+		TargetTrajectoryCache cache = new TargetTrajectoryCache( 1000 );
+		Individual ind = Individual.withRandomGenome( 2 );
+		
+		cache.put( ind, derivs1 );
+		
+		assertSame( derivs1, cache.get( ind ) );
+		assertEquals( 1, cache.getHits() );
+	}
+	
+	@Test
+	public void newGenotypeInvalidatesEntry() throws Exception {
+		TargetTrajectoryCache cache = new TargetTrajectoryCache( 1000 );
+		Individual ind = Individual.withRandomGenome( 2 );
+		
+		cache.put( ind, derivs1 );
+		ind.setGenotype( Genotype.withRandomGenome( 2 ) );
+		
+		assertNull( cache.get( ind ) );
+		assertEquals( 1, cache.getMisses() );
+	}
+	
+	@Test
+	public void evictsLeastRecentlyUsedWhenFull() throws Exception {
+		TargetTrajectoryCache cache = new TargetTrajectoryCache( 160 );
+		Individual ind1 = Individual.withRandomGenome( 2 ), ind2 = Individual.withRandomGenome( 2 ), ind3 = Individual.withRandomGenome( 2 );
+		
+		cache.put( ind1, derivs1 );
+		cache.put( ind2, derivs2 );
+		cache.get( ind1 ); // ind2 is now least recently used
+		cache.put( ind3, derivs3 );
+		
+		assertSame( derivs1, cache.get( ind1 ) );
+		assertNull( cache.get( ind2 ) );
+		assertSame( derivs3, cache.get( ind3 ) );
+		assertEquals( 160, cache.getUsedBytes() );
+	}
+	
+	@Test
+	public void zeroCapDisablesCaching() throws Exception {
+		TargetTrajectoryCache cache = new TargetTrajectoryCache( 0 );
+		Individual ind = Individual.withRandomGenome( 2 );
+		
+		cache.put( ind, derivs1 );
+		
+		assertNull( cache.get( ind ) );
+	}
+
+}
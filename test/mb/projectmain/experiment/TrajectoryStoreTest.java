@@ -0,0 +1,61 @@
+package mb.projectmain.experiment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class TrajectoryStoreTest {
+	
+	// each entry is 20 floats = 80 bytes
+	final float[]	outputs1	= new float[20], outputs2 = new float[20], outputs3 = new float[20];
+	final float[]	model		= { 0.1f, 0.2f }, input = { 0.3f };
+	
+	@Test
+	public void returnsStoredOutputsForSamePair() throws Exception {
+		TrajectoryStore store = new TrajectoryStore( 1000 );
+		
+		store.put( model, input, outputs1 );
+		
+		assertSame( outputs1, store.get( model, input ) );
+		assertEquals( 1, store.getHits() );
+	}
+	
+	@Test
+	public void pairsAreComparedByIdentity() throws Exception {
+		TrajectoryStore store = new TrajectoryStore( 1000 );
+		
+		store.put( model, input, outputs1 );
+		
+		assertNull( store.get( model.clone(), input ) );
+		assertNull( store.get( input, model ) );
+		assertEquals( 2, store.getMisses() );
+	}
+	
+	@Test
+	public void evictsLeastRecentlyUsedWhenFull() throws Exception {
+		TrajectoryStore store = new TrajectoryStore( 160 );
+		float[] input2 = { 0.4f }, input3 = { 0.5f };
+		
+		store.put( model, input, outputs1 );
+		store.put( model, input2, outputs2 );
+		store.get( model, input ); // input2 is now least recently used
+		store.put( model, input3, outputs3 );
+		
+		assertSame( outputs1, store.get( model, input ) );
+		assertNull( store.get( model, input2 ) );
+		assertSame( outputs3, store.get( model, input3 ) );
+		assertEquals( 160, store.getUsedBytes() );
+	}
+	
+	@Test
+	public void zeroCapDisablesStoring() throws Exception {
+		TrajectoryStore store = new TrajectoryStore( 0 );
+		
+		store.put( model, input, outputs1 );
+		
+		assertNull( store.get( model, input ) );
+	}
+
+}
@@ -0,0 +1,130 @@
+package mb.projectmain.experiment;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import mb.ctrnn.layout.CTRNNLayout;
+import mb.ctrnn.layout.LayoutTemplate;
+import mb.ctrnn.layout.Neuron;
+import mb.ctrnn.layout.Neuron.ParameterType;
+import mb.ctrnn.layout.NeuronParam;
+import mb.ctrnn.layout.Range;
+import mb.evolution.Genotype;
+import mb.evolution.Individual;
+import mb.projectmain.experiment.inputs.SinusoidalInputProvider;
+import mb.projectmain.experiment.params.Parameters;
+
+import org.junit.Test;
+
+public class ValidationTest {
+	
+	// a gene of 0 gives neuron 1 a time constant of 0, so its state is
+	// infinite after the first step and NaN after the second
+	final float[]	nanGenes	= { 0f }, goodGenes = { 0.5f }, inputGenes = { 0.2f, 0.4f, -0.7f, 0.3f, 0.1f, -0.5f };
+	
+	/**
+	 * @param connected
+	 *            Whether neuron 1 connects to the output, neuron 0. If not, no
+	 *            connections are declared, so even zero weights don't carry a
+	 *            NaN to it.
+	 */
+	LayoutTemplate evolvableLayout( boolean connected ) {
+		CTRNNLayout layout = new CTRNNLayout();
+		Neuron output, neuron;
+		if ( connected ) {
+			output = Neuron.withFixedValues( 1f, 0f, 1f, new float[] { 0f, 0f } );
+			neuron = Neuron.withFixedValues( 1f, 0f, 1f, new float[] { 1f, 0f } );
+		} else {
+			output = new Neuron( 2 );
+			neuron = new Neuron( 2 );
+			for ( Neuron each : new Neuron[] { output, neuron } ) {
+				each.setParameter( ParameterType.TAU, new NeuronParam.Fixed( 1f ) );
+				each.setParameter( ParameterType.BIAS, new NeuronParam.Fixed( 0f ) );
+				each.setParameter( ParameterType.GAIN, new NeuronParam.Fixed( 1f ) );
+			}
+		}
+		layout.addNeuron( output );
+		NeuronParam.Gene tau = new NeuronParam.Gene( new Range( -1f, 1f ) );
+		neuron.setParameter( ParameterType.TAU, tau );
+		layout.setGeneAt( 0, tau );
+		layout.addNeuron( neuron );
+		return new LayoutTemplate( layout );
+	}
+	
+	LayoutTemplate targetLayout() {
+		CTRNNLayout layout = new CTRNNLayout();
+		layout.addNeuron( Neuron.withFixedValues( 2f, -0.5f, 1f, new float[] { 1f, -2f } ) );
+		layout.addNeuron( Neuron.withFixedValues( 4f, 0.3f, 1f, new float[] { 3f, 0.5f } ) );
+		return new LayoutTemplate( layout );
+	}
+	
+	Parameters params( ValidationLevel validation ) {
+		Parameters params = new Parameters();
+		params.netPropertiesParams.network_input_index = 0;
+		params.netPropertiesParams.network_output_index = 0;
+		params.netPropertiesParams.run_length_steps = 100;
+		params.netPropertiesParams.validation = validation;
+		return params;
+	}
+	
+	List<Individual> individuals( float[]... genes ) {
+		List<Individual> individuals = new ArrayList<>();
+		for ( float[] g : genes ) {
+			Individual individual = new Individual();
+			individual.setGenotype( Genotype.withGenes( g ) );
+			individuals.add( individual );
+		}
+		return individuals;
+	}
+	
+	float modelFitness( ValidationLevel validation, boolean connected, float[] genes ) {
+		SinusoidalInputProvider provider = new SinusoidalInputProvider();
+		ModelPhenotype phenotype = new ModelPhenotype( evolvableLayout( connected ), targetLayout(), provider, params( validation ) );
+		return phenotype.calculateFitness( individuals( inputGenes, new float[] { -0.3f, 0.1f, 0.5f, -0.2f, 0.6f, 0.9f } ), genes );
+	}
+	
+	@Test
+	public void endOfRunReportsWhereRunWentNaN() throws Exception {
+		assertFalse( Float.isNaN( modelFitness( ValidationLevel.END_OF_RUN, true, goodGenes ) ) );
+		try {
+			modelFitness( ValidationLevel.END_OF_RUN, true, nanGenes );
+			fail( "expected an IllegalStateException" );
+		} catch ( IllegalStateException e ) {
+			assertTrue( e.getMessage(), e.getMessage().contains( "in the model, neuron 1 went NaN at timestep 1" ) );
+			assertTrue( e.getMessage(), e.getMessage().contains( "model genes: [0.0]" ) );
+		}
+	}
+	
+	@Test
+	public void offPassesNaNOn() throws Exception {
+		assertTrue( Float.isNaN( modelFitness( ValidationLevel.OFF, true, nanGenes ) ) );
+	}
+	
+	@Test
+	public void paranoidChecksNeuronsNotReachingTheOutput() throws Exception {
+		assertFalse( Float.isNaN( modelFitness( ValidationLevel.END_OF_RUN, false, nanGenes ) ) );
+		try {
+			modelFitness( ValidationLevel.PARANOID, false, nanGenes );
+			fail( "expected an IllegalStateException" );
+		} catch ( IllegalStateException e ) {
+			assertTrue( e.getMessage(), e.getMessage().contains( "neuron 1 went NaN at timestep 1" ) );
+		}
+	}
+	
+	@Test
+	public void inputFitnessFindsModelThatWentNaN() throws Exception {
+		SinusoidalInputProvider provider = new SinusoidalInputProvider();
+		InputPhenotype phenotype = new InputPhenotype( provider, evolvableLayout( true ), params( ValidationLevel.END_OF_RUN ).netPropertiesParams );
+		try {
+			phenotype.calculateFitness( individuals( goodGenes, nanGenes, goodGenes ), inputGenes );
+			fail( "expected an IllegalStateException" );
+		} catch ( IllegalStateException e ) {
+			assertTrue( e.getMessage(), e.getMessage().contains( "model 1: neuron 1 went NaN at timestep 1" ) );
+		}
+	}
+
+}
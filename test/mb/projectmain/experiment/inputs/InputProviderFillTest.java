@@ -0,0 +1,56 @@
+package mb.projectmain.experiment.inputs;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class InputProviderFillTest {
+	
+	final int		steps	= 2000;
+	final Random	rand	= new Random( 7 );
+	
+	float[] randomParams( InputProvider provider ) {
+		float[] params = new float[provider.getNumParams()];
+		for ( int i = 0; i < params.length; i++ ) {
+			params[i] = rand.nextFloat() * 2f - 1f;
+		}
+		return params;
+	}
+	
+	@Test
+	public void exactFillMatchesGetInput() throws Exception {
+		for ( InputProviderTypes type : InputProviderTypes.values() ) {
+			InputProvider provider = type.createNewInstance();
+			float[] params = randomParams( provider );
+			float[] out = new float[steps];
+			
+			// filled in two parts, as the range shouldn't matter
+			provider.fillInputs( params, out, 0, 300, false );
+			provider.fillInputs( params, out, 300, steps, false );
+			
+			for ( int t = 0; t < steps; t++ ) {
+				assertEquals( type + " at " + t, Float.floatToIntBits( provider.getInput( params, t ) ), Float.floatToIntBits( out[t] ) );
+			}
+		}
+	}
+	
+	@Test
+	public void oscillatorFillIsCloseToGetInput() throws Exception {
+		for ( InputProviderTypes type : InputProviderTypes.values() ) {
+			InputProvider provider = type.createNewInstance();
+			float[] params = randomParams( provider );
+			float[] out = new float[steps];
+			
+			provider.fillInputs( params, out, 10, steps, true );
+			
+			// getInput() rounds the sine's argument to a float, so differs by
+			// up to about one ulp of the argument
+			for ( int t = 10; t < steps; t++ ) {
+				assertEquals( type + " at " + t, provider.getInput( params, t ), out[t], 1e-3f );
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,96 @@
+package mb.projectmain.experiment.params;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+
+import mb.ctrnn.core.UpdateMode;
+
+import org.junit.Test;
+
+public class ParametersTest {
+	
+	/**
+	 * @return a value of the field's type that differs from the current one.
+	 */
+	Object changed( Field field, Object value ) {
+		Class<?> type = field.getType();
+		if ( type == int.class )
+			return (Integer) value + 7;
+		if ( type == long.class )
+			return (Long) value + 7;
+		if ( type == float.class )
+			return (Float) value + 0.5f;
+		if ( type == boolean.class )
+			return !(Boolean) value;
+		if ( type == String.class )
+			return value + "changed";
+		if ( type.isEnum() ) {
+			Object[] constants = type.getEnumConstants();
+			return constants[(((Enum<?>) value).ordinal() + 1) % constants.length];
+		}
+		if ( type == float[].class )
+			return new float[] { 0.3f, 0.6f };
+		if ( type == int[].class )
+			return new int[] { 3, 2 };
+		if ( type == Object[].class )
+			return new Object[] { 1f, 2f, 3f };
+		throw new AssertionError( "No changed value for " + field );
+	}
+	
+	/**
+	 * @return every group of parameters, and the Parameters itself for its
+	 *         own fields.
+	 */
+	Object[] groups( Parameters params ) {
+		return new Object[] { params, params.gaLengthParams, params.gaPropertiesParams, params.netPropertiesParams, params.inputProperties,
+				params.modelProperties, params.fidelityParams };
+	}
+	
+	boolean isParameter( Field field ) {
+		int modifiers = field.getModifiers();
+		return Modifier.isPublic( modifiers ) && !Modifier.isStatic( modifiers ) && !field.getType().getName().startsWith( Parameters.class.getName() );
+	}
+	
+	@Test
+	public void copyFromCopiesEveryParameter() throws Exception {
+		Parameters params = new Parameters();
+		for ( Object group : groups( params ) ) {
+			for ( Field field : group.getClass().getFields() ) {
+				if ( isParameter( field ) ) {
+					field.set( group, changed( field, field.get( group ) ) );
+				}
+			}
+		}
+		
+		Parameters copy = Parameters.copyFrom( params );
+		Object[] groups = groups( params ), copies = groups( copy );
+		for ( int g = 0; g < groups.length; g++ ) {
+			assertFalse( groups[g] == copies[g] );
+			for ( Field field : groups[g].getClass().getFields() ) {
+				if ( isParameter( field ) ) {
+					Object[] expected = { field.get( groups[g] ) }, actual = { field.get( copies[g] ) };
+					assertTrue( field.toString(), Arrays.deepEquals( expected, actual ) );
+				}
+			}
+		}
+		assertEquals( params.toString(), copy.toString() );
+	}
+	
+	@Test
+	public void copiesDontShareArrays() throws Exception {
+		Parameters params = new Parameters();
+		params.netPropertiesParams.update_mode = UpdateMode.SEQUENTIAL;
+		Parameters copy = Parameters.copyFrom( params );
+		copy.fidelityParams.run_fractions[0] = 0.5f;
+		copy.netPropertiesParams.update_mode = UpdateMode.SYNCHRONOUS;
+		
+		assertEquals( 1f, params.fidelityParams.run_fractions[0], 0f );
+		assertEquals( UpdateMode.SEQUENTIAL, params.netPropertiesParams.update_mode );
+	}
+
+}
@@ -1,5 +1,6 @@
 package mb.util;
 import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 
 import java.util.List;
@@ -54,5 +55,49 @@ public class StatsUtilsTest {
 		
 	}
 	
+	@Test
+	public void meanVarianceMatchesSeparateSteps() throws Exception {
+		float expected = StatsUtils.calculateMean( StatsUtils.calculateMeansOfArrays( StatsUtils.calculateVarianceWithMeans( netOutputs,
+				StatsUtils.calculateMeansOfArrays( netOutputs ) ) ) );
+		float[][] arrays = { ts1, ts2, ts3, ts4, ts1 }; // only the first 4 are used
+		float result = StatsUtils.calculateMeanVariance( arrays, 4, new float[12], new float[12] );
+		
+		assertThat( result, is( expected ) );
+	}
+	
+	@Test
+	public void runningVarianceMatchesMeanVariance() throws Exception {
+		float[][] arrays = { ts1, ts2, ts3, ts4 };
+		float expected = StatsUtils.calculateMeanVariance( arrays, 4, new float[10], new float[10] );
+		
+		double[] means = new double[10], m2s = new double[10];
+		for ( int i = 0; i < arrays.length; i++ ) {
+			StatsUtils.addToRunningVariance( means, m2s, i, arrays[i], 10 );
+		}
+		
+		assertEquals( tsMean[3], means[3], 1e-6 );
+		assertEquals( expected, StatsUtils.meanOfRunningVariances( m2s, 4, 10 ), 1e-6 );
+	}
+	
+	@Test
+	public void mergedRunningVarianceMatchesSingleFold() throws Exception {
+		float[][] arrays = { ts1, ts2, ts3, ts4 };
+		double[] means = new double[10], m2s = new double[10];
+		for ( int i = 0; i < arrays.length; i++ ) {
+			StatsUtils.addToRunningVariance( means, m2s, i, arrays[i], 10 );
+		}
+		
+		double[] firstMeans = new double[10], firstM2s = new double[10], restMeans = new double[10], restM2s = new double[10];
+		StatsUtils.addToRunningVariance( firstMeans, firstM2s, 0, ts1, 10 );
+		for ( int i = 1; i < arrays.length; i++ ) {
+			StatsUtils.addToRunningVariance( restMeans, restM2s, i - 1, arrays[i], 10 );
+		}
+		StatsUtils.mergeRunningVariance( firstMeans, firstM2s, 1, restMeans, restM2s, 3, 10 );
+		
+		for ( int t = 0; t < 10; t++ ) {
+			assertEquals( means[t], firstMeans[t], 1e-9 );
+			assertEquals( m2s[t], firstM2s[t], 1e-9 );
+		}
+	}
 	
 }